@@ -0,0 +1,109 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.service.CatalogService;
+import com.betanzos.cinemafamily.service.DirectoryScanService;
+import com.betanzos.cinemafamily.service.LibraryRootService;
+import com.betanzos.cinemafamily.service.MediaMetadataService;
+import com.betanzos.cinemafamily.service.MimeTypeService;
+import com.betanzos.cinemafamily.service.ThumbnailService;
+import com.betanzos.cinemafamily.service.WatchProgressService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Builds services outside of a Spring context, with the same settings as {@code application.properties}.
+ */
+final class BenchmarkServices {
+    private BenchmarkServices() {}
+
+    static MimeTypeService mimeTypeService() {
+        return mimeTypeService(true);
+    }
+
+    static MimeTypeService mimeTypeService(boolean extensionFastPath) {
+        var mimeTypeService = new MimeTypeService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(mimeTypeService, "maxEntries", 100_000);
+        ReflectionTestUtils.setField(mimeTypeService, "extensionFastPath", extensionFastPath);
+        ReflectionTestUtils.setField(mimeTypeService, "extensionMappings", List.of(
+                "mp4:video/mp4", "m4v:video/mp4", "mkv:video/x-matroska", "webm:video/webm",
+                "srt:text/plain", "vtt:text/vtt", "ass:text/x-ssa", "ssa:text/x-ssa", "sub:text/plain",
+                "jpg:image/jpeg", "jpeg:image/jpeg", "png:image/png"));
+        mimeTypeService.init();
+
+        return mimeTypeService;
+    }
+
+    /**
+     * A single library root at {@code dir}.
+     */
+    static LibraryRootService libraryRootService(File dir) {
+        var libraryRootService = new LibraryRootService(new StandardEnvironment(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(libraryRootService, "rootDirectory", dir.getAbsolutePath());
+        ReflectionTestUtils.setField(libraryRootService, "rootMappings", List.of());
+        ReflectionTestUtils.setField(libraryRootService, "ioThreads", 16);
+        ReflectionTestUtils.setField(libraryRootService, "mimeDetection", "content");
+        ReflectionTestUtils.setField(libraryRootService, "listingTimeout", 0L);
+        ReflectionTestUtils.setField(libraryRootService, "virtualThreads", true);
+        libraryRootService.start();
+
+        return libraryRootService;
+    }
+
+    /**
+     * @param parallelThreshold Minimum number of entries to scan a directory in parallel, {@code Integer.MAX_VALUE}
+     *                          to always scan sequentially
+     */
+    static DirectoryScanService directoryScanService(MimeTypeService mimeTypeService,
+                                                     LibraryRootService libraryRootService, int parallelThreshold) {
+        var scanService = new DirectoryScanService(mimeTypeService, libraryRootService);
+        ReflectionTestUtils.setField(scanService, "parallelThreshold", parallelThreshold);
+        ReflectionTestUtils.setField(scanService, "sortIgnoreCase", false);
+        ReflectionTestUtils.setField(scanService, "sortLocale", "");
+        scanService.start();
+
+        return scanService;
+    }
+
+    static ThumbnailService thumbnailService(CatalogService catalogService, File cacheDirectory) {
+        var thumbnailService = new ThumbnailService(catalogService);
+        ReflectionTestUtils.setField(thumbnailService, "cacheDirectory", cacheDirectory.getAbsolutePath());
+        ReflectionTestUtils.setField(thumbnailService, "width", 440);
+        ReflectionTestUtils.setField(thumbnailService, "height", 200);
+        ReflectionTestUtils.setField(thumbnailService, "threads", 2);
+        ReflectionTestUtils.setField(thumbnailService, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(thumbnailService, "requestTimeout", 5000L);
+        thumbnailService.start();
+
+        return thumbnailService;
+    }
+
+    static MediaMetadataService mediaMetadataService(CatalogService catalogService, File storeFile) {
+        var mediaMetadataService = new MediaMetadataService(catalogService);
+        ReflectionTestUtils.setField(mediaMetadataService, "storeFile", storeFile.getAbsolutePath());
+        ReflectionTestUtils.setField(mediaMetadataService, "threads", 1);
+        ReflectionTestUtils.setField(mediaMetadataService, "queueCapacity", 10000);
+        ReflectionTestUtils.setField(mediaMetadataService, "saveInterval", 30000L);
+        mediaMetadataService.start();
+
+        return mediaMetadataService;
+    }
+
+    /**
+     * @param flushInterval Milliseconds between background writes of the progress log
+     */
+    static WatchProgressService watchProgressService(File progressFile, long flushInterval) {
+        var watchProgressService = new WatchProgressService();
+        ReflectionTestUtils.setField(watchProgressService, "progressFile", progressFile.getAbsolutePath());
+        ReflectionTestUtils.setField(watchProgressService, "flushInterval", flushInterval);
+        ReflectionTestUtils.setField(watchProgressService, "compactionRatio", 4);
+        ReflectionTestUtils.setField(watchProgressService, "watchedRatio", 0.95);
+        ReflectionTestUtils.setField(watchProgressService, "watchedRemaining", 120.0);
+        watchProgressService.start();
+
+        return watchProgressService;
+    }
+}
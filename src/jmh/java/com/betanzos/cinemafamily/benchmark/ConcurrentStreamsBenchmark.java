@@ -0,0 +1,158 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.CinemaFamilyApplication;
+import com.betanzos.cinemafamily.utils.Util;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the concurrent-stream capacity of the servlet and reactive modes.<br>
+ * <br>
+ * During setup {@code streams} clients request a large video from its start (an open {@code Range}, as players
+ * do, so they are not subject to the full-download limit) and never read the response, like players paused on a
+ * slow link. Each benchmark call is then a short range request from a new viewer (seek), whose latency shows whether
+ * the server still has resources to serve it. Probes that do not complete in {@link #PROBE_TIMEOUT} are counted in
+ * {@code timeouts}.
+ * <ul>
+ *     <li>{@code servlet}: Tomcat with {@code sendfile}, stalled responses are handed over to the poller.</li>
+ *     <li>{@code servlet-copy}: Tomcat without {@code sendfile}, each stalled response blocks a worker thread (as
+ *     multipart ranges always do).</li>
+ *     <li>{@code reactive}: WebFlux on Netty, no thread is held by a stalled response.</li>
+ * </ul>
+ * Run with {@code -Djmh.args="ConcurrentStreams"}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ConcurrentStreamsBenchmark {
+
+    private static final long VIDEO_SIZE = 1L << 30;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"servlet", "servlet-copy", "reactive"})
+    private String mode;
+
+    @Param({"50", "400"})
+    private int streams;
+
+    private File library;
+    private ConfigurableApplicationContext context;
+    private URI videoUri;
+    private final List<Socket> stalled = new ArrayList<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Probes {
+        public long timeouts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            timeouts = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        library = Files.createTempDirectory("benchmark-streams").toFile();
+        var video = new File(library, "Movie.mp4");
+        try (var file = new RandomAccessFile(video, "rw")) {
+            file.setLength(VIDEO_SIZE);
+        }
+
+        var application = new SpringApplicationBuilder(CinemaFamilyApplication.class)
+                .web("reactive".equals(mode) ? WebApplicationType.REACTIVE : WebApplicationType.SERVLET)
+                .properties("server.port=0", "management.server.port=-1", "library.watch.enabled=false",
+                        "root.dir=" + library.getAbsolutePath(), "data.dir=" + new File(library, ".data").getAbsolutePath());
+        if ("servlet-copy".equals(mode)) {
+            application.initializers(context -> context.getBeanFactory().registerSingleton("noSendfile",
+                    (TomcatConnectorCustomizer) connector ->
+                            ((AbstractHttp11Protocol<?>) connector.getProtocolHandler()).setUseSendfile(false)));
+        }
+        context = application.run();
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        videoUri = URI.create("http://localhost:" + port + "/file/" + Util.pathToId(video));
+
+        for (int i = 0; i < streams; i++) {
+            stalled.add(stall(port, videoUri.getPath()));
+        }
+        // Wait until the socket buffers of the stalled responses are full
+        Thread.sleep(2000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (var socket : stalled) {
+            socket.close();
+        }
+        context.close();
+        SyntheticLibrary.deleteRecursively(library);
+    }
+
+    @Benchmark
+    public int seek(Probes probes) throws Exception {
+        var request = HttpRequest.newBuilder(videoUri)
+                .header("Range", "bytes=1048576-1114111")
+                .timeout(PROBE_TIMEOUT)
+                .build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+        } catch (HttpTimeoutException e) {
+            probes.timeouts++;
+            return -1;
+        }
+    }
+
+    private static Socket stall(int port, String path) throws IOException {
+        var socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", port));
+
+        var request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+
+        return socket;
+    }
+}
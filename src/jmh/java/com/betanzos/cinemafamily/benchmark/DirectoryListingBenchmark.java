@@ -0,0 +1,95 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.domain.FileSystemElement;
+import com.betanzos.cinemafamily.service.CatalogService;
+import com.betanzos.cinemafamily.service.DirectoryScanService;
+import com.betanzos.cinemafamily.service.FileSystemService;
+import com.betanzos.cinemafamily.service.LibraryRootService;
+import com.betanzos.cinemafamily.service.MediaMetadataService;
+import com.betanzos.cinemafamily.service.SubtitleCacheService;
+import com.betanzos.cinemafamily.service.ThumbnailService;
+import com.betanzos.cinemafamily.service.WatchProgressService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileSystemService#getDirContent(File)} over a synthetic flat library, both when the directory is served
+ * from the catalog and when it has to be rescanned, sequentially or on the parallel I/O executor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryListingBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    private int entries;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    private File library;
+    private LibraryRootService libraryRootService;
+    private DirectoryScanService scanService;
+    private CatalogService catalogService;
+    private ThumbnailService thumbnailService;
+    private MediaMetadataService mediaMetadataService;
+    private FileSystemService fileSystemService;
+
+    @Setup
+    public void setUp() throws Exception {
+        library = SyntheticLibrary.createLibrary(Files.createTempDirectory("benchmark-library").toFile(), entries);
+
+        var mimeTypeService = BenchmarkServices.mimeTypeService();
+        libraryRootService = BenchmarkServices.libraryRootService(library);
+        scanService = BenchmarkServices.directoryScanService(mimeTypeService, libraryRootService,
+                parallel ? 64 : Integer.MAX_VALUE);
+        catalogService = new CatalogService(scanService, libraryRootService);
+
+        thumbnailService = BenchmarkServices.thumbnailService(catalogService,
+                Files.createTempDirectory("benchmark-thumbnails").toFile());
+        mediaMetadataService = BenchmarkServices.mediaMetadataService(catalogService,
+                new File(Files.createTempDirectory("benchmark-metadata").toFile(), "metadata.idx"));
+        fileSystemService = new FileSystemService(catalogService, new SubtitleCacheService(new SimpleMeterRegistry()), thumbnailService,
+                libraryRootService, new WatchProgressService(), mediaMetadataService, new SimpleMeterRegistry());
+
+        // Initial scan, from now on the directory is served from the catalog
+        catalogService.refresh(library);
+    }
+
+    @TearDown
+    public void tearDown() {
+        libraryRootService.stop();
+        thumbnailService.stop();
+        mediaMetadataService.stop();
+        SyntheticLibrary.deleteRecursively(library);
+    }
+
+    @Benchmark
+    public List<FileSystemElement> cachedListing() {
+        return fileSystemService.getDirContent(library);
+    }
+
+    @Benchmark
+    public Object rescan() {
+        return catalogService.refresh(library);
+    }
+}
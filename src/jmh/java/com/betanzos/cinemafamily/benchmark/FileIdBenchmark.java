@@ -0,0 +1,52 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Util#pathToId(File)} and {@link Util#idToPath(String)} over realistic library paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileIdBenchmark {
+    private static final int PATHS = 1024;
+
+    private final File[] paths = new File[PATHS];
+    private final String[] ids = new String[PATHS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = new File("/mnt/videos/Family Trip/Season " + (i % 7 + 1),
+                    SyntheticLibrary.episodeName(i) + ".mp4");
+            ids[i] = Util.pathToId(paths[i]);
+        }
+    }
+
+    @Benchmark
+    public String pathToId() {
+        return Util.pathToId(paths[next++ & (PATHS - 1)]);
+    }
+
+    @Benchmark
+    public File idToPath() {
+        return Util.idToPath(ids[next++ & (PATHS - 1)]);
+    }
+}
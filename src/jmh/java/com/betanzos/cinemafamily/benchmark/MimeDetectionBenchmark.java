@@ -0,0 +1,72 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.service.MimeTypeService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIME detection of a video file: Tika content detection ({@link Util#detectMimeType(File)}), the extension fast
+ * path and the cache used for unknown extensions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeDetectionBenchmark {
+
+    private File dir;
+    private File knownExtension;
+    private File unknownExtension;
+
+    private MimeTypeService mimeTypeService;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("benchmark-mime").toFile();
+
+        knownExtension = new File(dir, "movie.mp4");
+        Files.write(knownExtension.toPath(), SyntheticLibrary.mp4Header());
+
+        unknownExtension = new File(dir, "movie.video");
+        Files.write(unknownExtension.toPath(), SyntheticLibrary.mp4Header());
+
+        mimeTypeService = BenchmarkServices.mimeTypeService();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticLibrary.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Optional<String> tika() {
+        return Util.detectMimeType(knownExtension);
+    }
+
+    @Benchmark
+    public Optional<String> extensionFastPath() {
+        return mimeTypeService.detectMimeType(knownExtension);
+    }
+
+    @Benchmark
+    public Optional<String> cachedContentDetection() {
+        return mimeTypeService.detectMimeType(unknownExtension);
+    }
+}
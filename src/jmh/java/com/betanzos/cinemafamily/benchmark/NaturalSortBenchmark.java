@@ -0,0 +1,81 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.utils.AlphanumericStringComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Sorting a shuffled folder listing with {@link AlphanumericStringComparator}, comparing names in place and with
+ * precomputed sort keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NaturalSortBenchmark {
+
+    @Param({"100", "5000"})
+    private int size;
+
+    private final AlphanumericStringComparator comparator = new AlphanumericStringComparator();
+    private final AlphanumericStringComparator ignoreCaseComparator = new AlphanumericStringComparator(true);
+    private final AlphanumericStringComparator localeComparator = new AlphanumericStringComparator(Locale.forLanguageTag("es"));
+
+    private List<String> names;
+
+    @Setup
+    public void setUp() {
+        names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            names.add(SyntheticLibrary.episodeName(i) + ".mp4");
+        }
+        Collections.shuffle(names, new Random(42));
+    }
+
+    @Benchmark
+    public List<String> sort() {
+        var copy = new ArrayList<>(names);
+        copy.sort(comparator);
+        return copy;
+    }
+
+    @Benchmark
+    public List<String> sortIgnoreCase() {
+        var copy = new ArrayList<>(names);
+        copy.sort(ignoreCaseComparator);
+        return copy;
+    }
+
+    @Benchmark
+    public List<String> sortWithKeys() {
+        var copy = new ArrayList<>(names);
+        comparator.sort(copy, Function.identity());
+        return copy;
+    }
+
+    @Benchmark
+    public List<String> sortWithCollationKeys() {
+        var copy = new ArrayList<>(names);
+        localeComparator.sort(copy, Function.identity());
+        return copy;
+    }
+}
@@ -0,0 +1,111 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.service.SearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries against a {@link SearchIndex} of a synthetic library (one folder per season with 100 episodes each),
+ * plus the cost of re-indexing one directory after a change. The estimated index size per entry is printed
+ * during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String[] WORDS = {"family", "trip", "summer", "beach", "birthday", "christmas", "garden",
+            "school", "concert", "mountain", "river", "camping", "wedding", "holiday", "party", "lake", "snow",
+            "museum", "zoo", "picnic", "niño", "canción", "película", "música", "día", "árbol", "fútbol", "playa"};
+
+    private static final int EPISODES_PER_SEASON = 100;
+
+    @Param({"100000"})
+    private int entries;
+
+    private SearchIndex index;
+    private CatalogDirectory changed;
+    private CatalogDirectory original;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        index = new SearchIndex();
+
+        int seasons = entries / EPISODES_PER_SEASON;
+        for (int season = 0; season < seasons; season++) {
+            var show = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + season / 10;
+            var path = "/library/" + show + "/Season " + (season % 10 + 1);
+
+            var episodes = new ArrayList<CatalogEntry>(EPISODES_PER_SEASON);
+            for (int episode = 1; episode <= EPISODES_PER_SEASON; episode++) {
+                var name = String.format("%s S%02dE%02d - %s %s.mp4", show, season % 10 + 1, episode,
+                        WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)]);
+                episodes.add(new CatalogEntry(name, false, 1L, 0L, "video/mp4"));
+            }
+
+            original = new CatalogDirectory(path, 0L, episodes);
+            index.update(original);
+        }
+
+        var renamed = new ArrayList<>(original.getEntries());
+        renamed.set(0, new CatalogEntry("Renamed episode.mp4", false, 1L, 0L, "video/mp4"));
+        changed = new CatalogDirectory(original.getPath(), 1L, renamed);
+
+        System.out.printf("%nSearch index: %d entries, %d terms, %d bytes per entry%n",
+                index.size(), index.termCount(), index.estimateMemoryBytes() / index.size());
+    }
+
+    /**
+     * Several words plus a season/episode pattern: small posting lists.
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> selective() {
+        return index.search("family trip s03e07", 50);
+    }
+
+    /**
+     * A single, very common word typed incompletely: the prefix matches many terms and most documents.
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> commonPrefix() {
+        return index.search("fa", 50);
+    }
+
+    /**
+     * Accented query against accented names, with a frequent number.
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> accentedWithNumber() {
+        return index.search("Canción 1 ", 50);
+    }
+
+    /**
+     * Re-indexing one directory where one of its entries changed, as after a file system event.
+     */
+    @Benchmark
+    public int updateDirectory() {
+        index.update(changed);
+        index.update(original);
+        return index.size();
+    }
+}
@@ -0,0 +1,187 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from the launch of a new JVM with the application until the home page is answered, and resident memory of
+ * that JVM right after it ({@code residentKilobytes}, Linux only). The library is kept between iterations, so after
+ * the warmup the catalog is loaded from its snapshot as in a restart. A startup takes longer than the iteration
+ * time, so each iteration measures a single JVM ({@code SingleShotTime} would not report the memory counter).
+ * The memory of each JVM is printed after its iteration; the summary adds up all iterations.
+ * <ul>
+ *     <li>{@code mode}: {@code default} creates every bean at startup, {@code lazy} uses the lazy profile.</li>
+ *     <li>{@code cds}: {@code true} runs the jar built by the {@code cds} Maven profile with its Class Data Sharing
+ *     archive, so it requires {@code -Pcds,benchmark}.</li>
+ *     <li>{@code jvmArgs}: extra JVM options, e.g. {@code -p jvmArgs=-XX:TieredStopAtLevel=1}.</li>
+ * </ul>
+ * Run with {@code -Djmh.args="Startup"} (or {@code -Djmh.args="Startup -p cds=false,true"} with the cds profile).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final File CDS_DIRECTORY = new File("target/cds");
+
+    @Param({"default", "lazy"})
+    private String mode;
+
+    @Param({"false"})
+    private boolean cds;
+
+    @Param({""})
+    private String jvmArgs;
+
+    private File dir;
+    private Process process;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Memory {
+        public long residentKilobytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            residentKilobytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("benchmark-startup").toFile();
+        SyntheticLibrary.createLibrary(new File(dir, "library"), 1000);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws InterruptedException {
+        if (process != null) {
+            process.destroy();
+            process.waitFor();
+            process = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticLibrary.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int firstRequest(Memory memory) throws Exception {
+        // Only needed if an iteration ever runs more than one startup
+        stop();
+
+        int port = freePort();
+        process = new ProcessBuilder(command(port))
+                .redirectErrorStream(true)
+                .redirectOutput(new File(dir, "startup.log"))
+                .start();
+
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/")).build();
+        while (true) {
+            try {
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                memory.residentKilobytes = residentKilobytes(process.pid());
+                return status;
+            } catch (ConnectException e) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The application exited, see " + new File(dir, "startup.log"));
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private List<String> command(int port) {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (!jvmArgs.isBlank()) {
+            command.addAll(List.of(jvmArgs.trim().split("\\s+")));
+        }
+
+        if (cds) {
+            var archive = new File(CDS_DIRECTORY, "cinema-family.jsa");
+            if (!archive.isFile()) {
+                throw new IllegalStateException(archive + " not found, build with -Pcds,benchmark");
+            }
+            command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+
+        command.add("-jar");
+        command.add(applicationJar().getAbsolutePath());
+        command.add("--server.port=" + port);
+        command.add("--management.server.port=-1");
+        command.add("--root.dir=" + new File(dir, "library").getAbsolutePath());
+        command.add("--data.dir=" + new File(dir, "data").getAbsolutePath());
+        if ("lazy".equals(mode)) {
+            command.add("--spring.profiles.active=lazy");
+        }
+
+        return command;
+    }
+
+    /**
+     * The executable jar built by {@code package}, or the plain jar next to the CDS archive.
+     */
+    private File applicationJar() {
+        var directory = cds ? CDS_DIRECTORY : new File("target");
+        var jars = directory.listFiles((d, name) -> name.startsWith("cinema-family-") && name.endsWith(".jar"));
+        if (jars == null || jars.length != 1) {
+            throw new IllegalStateException("Application jar not found in " + directory + ", build with package");
+        }
+
+        return jars[0];
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long residentKilobytes(long pid) throws IOException {
+        var status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+
+        for (var line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,120 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.utils.CustomStrParser;
+import com.betanzos.cinemafamily.utils.SrtToVttConverter;
+import com.betanzos.cinemafamily.utils.Util;
+import fr.noop.subtitle.model.SubtitleParsingException;
+import fr.noop.subtitle.vtt.VttWriter;
+import org.apache.tomcat.util.http.fileupload.ByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original SRT to VTT pipeline (read the file twice, try several charsets over the whole content,
+ * build a complete {@code SrtObject} and serialize it with {@code VttWriter}) against the single-pass
+ * {@link SrtToVttConverter}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubtitleConversionBenchmark {
+
+    @Param({"10000"})
+    private int cues;
+
+    private File srtFile;
+    private SrtToVttConverter converter;
+
+    @Setup
+    public void setUp() throws Exception {
+        srtFile = SyntheticLibrary.writeSrt(Files.createTempFile("benchmark", ".srt").toFile(), cues);
+        converter = new SrtToVttConverter();
+
+        if (!Arrays.equals(legacy(), streaming())) {
+            throw new IllegalStateException("Legacy and streaming conversions produce different output");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        srtFile.delete();
+    }
+
+    @Benchmark
+    public byte[] legacy() throws IOException, SubtitleParsingException {
+        try (
+                var srtInputStream = new FileInputStream(srtFile);
+                var forEncodingInputStream = new FileInputStream(srtFile)
+        ) {
+            String encoding = detectEncoding(forEncodingInputStream.readAllBytes())
+                    .orElseGet(() -> "utf-8");
+
+            var srtParser = new CustomStrParser(encoding);
+            var srtSubObject = srtParser.parse(srtInputStream);
+
+            var vttWriter = new VttWriter("utf-8");
+            var baos = new ByteArrayOutputStream();
+            vttWriter.write(srtSubObject, baos);
+
+            return baos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public byte[] streaming() {
+        return Util.subtitleSrtToVtt(srtFile).orElseThrow();
+    }
+
+    @Benchmark
+    public void streamingToOutputStream() throws IOException, SubtitleParsingException {
+        try (var in = new FileInputStream(srtFile)) {
+            converter.convert(in, OutputStream.nullOutputStream());
+        }
+    }
+
+    private static Optional<String> detectEncoding(byte[] data) {
+        return List.of("UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "windows-1252")
+                .stream()
+                .filter(cs -> {
+                    var decoder = Charset.forName(cs).newDecoder();
+                    decoder.onMalformedInput(CodingErrorAction.REPORT);
+                    try {
+                        decoder.decode(ByteBuffer.wrap(data));
+                        return true;
+                    } catch (CharacterCodingException e) {
+                        // Wrong encoding, try the next one
+                    }
+
+                    return false;
+                })
+                .findFirst();
+    }
+}
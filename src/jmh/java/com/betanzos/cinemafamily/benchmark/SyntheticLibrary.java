@@ -0,0 +1,88 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generates the synthetic media files used by the benchmarks.
+ */
+final class SyntheticLibrary {
+    private SyntheticLibrary() {}
+
+    /**
+     * Creates a flat directory with {@code entries} elements: roughly 5% folders, one SRT subtitle for every
+     * tenth video and MP4 videos for the rest. Videos only contain an {@code ftyp} box so MIME detection by
+     * content still works.
+     */
+    static File createLibrary(File dir, int entries) throws IOException {
+        Files.createDirectories(dir.toPath());
+        var ftyp = mp4Header();
+
+        for (int i = 0; i < entries; i++) {
+            if (i % 20 == 0) {
+                Files.createDirectories(new File(dir, "Season " + (i / 20 + 1)).toPath());
+            } else if (i % 10 == 5) {
+                writeSrt(new File(dir, episodeName(i - 1) + ".srt"), 3);
+            } else {
+                Files.write(new File(dir, episodeName(i) + ".mp4").toPath(), ftyp);
+            }
+        }
+
+        return dir;
+    }
+
+    /**
+     * Natural-sort friendly episode names, e.g. {@code Family Trip S03E127 - Day 12 (1080p)}.
+     */
+    static String episodeName(int i) {
+        return "Family Trip S" + (i % 7 + 1) + "E" + i + " - Day " + (i % 31 + 1) + " (1080p)";
+    }
+
+    static byte[] mp4Header() {
+        var header = new byte[32];
+        var box = new byte[] {0, 0, 0, 24, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm', 0, 0, 2, 0,
+                'i', 's', 'o', 'm', 'i', 's', 'o', '2', 'a', 'v', 'c', '1'};
+        System.arraycopy(box, 0, header, 0, box.length);
+        return header;
+    }
+
+    static void deleteRecursively(File file) {
+        var children = file.listFiles();
+        if (children != null) {
+            for (var child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes an SRT file with {@code cues} cues of one or two lines each.
+     */
+    static File writeSrt(File file, int cues) throws IOException {
+        try (var out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            for (int i = 1; i <= cues; i++) {
+                int start = i * 2000;
+                int end = start + 1500;
+
+                out.print(i + "\r\n");
+                out.print(timecode(start) + " --> " + timecode(end) + "\r\n");
+                out.print("Línea de diálogo número " + i + ", con acentos: ¿qué tal?\r\n");
+                if (i % 2 == 0) {
+                    out.print("- Segunda línea del cue " + i + "\r\n");
+                }
+                out.print("\r\n");
+            }
+        }
+
+        return file;
+    }
+
+    private static String timecode(int millis) {
+        return String.format("%02d:%02d:%02d,%03d",
+                millis / 3_600_000, (millis / 60_000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+}
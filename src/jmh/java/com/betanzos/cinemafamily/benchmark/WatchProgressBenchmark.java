@@ -0,0 +1,83 @@
+package com.betanzos.cinemafamily.benchmark;
+
+import com.betanzos.cinemafamily.service.WatchProgressService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position reports from many players at once. {@code write-behind} is the production setting (the log is written
+ * and synced in the background every 5 seconds); {@code write-through} syncs the log after every report, which is
+ * what persisting each report synchronously would cost. The number of syncs per 1000 reports is printed on
+ * teardown.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class WatchProgressBenchmark {
+
+    @Param({"1000"})
+    private int videos;
+
+    @Param({"write-behind", "write-through"})
+    private String mode;
+
+    private File directory;
+    private String[] ids;
+    private WatchProgressService watchProgressService;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("benchmark-progress").toFile();
+
+        // Only the identifiers are needed, the videos do not have to exist
+        ids = new String[videos];
+        for (int i = 0; i < videos; i++) {
+            ids[i] = Util.pathToId(new File(directory, "Episode " + i + ".mp4"));
+        }
+
+        watchProgressService = BenchmarkServices.watchProgressService(new File(directory, "progress.log"), 5000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        watchProgressService.stop();
+        System.out.printf("%nProgress log: %d reports, %d syncs (%.2f per 1000 reports), %d compactions%n",
+                watchProgressService.getUpdates(), watchProgressService.getFlushes(),
+                watchProgressService.getFlushes() * 1000.0 / Math.max(1, watchProgressService.getUpdates()),
+                watchProgressService.getCompactions());
+        SyntheticLibrary.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Object report() {
+        var random = ThreadLocalRandom.current();
+        var progress = watchProgressService.update(ids[random.nextInt(ids.length)], random.nextInt(7200), 7200);
+
+        if ("write-through".equals(mode)) {
+            watchProgressService.flush();
+        }
+
+        return progress;
+    }
+}
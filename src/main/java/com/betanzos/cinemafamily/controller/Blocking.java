@@ -0,0 +1,40 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Ejecución de las operaciones bloqueantes (escaneo de directorios, detección de MIME type, conversión de
+ * subtítulos, etc.) en el modo reactivo, fuera de los hilos de Netty, que nunca deben bloquearse.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class Blocking {
+    private Blocking() {}
+
+    /**
+     * Ejecuta {@code task} en {@link Schedulers#boundedElastic()} al suscribirse al {@link Mono} devuelto. Si
+     * {@code task} devuelve {@code null} el {@link Mono} termina vacío.
+     */
+    static <T> Mono<T> call(Callable<T> task) {
+        return Mono.fromCallable(task).subscribeOn(Schedulers.boundedElastic());
+    }
+}
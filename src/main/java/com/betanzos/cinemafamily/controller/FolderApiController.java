@@ -0,0 +1,143 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.domain.FolderPage;
+import com.betanzos.cinemafamily.service.FileSystemService;
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * API JSON para consultar el contenido de las carpetas sin necesidad de generar la página HTML completa.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/api")
+public class FolderApiController {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * Número de elementos que se envían al cliente de una vez en el listado NDJSON.
+     */
+    private static final int NDJSON_FLUSH_INTERVAL = 64;
+
+    @Value("${listing.page-size}")
+    private int defaultPageSize;
+
+    @Value("${listing.max-page-size}")
+    private int maxPageSize;
+
+    private FileSystemService fileSystemService;
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    public FolderApiController(FileSystemService fileSystemService, ObjectMapper objectMapper) {
+        this.fileSystemService = fileSystemService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Devuelve una página del contenido de la carpeta. Para obtener la siguiente página se debe enviar como
+     * {@code cursor} el valor de {@code nextCursor} de la respuesta anterior.
+     */
+    @GetMapping(value = "/folder/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public FolderPage folder(@PathVariable("id") String folderId,
+                             @RequestParam(value = "cursor", required = false) String cursor,
+                             @RequestParam(value = "limit", required = false) Integer limit,
+                             ServletWebRequest request) {
+        var dir = Util.idToPath(folderId);
+        if (notModified(request, dir, "json")) {
+            return null;
+        }
+
+        int pageSize = limit == null || limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+
+        return fileSystemService.getDirPage(dir, cursor, pageSize);
+    }
+
+    /**
+     * Devuelve el contenido completo de la carpeta en formato NDJSON (un elemento JSON por línea). Los elementos se
+     * envían en bloques a medida que se generan, sin construir la respuesta completa en memoria.
+     */
+    @GetMapping(value = "/folder/{id}", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> folderStream(@PathVariable("id") String folderId,
+                                                              ServletWebRequest request) {
+        // Resolver la carpeta antes de empezar a responder para poder devolver 404 si no existe
+        var dir = Util.idToPath(folderId);
+        if (notModified(request, dir, "ndjson")) {
+            return null;
+        }
+
+        StreamingResponseBody body = out -> {
+            var writer = objectMapper.writer();
+            var count = new int[1];
+
+            try {
+                fileSystemService.forEachDirElement(dir, element -> {
+                    try {
+                        out.write(writer.writeValueAsBytes(element));
+                        out.write('\n');
+
+                        if (++count[0] % NDJSON_FLUSH_INTERVAL == 0) {
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            out.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
+    }
+
+    /**
+     * Ambas representaciones comparten URL, por lo que sus ETags deben ser distintos.
+     */
+    private boolean notModified(ServletWebRequest request, File dir, String variant) {
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+
+        return HttpCaching.notModified(request, HttpCaching.weakETag(fileSystemService.getDirVersion(dir), variant));
+    }
+}
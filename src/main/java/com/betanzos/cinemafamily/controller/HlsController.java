@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.HlsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lista de reproducción y segmentos HLS de los videos que se reproducen mediante {@link HlsService}.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HlsController {
+
+    public static final MediaType APPLICATION_MPEGURL = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+    public static final MediaType VIDEO_MP2T = MediaType.parseMediaType("video/mp2t");
+
+    private HlsService hlsService;
+
+    @Autowired
+    public HlsController(HlsService hlsService) {
+        this.hlsService = hlsService;
+    }
+
+    @GetMapping("hls/{id}/index.m3u8")
+    public ResponseEntity<String> playlist(@PathVariable("id") String videoId, ServletWebRequest request) {
+        // El ETag depende solo del video, por lo que se comprueba sin leer su duración
+        if (HttpCaching.notModified(request, hlsService.getETag(videoId))) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_MPEGURL)
+                .body(hlsService.getPlaylist(videoId));
+    }
+
+    @GetMapping("hls/{id}/{index:\\d+}.ts")
+    public ResponseEntity<Resource> segment(@PathVariable("id") String videoId, @PathVariable("index") int index,
+                                            ServletWebRequest request) {
+        if (HttpCaching.notModified(request, hlsService.getETag(videoId))) {
+            return null;
+        }
+
+        // Si la conversión no termina a tiempo el reproductor vuelve a solicitar el segmento
+        return hlsService.getSegment(videoId, index)
+                .map(HlsController::segment)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .build());
+    }
+
+    /**
+     * Respuesta con el contenido del segmento. El canal se cierra al terminar de enviarlo.
+     */
+    private static ResponseEntity<Resource> segment(FileChannel channel) {
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException(e);
+        }
+
+        return ResponseEntity.ok()
+                .contentType(VIDEO_MP2T)
+                .contentLength(size)
+                .body(new InputStreamResource(Channels.newInputStream(channel)));
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ya no se usa
+        }
+    }
+}
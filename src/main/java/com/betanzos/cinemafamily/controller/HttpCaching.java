@@ -0,0 +1,75 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * Cabeceras de caché HTTP comunes a los controladores.<br>
+ * <br>
+ * Las respuestas que dependen del contenido de la biblioteca se guardan en el navegador, pero deben validarse
+ * siempre con el ETag, que se calcula sin leer el disco. Así se responde {@code 304 Not Modified} antes de generar
+ * la respuesta.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class HttpCaching {
+    private HttpCaching() {}
+
+    static final String REVALIDATE = CacheControl.noCache().cachePrivate().getHeaderValue();
+
+    /**
+     * Las páginas y el JSON también dependen de la versión de la aplicación (plantillas, URLs de los recursos
+     * estáticos, etc.), por lo que sus ETags dejan de ser válidos al reiniciarla.
+     */
+    private static final String INSTANCE = Long.toHexString(System.currentTimeMillis());
+
+    /**
+     * ETag débil de una representación ({@code variant}) del contenido con versión {@code version}.
+     */
+    static String weakETag(String version, String variant) {
+        return "W/\"" + version + "-" + variant + "-" + INSTANCE + "\"";
+    }
+
+    /**
+     * Establece las cabeceras de caché de la respuesta y comprueba si el cliente ya tiene la versión actual.
+     *
+     * @param request Petición
+     * @param etag    ETag de la versión actual de la respuesta
+     *
+     * @return {@code true} si ya se ha respondido {@code 304 Not Modified} y no se debe generar la respuesta
+     */
+    static boolean notModified(ServletWebRequest request, String etag) {
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+        }
+
+        return request.checkNotModified(etag);
+    }
+
+    /**
+     * Equivalente de {@link #notModified(ServletWebRequest, String)} para el modo reactivo.
+     */
+    static boolean notModified(ServerWebExchange exchange, String etag) {
+        exchange.getResponse().getHeaders().set(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+
+        return exchange.checkNotModified(etag);
+    }
+}
@@ -16,10 +16,19 @@
 package com.betanzos.cinemafamily.controller;
 
 import com.betanzos.cinemafamily.service.FileSystemService;
+import com.betanzos.cinemafamily.service.HlsService;
+import com.betanzos.cinemafamily.service.MediaMetadataService;
+import com.betanzos.cinemafamily.service.MediaStreamService;
+import com.betanzos.cinemafamily.service.MimeTypeService;
+import com.betanzos.cinemafamily.service.ThumbnailService;
+import com.betanzos.cinemafamily.service.WatchProgressService;
 import com.betanzos.cinemafamily.utils.Util;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -27,46 +36,108 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import java.io.File;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Eduardo Betanzos
  * @since 1.0
  */
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class MainController {
 
-    @Value("${root.dir}")
-    private String rootDirectory;
+    /**
+     * El contenido de una miniatura nunca cambia para una misma clave, por lo que puede cachearse indefinidamente.
+     */
+    static final String THUMBNAIL_CACHE_CONTROL =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+
+    @Value("${listing.page-size}")
+    private int pageSize;
 
     private FileSystemService fileSystemService;
+    private MimeTypeService mimeTypeService;
+    private MediaStreamService mediaStreamService;
+    private ThumbnailService thumbnailService;
+    private HlsService hlsService;
+    private WatchProgressService watchProgressService;
+    private MediaMetadataService mediaMetadataService;
 
     @Autowired
-    public MainController(FileSystemService fileSystemService) {
+    public MainController(FileSystemService fileSystemService,
+                          MimeTypeService mimeTypeService,
+                          MediaStreamService mediaStreamService,
+                          ThumbnailService thumbnailService,
+                          HlsService hlsService,
+                          WatchProgressService watchProgressService,
+                          MediaMetadataService mediaMetadataService) {
         this.fileSystemService = fileSystemService;
+        this.mimeTypeService = mimeTypeService;
+        this.mediaStreamService = mediaStreamService;
+        this.thumbnailService = thumbnailService;
+        this.hlsService = hlsService;
+        this.watchProgressService = watchProgressService;
+        this.mediaMetadataService = mediaMetadataService;
     }
 
     @GetMapping("/")
-    private String index(Model model) {
+    private String index(Model model, ServletWebRequest request) {
         //model.addAttribute("header_text", "Wellcome to Cinema Family");
-        model.addAttribute("elements", fileSystemService.getDirContent(new File(rootDirectory)));
+        if (HttpCaching.notModified(request, HttpCaching.weakETag(fileSystemService.getLibraryVersion(), "html"))) {
+            return null;
+        }
+
+        model.addAttribute("folder_id", fileSystemService.getLibraryId());
+        model.addAttribute("page", fileSystemService.getLibraryPage(pageSize));
+        model.addAttribute("page_size", pageSize);
 
         return "folder_view";
     }
 
     @GetMapping("/folder/{id}")
-    private String folder(Model model, @PathVariable("id") String folderId) {
-        model.addAttribute("header_text", Util.idToPath(folderId).getName());
-        model.addAttribute("elements", fileSystemService.getDirContent(folderId));
+    private String folder(Model model, @PathVariable("id") String folderId, ServletWebRequest request) {
+        var dir = Util.idToPath(folderId);
+        if (HttpCaching.notModified(request, HttpCaching.weakETag(fileSystemService.getDirVersion(dir), "html"))) {
+            return null;
+        }
+
+        model.addAttribute("header_text", dir.getName());
+        model.addAttribute("folder_id", folderId);
+        model.addAttribute("page", fileSystemService.getDirPage(dir, null, pageSize));
+        model.addAttribute("page_size", pageSize);
 
         return "folder_view";
     }
 
     @GetMapping("/video/{id}")
-    private String video(Model model, @PathVariable("id") String videoId) {
-        model.addAttribute("video_title", Util.idToPath(videoId).getName());
+    private String video(Model model, @PathVariable("id") String videoId, ServletWebRequest request) {
+        var video = Util.idToPath(videoId);
+        // Los subtítulos y el póster del video forman parte del listado de su directorio
+        var progress = watchProgressService.get(videoId);
+        var etag = HttpCaching.weakETag(fileSystemService.getDirVersion(video.getParentFile()),
+                progress == null ? videoId : videoId + "-" + Long.toHexString(progress.getUpdatedAt()));
+        if (HttpCaching.notModified(request, etag)) {
+            return null;
+        }
+
+        model.addAttribute("video_title", video.getName());
         model.addAttribute("video_id", videoId);
+        model.addAttribute("start_position", watchProgressService.getResumePosition(videoId));
+        // Con los códecs del contenedor el navegador sabe si puede reproducir el video antes de descargarlo
+        var media = mediaMetadataService.getMetadata(video);
+        model.addAttribute("video_type", media != null
+                ? media.getMimeType()
+                : mimeTypeService.detectMimeType(video).orElse("video/mp4"));
+        if (hlsService.shouldTranscode(video)) {
+            model.addAttribute("hls_url", "/hls/" + videoId + "/index.m3u8");
+            model.addAttribute("hls_player_script", hlsService.getPlayerScript());
+            model.addAttribute("hls_player_integrity", hlsService.getPlayerScriptIntegrity());
+        }
         // Load subtitles
         model.addAttribute("subtitles", fileSystemService.loadVideoFileSubtitules(videoId));
 
@@ -74,28 +145,40 @@ public class MainController {
     }
 
     @GetMapping("file/{id}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable("id") String fileId) {
-        Resource resource = fileSystemService.loadFileAsResource(fileId);
-
-        String contentType = Util.detectMimeType(resource)
-                .orElseGet(() -> "application/octet-stream");
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-                .body(resource);
+    public void downloadFile(@PathVariable("id") String fileId,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        mediaStreamService.stream(fileId, request, response);
     }
 
     @GetMapping("subtitle/{id}")
-    public ResponseEntity<Resource> downloadSubtitle(@PathVariable("id") String subFileId) {
+    public ResponseEntity<Resource> downloadSubtitle(@PathVariable("id") String subFileId,
+                                                     ServletWebRequest request) {
+        String etag = fileSystemService.getSubtitleETag(subFileId);
+        if (HttpCaching.notModified(request, etag)) {
+            return null;
+        }
+
         Resource resource = fileSystemService.loadSubtitleFileAsResource(subFileId);
 
-        String contentType = Util.detectMimeType(resource)
+        String contentType = mimeTypeService.detectMimeType(resource)
                 .orElseGet(() -> "text/plain");
 
         return ResponseEntity.ok()
                 .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
+                .eTag(etag)
+                .header(HttpHeaders.CACHE_CONTROL, HttpCaching.REVALIDATE)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + Util.idToPath(subFileId).getName() + "\"")
                 .body(resource);
     }
+
+    @GetMapping("thumb/{key}")
+    public ResponseEntity<Resource> thumbnail(@PathVariable("key") String thumbnailKey) {
+        return thumbnailService.getThumbnail(thumbnailKey)
+                .map(file -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .header(HttpHeaders.CACHE_CONTROL, THUMBNAIL_CACHE_CONTROL)
+                        .body((Resource) new FileSystemResource(file)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.domain.ProgressReport;
+import com.betanzos.cinemafamily.domain.WatchProgress;
+import com.betanzos.cinemafamily.service.WatchProgressService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Progreso de reproducción de los videos. El reproductor envía la posición cada pocos segundos, al pausar y al salir
+ * de la página.<br>
+ * <br>
+ * Ninguna operación accede al disco, por lo que el mismo controlador sirve en los dos modos de la aplicación.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@RestController
+@RequestMapping("/api/progress")
+public class ProgressApiController {
+
+    private WatchProgressService watchProgressService;
+
+    @Autowired
+    public ProgressApiController(WatchProgressService watchProgressService) {
+        this.watchProgressService = watchProgressService;
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<WatchProgress> progress(@PathVariable("id") String videoId) {
+        Util.idToPath(videoId);
+        var progress = watchProgressService.get(videoId);
+        if (progress == null) {
+            return ResponseEntity.noContent().cacheControl(CacheControl.noStore()).build();
+        }
+
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(progress);
+    }
+
+    @PutMapping("/{id}")
+    public WatchProgress update(@PathVariable("id") String videoId, @RequestBody ProgressReport report) {
+        return watchProgressService.update(videoId, report.getPosition(), report.getDuration());
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> remove(@PathVariable("id") String videoId) {
+        Util.idToPath(videoId);
+        watchProgressService.remove(videoId);
+
+        return ResponseEntity.noContent().build();
+    }
+}
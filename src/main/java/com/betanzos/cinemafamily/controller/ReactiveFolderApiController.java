@@ -0,0 +1,131 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.domain.FolderPage;
+import com.betanzos.cinemafamily.service.FileSystemService;
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+
+/**
+ * Equivalente de {@link FolderApiController} para el modo reactivo.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@RestController
+@RequestMapping("/api")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveFolderApiController {
+
+    /**
+     * Número de elementos que se envían al cliente de una vez en el listado NDJSON.
+     */
+    private static final int NDJSON_FLUSH_INTERVAL = 64;
+
+    @Value("${listing.page-size}")
+    private int defaultPageSize;
+
+    @Value("${listing.max-page-size}")
+    private int maxPageSize;
+
+    private FileSystemService fileSystemService;
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    public ReactiveFolderApiController(FileSystemService fileSystemService, ObjectMapper objectMapper) {
+        this.fileSystemService = fileSystemService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping(value = "/folder/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<FolderPage>> folder(@PathVariable("id") String folderId,
+                                                   @RequestParam(value = "cursor", required = false) String cursor,
+                                                   @RequestParam(value = "limit", required = false) Integer limit,
+                                                   ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            var dir = Util.idToPath(folderId);
+            if (notModified(exchange, dir, "json")) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).<FolderPage>build();
+            }
+
+            int pageSize = limit == null || limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+
+            return ResponseEntity.ok(fileSystemService.getDirPage(dir, cursor, pageSize));
+        });
+    }
+
+    /**
+     * Los elementos se generan en {@link Schedulers#boundedElastic()} y se envían en bloques de
+     * {@link #NDJSON_FLUSH_INTERVAL} líneas.
+     */
+    @GetMapping(value = "/folder/{id}", produces = FolderApiController.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<String>>> folderStream(@PathVariable("id") String folderId,
+                                                           ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            var dir = Util.idToPath(folderId);
+            if (notModified(exchange, dir, "ndjson")) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).<Flux<String>>build();
+            }
+
+            var writer = objectMapper.writer();
+            Flux<String> lines = Flux.<String>create(sink -> {
+                        fileSystemService.forEachDirElement(dir, element -> {
+                            try {
+                                sink.next(writer.writeValueAsString(element) + "\n");
+                            } catch (JsonProcessingException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                        sink.complete();
+                    }, FluxSink.OverflowStrategy.BUFFER)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .buffer(NDJSON_FLUSH_INTERVAL)
+                    .map(block -> String.join("", block));
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(FolderApiController.APPLICATION_NDJSON_VALUE))
+                    .body(lines);
+        });
+    }
+
+    private boolean notModified(ServerWebExchange exchange, File dir, String variant) {
+        exchange.getResponse().getHeaders().set(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        return HttpCaching.notModified(exchange, HttpCaching.weakETag(fileSystemService.getDirVersion(dir), variant));
+    }
+}
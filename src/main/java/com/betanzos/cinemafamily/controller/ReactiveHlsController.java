@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.HlsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Equivalente de {@link HlsController} para el modo reactivo. La espera de los segmentos que se están convirtiendo
+ * ocupa un hilo de {@link Blocking}, nunca uno de Netty.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveHlsController {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private HlsService hlsService;
+
+    @Autowired
+    public ReactiveHlsController(HlsService hlsService) {
+        this.hlsService = hlsService;
+    }
+
+    @GetMapping("hls/{id}/index.m3u8")
+    public Mono<ResponseEntity<String>> playlist(@PathVariable("id") String videoId, ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            if (HttpCaching.notModified(exchange, hlsService.getETag(videoId))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).<String>build();
+            }
+
+            return ResponseEntity.ok()
+                    .contentType(HlsController.APPLICATION_MPEGURL)
+                    .body(hlsService.getPlaylist(videoId));
+        });
+    }
+
+    @GetMapping("hls/{id}/{index:\\d+}.ts")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> segment(@PathVariable("id") String videoId, @PathVariable("index") int index,
+                                                         ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            if (HttpCaching.notModified(exchange, hlsService.getETag(videoId))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).<Flux<DataBuffer>>build();
+            }
+
+            return hlsService.getSegment(videoId, index)
+                    .map(channel -> segment(channel, exchange))
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, "1")
+                            .build());
+        });
+    }
+
+    /**
+     * Respuesta con el contenido del segmento. El canal se cierra al terminar de enviarlo o si se cancela el envío.
+     */
+    private static ResponseEntity<Flux<DataBuffer>> segment(FileChannel channel, ServerWebExchange exchange) {
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Ya no se usa
+            }
+            throw new UncheckedIOException(e);
+        }
+
+        return ResponseEntity.ok()
+                .contentType(HlsController.VIDEO_MP2T)
+                .contentLength(size)
+                .body(DataBufferUtils.readByteChannel(() -> channel, exchange.getResponse().bufferFactory(),
+                        BUFFER_SIZE));
+    }
+}
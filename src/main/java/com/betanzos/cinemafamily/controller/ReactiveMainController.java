@@ -0,0 +1,200 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.FileSystemService;
+import com.betanzos.cinemafamily.service.HlsService;
+import com.betanzos.cinemafamily.service.MediaMetadataService;
+import com.betanzos.cinemafamily.service.MimeTypeService;
+import com.betanzos.cinemafamily.service.ReactiveMediaStreamService;
+import com.betanzos.cinemafamily.service.ThumbnailService;
+import com.betanzos.cinemafamily.service.WatchProgressService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.reactive.result.view.View;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Equivalente de {@link MainController} para el modo reactivo. Todo lo que consulta el disco se ejecuta con
+ * {@link Blocking}, de forma que los hilos de Netty solo escriben las respuestas.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveMainController {
+
+    /**
+     * Vista que no escribe nada. Se utiliza cuando ya se ha respondido {@code 304 Not Modified}, ya que WebFlux
+     * utilizaría la vista por defecto si el {@link Mono} terminara vacío.
+     */
+    private static final View NOT_MODIFIED = new View() {
+        @Override
+        public List<MediaType> getSupportedMediaTypes() {
+            return List.of(MediaType.TEXT_HTML);
+        }
+
+        @Override
+        public Mono<Void> render(Map<String, ?> model, MediaType contentType, ServerWebExchange exchange) {
+            return Mono.empty();
+        }
+    };
+
+    @Value("${listing.page-size}")
+    private int pageSize;
+
+    private FileSystemService fileSystemService;
+    private MimeTypeService mimeTypeService;
+    private ReactiveMediaStreamService mediaStreamService;
+    private ThumbnailService thumbnailService;
+    private HlsService hlsService;
+    private WatchProgressService watchProgressService;
+    private MediaMetadataService mediaMetadataService;
+
+    @Autowired
+    public ReactiveMainController(FileSystemService fileSystemService,
+                                  MimeTypeService mimeTypeService,
+                                  ReactiveMediaStreamService mediaStreamService,
+                                  ThumbnailService thumbnailService,
+                                  HlsService hlsService,
+                                  WatchProgressService watchProgressService,
+                                  MediaMetadataService mediaMetadataService) {
+        this.fileSystemService = fileSystemService;
+        this.mimeTypeService = mimeTypeService;
+        this.mediaStreamService = mediaStreamService;
+        this.thumbnailService = thumbnailService;
+        this.hlsService = hlsService;
+        this.watchProgressService = watchProgressService;
+        this.mediaMetadataService = mediaMetadataService;
+    }
+
+    @GetMapping("/")
+    private Mono<Object> index(Model model, ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            if (HttpCaching.notModified(exchange, HttpCaching.weakETag(fileSystemService.getLibraryVersion(), "html"))) {
+                return NOT_MODIFIED;
+            }
+
+            model.addAttribute("folder_id", fileSystemService.getLibraryId());
+            model.addAttribute("page", fileSystemService.getLibraryPage(pageSize));
+            model.addAttribute("page_size", pageSize);
+
+            return "folder_view";
+        });
+    }
+
+    @GetMapping("/folder/{id}")
+    private Mono<Object> folder(Model model, @PathVariable("id") String folderId, ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            var dir = Util.idToPath(folderId);
+            if (HttpCaching.notModified(exchange, HttpCaching.weakETag(fileSystemService.getDirVersion(dir), "html"))) {
+                return NOT_MODIFIED;
+            }
+
+            model.addAttribute("header_text", dir.getName());
+            model.addAttribute("folder_id", folderId);
+            model.addAttribute("page", fileSystemService.getDirPage(dir, null, pageSize));
+            model.addAttribute("page_size", pageSize);
+
+            return "folder_view";
+        });
+    }
+
+    @GetMapping("/video/{id}")
+    private Mono<Object> video(Model model, @PathVariable("id") String videoId, ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            var video = Util.idToPath(videoId);
+            var progress = watchProgressService.get(videoId);
+            var etag = HttpCaching.weakETag(fileSystemService.getDirVersion(video.getParentFile()),
+                    progress == null ? videoId : videoId + "-" + Long.toHexString(progress.getUpdatedAt()));
+            if (HttpCaching.notModified(exchange, etag)) {
+                return NOT_MODIFIED;
+            }
+
+            model.addAttribute("video_title", video.getName());
+            model.addAttribute("video_id", videoId);
+            model.addAttribute("start_position", watchProgressService.getResumePosition(videoId));
+            // Con los códecs del contenedor el navegador sabe si puede reproducir el video antes de descargarlo
+            var media = mediaMetadataService.getMetadata(video);
+            model.addAttribute("video_type", media != null
+                    ? media.getMimeType()
+                    : mimeTypeService.detectMimeType(video).orElse("video/mp4"));
+            if (hlsService.shouldTranscode(video)) {
+                model.addAttribute("hls_url", "/hls/" + videoId + "/index.m3u8");
+                model.addAttribute("hls_player_script", hlsService.getPlayerScript());
+                model.addAttribute("hls_player_integrity", hlsService.getPlayerScriptIntegrity());
+            }
+            model.addAttribute("subtitles", fileSystemService.loadVideoFileSubtitules(videoId));
+
+            return "video_player";
+        });
+    }
+
+    @GetMapping("file/{id}")
+    public Mono<Void> downloadFile(@PathVariable("id") String fileId, ServerWebExchange exchange) {
+        return mediaStreamService.stream(fileId, exchange);
+    }
+
+    @GetMapping("subtitle/{id}")
+    public Mono<ResponseEntity<Resource>> downloadSubtitle(@PathVariable("id") String subFileId,
+                                                           ServerWebExchange exchange) {
+        return Blocking.call(() -> {
+            String etag = fileSystemService.getSubtitleETag(subFileId);
+            if (HttpCaching.notModified(exchange, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).<Resource>build();
+            }
+
+            Resource resource = fileSystemService.loadSubtitleFileAsResource(subFileId);
+
+            String contentType = mimeTypeService.detectMimeType(resource)
+                    .orElseGet(() -> "text/plain");
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(contentType))
+                    .eTag(etag)
+                    .header(HttpHeaders.CACHE_CONTROL, HttpCaching.REVALIDATE)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + Util.idToPath(subFileId).getName() + "\"")
+                    .body(resource);
+        });
+    }
+
+    @GetMapping("thumb/{key}")
+    public Mono<ResponseEntity<Resource>> thumbnail(@PathVariable("key") String thumbnailKey) {
+        return Blocking.call(() -> thumbnailService.getThumbnail(thumbnailKey)
+                .map(file -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .header(HttpHeaders.CACHE_CONTROL, MainController.THUMBNAIL_CACHE_CONTROL)
+                        .body((Resource) new FileSystemResource(file)))
+                .orElseGet(() -> ResponseEntity.notFound().build()));
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.WebFilter;
+
+/**
+ * Configuración del modo reactivo ({@code spring.main.web-application-type=reactive}, perfil {@code reactive}).
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfiguration {
+
+    /**
+     * Tomcat también está en el classpath y Spring Boot lo elegiría antes que Netty.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Cabeceras de caché de los recursos estáticos, igual que {@link StaticResourceCaching} en el modo servlet.
+     */
+    @Bean
+    public WebFilter staticResourceCaching() {
+        return (exchange, chain) -> {
+            var path = exchange.getRequest().getPath().pathWithinApplication().value();
+            if (path.startsWith("/css/") || path.startsWith("/img/")) {
+                exchange.getResponse().getHeaders().set(HttpHeaders.CACHE_CONTROL, StaticResourceCaching.cacheControl(path));
+            }
+
+            return chain.filter(exchange);
+        };
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.domain.SearchResult;
+import com.betanzos.cinemafamily.service.SearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.List;
+
+/**
+ * Búsqueda en la biblioteca. La misma URL devuelve la página HTML de resultados o, si el cliente lo solicita con
+ * la cabecera {@code Accept}, los resultados en JSON.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Controller
+public class SearchController {
+
+    private SearchService searchService;
+
+    @Autowired
+    public SearchController(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<SearchResult> searchJson(@RequestParam(value = "q", required = false) String query,
+                                         @RequestParam(value = "limit", required = false) Integer limit) {
+        return searchService.search(query, limit);
+    }
+
+    @GetMapping("/search")
+    public String search(Model model, @RequestParam(value = "q", required = false) String query) {
+        model.addAttribute("query", query);
+        model.addAttribute("results", searchService.search(query, null));
+
+        return "search_view";
+    }
+}
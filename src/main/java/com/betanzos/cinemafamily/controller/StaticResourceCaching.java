@@ -0,0 +1,72 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cabeceras de caché de los recursos estáticos ({@code /css} y {@code /img}).<br>
+ * <br>
+ * Las plantillas enlazan los recursos con el hash de su contenido en la URL ({@code style-<md5>.css}, ver
+ * {@code spring.resources.chain.strategy.content}), por lo que esas URLs pueden cachearse indefinidamente. Las URLs
+ * sin hash se validan siempre con {@code Last-Modified}.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class StaticResourceCaching implements WebMvcConfigurer, HandlerInterceptor {
+
+    private static final String IMMUTABLE =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+    private static final String REVALIDATE = CacheControl.noCache().getHeaderValue();
+
+    /**
+     * Hash MD5 que añade {@code ContentVersionStrategy} al nombre del recurso.
+     */
+    private static final Pattern CONTENT_VERSION = Pattern.compile("-[0-9a-f]{32}\\.[^/.]+$");
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/css/**", "/img/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(request.getRequestURI()));
+
+        return true;
+    }
+
+    /**
+     * Valor de {@code Cache-Control} para el recurso estático con la ruta {@code path}.
+     */
+    static String cacheControl(String path) {
+        return CONTENT_VERSION.matcher(path).find() ? IMMUTABLE : REVALIDATE;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+import com.betanzos.cinemafamily.utils.LanguageTags;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Contenido indexado de un directorio. Las entradas se guardan ya ordenadas: primero las carpetas y
+ * posteriormente los archivos, ambos en orden alfanumérico.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class CatalogDirectory {
+    private final String path;
+    private final long lastModified;
+    private final List<CatalogEntry> entries;
+    private final boolean partial;
+
+    private volatile Map<String, CatalogEntry> images;
+    private volatile Map<String, List<SubtitleSidecar>> subtitles;
+    private volatile long fingerprint;
+
+    public CatalogDirectory(String path, long lastModified, List<CatalogEntry> entries) {
+        this(path, lastModified, entries, false);
+    }
+
+    private CatalogDirectory(String path, long lastModified, List<CatalogEntry> entries, boolean partial) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.entries = List.copyOf(entries);
+        this.partial = partial;
+    }
+
+    /**
+     * Contenido provisional, sin entradas, de un directorio cuyo escaneo no ha terminado a tiempo. Nunca se guarda
+     * en el catálogo.
+     *
+     * @param path Ruta del directorio
+     */
+    public static CatalogDirectory partial(String path) {
+        return new CatalogDirectory(path, 0L, List.of(), true);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public List<CatalogEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Indica si el contenido es provisional ({@link #partial(String)}).
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public File resolve(CatalogEntry entry) {
+        return new File(path, entry.getName());
+    }
+
+    /**
+     * Huella del contenido del directorio calculada a partir del nombre, tamaño y fecha de modificación de cada
+     * entrada. A diferencia de la fecha de modificación del directorio, cambia también cuando se modifica un
+     * archivo existente. Se calcula la primera vez que se consulta.
+     */
+    public long getFingerprint() {
+        long hash = fingerprint;
+        if (hash == 0) {
+            hash = 1;
+            for (var entry : entries) {
+                hash = 31 * hash + entry.getName().hashCode();
+                hash = 31 * hash + entry.getSize();
+                hash = 31 * hash + entry.getLastModified();
+            }
+            // 0 indica que aún no se ha calculado
+            fingerprint = hash == 0 ? 1 : hash;
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Busca una imagen del directorio a partir de su nombre sin extensión, sin distinguir mayúsculas de
+     * minúsculas. El índice de imágenes se construye la primera vez que se consulta.
+     *
+     * @param baseName Nombre de la imagen sin extensión
+     *
+     * @return La imagen o {@code null} si no existe
+     */
+    public CatalogEntry findImage(String baseName) {
+        var index = images;
+        if (index == null) {
+            index = new HashMap<>();
+            for (var entry : entries) {
+                if (entry.isImage()) {
+                    int dot = entry.getName().lastIndexOf('.');
+                    var name = dot > 0 ? entry.getName().substring(0, dot) : entry.getName();
+                    index.putIfAbsent(name.toLowerCase(Locale.ROOT), entry);
+                }
+            }
+            images = index;
+        }
+
+        return index.isEmpty() ? null : index.get(baseName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Busca los subtítulos del video {@code videoName}: los archivos de subtítulos cuyo nombre sin extensión es el
+     * del video o el del video seguido de etiquetas de idioma, {@code forced} o {@code sdh}/{@code hi}/{@code cc}
+     * ({@code Movie.en.srt}, {@code Movie.spa.forced.srt}). No se distingue entre mayúsculas y minúsculas.<br>
+     * <br>
+     * El índice de subtítulos se construye la primera vez que se consulta.
+     *
+     * @param videoName Nombre del archivo de video
+     *
+     * @return Subtítulos del video en el orden del directorio
+     */
+    public List<SubtitleSidecar> findSubtitles(String videoName) {
+        var index = subtitles;
+        if (index == null) {
+            index = buildSubtitleIndex();
+            subtitles = index;
+        }
+
+        return index.isEmpty()
+                ? List.of()
+                : index.getOrDefault(baseName(videoName).toLowerCase(Locale.ROOT), List.of());
+    }
+
+    private Map<String, List<SubtitleSidecar>> buildSubtitleIndex() {
+        var index = new HashMap<String, List<SubtitleSidecar>>();
+        var names = new HashSet<String>();
+        for (var entry : entries) {
+            names.add(entry.getName().toLowerCase(Locale.ROOT));
+        }
+
+        for (var entry : entries) {
+            if (!entry.isSubtitle()) {
+                continue;
+            }
+
+            var name = baseName(entry.getName()).toLowerCase(Locale.ROOT);
+            if (entry.getExtension().equals("sub") && names.contains(name + ".idx")) {
+                // Subtítulos VobSub (imágenes), que el navegador no puede mostrar
+                continue;
+            }
+
+            index.computeIfAbsent(name, key -> new ArrayList<>(2)).add(new SubtitleSidecar(entry, null, false, false));
+
+            // Cada etiqueta reconocida al final del nombre permite asociarlo también al nombre sin ella
+            String language = null;
+            boolean forced = false;
+            boolean hearingImpaired = false;
+            int end = name.length();
+
+            for (int dot = name.lastIndexOf('.'); dot > 0; dot = name.lastIndexOf('.', end - 1)) {
+                var tag = name.substring(dot + 1, end);
+
+                if (tag.equals("forced")) {
+                    forced = true;
+                } else if (tag.equals("sdh") || tag.equals("cc") || (tag.equals("hi") && followsLanguage(name, dot))) {
+                    hearingImpaired = true;
+                } else if (!tag.equals("default")) {
+                    var resolved = language == null ? LanguageTags.resolve(tag) : null;
+                    if (resolved == null) {
+                        break;
+                    }
+                    language = resolved;
+                }
+
+                end = dot;
+                index.computeIfAbsent(name.substring(0, end), key -> new ArrayList<>(2))
+                        .add(new SubtitleSidecar(entry, language, forced, hearingImpaired));
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * {@code hi} es también el código del hindi, por lo que solo se interpreta como subtítulos para personas con
+     * discapacidad auditiva si va precedido de un idioma ({@code Movie.en.hi.srt}).
+     */
+    private static boolean followsLanguage(String name, int dot) {
+        int previous = name.lastIndexOf('.', dot - 1);
+        return previous > 0 && LanguageTags.resolve(name.substring(previous + 1, dot)) != null;
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Elemento (carpeta o archivo) de un directorio indexado en el catálogo.<br>
+ * <br>
+ * Además del nombre guarda el tamaño, la fecha de modificación y el MIME type detectado, lo que permite
+ * saber si el archivo ha cambiado sin necesidad de volver a abrirlo.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class CatalogEntry {
+    private static final Set<String> SUBTITLE_EXTENSIONS = Set.of("srt", "vtt", "ass", "ssa", "sub");
+
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final String mimeType;
+
+    public CatalogEntry(String name, boolean directory, long size, long lastModified, String mimeType) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.mimeType = mimeType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public boolean isVideo() {
+        return !directory && mimeType != null && mimeType.startsWith("video");
+    }
+
+    public boolean isImage() {
+        return !directory && mimeType != null && mimeType.startsWith("image/");
+    }
+
+    /**
+     * Indica si es un archivo de subtítulos en alguno de los formatos soportados ({@code .srt}, {@code .vtt},
+     * {@code .ass}, {@code .ssa} o {@code .sub}), según su extensión.
+     */
+    public boolean isSubtitle() {
+        return !directory && SUBTITLE_EXTENSIONS.contains(getExtension());
+    }
+
+    /**
+     * Extensión del nombre en minúsculas y sin el punto, o una cadena vacía si no tiene.
+     */
+    public String getExtension() {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Indica si el archivo denotado por esta entrada sigue teniendo el mismo tamaño y fecha de modificación.
+     */
+    public boolean isUnchanged(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+}
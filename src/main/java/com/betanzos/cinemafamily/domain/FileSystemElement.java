@@ -19,7 +19,7 @@ package com.betanzos.cinemafamily.domain;
  * @author Eduardo Betanzos
  * @since 1.0
  */
-public class FileSystemElement {
+public abstract class FileSystemElement {
     private final String id;
     private final String name;
 
@@ -35,4 +35,9 @@ public class FileSystemElement {
     public String getName() {
         return name;
     }
+
+    /**
+     * Tipo de elemento, utilizado por las vistas y por el API JSON para distinguir carpetas de archivos.
+     */
+    public abstract String getType();
 }
@@ -20,8 +20,26 @@ package com.betanzos.cinemafamily.domain;
  * @since 1.0
  */
 public final class Folder extends FileSystemElement {
+    private final String thumbnail;
 
     public Folder(String id, String name) {
+        this(id, name, null);
+    }
+
+    /**
+     * @param thumbnail Clave de la miniatura del póster o {@code null} si la carpeta no tiene póster
+     */
+    public Folder(String id, String name, String thumbnail) {
         super(id, name);
+        this.thumbnail = thumbnail;
+    }
+
+    @Override
+    public String getType() {
+        return "folder";
+    }
+
+    public String getThumbnail() {
+        return thumbnail;
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+import java.util.List;
+
+/**
+ * Página del contenido de una carpeta. {@code nextCursor} permite solicitar la página siguiente y es {@code null}
+ * cuando no quedan más elementos. {@code partial} indica que la carpeta aún se está escaneando, por lo que puede
+ * faltar contenido.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class FolderPage {
+    private final List<FileSystemElement> items;
+    private final String nextCursor;
+    private final boolean partial;
+
+    public FolderPage(List<FileSystemElement> items, String nextCursor) {
+        this(items, nextCursor, false);
+    }
+
+    public FolderPage(List<FileSystemElement> items, String nextCursor, boolean partial) {
+        this.items = List.copyOf(items);
+        this.nextCursor = nextCursor;
+        this.partial = partial;
+    }
+
+    public List<FileSystemElement> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+}
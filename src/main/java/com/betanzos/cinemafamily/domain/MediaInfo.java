@@ -0,0 +1,159 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Metadatos de un video obtenidos de las cabeceras de su contenedor (MP4 o Matroska/WebM).<br>
+ * <br>
+ * Los códecs se expresan como en el parámetro {@code codecs} de un MIME type (RFC 6381), p. ej.
+ * {@code avc1.64001F} o {@code mp4a.40.2}, o son {@code null} si el códec no tiene una representación conocida.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class MediaInfo {
+
+    /**
+     * Pista de audio o de subtítulos.
+     */
+    public static final class Track {
+        private final String codec;
+        private final String language;
+
+        public Track(String codec, String language) {
+            this.codec = codec;
+            this.language = language;
+        }
+
+        /**
+         * Códec de la pista o {@code null} si se desconoce.
+         */
+        public String getCodec() {
+            return codec;
+        }
+
+        /**
+         * Código de idioma (ISO 639-2 o BCP 47) o {@code null} si no se indica.
+         */
+        public String getLanguage() {
+            return language;
+        }
+    }
+
+    private final String container;
+    private final double duration;
+    private final int width;
+    private final int height;
+    private final String videoCodec;
+    private final List<Track> audioTracks;
+    private final List<Track> subtitleTracks;
+
+    /**
+     * @param container      MIME type del contenedor ({@code video/mp4}, {@code video/x-matroska} o
+     *                       {@code video/webm})
+     * @param duration       Duración en segundos ({@code 0} si se desconoce)
+     * @param width          Ancho en píxeles del video ({@code 0} si no tiene pista de video)
+     * @param height         Alto en píxeles del video ({@code 0} si no tiene pista de video)
+     * @param videoCodec     Códec de la primera pista de video o {@code null}
+     * @param audioTracks    Pistas de audio
+     * @param subtitleTracks Pistas de subtítulos incluidas en el contenedor
+     */
+    public MediaInfo(String container, double duration, int width, int height, String videoCodec,
+                     List<Track> audioTracks, List<Track> subtitleTracks) {
+        this.container = container;
+        this.duration = duration;
+        this.width = width;
+        this.height = height;
+        this.videoCodec = videoCodec;
+        this.audioTracks = List.copyOf(audioTracks);
+        this.subtitleTracks = List.copyOf(subtitleTracks);
+    }
+
+    public String getContainer() {
+        return container;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+
+    public List<Track> getAudioTracks() {
+        return audioTracks;
+    }
+
+    public List<Track> getSubtitleTracks() {
+        return subtitleTracks;
+    }
+
+    /**
+     * Resolución del video con el nombre habitual de su formato ({@code 2160p}, {@code 1080p}, {@code 720p}...),
+     * determinado por el ancho para que no cambie al recortar las bandas negras, o {@code null} si no hay video.
+     */
+    public String getResolution() {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        if (width >= 3800) {
+            return "2160p";
+        } else if (width >= 2500) {
+            return "1440p";
+        } else if (width >= 1900) {
+            return "1080p";
+        } else if (width >= 1260) {
+            return "720p";
+        }
+
+        return height + "p";
+    }
+
+    /**
+     * MIME type para el atributo {@code type} de {@code <source>}, con el parámetro {@code codecs} si se conocen
+     * todos los códecs del video y del audio. Si alguno se desconoce se omite, ya que el navegador descartaría
+     * el video al no reconocerlo.
+     */
+    public String getMimeType() {
+        var codecs = new LinkedHashSet<String>();
+        if (width > 0 || videoCodec != null) {
+            codecs.add(videoCodec);
+        }
+        for (var track : audioTracks) {
+            codecs.add(track.getCodec());
+        }
+
+        if (codecs.isEmpty() || codecs.contains(null)) {
+            return container;
+        }
+
+        return container + "; codecs=\"" + String.join(", ", new ArrayList<>(codecs)) + "\"";
+    }
+}
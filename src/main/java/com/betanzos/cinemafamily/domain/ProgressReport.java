@@ -0,0 +1,44 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Posición de reproducción que envía el reproductor, en segundos.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class ProgressReport {
+    private final double position;
+    private final double duration;
+
+    @JsonCreator
+    public ProgressReport(@JsonProperty("position") double position, @JsonProperty("duration") double duration) {
+        this.position = position;
+        this.duration = duration;
+    }
+
+    public double getPosition() {
+        return position;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+/**
+ * Resultado de una búsqueda en la biblioteca. {@code location} es la ruta, relativa a su biblioteca (precedida del
+ * nombre de la biblioteca si hay más de una), de la carpeta que contiene el elemento.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class SearchResult {
+    private final String id;
+    private final String name;
+    private final String type;
+    private final String location;
+
+    public SearchResult(String id, String name, String type, String location) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.location = location;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@code folder} o {@code video}, igual que {@link FileSystemElement#getType()}.
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+}
@@ -29,6 +29,11 @@ public class SubtitleFile extends FileSystemElement {
         this.languageName = languageName;
     }
 
+    @Override
+    public String getType() {
+        return "subtitle";
+    }
+
     public String getLanguageId() {
         return languageId;
     }
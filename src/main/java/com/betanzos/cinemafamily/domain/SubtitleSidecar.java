@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+/**
+ * Archivo de subtítulos que acompaña a un video del mismo directorio, junto con las etiquetas reconocidas en su
+ * nombre ({@code Movie.en.forced.srt}).
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class SubtitleSidecar {
+    private final CatalogEntry entry;
+    private final String language;
+    private final boolean forced;
+    private final boolean hearingImpaired;
+
+    public SubtitleSidecar(CatalogEntry entry, String language, boolean forced, boolean hearingImpaired) {
+        this.entry = entry;
+        this.language = language;
+        this.forced = forced;
+        this.hearingImpaired = hearingImpaired;
+    }
+
+    public CatalogEntry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Etiqueta BCP 47 del idioma o {@code null} si el nombre no lo indica.
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    public boolean isForced() {
+        return forced;
+    }
+
+    public boolean isHearingImpaired() {
+        return hearingImpaired;
+    }
+}
@@ -20,19 +20,96 @@ package com.betanzos.cinemafamily.domain;
  * @since 1.0
  */
 public final class VideoFile extends FileSystemElement {
-    private byte[] poster;
+    private final String thumbnail;
+    private final Integer progress;
+    private final boolean watched;
+    private final Long duration;
+    private final String resolution;
 
     public VideoFile(String id, String name) {
+        this(id, name, null);
+    }
+
+    /**
+     * @param thumbnail Clave de la miniatura del póster o {@code null} si el video no tiene póster
+     */
+    public VideoFile(String id, String name, String thumbnail) {
+        this(id, name, thumbnail, null);
+    }
+
+    /**
+     * @param thumbnail Clave de la miniatura del póster o {@code null} si el video no tiene póster
+     * @param progress  Progreso de reproducción o {@code null} si el video nunca se ha reproducido
+     */
+    public VideoFile(String id, String name, String thumbnail, WatchProgress progress) {
+        this(id, name, thumbnail, progress, null);
+    }
+
+    /**
+     * @param thumbnail Clave de la miniatura del póster o {@code null} si el video no tiene póster
+     * @param progress  Progreso de reproducción o {@code null} si el video nunca se ha reproducido
+     * @param media     Metadatos del video o {@code null} si aún no se conocen
+     */
+    public VideoFile(String id, String name, String thumbnail, WatchProgress progress, MediaInfo media) {
         super(id, name);
-        this.poster = null;
+        this.thumbnail = thumbnail;
+        this.progress = progress != null ? progress.getPercent() : null;
+        this.watched = progress != null && progress.isWatched();
+        this.duration = media != null && media.getDuration() > 0 ? Math.round(media.getDuration()) : null;
+        this.resolution = media != null ? media.getResolution() : null;
+    }
+
+    @Override
+    public String getType() {
+        return "video";
     }
 
-    public byte[] getPoster() {
-        return poster;
+    public String getThumbnail() {
+        return thumbnail;
     }
 
-    public VideoFile setPoster(byte[] poster) {
-        this.poster = poster;
-        return this;
+    /**
+     * Porcentaje visto (ver {@link WatchProgress#getPercent()}) o {@code null} si el video nunca se ha reproducido.
+     */
+    public Integer getProgress() {
+        return progress;
+    }
+
+    public boolean isWatched() {
+        return watched;
+    }
+
+    /**
+     * Duración en segundos o {@code null} si se desconoce.
+     */
+    public Long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Resolución (ver {@link MediaInfo#getResolution()}) o {@code null} si se desconoce.
+     */
+    public String getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Duración y resolución tal como se muestran en la tarjeta del video ({@code 1:42:10 · 1080p}) o {@code null}
+     * si no se conoce ninguna.
+     */
+    public String getDetails() {
+        var details = new StringBuilder();
+        if (duration != null) {
+            long hours = duration / 3600;
+            long minutes = duration / 60 % 60;
+            long seconds = duration % 60;
+            details.append(hours > 0 ? String.format("%d:%02d:%02d", hours, minutes, seconds)
+                    : String.format("%d:%02d", minutes, seconds));
+        }
+        if (resolution != null) {
+            details.append(details.length() > 0 ? " · " : "").append(resolution);
+        }
+
+        return details.length() > 0 ? details.toString() : null;
     }
 }
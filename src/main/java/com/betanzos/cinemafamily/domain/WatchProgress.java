@@ -0,0 +1,71 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.domain;
+
+/**
+ * Progreso de reproducción de un video: posición en la que se quedó y duración total, ambas en segundos.
+ * {@code watched} indica que se ha visto completo (o casi), en cuyo caso la reproducción ya no se reanuda.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class WatchProgress {
+    private final double position;
+    private final double duration;
+    private final long updatedAt;
+    private final boolean watched;
+
+    public WatchProgress(double position, double duration, long updatedAt, boolean watched) {
+        this.position = position;
+        this.duration = duration;
+        this.updatedAt = updatedAt;
+        this.watched = watched;
+    }
+
+    public double getPosition() {
+        return position;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Fecha (en milisegundos desde epoch) de la última actualización.
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public boolean isWatched() {
+        return watched;
+    }
+
+    /**
+     * Porcentaje visto, redondeado hacia abajo a múltiplos de 5 para que el listado de la carpeta no cambie con
+     * cada actualización.
+     */
+    public int getPercent() {
+        if (watched) {
+            return 100;
+        }
+        if (duration <= 0) {
+            return 0;
+        }
+
+        return (int) Math.min(20, Math.floor(position / duration * 20)) * 5;
+    }
+}
@@ -15,10 +15,14 @@
  */
 package com.betanzos.cinemafamily.exception;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
 /**
  * @author Eduardo Betanzos
  * @since 1.0
  */
+@ResponseStatus(HttpStatus.NOT_FOUND)
 public class FileNotFoundException extends RuntimeException {
     public FileNotFoundException(String message) {
         super(message);
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidProgressException extends RuntimeException {
+    public InvalidProgressException(String message) {
+        super(message);
+    }
+
+    public InvalidProgressException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Validación de las peticiones condicionales y parciales de archivos multimedia, común a
+ * {@link MediaStreamService} y {@link ReactiveMediaStreamService}.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class ByteRanges {
+    private ByteRanges() {}
+
+    /**
+     * El navegador puede guardar el contenido, pero debe validarlo siempre con el ETag.
+     */
+    static final String CACHE_CONTROL = CacheControl.noCache().cachePrivate().getHeaderValue();
+
+    private static final int MAX_RANGES = 16;
+    private static final String CRLF = "\r\n";
+
+    static String etag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * @param ifNoneMatch     Valor de {@code If-None-Match} o {@code null}
+     * @param ifModifiedSince Fecha de {@code If-Modified-Since} o un valor negativo si no se indica
+     */
+    static boolean isNotModified(String ifNoneMatch, long ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null) {
+            for (var candidate : ifNoneMatch.split(",")) {
+                var value = candidate.strip();
+                if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Determina los rangos que deben enviarse.
+     *
+     * @param rangeHeader Valor de {@code Range} o {@code null}
+     * @param ifRange     Valor de {@code If-Range} o {@code null}
+     * @param ifRangeDate Valor de {@code If-Range} como fecha o un valor negativo si no es una fecha válida
+     *
+     * @return {@code null} si debe enviarse el archivo completo, una lista vacía si los rangos solicitados no
+     *         pueden satisfacerse, o los rangos (inicio y fin inclusivos) ordenados y sin solapamientos
+     */
+    static List<long[]> requestedRanges(String rangeHeader, String ifRange, long ifRangeDate, String etag,
+                                        long lastModified, long length) {
+        if (rangeHeader == null || !isIfRangeSatisfied(ifRange, ifRangeDate, etag, lastModified)) {
+            return null;
+        }
+
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // Cabecera mal formada: se ignora y se envía el archivo completo
+            return null;
+        }
+
+        var ranges = new ArrayList<long[]>(httpRanges.size());
+        for (var httpRange : httpRanges) {
+            long start = httpRange.getRangeStart(length);
+            long end = httpRange.getRangeEnd(length);
+            if (start < length && start <= end) {
+                ranges.add(new long[] {start, end});
+            }
+        }
+
+        if (ranges.size() <= 1) {
+            return ranges;
+        }
+
+        // Ordenar y fusionar los rangos solapados o contiguos
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        var merged = new ArrayList<long[]>(ranges.size());
+        for (var range : ranges) {
+            var last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+
+        // Demasiados rangos: más económico enviar el archivo completo
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    private static boolean isIfRangeSatisfied(String ifRange, long ifRangeDate, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Para If-Range solo es válida la comparación fuerte
+            return ifRange.equals(etag);
+        }
+
+        return ifRangeDate >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    static String contentDisposition(String fileName) {
+        return "inline; filename*=UTF-8''" + URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * Cabecera de la parte de {@code multipart/byteranges} correspondiente a {@code range}.
+     */
+    static byte[] partHeader(String boundary, String contentType, long[] range, long length) {
+        var header = CRLF + "--" + boundary + CRLF
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF
+                + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + CRLF
+                + CRLF;
+
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Delimitador final de {@code multipart/byteranges}.
+     */
+    static byte[] closing(String boundary) {
+        return (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+}
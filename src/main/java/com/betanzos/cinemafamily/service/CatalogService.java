@@ -0,0 +1,514 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Catálogo en memoria del contenido de las bibliotecas ({@link LibraryRootService}).<br>
+ * <br>
+ * Al arrancar se carga la última instantánea guardada en disco y, en segundo plano, se recorren las
+ * bibliotecas completas (cada una en su propio ejecutor) verificando cada directorio. Solo los archivos cuyo
+ * tamaño o fecha de modificación han cambiado respecto a la instantánea vuelven a abrirse para detectar su MIME
+ * type. Los directorios que aún no están indexados se escanean bajo demanda la primera vez que se solicitan; si el
+ * escaneo supera {@link LibraryRoot#getListingTimeout()} se devuelve un contenido parcial y el escaneo continúa en
+ * segundo plano.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class CatalogService {
+    private static final Logger log = LoggerFactory.getLogger(CatalogService.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x43464331; // "CFC1"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    @Value("${catalog.snapshot.file}")
+    private String snapshotFile;
+
+    private final Map<String, CatalogDirectory> directories = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Object snapshotLock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, CompletableFuture<CatalogDirectory>> pendingScans = new ConcurrentHashMap<>();
+
+    private final DirectoryScanService directoryScanService;
+    private final LibraryRootService libraryRootService;
+
+    private ExecutorService indexer;
+
+    /**
+     * Recibe los cambios del catálogo. Se invoca en el hilo que realiza el cambio, después de aplicarlo.
+     */
+    public interface Listener {
+
+        /**
+         * El directorio se ha añadido al catálogo o se ha vuelto a escanear.
+         */
+        void directoryUpdated(CatalogDirectory directory);
+
+        /**
+         * El directorio con la ruta {@code path} se ha eliminado del catálogo.
+         */
+        void directoryRemoved(String path);
+    }
+
+    @Autowired
+    public CatalogService(DirectoryScanService directoryScanService, LibraryRootService libraryRootService) {
+        this.directoryScanService = directoryScanService;
+        this.libraryRootService = libraryRootService;
+    }
+
+    @PostConstruct
+    public void start() {
+        loadSnapshot();
+
+        indexer = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r, "catalog-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        indexer.submit(this::indexLibrary);
+    }
+
+    @PreDestroy
+    public void stop() {
+        indexer.shutdownNow();
+        saveSnapshot();
+    }
+
+    /**
+     * Devuelve el contenido indexado del directorio {@code dir}. Si el directorio aún no forma parte del
+     * catálogo se escanea en ese momento y se añade. Si el escaneo no termina en el tiempo máximo de su biblioteca
+     * ({@link LibraryRoot#getListingTimeout()}) se devuelve {@link CatalogDirectory#partial(String)}.
+     *
+     * @param dir Directorio a consultar
+     *
+     * @return Contenido del directorio
+     */
+    public CatalogDirectory getDirectory(File dir) {
+        var directory = directories.get(dir.getAbsolutePath());
+        if (directory == null) {
+            directory = scanOnDemand(dir);
+        }
+
+        return directory;
+    }
+
+    /**
+     * Devuelve el contenido del directorio {@code dir} solo si ya forma parte del catálogo, sin escanearlo.
+     *
+     * @param dir Directorio a consultar
+     *
+     * @return Contenido del directorio o {@code null} si aún no está indexado
+     */
+    public CatalogDirectory getIndexedDirectory(File dir) {
+        return directories.get(dir.getAbsolutePath());
+    }
+
+    /**
+     * Vuelve a escanear el directorio {@code dir} y actualiza el catálogo. Las entradas cuyo tamaño y fecha de
+     * modificación no han cambiado conservan el MIME type ya detectado.
+     *
+     * @param dir Directorio a escanear
+     *
+     * @return Contenido actualizado del directorio
+     */
+    public CatalogDirectory refresh(File dir) {
+        var key = dir.getAbsolutePath();
+        var previous = directories.get(key);
+        var updated = directoryScanService.scan(dir, previous);
+
+        directories.put(key, updated);
+        if (changed(previous, updated)) {
+            dirty.set(true);
+        }
+        registerIds(updated);
+        if (previous != null) {
+            unregisterRemovedIds(previous, updated);
+        }
+
+        listeners.forEach(listener -> listener.directoryUpdated(updated));
+
+        return updated;
+    }
+
+    /**
+     * Orden de las entradas de cada {@link CatalogDirectory} del catálogo.
+     */
+    public Comparator<CatalogEntry> getEntryOrder() {
+        return directoryScanService.getEntryOrder();
+    }
+
+    /**
+     * Elimina del catálogo el directorio {@code dir} y todos sus subdirectorios.
+     *
+     * @param dir Directorio eliminado
+     */
+    public void remove(File dir) {
+        var key = dir.getAbsolutePath();
+        var prefix = key + File.separator;
+
+        for (var path : List.copyOf(directories.keySet())) {
+            if (path.equals(key) || path.startsWith(prefix)) {
+                removeDirectory(path);
+            }
+        }
+    }
+
+    /**
+     * Registra un {@link Listener} que recibirá los cambios posteriores del catálogo.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Rutas de todos los directorios del catálogo.
+     */
+    public List<String> getDirectoryPaths() {
+        return List.copyOf(directories.keySet());
+    }
+
+    /**
+     * Recorre todas las bibliotecas, en paralelo, verificando cada directorio contra el catálogo. Los directorios
+     * que ya no existen se eliminan y al terminar se guarda la instantánea en disco si algo ha cambiado.<br>
+     * <br>
+     * Se invoca al arrancar, desde la reconciliación periódica y cuando se pierden eventos del sistema de archivos,
+     * por lo que los recorridos se ejecutan de uno en uno: quien lo invoca mientras hay otro en curso espera a que
+     * termine.
+     */
+    public synchronized void indexLibrary() {
+        long start = System.nanoTime();
+        var roots = libraryRootService.getRoots();
+        // Los directorios añadidos durante el recorrido (p.e. escaneados bajo demanda) no se pueden eliminar
+        var existing = List.copyOf(directories.keySet());
+
+        var futures = new ArrayList<Future<Set<String>>>(roots.size());
+        for (var root : roots) {
+            futures.add(root.getListingExecutor().submit(() -> indexRoot(root)));
+        }
+
+        var visited = new HashSet<String>();
+        var indexedRoots = new HashSet<LibraryRoot>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                var rootVisited = futures.get(i).get();
+                if (rootVisited != null) {
+                    visited.addAll(rootVisited);
+                    indexedRoots.add(roots.get(i));
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.warn("Unable to index library root {}", roots.get(i), e.getCause());
+            }
+        }
+
+        // Solo se eliminan los directorios de las bibliotecas recorridas por completo y los que ya no pertenecen
+        // a ninguna
+        for (var path : existing) {
+            if (!visited.contains(path)) {
+                var root = libraryRootService.findRoot(path);
+                if (root == null || indexedRoots.contains(root)) {
+                    removeDirectory(path);
+                }
+            }
+        }
+        saveSnapshot();
+
+        log.info("Catalog indexed {} directories in {} ms", visited.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Recorre la biblioteca {@code root} verificando cada directorio contra el catálogo.
+     *
+     * @return Rutas de los directorios recorridos o {@code null} si la biblioteca no existe o el recorrido se
+     *         interrumpió
+     */
+    private Set<String> indexRoot(LibraryRoot root) {
+        if (!root.getDir().isDirectory()) {
+            log.warn("Library root {} does not exist, nothing to index", root);
+            return null;
+        }
+
+        var visited = new HashSet<String>();
+        var visitedCanonical = new HashSet<String>();
+        var pending = new ArrayDeque<File>();
+        pending.push(root.getDir());
+
+        while (!pending.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            var dir = pending.pop();
+            if (!visitedCanonical.add(canonicalPath(dir))) {
+                // Enlace simbólico que apunta a un directorio ya recorrido
+                continue;
+            }
+
+            var directory = refresh(dir);
+            visited.add(directory.getPath());
+
+            for (var entry : directory.getEntries()) {
+                if (entry.isDirectory()) {
+                    pending.push(directory.resolve(entry));
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Escanea el directorio {@code dir} en el ejecutor de su biblioteca, esperando como máximo
+     * {@link LibraryRoot#getListingTimeout()}. Las peticiones simultáneas del mismo directorio comparten el escaneo.
+     */
+    private CatalogDirectory scanOnDemand(File dir) {
+        var key = dir.getAbsolutePath();
+        var root = libraryRootService.rootOf(dir);
+
+        var scan = pendingScans.computeIfAbsent(key,
+                path -> CompletableFuture.supplyAsync(() -> refresh(dir), root.getListingExecutor()));
+        scan.whenComplete((directory, error) -> pendingScans.remove(key, scan));
+
+        try {
+            return root.getListingTimeout() > 0
+                    ? scan.get(root.getListingTimeout(), TimeUnit.MILLISECONDS)
+                    : scan.get();
+        } catch (TimeoutException e) {
+            root.recordTimeout();
+            log.debug("Scan of {} did not finish in {} ms, returning partial content", dir, root.getListingTimeout());
+            return CatalogDirectory.partial(key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CatalogDirectory.partial(key);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void loadSnapshot() {
+        var file = new File(snapshotFile);
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring catalog snapshot {} with unknown format", file);
+                return;
+            }
+
+            int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                var path = in.readUTF();
+                long dirLastModified = in.readLong();
+                int entryCount = in.readInt();
+
+                var entries = new ArrayList<CatalogEntry>(entryCount);
+                for (int j = 0; j < entryCount; j++) {
+                    var name = in.readUTF();
+                    boolean directory = in.readBoolean();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    var mimeType = in.readBoolean() ? in.readUTF() : null;
+
+                    entries.add(new CatalogEntry(name, directory, size, lastModified, mimeType));
+                }
+
+                var directory = new CatalogDirectory(path, dirLastModified, entries);
+                directories.put(path, directory);
+                registerIds(directory);
+            }
+
+            log.info("Loaded catalog snapshot with {} directories", dirCount);
+        } catch (IOException e) {
+            log.warn("Unable to read catalog snapshot {}", file, e);
+            directories.clear();
+        }
+    }
+
+    /**
+     * Guarda la instantánea del catálogo en disco si ha cambiado desde la última vez que se guardó.<br>
+     * <br>
+     * Se invoca desde el recorrido de las bibliotecas y desde el hilo que aplica los cambios del sistema de archivos,
+     * por lo que las escrituras se hacen de una en una y cada una en su propio archivo temporal.
+     */
+    public void saveSnapshot() {
+        synchronized (snapshotLock) {
+            if (!dirty.getAndSet(false)) {
+                return;
+            }
+
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() {
+        var file = new File(snapshotFile).getAbsoluteFile();
+        Path tmp = null;
+
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                var snapshot = List.copyOf(directories.values());
+
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(snapshot.size());
+
+                for (var directory : snapshot) {
+                    out.writeUTF(directory.getPath());
+                    out.writeLong(directory.getLastModified());
+                    out.writeInt(directory.getEntries().size());
+
+                    for (var entry : directory.getEntries()) {
+                        out.writeUTF(entry.getName());
+                        out.writeBoolean(entry.isDirectory());
+                        out.writeLong(entry.getSize());
+                        out.writeLong(entry.getLastModified());
+                        out.writeBoolean(entry.getMimeType() != null);
+                        if (entry.getMimeType() != null) {
+                            out.writeUTF(entry.getMimeType());
+                        }
+                    }
+                }
+            }
+
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to write catalog snapshot {}", file, e);
+            dirty.set(true);
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Unable to delete {}", path, e);
+        }
+    }
+
+    private void removeDirectory(String path) {
+        var removed = directories.remove(path);
+        if (removed != null) {
+            // Un directorio que sigue existiendo (p.e. un enlace simbólico a otro ya recorrido) solo deja el
+            // catálogo, sus enlaces deben seguir funcionando
+            if (!new File(path).isDirectory()) {
+                Util.unregister(new File(path));
+                for (var entry : removed.getEntries()) {
+                    Util.unregister(removed.resolve(entry));
+                }
+            }
+
+            dirty.set(true);
+            listeners.forEach(listener -> listener.directoryRemoved(path));
+        }
+    }
+
+    private static boolean changed(CatalogDirectory previous, CatalogDirectory updated) {
+        return previous == null
+                || previous.getLastModified() != updated.getLastModified()
+                || previous.getEntries().size() != updated.getEntries().size()
+                || previous.getFingerprint() != updated.getFingerprint();
+    }
+
+    /**
+     * Registra los identificadores de las entradas del directorio, de forma que los enlaces a cualquier elemento
+     * ya indexado (p.e. guardados en favoritos) sigan siendo válidos tras reiniciar la aplicación.
+     */
+    private static void registerIds(CatalogDirectory directory) {
+        for (var entry : directory.getEntries()) {
+            Util.pathToId(directory.resolve(entry));
+        }
+    }
+
+    /**
+     * Elimina los identificadores de las entradas de {@code previous} que ya no están en {@code updated}
+     * (eliminadas o renombradas), de forma que dejen de resolverse.
+     */
+    private static void unregisterRemovedIds(CatalogDirectory previous, CatalogDirectory updated) {
+        var names = new HashSet<String>();
+        updated.getEntries().forEach(entry -> names.add(entry.getName()));
+
+        for (var entry : previous.getEntries()) {
+            if (!names.contains(entry.getName())) {
+                Util.unregister(previous.resolve(entry));
+            }
+        }
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
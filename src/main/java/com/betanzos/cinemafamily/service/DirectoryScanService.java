@@ -0,0 +1,269 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.utils.AlphanumericStringComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escaneo del contenido de un directorio para el catálogo.<br>
+ * <br>
+ * Los atributos de cada elemento (tipo, tamaño y fecha de modificación) se leen con una única llamada y el MIME
+ * type solo se detecta para los archivos nuevos o modificados, según la política de su biblioteca
+ * ({@link LibraryRoot#getMimeDetection()}). En directorios con al menos {@code scan.parallel-threshold} elementos
+ * este trabajo se reparte en el ejecutor de E/S de su biblioteca, que admite como máximo
+ * {@link LibraryRoot#getIoThreads()} operaciones simultáneas (en hilos virtuales si la JVM los soporta), ya que en
+ * unidades de red el coste está dominado por la latencia de cada operación y no por la CPU.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class DirectoryScanService {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryScanService.class);
+
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    @Value("${scan.parallel-threshold}")
+    private int parallelThreshold;
+
+    @Value("${catalog.sort.ignore-case}")
+    private boolean sortIgnoreCase;
+
+    @Value("${catalog.sort.locale}")
+    private String sortLocale;
+
+    private final MimeTypeService mimeTypeService;
+    private final LibraryRootService libraryRootService;
+
+    private AlphanumericStringComparator nameComparator = new AlphanumericStringComparator();
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong scannedEntries = new AtomicLong();
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong maxScanNanos = new AtomicLong();
+    private final AtomicLong lastScanNanos = new AtomicLong();
+
+    @Autowired
+    public DirectoryScanService(MimeTypeService mimeTypeService, LibraryRootService libraryRootService) {
+        this.mimeTypeService = mimeTypeService;
+        this.libraryRootService = libraryRootService;
+    }
+
+    @PostConstruct
+    public void start() {
+        nameComparator = sortLocale.isBlank()
+                ? new AlphanumericStringComparator(sortIgnoreCase)
+                : new AlphanumericStringComparator(Locale.forLanguageTag(sortLocale));
+    }
+
+    /**
+     * Escanea el directorio {@code dir}. Las entradas se devuelven con las carpetas primero y después los archivos,
+     * ambos en orden natural por nombre.
+     *
+     * @param dir      Directorio a escanear
+     * @param previous Contenido anterior del directorio (o {@code null}), del que se reutiliza el MIME type de los
+     *                 archivos que no han cambiado
+     *
+     * @return Contenido del directorio
+     */
+    public CatalogDirectory scan(File dir, CatalogDirectory previous) {
+        long start = System.nanoTime();
+        var root = libraryRootService.rootOf(dir);
+
+        var children = new ArrayList<Path>();
+        try (var stream = Files.newDirectoryStream(dir.toPath())) {
+            for (var child : stream) {
+                children.add(child);
+            }
+        } catch (IOException e) {
+            root.recordScan(System.nanoTime() - start, Files.notExists(dir.toPath()));
+            return new CatalogDirectory(dir.getAbsolutePath(), 0L, List.of());
+        }
+
+        var previousEntries = new HashMap<String, CatalogEntry>();
+        if (previous != null) {
+            previous.getEntries().forEach(entry -> previousEntries.put(entry.getName(), entry));
+        }
+
+        var entries = children.size() >= parallelThreshold
+                ? readEntriesInParallel(root, children, previousEntries)
+                : readEntries(root, children, 0, previousEntries, new ArrayList<>(children.size()));
+
+        var folders = new ArrayList<CatalogEntry>();
+        var others = new ArrayList<CatalogEntry>();
+        for (var entry : entries) {
+            (entry.isDirectory() ? folders : others).add(entry);
+        }
+
+        // Ordenar por nombre
+        nameComparator.sort(folders, CatalogEntry::getName);
+        nameComparator.sort(others, CatalogEntry::getName);
+
+        folders.addAll(others);
+
+        var directory = new CatalogDirectory(dir.getAbsolutePath(), dir.lastModified(), folders);
+
+        long elapsed = System.nanoTime() - start;
+        scans.incrementAndGet();
+        scannedEntries.addAndGet(children.size());
+        scanNanos.addAndGet(elapsed);
+        maxScanNanos.accumulateAndGet(elapsed, Math::max);
+        lastScanNanos.set(elapsed);
+        root.recordScan(elapsed, true);
+
+        log.debug("Scanned {} ({} entries) in {} ms", dir, children.size(), elapsed / 1_000_000);
+
+        return directory;
+    }
+
+    /**
+     * Orden en el que {@link #scan(File, CatalogDirectory)} devuelve las entradas: primero las carpetas y después
+     * los archivos, ambos en orden natural por nombre.
+     */
+    public Comparator<CatalogEntry> getEntryOrder() {
+        var comparator = nameComparator;
+        return (a, b) -> a.isDirectory() != b.isDirectory()
+                ? (a.isDirectory() ? -1 : 1)
+                : comparator.compare(a.getName(), b.getName());
+    }
+
+    public long getScans() {
+        return scans.get();
+    }
+
+    public long getScannedEntries() {
+        return scannedEntries.get();
+    }
+
+    public long getScanNanos() {
+        return scanNanos.get();
+    }
+
+    public long getMaxScanNanos() {
+        return maxScanNanos.get();
+    }
+
+    public long getLastScanNanos() {
+        return lastScanNanos.get();
+    }
+
+    private List<CatalogEntry> readEntriesInParallel(LibraryRoot root, List<Path> children,
+                                                     Map<String, CatalogEntry> previousEntries) {
+        // Cada tarea procesa un bloque de elementos consecutivos para amortizar el coste de repartir el trabajo
+        int tasks = root.getIoThreads() * 4;
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (children.size() + tasks - 1) / tasks);
+        var ioPermits = root.getIoPermits();
+
+        var futures = new ArrayList<Future<List<CatalogEntry>>>();
+        for (int from = 0; from < children.size(); from += chunkSize) {
+            var chunk = children.subList(from, Math.min(from + chunkSize, children.size()));
+            futures.add(root.getScanExecutor().submit(() -> {
+                ioPermits.acquire();
+                try {
+                    return readEntries(root, chunk, 0, previousEntries, new ArrayList<>(chunk.size()));
+                } finally {
+                    ioPermits.release();
+                }
+            }));
+        }
+
+        var entries = new ArrayList<CatalogEntry>(children.size());
+        for (var future : futures) {
+            try {
+                entries.addAll(future.get());
+            } catch (InterruptedException e) {
+                // Terminar en este hilo lo que falte para no devolver un directorio incompleto. La interrupción se
+                // restablece al terminar para que no impida leer los archivos al detectar su MIME type
+                futures.forEach(pending -> pending.cancel(true));
+                try {
+                    return readEntries(root, children, entries.size(), previousEntries, entries);
+                } finally {
+                    Thread.currentThread().interrupt();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        return entries;
+    }
+
+    private List<CatalogEntry> readEntries(LibraryRoot root, List<Path> children, int from,
+                                           Map<String, CatalogEntry> previousEntries, List<CatalogEntry> entries) {
+        for (int i = from; i < children.size(); i++) {
+            entries.add(readEntry(root, children.get(i), previousEntries));
+        }
+
+        return entries;
+    }
+
+    private CatalogEntry readEntry(LibraryRoot root, Path child, Map<String, CatalogEntry> previousEntries) {
+        var name = child.getFileName().toString();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Enlace roto o elemento eliminado durante el escaneo
+            return new CatalogEntry(name, false, 0L, 0L, null);
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (attributes.isDirectory()) {
+            return new CatalogEntry(name, true, 0L, lastModified, null);
+        }
+
+        long size = attributes.size();
+        var known = previousEntries.get(name);
+        Optional<String> mimeType;
+        if (known != null && !known.isDirectory() && known.isUnchanged(size, lastModified)) {
+            mimeType = Optional.ofNullable(known.getMimeType());
+        } else if (root.getMimeDetection() == LibraryRoot.MimeDetection.EXTENSION) {
+            mimeType = mimeTypeService.detectMimeTypeByExtension(name);
+        } else {
+            mimeType = mimeTypeService.detectMimeType(child.toFile(), size, lastModified);
+        }
+
+        return new CatalogEntry(name, false, size, lastModified, mimeType.orElse(null));
+    }
+}
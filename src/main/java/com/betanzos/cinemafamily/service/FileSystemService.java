@@ -15,13 +15,21 @@
  */
 package com.betanzos.cinemafamily.service;
 
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
 import com.betanzos.cinemafamily.domain.FileSystemElement;
 import com.betanzos.cinemafamily.domain.Folder;
+import com.betanzos.cinemafamily.domain.FolderPage;
 import com.betanzos.cinemafamily.domain.SubtitleFile;
+import com.betanzos.cinemafamily.domain.SubtitleSidecar;
 import com.betanzos.cinemafamily.domain.VideoFile;
 import com.betanzos.cinemafamily.exception.FileNotFoundException;
-import com.betanzos.cinemafamily.utils.AlphanumericStringComparator;
+import com.betanzos.cinemafamily.exception.InvalidCursorException;
+import com.betanzos.cinemafamily.utils.LanguageTags;
 import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
@@ -29,9 +37,14 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * @author Eduardo Betanzos
@@ -40,6 +53,59 @@ import java.util.List;
 @Service
 public class FileSystemService {
 
+    /**
+     * Etiqueta BCP 47 de los subtítulos cuyo idioma se desconoce.
+     */
+    private static final String UNKNOWN_LANGUAGE = "und";
+
+    /**
+     * Rangos de número de elementos de las carpetas, utilizados como dimensión de los tiempos de los listados.
+     */
+    private static final String[] FOLDER_SIZES = {"0-99", "100-999", "1000-9999", "10000+"};
+
+    private CatalogService catalogService;
+    private SubtitleCacheService subtitleCacheService;
+    private ThumbnailService thumbnailService;
+    private LibraryRootService libraryRootService;
+    private WatchProgressService watchProgressService;
+    private MediaMetadataService mediaMetadataService;
+
+    private final Timer[] listingTimers;
+    private final Timer[] pageTimers;
+    private final Timer subtitleLookupTimer;
+    private final Timer fileResourceTimer;
+    private final Timer subtitleResourceTimer;
+
+    @Autowired
+    public FileSystemService(CatalogService catalogService,
+                             SubtitleCacheService subtitleCacheService,
+                             ThumbnailService thumbnailService,
+                             LibraryRootService libraryRootService,
+                             WatchProgressService watchProgressService,
+                             MediaMetadataService mediaMetadataService,
+                             MeterRegistry meterRegistry) {
+        this.catalogService = catalogService;
+        this.subtitleCacheService = subtitleCacheService;
+        this.thumbnailService = thumbnailService;
+        this.libraryRootService = libraryRootService;
+        this.watchProgressService = watchProgressService;
+        this.mediaMetadataService = mediaMetadataService;
+
+        this.listingTimers = listingTimers(meterRegistry, "all");
+        this.pageTimers = listingTimers(meterRegistry, "page");
+        this.subtitleLookupTimer = Timer.builder("cinemafamily.subtitles.lookup")
+                .description("Search of the subtitles of a video")
+                .register(meterRegistry);
+        this.fileResourceTimer = Timer.builder("cinemafamily.resource.load")
+                .description("Resolution of a file as a resource")
+                .tag("type", "file")
+                .register(meterRegistry);
+        this.subtitleResourceTimer = Timer.builder("cinemafamily.resource.load")
+                .description("Resolution of a file as a resource")
+                .tag("type", "subtitle")
+                .register(meterRegistry);
+    }
+
     /**
      * Permite obtener el contenido del directorio cuyo identificador es {@code dirId}.<br>
      * <br>
@@ -67,44 +133,177 @@ public class FileSystemService {
      *         vacío la lista que se devuelve igualmente lo estará.
      */
     public List<FileSystemElement> getDirContent(File dirPath) {
-        var filesArr = dirPath.listFiles();
-
-        if (filesArr.length > 0) {
-            var fsFolders = new ArrayList<FileSystemElement>();
-            var fsFiles = new ArrayList<VideoFile>();
-
-            for (var file : filesArr) {
-                if (file.isDirectory()) {
-                    fsFolders.add(new Folder(Util.pathToId(file), file.getName()));
-                } else {
-                    Util.detectMimeType(file)
-                            .ifPresent(mime -> {
-                                if (mime.startsWith("video")) {
-                                    fsFiles.add(new VideoFile(Util.pathToId(file), file.getName()));
-                                }
-                            });
-                }
+        var elements = new ArrayList<FileSystemElement>();
+        forEachDirElement(dirPath, elements::add);
+
+        return elements;
+    }
+
+    /**
+     * Recorre el contenido del directorio denotado por {@code dirPath} en el mismo orden que
+     * {@link #getDirContent(File)}, pero sin construir la lista completa.
+     *
+     * @param dirPath Directorio a recorrer
+     * @param action  Acción a ejecutar con cada elemento
+     */
+    public void forEachDirElement(File dirPath, Consumer<FileSystemElement> action) {
+        long start = System.nanoTime();
+        var directory = catalogService.getDirectory(dirPath);
+        long thumbnailPriority = thumbnailService.nextViewPriority();
+
+        for (var entry : directory.getEntries()) {
+            var element = toElement(directory, entry, thumbnailPriority);
+            if (element != null) {
+                action.accept(element);
             }
+        }
 
-            // Ordenar por nombre
-            fsFolders.sort(Comparator.comparing(FileSystemElement::getName, new AlphanumericStringComparator()));
-            fsFiles.sort(Comparator.comparing(FileSystemElement::getName, new AlphanumericStringComparator()));
+        record(listingTimers, directory, start);
+    }
 
-            fsFolders.addAll(fsFiles);
+    /**
+     * Obtiene una página del contenido del directorio cuyo identificador es {@code dirId}.
+     *
+     * @param dirId  Identificador del directorio
+     * @param cursor Valor de {@link FolderPage#getNextCursor()} de la página anterior o {@code null} para obtener
+     *               la primera página
+     * @param limit  Número máximo de elementos de la página
+     *
+     * @return Página solicitada
+     */
+    public FolderPage getDirPage(String dirId, String cursor, int limit) {
+        return getDirPage(Util.idToPath(dirId), cursor, limit);
+    }
 
-            return fsFolders;
+    /**
+     * Obtiene una página del contenido del directorio denotado por {@code dirPath}.<br>
+     * <br>
+     * El cursor identifica el último elemento de la página anterior, por lo que la paginación sigue siendo
+     * coherente aunque se añadan o eliminen elementos del directorio entre una página y la siguiente.
+     *
+     * @param dirPath Directorio del que se devolverá el contenido
+     * @param cursor  Valor de {@link FolderPage#getNextCursor()} de la página anterior o {@code null} para obtener
+     *                la primera página
+     * @param limit   Número máximo de elementos de la página
+     *
+     * @return Página solicitada
+     */
+    public FolderPage getDirPage(File dirPath, String cursor, int limit) {
+        long start = System.nanoTime();
+        var directory = catalogService.getDirectory(dirPath);
+        var entries = directory.getEntries();
+
+        int index = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            int position = Collections.binarySearch(entries, decodeCursor(cursor), catalogService.getEntryOrder());
+            index = position >= 0 ? position + 1 : -(position + 1);
+        }
+
+        var elements = new ArrayList<FileSystemElement>(Math.min(limit, entries.size() - index));
+        long thumbnailPriority = thumbnailService.nextViewPriority();
+        CatalogEntry last = null;
+
+        for (; index < entries.size() && elements.size() < limit; index++) {
+            var element = toElement(directory, entries.get(index), thumbnailPriority);
+            if (element != null) {
+                elements.add(element);
+                last = entries.get(index);
+            }
+        }
+
+        // Solo hay página siguiente si queda algún elemento visible
+        for (; index < entries.size(); index++) {
+            var entry = entries.get(index);
+            if (entry.isDirectory() || entry.isVideo()) {
+                record(pageTimers, directory, start);
+                return new FolderPage(elements, encodeCursor(last), directory.isPartial());
+            }
         }
 
-        return List.of();
+        record(pageTimers, directory, start);
+        return new FolderPage(elements, null, directory.isPartial());
     }
 
     /**
-     * Carga los archivos que posiblemente sean subtítulos pertenecientes al video cuyo identificador es
-     * {@code videoId}.<br>
+     * Primera página de la página principal: el contenido de la biblioteca si solo hay una o, si hay varias, una
+     * carpeta por biblioteca.
+     *
+     * @param limit Número máximo de elementos de la página
+     *
+     * @return Página solicitada
+     */
+    public FolderPage getLibraryPage(int limit) {
+        var roots = libraryRootService.getRoots();
+        if (libraryRootService.isSingleRoot()) {
+            return getDirPage(roots.get(0).getDir(), null, limit);
+        }
+
+        var elements = new ArrayList<FileSystemElement>(roots.size());
+        for (var root : roots) {
+            elements.add(new Folder(Util.pathToId(root.getDir()), root.getName(), null));
+        }
+
+        return new FolderPage(elements, null);
+    }
+
+    /**
+     * Identificador de la carpeta que muestra la página principal o {@code null} si hay varias bibliotecas.
+     */
+    public String getLibraryId() {
+        return libraryRootService.isSingleRoot() ? Util.pathToId(libraryRootService.getRoots().get(0).getDir()) : null;
+    }
+
+    /**
+     * Versión de la página principal ({@link #getLibraryPage(int)}), válida como valor de un ETag. Si hay varias
+     * bibliotecas solo depende de la configuración, por lo que se obtiene sin acceder a ninguna de ellas.
+     */
+    public String getLibraryVersion() {
+        if (libraryRootService.isSingleRoot()) {
+            return getDirVersion(libraryRootService.getRoots().get(0).getDir());
+        }
+
+        return "roots-" + Integer.toHexString(libraryRootService.getRoots().toString().hashCode());
+    }
+
+    /**
+     * Versión del contenido del directorio denotado por {@code dirPath}, que cambia siempre que cambia su listado.
+     * Se obtiene del catálogo sin recorrer el disco salvo que el directorio aún no esté indexado.<br>
      * <br>
-     * Para determinar si un archivo podría contener subtítulos se valora que:<br>
-     * - se trate de un archivo de texto (si su MIME type es text/plain), y<br>
-     * - su nombre es igual al nombre del archivo de video excluyendo las extensiones.
+     * Incluye la fecha de modificación y el número de entradas del directorio, su huella
+     * ({@link CatalogDirectory#getFingerprint()}) y la de las subcarpetas ya indexadas, ya que el póster de una
+     * carpeta depende de su contenido, además de la versión del progreso y de los metadatos de sus videos
+     * ({@link WatchProgressService#getDirectoryVersion(File)}, {@link MediaMetadataService#getDirectoryVersion(File)}).
+     *
+     * @param dirPath Directorio a consultar
+     *
+     * @return Versión del directorio, válida como valor de un ETag
+     */
+    public String getDirVersion(File dirPath) {
+        var directory = catalogService.getDirectory(dirPath);
+
+        long subdirectories = 0;
+        for (var entry : directory.getEntries()) {
+            if (!entry.isDirectory()) {
+                // Las carpetas siempre van antes que los archivos
+                break;
+            }
+
+            var subdirectory = catalogService.getIndexedDirectory(directory.resolve(entry));
+            subdirectories = 31 * subdirectories + (subdirectory == null ? 0 : subdirectory.getFingerprint());
+        }
+
+        return Long.toHexString(directory.getLastModified())
+                + "-" + Integer.toHexString(directory.getEntries().size())
+                + "-" + Long.toHexString(directory.getFingerprint() ^ subdirectories)
+                + "-" + Long.toHexString(watchProgressService.getDirectoryVersion(dirPath))
+                + "-" + Long.toHexString(mediaMetadataService.getDirectoryVersion(dirPath));
+    }
+
+    /**
+     * Carga los subtítulos del video cuyo identificador es {@code videoId}: los archivos de subtítulos
+     * ({@code .srt}, {@code .vtt}, {@code .ass}, {@code .ssa} o {@code .sub}) del mismo directorio cuyo nombre es el
+     * del video, opcionalmente seguido de etiquetas de idioma y tipo ({@code Movie.en.srt},
+     * {@code Movie.spa.forced.srt}). Ver {@link CatalogDirectory#findSubtitles(String)}.
      *
      * @param videoId Identificador del video
      *
@@ -112,22 +311,33 @@ public class FileSystemService {
      *         una lista vacía
      */
     public List<SubtitleFile> loadVideoFileSubtitules(String videoId) {
+        return subtitleLookupTimer.record(() -> findVideoFileSubtitles(videoId));
+    }
+
+    private List<SubtitleFile> findVideoFileSubtitles(String videoId) {
         File file = Util.idToPath(videoId);
-        File[] filesArr = file.getParentFile().listFiles();
-
-        var subs = new ArrayList<SubtitleFile>(5);
-
-        for (var f : filesArr) {
-            if (f.isFile() && Util.areEqualsWithoutExtension(f.getName(), file.getName())) {
-                Util.detectMimeType(f)
-                        .ifPresent(mime -> {
-                            if (mime.equals("text/plain")) {
-                                var langId = "lang" + (subs.size() + 1);
-                                var langName = "Language " + (subs.size() + 1);
-                                subs.add(new SubtitleFile(Util.pathToId(f), f.getName(), langId, langName));
-                            }
-                        });
+        var directory = catalogService.getDirectory(file.getParentFile());
+        var sidecars = new ArrayList<>(directory.findSubtitles(file.getName()));
+
+        // Los subtítulos forzados solo traducen algunos diálogos, por lo que no deben ser los primeros (por defecto)
+        sidecars.sort(Comparator.comparing(SubtitleSidecar::isForced));
+
+        var subs = new ArrayList<SubtitleFile>(sidecars.size());
+        for (var sidecar : sidecars) {
+            var entry = sidecar.getEntry();
+            var langId = sidecar.getLanguage() != null ? sidecar.getLanguage() : UNKNOWN_LANGUAGE;
+            var langName = sidecar.getLanguage() != null
+                    ? LanguageTags.displayName(sidecar.getLanguage())
+                    : "Language " + (subs.size() + 1);
+
+            if (sidecar.isForced()) {
+                langName += " (Forced)";
             }
+            if (sidecar.isHearingImpaired()) {
+                langName += " (SDH)";
+            }
+
+            subs.add(new SubtitleFile(Util.pathToId(directory.resolve(entry)), entry.getName(), langId, langName));
         }
 
         return subs;
@@ -143,6 +353,10 @@ public class FileSystemService {
      * @return El archivo como {@link Resource}
      */
     public Resource loadFileAsResource(String fileId) {
+        return fileResourceTimer.record(() -> fileAsResource(fileId));
+    }
+
+    private Resource fileAsResource(String fileId) {
         try {
             Resource resource = new UrlResource(Util.idToPath(fileId).toURI());
 
@@ -156,16 +370,101 @@ public class FileSystemService {
         }
     }
 
+    /**
+     * Carga el archivo de subtítulos cuyo identificador es {@code subFileId}. Los subtítulos SRT se devuelven
+     * convertidos a VTT (desde la caché de subtítulos convertidos siempre que sea posible); el resto de archivos
+     * se devuelven sin modificar.
+     *
+     * @param subFileId Identificador del archivo de subtítulos
+     *
+     * @return El archivo de subtítulos como {@link Resource}
+     */
     public Resource loadSubtitleFileAsResource(String subFileId) {
+        return subtitleResourceTimer.record(() -> subtitleFileAsResource(subFileId));
+    }
+
+    private Resource subtitleFileAsResource(String subFileId) {
         var subFile = Util.idToPath(subFileId);
         if (!subFile.exists()) {
             throw new FileNotFoundException("File not found " + subFileId);
         }
 
-        return Util.subtitleSrtToVtt(subFile)
+        return subtitleCacheService.getConverted(subFile)
                     .stream()
                     .map(data -> (Resource) new ByteArrayResource(data))
                     .findFirst()
-                    .orElseGet(() -> loadFileAsResource(subFileId));
+                    .orElseGet(() -> fileAsResource(subFileId));
+    }
+
+    /**
+     * Obtiene el ETag del archivo de subtítulos cuyo identificador es {@code subFileId} sin necesidad de leerlo.
+     *
+     * @param subFileId Identificador del archivo de subtítulos
+     *
+     * @return ETag fuerte del subtítulo
+     */
+    public String getSubtitleETag(String subFileId) {
+        var subFile = Util.idToPath(subFileId);
+        if (!subFile.exists()) {
+            throw new FileNotFoundException("File not found " + subFileId);
+        }
+
+        return subtitleCacheService.etag(subFile);
+    }
+
+    private static Timer[] listingTimers(MeterRegistry meterRegistry, String operation) {
+        var timers = new Timer[FOLDER_SIZES.length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = Timer.builder("cinemafamily.folder.listing")
+                    .description("Listing of the content of a folder")
+                    .tag("operation", operation)
+                    .tag("size", FOLDER_SIZES[i])
+                    .register(meterRegistry);
+        }
+
+        return timers;
+    }
+
+    private static void record(Timer[] timers, CatalogDirectory directory, long start) {
+        int entries = directory.getEntries().size();
+        int size = entries < 100 ? 0 : entries < 1000 ? 1 : entries < 10000 ? 2 : 3;
+
+        timers[size].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private FileSystemElement toElement(CatalogDirectory directory, CatalogEntry entry, long thumbnailPriority) {
+        if (entry.isDirectory()) {
+            return new Folder(Util.pathToId(directory.resolve(entry)), entry.getName(),
+                    thumbnailService.thumbnailFor(directory, entry, thumbnailPriority));
+        } else if (entry.isVideo()) {
+            var id = Util.pathToId(directory.resolve(entry));
+            return new VideoFile(id, entry.getName(), thumbnailService.thumbnailFor(directory, entry, thumbnailPriority),
+                    watchProgressService.get(id), mediaMetadataService.metadataFor(directory, entry));
+        }
+
+        return null;
+    }
+
+    private static String encodeCursor(CatalogEntry entry) {
+        var cursor = (entry.isDirectory() ? "d" : "f") + entry.getName();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Obtiene una entrada equivalente, a efectos de ordenación, a la que identifica el cursor.
+     */
+    private static CatalogEntry decodeCursor(String cursor) {
+        String value;
+        try {
+            value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Invalid cursor " + cursor, e);
+        }
+
+        if (value.isEmpty() || (value.charAt(0) != 'd' && value.charAt(0) != 'f')) {
+            throw new InvalidCursorException("Invalid cursor " + cursor);
+        }
+
+        return new CatalogEntry(value.substring(1), value.charAt(0) == 'd', 0L, 0L, null);
     }
 }
@@ -0,0 +1,542 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reproducción adaptativa (HLS) de los videos que el navegador no puede reproducir directamente (p.e. MKV o AVI).<br>
+ * <br>
+ * La lista de reproducción se calcula a partir de la duración del video, sin generar nada. Cada segmento MPEG-TS
+ * de {@code hls.segment-seconds} segundos se convierte con {@code ffmpeg} de forma independiente la primera vez que
+ * se solicita y, en segundo plano, se adelantan los {@code hls.prefetch-segments} siguientes. Los segmentos se
+ * guardan en {@code hls.cache.dir} y se eliminan los usados hace más tiempo cuando se supera
+ * {@code hls.cache.max-bytes}.<br>
+ * <br>
+ * Las conversiones se limitan a {@code hls.transcodes-per-core} por núcleo. Los segmentos que se están viendo
+ * tienen prioridad sobre los adelantados, y entre estos se atiende primero el más cercano a la posición de cada
+ * espectador, por lo que un video no puede acaparar todas las conversiones. Si {@code ffmpeg} no está instalado el
+ * servicio queda desactivado y los videos se sirven siempre sin convertir.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class HlsService {
+    private static final Logger log = LoggerFactory.getLogger(HlsService.class);
+
+    private static final long PROBE_TIMEOUT_MILLIS = 10_000;
+    // Duraciones que se recuerdan; las claves cambian al modificarse un video, por lo que se descartan las más antiguas
+    private static final int MAX_DURATIONS = 1024;
+
+    @Value("${hls.enabled}")
+    private boolean enabled;
+
+    @Value("${hls.ffmpeg}")
+    private String ffmpeg;
+
+    @Value("${hls.ffprobe}")
+    private String ffprobe;
+
+    @Value("${hls.native-types}")
+    private List<String> nativeTypes;
+
+    @Value("${hls.segment-seconds}")
+    private int segmentSeconds;
+
+    @Value("${hls.prefetch-segments}")
+    private int prefetchSegments;
+
+    @Value("${hls.transcodes-per-core}")
+    private double transcodesPerCore;
+
+    @Value("${hls.segment-timeout}")
+    private long segmentTimeout;
+
+    @Value("${hls.cache.dir}")
+    private String cacheDirectory;
+
+    @Value("${hls.cache.max-bytes}")
+    private long cacheMaxBytes;
+
+    @Value("${hls.player-script}")
+    private String playerScript;
+
+    @Value("${hls.player-script-integrity}")
+    private String playerScriptIntegrity;
+
+    private final MimeTypeService mimeTypeService;
+    private final Timer transcodeTimer;
+
+    private final Map<String, Double> durations = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_DURATIONS;
+        }
+    };
+    private final Map<String, Job> pending = new HashMap<>();
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong jobSequence = new AtomicLong();
+    private ThreadPoolExecutor executor;
+    private SegmentCache cache;
+    private volatile boolean available;
+
+    private final AtomicLong transcoded = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @Autowired
+    public HlsService(MimeTypeService mimeTypeService, MeterRegistry meterRegistry) {
+        this.mimeTypeService = mimeTypeService;
+        this.transcodeTimer = Timer.builder("cinemafamily.hls.transcode")
+                .description("Conversion of a video segment to MPEG-TS")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        if (!commandAvailable(ffmpeg) || !commandAvailable(ffprobe)) {
+            log.info("ffmpeg/ffprobe not found, adaptive streaming is disabled");
+            return;
+        }
+
+        cache = new SegmentCache(Paths.get(cacheDirectory), cacheMaxBytes);
+        try {
+            cache.load();
+        } catch (IOException e) {
+            log.warn("Unable to use HLS cache directory {}, adaptive streaming is disabled", cacheDirectory, e);
+            return;
+        }
+
+        int threads = Math.max(1, (int) Math.round(Runtime.getRuntime().availableProcessors() * transcodesPerCore));
+        var counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+            var thread = new Thread(r, "hls-transcoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        available = true;
+
+        if (playerScript.startsWith("/") && !new ClassPathResource("static" + playerScript).exists()) {
+            log.warn("HLS player {} not found in the static resources, transcoded videos will only play in browsers "
+                    + "with native HLS support", playerScript);
+            playerScript = "";
+        }
+
+        log.info("Adaptive streaming enabled with {} concurrent transcodes", threads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * URL del reproductor de HLS para los navegadores sin soporte nativo ({@code hls.player-script}).
+     *
+     * @return URL o {@code null} si no está disponible
+     */
+    public String getPlayerScript() {
+        return playerScript.isBlank() ? null : playerScript;
+    }
+
+    /**
+     * Hash Subresource Integrity del reproductor ({@code hls.player-script-integrity}).
+     *
+     * @return Hash o {@code null} si no se ha configurado
+     */
+    public String getPlayerScriptIntegrity() {
+        return playerScriptIntegrity.isBlank() ? null : playerScriptIntegrity;
+    }
+
+    /**
+     * Indica si el video {@code video} debe reproducirse mediante HLS porque el navegador no admite su formato.
+     */
+    public boolean shouldTranscode(File video) {
+        return available && !mimeTypeService.detectMimeType(video).map(nativeTypes::contains).orElse(false);
+    }
+
+    /**
+     * ETag de la lista de reproducción y los segmentos del video, calculado sin leerlo ni convertir nada.
+     *
+     * @param videoId Identificador del video
+     *
+     * @return ETag fuerte (entre comillas)
+     *
+     * @throws FileNotFoundException Si HLS no está disponible o el video no existe
+     */
+    public String getETag(String videoId) {
+        return "\"" + cacheKey(source(videoId)) + "\"";
+    }
+
+    /**
+     * Genera la lista de reproducción HLS del video. Las URIs de los segmentos son relativas a la de la lista.
+     *
+     * @param videoId Identificador del video
+     *
+     * @return Contenido de la lista de reproducción
+     *
+     * @throws FileNotFoundException Si HLS no está disponible o no se puede obtener la duración del video
+     */
+    public String getPlaylist(String videoId) {
+        var video = source(videoId);
+        return playlist(duration(video), segmentSeconds);
+    }
+
+    /**
+     * Obtiene el segmento número {@code index} del video, convirtiéndolo si aún no está en la caché, y programa la
+     * conversión de los siguientes.
+     *
+     * @param videoId Identificador del video
+     * @param index   Número del segmento, a partir de 0
+     *
+     * @return Canal abierto sobre el segmento MPEG-TS, que debe cerrar quien lo obtiene, o {@link Optional#empty()}
+     *         si no pudo convertirse a tiempo
+     *
+     * @throws FileNotFoundException Si HLS no está disponible o el segmento no existe
+     */
+    public Optional<FileChannel> getSegment(String videoId, int index) {
+        var video = source(videoId);
+        double duration = duration(video);
+        int segments = segmentCount(duration, segmentSeconds);
+        if (index < 0 || index >= segments) {
+            throw new FileNotFoundException("Segment " + index + " of " + video + " does not exist");
+        }
+
+        var prefix = cacheKey(video);
+        var job = schedule(video, prefix, index, duration, 0);
+        for (int next = index + 1; next <= index + prefetchSegments && next < segments; next++) {
+            schedule(video, prefix, next, duration, next - index);
+        }
+        discardPrefetch(prefix, index);
+
+        try {
+            if (job != null && !job.result.get(segmentTimeout, TimeUnit.MILLISECONDS)) {
+                return Optional.empty();
+            }
+            // Se abre desde la caché para que no pueda eliminarse mientras se envía
+            return Optional.ofNullable(cache.open(segmentName(prefix, index)));
+        } catch (TimeoutException | ExecutionException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    public long getTranscoded() {
+        return transcoded.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getCacheBytes() {
+        return available ? cache.getBytes() : 0;
+    }
+
+    public long getCacheEvictions() {
+        return available ? cache.getEvictions() : 0;
+    }
+
+    static String playlist(double duration, int segmentSeconds) {
+        int segments = segmentCount(duration, segmentSeconds);
+
+        var playlist = new StringBuilder(64 + segments * 24)
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-TARGETDURATION:").append(segmentSeconds).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+
+        for (int i = 0; i < segments; i++) {
+            double length = Math.min(segmentSeconds, duration - (double) i * segmentSeconds);
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", length))
+                    .append(i).append(".ts\n");
+        }
+
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    static int segmentCount(double duration, int segmentSeconds) {
+        return (int) Math.ceil(duration / segmentSeconds);
+    }
+
+    private File source(String videoId) {
+        if (!available) {
+            throw new FileNotFoundException("Adaptive streaming is not available");
+        }
+
+        var video = Util.idToPath(videoId);
+        if (!video.isFile()) {
+            throw new FileNotFoundException("File not found " + video);
+        }
+
+        return video;
+    }
+
+    /**
+     * Programa la conversión de un segmento si no está en la caché.
+     *
+     * @param distance 0 para el segmento que se está viendo o la distancia a este para los que se adelantan
+     *
+     * @return El trabajo de conversión o {@code null} si el segmento ya está en la caché
+     */
+    private Job schedule(File video, String prefix, int index, double duration, int distance) {
+        var name = segmentName(prefix, index);
+
+        synchronized (pending) {
+            var job = pending.get(name);
+            if (job != null) {
+                if (distance < job.distance && queue.remove(job)) {
+                    job.distance = distance;
+                    queue.offer(job);
+                }
+                return job;
+            }
+
+            if (cache.contains(name)) {
+                return null;
+            }
+
+            job = new Job(name, video, index, duration, distance);
+            pending.put(name, job);
+            executor.execute(job);
+
+            return job;
+        }
+    }
+
+    /**
+     * Descarta los segmentos adelantados del mismo video que ya no están delante de la posición actual (p.e. tras
+     * saltar a otra parte del video).
+     */
+    private void discardPrefetch(String prefix, int index) {
+        synchronized (pending) {
+            for (var runnable : queue) {
+                var job = (Job) runnable;
+                if (job.distance > 0 && job.name.startsWith(prefix + "/")
+                        && (job.index < index || job.index > index + prefetchSegments) && queue.remove(job)) {
+                    pending.remove(job.name);
+                    job.result.complete(false);
+                }
+            }
+        }
+    }
+
+    private void transcode(Job job) throws IOException {
+        double start = (double) job.index * segmentSeconds;
+        double length = Math.min(segmentSeconds, job.duration - start);
+
+        var tmp = cache.createTempFile(job.name);
+        try {
+            List<String> command = new ArrayList<>(List.of(ffmpeg, "-nostdin", "-v", "error", "-y",
+                    "-ss", seconds(start), "-i", job.video.getAbsolutePath(), "-t", seconds(length),
+                    "-map", "0:v:0", "-map", "0:a:0?",
+                    "-c:v", "libx264", "-preset", "veryfast", "-pix_fmt", "yuv420p",
+                    "-c:a", "aac", "-ac", "2",
+                    // Marcas de tiempo continuas entre segmentos convertidos por separado
+                    "-output_ts_offset", seconds(start),
+                    "-f", "mpegts", tmp.toString()));
+
+            long begin = System.nanoTime();
+            run(command, segmentTimeout, false);
+            transcodeTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+
+            cache.put(job.name, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private double duration(File video) {
+        var key = cacheKey(video);
+        Double duration;
+        synchronized (durations) {
+            duration = durations.get(key);
+        }
+        if (duration != null) {
+            return duration;
+        }
+
+        try {
+            var output = run(List.of(ffprobe, "-v", "error", "-show_entries", "format=duration",
+                    "-of", "default=noprint_wrappers=1:nokey=1", video.getAbsolutePath()), PROBE_TIMEOUT_MILLIS, true);
+            duration = Double.parseDouble(output.trim());
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Unable to read duration of {}", video, e);
+            throw new FileNotFoundException("Unable to read duration of " + video, e);
+        }
+
+        if (!(duration > 0)) {
+            throw new FileNotFoundException("Unable to read duration of " + video);
+        }
+
+        synchronized (durations) {
+            durations.put(key, duration);
+        }
+        return duration;
+    }
+
+    /**
+     * Ejecuta {@code command} y espera a que termine correctamente.
+     *
+     * @param captureOutput Indica si se debe devolver la salida estándar del proceso (debe ser breve)
+     *
+     * @return La salida estándar del proceso o una cadena vacía si no se captura
+     */
+    private static String run(List<String> command, long timeoutMillis, boolean captureOutput) throws IOException {
+        var builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD);
+        if (!captureOutput) {
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+        var process = builder.start();
+
+        try {
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out running " + command.get(0));
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException(command.get(0) + " exited with code " + process.exitValue());
+            }
+
+            // Se lee al terminar: la salida capturada cabe siempre en el buffer de la tubería
+            return captureOutput ? new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8) : "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted running " + command.get(0), e);
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    private static boolean commandAvailable(String command) {
+        try {
+            run(List.of(command, "-version"), PROBE_TIMEOUT_MILLIS, false);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String segmentName(String prefix, int index) {
+        return prefix + "/" + index + ".ts";
+    }
+
+    private String cacheKey(File video) {
+        // Los identificadores pueden contener '-' y '_', pero nunca '.'
+        return Util.pathToId(video) + "." + Long.toHexString(video.length())
+                + "." + Long.toHexString(video.lastModified()) + "." + segmentSeconds;
+    }
+
+    /**
+     * Conversión de un segmento. Sale antes de la cola el más cercano a la posición de su espectador y, a igual
+     * distancia, el más antiguo.
+     */
+    private final class Job implements Runnable, Comparable<Job> {
+        private final String name;
+        private final File video;
+        private final int index;
+        private final double duration;
+        private final long sequence = jobSequence.incrementAndGet();
+        // true si el segmento se ha añadido a la caché
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private volatile int distance;
+
+        private Job(String name, File video, int index, double duration, int distance) {
+            this.name = name;
+            this.video = video;
+            this.index = index;
+            this.duration = duration;
+            this.distance = distance;
+        }
+
+        @Override
+        public void run() {
+            try {
+                transcode(this);
+                result.complete(true);
+                transcoded.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                log.debug("Unable to transcode segment {} of {}", index, video, e);
+                result.complete(false);
+            } finally {
+                synchronized (pending) {
+                    pending.remove(name);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byDistance = Integer.compare(distance, other.distance);
+            return byDistance != 0 ? byDistance : Long.compare(sequence, other.sequence);
+        }
+    }
+}
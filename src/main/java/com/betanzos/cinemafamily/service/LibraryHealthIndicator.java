@@ -0,0 +1,65 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Estado de las bibliotecas en {@code /actuator/health} ({@code library}), a partir del resultado del último
+ * escaneo de cada una, de forma que consultarlo nunca accede al disco. La aplicación solo se considera caída si no
+ * está disponible ninguna biblioteca; el detalle de cada una indica cuáles fallan.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Component
+public class LibraryHealthIndicator extends AbstractHealthIndicator {
+
+    private final LibraryRootService libraryRootService;
+
+    @Autowired
+    public LibraryHealthIndicator(LibraryRootService libraryRootService) {
+        this.libraryRootService = libraryRootService;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        boolean anyAvailable = false;
+
+        for (var root : libraryRootService.getRoots()) {
+            anyAvailable |= root.isAvailable();
+
+            var details = new LinkedHashMap<String, Object>();
+            details.put("dir", root.getDir().getPath());
+            details.put("available", root.isAvailable());
+            details.put("lastScanMillis", root.getLastScanNanos() / 1_000_000);
+            details.put("scanFailures", root.getFailures());
+            details.put("listingTimeouts", root.getTimeouts());
+            builder.withDetail(root.getName(), details);
+        }
+
+        if (anyAvailable) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publica como métricas los contadores que ya mantienen los servicios de la biblioteca (cachés, escaneos,
+ * miniaturas, cambios en disco, búsquedas, HLS, progreso de reproducción, metadatos de los videos y lectura
+ * anticipada), de forma que se lean solo al consultarlas y no añadan ningún coste a las peticiones.<br>
+ * <br>
+ * No se implementa como {@code MeterBinder} porque los propios servicios dependen del {@link MeterRegistry}.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Component
+public class LibraryMetrics {
+
+    private final MeterRegistry registry;
+    private final MimeTypeService mimeTypeService;
+    private final SubtitleCacheService subtitleCacheService;
+    private final DirectoryScanService directoryScanService;
+    private final ThumbnailService thumbnailService;
+    private final LibraryWatcherService libraryWatcherService;
+    private final SearchService searchService;
+    private final HlsService hlsService;
+    private final WatchProgressService watchProgressService;
+    private final MediaMetadataService mediaMetadataService;
+    private final ReadAheadService readAheadService;
+
+    @Autowired
+    public LibraryMetrics(MeterRegistry registry, MimeTypeService mimeTypeService,
+                          SubtitleCacheService subtitleCacheService, DirectoryScanService directoryScanService,
+                          ThumbnailService thumbnailService, LibraryWatcherService libraryWatcherService,
+                          SearchService searchService, HlsService hlsService,
+                          WatchProgressService watchProgressService, MediaMetadataService mediaMetadataService,
+                          ReadAheadService readAheadService) {
+        this.registry = registry;
+        this.mimeTypeService = mimeTypeService;
+        this.subtitleCacheService = subtitleCacheService;
+        this.directoryScanService = directoryScanService;
+        this.thumbnailService = thumbnailService;
+        this.libraryWatcherService = libraryWatcherService;
+        this.searchService = searchService;
+        this.hlsService = hlsService;
+        this.watchProgressService = watchProgressService;
+        this.mediaMetadataService = mediaMetadataService;
+        this.readAheadService = readAheadService;
+    }
+
+    @PostConstruct
+    public void bind() {
+        counter(registry, "cinemafamily.mime.cache", "result", "extension", mimeTypeService, MimeTypeService::getFastPathHits);
+        counter(registry, "cinemafamily.mime.cache", "result", "hit", mimeTypeService, MimeTypeService::getCacheHits);
+        counter(registry, "cinemafamily.mime.cache", "result", "miss", mimeTypeService, MimeTypeService::getCacheMisses);
+        counter(registry, "cinemafamily.mime.cache.evictions", null, null, mimeTypeService, MimeTypeService::getEvictions);
+        Gauge.builder("cinemafamily.mime.cache.size", mimeTypeService, MimeTypeService::getCacheSize)
+                .register(registry);
+
+        counter(registry, "cinemafamily.subtitles.cache", "result", "memory", subtitleCacheService, SubtitleCacheService::getMemoryHits);
+        counter(registry, "cinemafamily.subtitles.cache", "result", "disk", subtitleCacheService, SubtitleCacheService::getDiskHits);
+        counter(registry, "cinemafamily.subtitles.cache", "result", "conversion", subtitleCacheService, SubtitleCacheService::getConversions);
+        Gauge.builder("cinemafamily.subtitles.cache.memory", subtitleCacheService, SubtitleCacheService::getMemoryBytes)
+                .baseUnit("bytes")
+                .register(registry);
+
+        FunctionTimer.builder("cinemafamily.directory.scan", directoryScanService,
+                DirectoryScanService::getScans, DirectoryScanService::getScanNanos, TimeUnit.NANOSECONDS)
+                .description("Directory scans")
+                .register(registry);
+        counter(registry, "cinemafamily.directory.scan.entries", null, null, directoryScanService, DirectoryScanService::getScannedEntries);
+        Gauge.builder("cinemafamily.directory.scan.max", directoryScanService, s -> s.getMaxScanNanos() / 1e9)
+                .baseUnit("seconds")
+                .register(registry);
+
+        counter(registry, "cinemafamily.thumbnails", "result", "generated", thumbnailService, ThumbnailService::getGenerated);
+        counter(registry, "cinemafamily.thumbnails", "result", "failed", thumbnailService, ThumbnailService::getFailures);
+        counter(registry, "cinemafamily.thumbnails", "result", "dropped", thumbnailService, ThumbnailService::getDropped);
+        Gauge.builder("cinemafamily.thumbnails.queue", thumbnailService, ThumbnailService::getQueueSize)
+                .register(registry);
+
+        counter(registry, "cinemafamily.watcher.events", "stage", "received", libraryWatcherService, LibraryWatcherService::getEventsReceived);
+        counter(registry, "cinemafamily.watcher.events", "stage", "coalesced", libraryWatcherService, LibraryWatcherService::getEventsCoalesced);
+        counter(registry, "cinemafamily.watcher.events", "stage", "applied", libraryWatcherService, LibraryWatcherService::getEventsApplied);
+        counter(registry, "cinemafamily.watcher.batches", null, null, libraryWatcherService, LibraryWatcherService::getBatchesApplied);
+
+        FunctionTimer.builder("cinemafamily.search", searchService,
+                SearchService::getQueries, SearchService::getQueryNanos, TimeUnit.NANOSECONDS)
+                .description("Name searches")
+                .register(registry);
+        Gauge.builder("cinemafamily.search.index.entries", searchService, SearchService::getIndexedEntries)
+                .register(registry);
+        Gauge.builder("cinemafamily.search.index.terms", searchService, SearchService::getIndexedTerms)
+                .register(registry);
+        Gauge.builder("cinemafamily.search.index.memory", searchService, SearchService::getIndexMemoryBytes)
+                .baseUnit("bytes")
+                .register(registry);
+
+        counter(registry, "cinemafamily.hls.segments", "result", "transcoded", hlsService, HlsService::getTranscoded);
+        counter(registry, "cinemafamily.hls.segments", "result", "failed", hlsService, HlsService::getFailures);
+        counter(registry, "cinemafamily.hls.cache.evictions", null, null, hlsService, HlsService::getCacheEvictions);
+        Gauge.builder("cinemafamily.hls.queue", hlsService, HlsService::getQueueSize)
+                .register(registry);
+        Gauge.builder("cinemafamily.hls.cache", hlsService, HlsService::getCacheBytes)
+                .baseUnit("bytes")
+                .register(registry);
+
+        counter(registry, "cinemafamily.progress.updates", null, null, watchProgressService, WatchProgressService::getUpdates);
+        counter(registry, "cinemafamily.progress.records", null, null, watchProgressService, WatchProgressService::getRecordsWritten);
+        counter(registry, "cinemafamily.progress.flushes", null, null, watchProgressService, WatchProgressService::getFlushes);
+        counter(registry, "cinemafamily.progress.compactions", null, null, watchProgressService, WatchProgressService::getCompactions);
+        Gauge.builder("cinemafamily.progress.entries", watchProgressService, WatchProgressService::getEntries)
+                .register(registry);
+
+        FunctionTimer.builder("cinemafamily.metadata.probe", mediaMetadataService,
+                MediaMetadataService::getProbes, MediaMetadataService::getProbeNanos, TimeUnit.NANOSECONDS)
+                .description("Container header probes")
+                .register(registry);
+        counter(registry, "cinemafamily.metadata.probe.bytes", null, null, mediaMetadataService, MediaMetadataService::getProbeBytes);
+        counter(registry, "cinemafamily.metadata.probe.failures", null, null, mediaMetadataService, MediaMetadataService::getFailures);
+        counter(registry, "cinemafamily.metadata.dropped", null, null, mediaMetadataService, MediaMetadataService::getDropped);
+        Gauge.builder("cinemafamily.metadata.queue", mediaMetadataService, MediaMetadataService::getQueueSize)
+                .register(registry);
+        Gauge.builder("cinemafamily.metadata.videos", mediaMetadataService, MediaMetadataService::getStoredVideos)
+                .register(registry);
+
+        counter(registry, "cinemafamily.readahead.lookups", "result", "hit", readAheadService, ReadAheadService::getHits);
+        counter(registry, "cinemafamily.readahead.lookups", "result", "miss", readAheadService, ReadAheadService::getMisses);
+        counter(registry, "cinemafamily.readahead.bytes", "stage", "prefetched", readAheadService, ReadAheadService::getPrefetchedBytes);
+        counter(registry, "cinemafamily.readahead.bytes", "stage", "used", readAheadService, ReadAheadService::getUsedBytes);
+        counter(registry, "cinemafamily.readahead.videos", "result", "prefetched", readAheadService, ReadAheadService::getPrefetches);
+        counter(registry, "cinemafamily.readahead.videos", "result", "failed", readAheadService, ReadAheadService::getFailures);
+        counter(registry, "cinemafamily.readahead.videos", "result", "dropped", readAheadService, ReadAheadService::getDropped);
+        counter(registry, "cinemafamily.readahead.subtitles", null, null, readAheadService, ReadAheadService::getSubtitleConversions);
+        counter(registry, "cinemafamily.readahead.cache.evictions", null, null, readAheadService, ReadAheadService::getEvictions);
+        Gauge.builder("cinemafamily.readahead.cache", readAheadService, ReadAheadService::getCacheBytes)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String tagKey, String tagValue, T service,
+                                    ToDoubleFunction<T> count) {
+        var builder = FunctionCounter.builder(name, service, count);
+        if (tagKey != null) {
+            builder.tag(tagKey, tagValue);
+        }
+
+        builder.register(registry);
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Una de las bibliotecas ({@code library.roots}) con su política de escaneo y sus propios hilos de E/S, de forma
+ * que un bloqueo en una de ellas (p. ej. una unidad de red que no responde) no afecta al resto.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class LibraryRoot {
+
+    /**
+     * Forma de obtener el MIME type de los archivos al escanear los directorios.
+     */
+    public enum MimeDetection {
+        /**
+         * Por la extensión si está en {@code mime.extensions} y, si no, por el contenido del archivo.
+         */
+        CONTENT,
+
+        /**
+         * Solo por la extensión. Los archivos nunca se abren, por lo que los de extensión desconocida no se muestran.
+         */
+        EXTENSION;
+
+        static MimeDetection parse(String value) {
+            return valueOf(value.strip().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final String name;
+    private final File dir;
+    private final String path;
+    private final int ioThreads;
+    private final MimeDetection mimeDetection;
+    private final long listingTimeout;
+
+    private final ExecutorService scanExecutor;
+    private final Semaphore ioPermits;
+    private final ExecutorService listingExecutor;
+
+    private final Timer scanTimer;
+    private final Counter timeouts;
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean available = true;
+    private volatile long lastScanNanos;
+
+    LibraryRoot(String name, File dir, int ioThreads, MimeDetection mimeDetection, long listingTimeout,
+                ExecutorService scanExecutor, ExecutorService listingExecutor, Timer scanTimer, Counter timeouts) {
+        this.name = name;
+        this.dir = dir;
+        this.path = dir.getPath();
+        this.ioThreads = ioThreads;
+        this.mimeDetection = mimeDetection;
+        this.listingTimeout = listingTimeout;
+        this.scanExecutor = scanExecutor;
+        this.ioPermits = new Semaphore(ioThreads);
+        this.listingExecutor = listingExecutor;
+        this.scanTimer = scanTimer;
+        this.timeouts = timeouts;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Directorio raíz de la biblioteca (ruta absoluta).
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public MimeDetection getMimeDetection() {
+        return mimeDetection;
+    }
+
+    /**
+     * Espera máxima, en milisegundos, del escaneo de un directorio aún no indexado al listarlo. {@code 0} para
+     * esperar siempre hasta que termine.
+     */
+    public long getListingTimeout() {
+        return listingTimeout;
+    }
+
+    /**
+     * Si el último escaneo de un directorio de la biblioteca pudo leerlo.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public long getLastScanNanos() {
+        return lastScanNanos;
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getTimeouts() {
+        return (long) timeouts.count();
+    }
+
+    /**
+     * Indica si {@code absolutePath} es el directorio raíz de la biblioteca o está dentro de él.
+     */
+    public boolean contains(String absolutePath) {
+        return absolutePath.startsWith(path)
+                && (absolutePath.length() == path.length() || absolutePath.charAt(path.length()) == File.separatorChar);
+    }
+
+    /**
+     * Ejecutor en el que se leen en paralelo los atributos de los directorios grandes. Las tareas deben obtener
+     * antes uno de los {@link #getIoPermits()}.
+     */
+    ExecutorService getScanExecutor() {
+        return scanExecutor;
+    }
+
+    Semaphore getIoPermits() {
+        return ioPermits;
+    }
+
+    /**
+     * Ejecutor de los escaneos completos de la biblioteca y de los directorios que se listan sin estar indexados.
+     */
+    ExecutorService getListingExecutor() {
+        return listingExecutor;
+    }
+
+    void recordScan(long nanos, boolean success) {
+        scanTimer.record(nanos, TimeUnit.NANOSECONDS);
+        lastScanNanos = nanos;
+        available = success;
+        if (!success) {
+            failures.incrementAndGet();
+        }
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void shutdown() {
+        scanExecutor.shutdownNow();
+        listingExecutor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + path;
+    }
+}
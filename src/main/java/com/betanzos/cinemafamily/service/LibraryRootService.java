@@ -0,0 +1,219 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bibliotecas que sirve la aplicación.<br>
+ * <br>
+ * Se configuran en {@code library.roots} como {@code nombre:ruta}; si no se indica ninguna se utiliza únicamente
+ * {@code root.dir}. Los valores de {@code library.io-threads}, {@code library.mime-detection} y
+ * {@code library.listing-timeout} se aplican a todas, salvo que se indique otro para una en concreto con
+ * {@code library.root.<nombre>.<opción>}. Cada biblioteca tiene sus propios ejecutores (ver {@link LibraryRoot}).
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class LibraryRootService {
+    private static final Logger log = LoggerFactory.getLogger(LibraryRootService.class);
+
+    /**
+     * Escaneos de directorios no indexados que puede haber en curso a la vez en cada biblioteca.
+     */
+    private static final int LISTING_THREADS = 4;
+
+    @Value("${root.dir}")
+    private String rootDirectory;
+
+    @Value("${library.roots}")
+    private List<String> rootMappings;
+
+    @Value("${library.io-threads}")
+    private int ioThreads;
+
+    @Value("${library.mime-detection}")
+    private String mimeDetection;
+
+    @Value("${library.listing-timeout}")
+    private long listingTimeout;
+
+    @Value("${scan.virtual-threads}")
+    private boolean virtualThreads;
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    private List<LibraryRoot> roots = List.of();
+    private boolean usingVirtualThreads;
+
+    @Autowired
+    public LibraryRootService(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        var configured = new ArrayList<LibraryRoot>();
+        var names = new HashSet<String>();
+
+        // Formato: nombre:ruta (la ruta puede contener ':', p. ej. en Windows)
+        for (var mapping : rootMappings) {
+            int separator = mapping.indexOf(':');
+            if (separator <= 0 || separator == mapping.length() - 1) {
+                if (!mapping.isBlank()) {
+                    throw new IllegalArgumentException("Invalid library root '" + mapping + "', expected name:path");
+                }
+                continue;
+            }
+
+            var name = mapping.substring(0, separator).strip();
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicated library root name '" + name + "'");
+            }
+            configured.add(createRoot(name, new File(mapping.substring(separator + 1).strip())));
+        }
+
+        if (configured.isEmpty()) {
+            var dir = new File(rootDirectory).getAbsoluteFile();
+            configured.add(createRoot(dir.getName().isEmpty() ? "videos" : dir.getName(), dir));
+        }
+
+        roots = List.copyOf(configured);
+        log.info("Serving library roots {}{}", roots,
+                usingVirtualThreads ? ", directory scans will use virtual threads" : "");
+    }
+
+    @PreDestroy
+    public void stop() {
+        roots.forEach(LibraryRoot::shutdown);
+    }
+
+    public List<LibraryRoot> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Indica si solo hay una biblioteca, en cuyo caso su contenido es la página principal.
+     */
+    public boolean isSingleRoot() {
+        return roots.size() == 1;
+    }
+
+    /**
+     * Devuelve la biblioteca que contiene la ruta absoluta {@code absolutePath} o {@code null} si no está en
+     * ninguna.
+     */
+    public LibraryRoot findRoot(String absolutePath) {
+        LibraryRoot found = null;
+        for (var root : roots) {
+            // Si una biblioteca está dentro de otra se elige la más concreta
+            if (root.contains(absolutePath)
+                    && (found == null || root.getDir().getPath().length() > found.getDir().getPath().length())) {
+                found = root;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Devuelve la biblioteca cuya política se aplica al directorio {@code dir}: la que lo contiene o, si no está en
+     * ninguna, la primera.
+     */
+    public LibraryRoot rootOf(File dir) {
+        var root = findRoot(dir.getAbsolutePath());
+        return root != null ? root : roots.get(0);
+    }
+
+    private LibraryRoot createRoot(String name, File dir) {
+        var prefix = "library.root." + name + ".";
+        int threads = environment.getProperty(prefix + "io-threads", Integer.class, ioThreads);
+        var detection = LibraryRoot.MimeDetection.parse(environment.getProperty(prefix + "mime-detection", mimeDetection));
+        long timeout = environment.getProperty(prefix + "listing-timeout", Long.class, listingTimeout);
+
+        ExecutorService scanExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (scanExecutor == null) {
+            scanExecutor = Executors.newFixedThreadPool(threads, daemonThreads("scan-" + name + "-io-"));
+        } else {
+            usingVirtualThreads = true;
+        }
+        var listingExecutor = Executors.newFixedThreadPool(LISTING_THREADS, daemonThreads("scan-" + name + "-listing-"));
+
+        var scanTimer = Timer.builder("cinemafamily.root.scan")
+                .description("Directory scans of a library root")
+                .tag("root", name)
+                .register(meterRegistry);
+        var timeouts = Counter.builder("cinemafamily.root.listing.timeouts")
+                .description("Listings answered with partial content because the root did not respond in time")
+                .tag("root", name)
+                .register(meterRegistry);
+
+        var root = new LibraryRoot(name, dir.getAbsoluteFile(), threads, detection, timeout,
+                scanExecutor, listingExecutor, scanTimer, timeouts);
+
+        Gauge.builder("cinemafamily.root.available", root, r -> r.isAvailable() ? 1 : 0)
+                .description("Whether the last directory scan of the library root succeeded")
+                .tag("root", name)
+                .register(meterRegistry);
+
+        return root;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        var counter = new AtomicInteger();
+        return r -> {
+            var thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Crea un ejecutor de hilos virtuales si la JVM los soporta. Se obtiene por reflexión porque el proyecto se
+     * compila para Java 11.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
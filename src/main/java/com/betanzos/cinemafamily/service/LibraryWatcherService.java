@@ -0,0 +1,329 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mantiene actualizado el {@link CatalogService} a partir de los cambios en las bibliotecas.<br>
+ * <br>
+ * Todos los directorios de la biblioteca se registran en un {@link WatchService}. Los eventos recibidos no se
+ * aplican inmediatamente: se acumulan los directorios afectados hasta que pasa {@code library.watch.quiet-period}
+ * sin recibir eventos nuevos (o hasta {@code library.watch.max-delay} desde el primero), de forma que copiar una
+ * temporada completa provoca un único reescaneo por directorio.<br>
+ * <br>
+ * Como algunos sistemas de archivos de red no notifican cambios, cada {@code library.reconcile.interval} se
+ * verifica la biblioteca completa contra el catálogo.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class LibraryWatcherService {
+    private static final Logger log = LoggerFactory.getLogger(LibraryWatcherService.class);
+
+    @Value("${library.watch.enabled}")
+    private boolean watchEnabled;
+
+    @Value("${library.watch.quiet-period}")
+    private long quietPeriodMillis;
+
+    @Value("${library.watch.max-delay}")
+    private long maxDelayMillis;
+
+    @Value("${library.reconcile.interval}")
+    private long reconcileIntervalMillis;
+
+    private final CatalogService catalogService;
+    private final LibraryRootService libraryRootService;
+
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Set<Path> pendingDirs = new LinkedHashSet<>();
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong batchesApplied = new AtomicLong();
+    // Hay una verificación completa en cola que aún no ha empezado
+    private final AtomicBoolean reconcileQueued = new AtomicBoolean();
+
+    private WatchService watchService;
+    private Thread watcherThread;
+    private ScheduledExecutorService reconciler;
+
+    @Autowired
+    public LibraryWatcherService(CatalogService catalogService, LibraryRootService libraryRootService) {
+        this.catalogService = catalogService;
+        this.libraryRootService = libraryRootService;
+    }
+
+    @PostConstruct
+    public void start() {
+        var roots = new ArrayList<Path>();
+        for (var root : libraryRootService.getRoots()) {
+            if (Files.isDirectory(root.getDir().toPath())) {
+                roots.add(root.getDir().toPath());
+            }
+        }
+
+        // Un único hilo para todas las verificaciones completas, periódicas o por eventos perdidos
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "library-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (watchEnabled && !roots.isEmpty()) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                watcherThread = new Thread(() -> {
+                    roots.forEach(root -> registerTree(root, false));
+                    watchLoop();
+                }, "library-watcher");
+                watcherThread.setDaemon(true);
+                watcherThread.start();
+            } catch (IOException e) {
+                log.warn("Unable to watch {}, relying on periodic reconciliation only", roots, e);
+            }
+        }
+
+        if (reconcileIntervalMillis > 0) {
+            reconciler.scheduleWithFixedDelay(
+                    this::reconcile, reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        reconciler.shutdownNow();
+
+        if (watchService != null) {
+            watcherThread.interrupt();
+            watchService.close();
+        }
+    }
+
+    /**
+     * Número de eventos recibidos del {@link WatchService}.
+     */
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    /**
+     * Número de eventos que no provocaron un reescaneo adicional porque su directorio ya estaba pendiente.
+     */
+    public long getEventsCoalesced() {
+        return eventsCoalesced.get();
+    }
+
+    /**
+     * Número de directorios reescaneados como resultado de los eventos recibidos.
+     */
+    public long getEventsApplied() {
+        return eventsApplied.get();
+    }
+
+    /**
+     * Número de lotes de cambios aplicados al catálogo.
+     */
+    public long getBatchesApplied() {
+        return batchesApplied.get();
+    }
+
+    private void reconcile() {
+        try {
+            catalogService.indexLibrary();
+        } catch (RuntimeException e) {
+            log.warn("Library reconciliation failed", e);
+        }
+    }
+
+    /**
+     * Pone en cola una verificación completa salvo que ya haya una que aún no ha empezado, de forma que una
+     * ráfaga de desbordamientos provoca una sola.
+     */
+    private void scheduleReconcile() {
+        if (reconcileQueued.compareAndSet(false, true)) {
+            reconciler.execute(() -> {
+                reconcileQueued.set(false);
+                reconcile();
+            });
+        }
+    }
+
+    private void watchLoop() {
+        long firstEventAt = 0L;
+        long lastEventAt = 0L;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                if (pendingDirs.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long wait = Math.min(
+                            lastEventAt + quietPeriodMillis - System.currentTimeMillis(),
+                            firstEventAt + maxDelayMillis - System.currentTimeMillis());
+                    key = watchService.poll(Math.max(wait, 0L), TimeUnit.MILLISECONDS);
+                }
+
+                if (key != null) {
+                    lastEventAt = System.currentTimeMillis();
+                    if (pendingDirs.isEmpty()) {
+                        firstEventAt = lastEventAt;
+                    }
+
+                    processEvents(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (!pendingDirs.isEmpty()
+                        && (now - lastEventAt >= quietPeriodMillis || now - firstEventAt >= maxDelayMillis)) {
+                    applyPending();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Fin de la aplicación
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        var dir = watchedDirs.get(key);
+
+        for (var event : key.pollEvents()) {
+            eventsReceived.incrementAndGet();
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Se han perdido eventos: solo una verificación completa garantiza un catálogo correcto
+                log.debug("Watch events overflow, scheduling full reconciliation");
+                scheduleReconcile();
+                continue;
+            }
+
+            if (dir == null) {
+                // Directorio que ya no se vigila: el evento se descarta, no se ha agrupado con otro
+                continue;
+            }
+
+            var child = dir.resolve((Path) event.context());
+            boolean added = pendingDirs.add(dir);
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                added |= registerTree(child, true);
+            }
+
+            if (!added) {
+                eventsCoalesced.incrementAndGet();
+            }
+        }
+
+        if (!key.reset()) {
+            // El directorio ya no existe o no es accesible
+            watchedDirs.remove(key);
+            if (dir != null) {
+                pendingDirs.add(dir);
+            }
+        }
+    }
+
+    private void applyPending() {
+        for (var dir : pendingDirs) {
+            if (Files.isDirectory(dir)) {
+                catalogService.refresh(dir.toFile());
+            } else {
+                catalogService.remove(dir.toFile());
+            }
+        }
+
+        eventsApplied.addAndGet(pendingDirs.size());
+        batchesApplied.incrementAndGet();
+        log.debug("Applied {} directory changes to catalog ({} events received, {} coalesced)",
+                pendingDirs.size(), eventsReceived.get(), eventsCoalesced.get());
+
+        pendingDirs.clear();
+        catalogService.saveSnapshot();
+    }
+
+    /**
+     * Registra {@code start} y todos sus subdirectorios en el {@link WatchService}.
+     *
+     * @param start       Directorio a registrar
+     * @param markPending Si los directorios registrados deben marcarse como pendientes de escanear, ya que su
+     *                    contenido puede no estar aún en el catálogo
+     *
+     * @return {@code true} si se añadió algún directorio a los pendientes
+     */
+    private boolean registerTree(Path start, boolean markPending) {
+        var added = new boolean[] {false};
+
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    var key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+
+                    watchedDirs.put(key, dir);
+                    if (markPending) {
+                        added[0] |= pendingDirs.add(dir);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to watch {}", start, e);
+        }
+
+        return added[0];
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.domain.MediaInfo;
+import com.betanzos.cinemafamily.utils.MediaProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metadatos de los videos (duración, resolución, códecs y pistas) obtenidos con {@link MediaProbe}.<br>
+ * <br>
+ * Los metadatos se guardan por directorio y nombre junto con el tamaño y la fecha de modificación del video, por
+ * lo que se vuelven a obtener solo si el archivo cambia. Los listados nunca esperan: los videos sin metadatos se
+ * analizan en segundo plano ({@code metadata.threads} hilos de baja prioridad) y aparecen en el siguiente listado.
+ * La página de un video sí los obtiene en el momento si aún no se conocen, ya que solo requiere leer unas pocas
+ * cabeceras.<br>
+ * <br>
+ * El almacén se guarda en {@code metadata.store.file} cada {@code metadata.save-interval} milisegundos si ha
+ * cambiado y se depura con los cambios del catálogo.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class MediaMetadataService implements CatalogService.Listener {
+    private static final Logger log = LoggerFactory.getLogger(MediaMetadataService.class);
+
+    private static final int STORE_MAGIC = 0x43464d31; // "CFM1"
+    private static final int STORE_VERSION = 1;
+
+    @Value("${metadata.store.file}")
+    private String storeFile;
+
+    @Value("${metadata.threads}")
+    private int threads;
+
+    @Value("${metadata.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${metadata.save-interval}")
+    private long saveInterval;
+
+    private final CatalogService catalogService;
+
+    private final Map<String, DirectoryMetadata> directories = new ConcurrentHashMap<>();
+    private final Map<String, String> normalizedPaths = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong probeNanos = new AtomicLong();
+    private final AtomicLong probeBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService saver;
+
+    /**
+     * Metadatos de un video junto con el tamaño y la fecha de modificación del archivo analizado. {@code info} es
+     * {@code null} si el contenedor no se reconoce, para no volver a analizarlo mientras no cambie.
+     */
+    private static final class Stored {
+        private final long size;
+        private final long lastModified;
+        private final MediaInfo info;
+
+        private Stored(long size, long lastModified, MediaInfo info) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.info = info;
+        }
+
+        private boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    /**
+     * Metadatos de los videos de un directorio y versión que cambia cada vez que se añade alguno.
+     */
+    private static final class DirectoryMetadata {
+        private final Map<String, Stored> videos = new ConcurrentHashMap<>();
+        private final AtomicLong version = new AtomicLong();
+    }
+
+    @Autowired
+    public MediaMetadataService(CatalogService catalogService) {
+        this.catalogService = catalogService;
+    }
+
+    @PostConstruct
+    public void start() {
+        load();
+        catalogService.addListener(this);
+
+        var counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+            var thread = new Thread(r, "metadata-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "metadata-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(this::save, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        saver.shutdownNow();
+        save();
+    }
+
+    /**
+     * Metadatos del video {@code entry} si ya se conocen. Si no, programa su análisis en segundo plano. Nunca
+     * accede al disco, por lo que puede utilizarse al construir los listados.
+     *
+     * @param directory Directorio que contiene el video
+     * @param entry     Video
+     *
+     * @return Metadatos o {@code null} si aún no se conocen o el contenedor no se reconoce
+     */
+    public MediaInfo metadataFor(CatalogDirectory directory, CatalogEntry entry) {
+        var dirPath = normalize(directory.getPath());
+        var metadata = directories.get(dirPath);
+        var stored = metadata != null ? metadata.videos.get(entry.getName()) : null;
+
+        if (stored != null && stored.matches(entry.getSize(), entry.getLastModified())) {
+            return stored.info;
+        }
+
+        schedule(dirPath, entry.getName());
+        return null;
+    }
+
+    /**
+     * Metadatos del video {@code video}. Si aún no se conocen o el archivo ha cambiado se analiza en ese momento.
+     *
+     * @param video Video a consultar
+     *
+     * @return Metadatos o {@code null} si el contenedor no se reconoce o no puede leerse
+     */
+    public MediaInfo getMetadata(File video) {
+        var dirPath = normalize(video.getParent());
+        var metadata = directories.get(dirPath);
+        var stored = metadata != null ? metadata.videos.get(video.getName()) : null;
+
+        if (stored != null && stored.matches(video.length(), video.lastModified())) {
+            return stored.info;
+        }
+
+        var probed = probe(dirPath, video.getName());
+        return probed != null ? probed.info : null;
+    }
+
+    /**
+     * Versión de los metadatos de los videos del directorio {@code dir}, que cambia cuando se obtienen los de
+     * alguno de ellos.
+     */
+    public long getDirectoryVersion(File dir) {
+        var metadata = directories.get(normalize(dir.getPath()));
+        return metadata != null ? metadata.version.get() : 0;
+    }
+
+    @Override
+    public void directoryUpdated(CatalogDirectory directory) {
+        var metadata = directories.get(normalize(directory.getPath()));
+        if (metadata == null) {
+            return;
+        }
+
+        var names = new HashSet<String>();
+        for (var entry : directory.getEntries()) {
+            if (entry.isVideo()) {
+                names.add(entry.getName());
+            }
+        }
+
+        if (metadata.videos.keySet().retainAll(names)) {
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public void directoryRemoved(String path) {
+        if (directories.remove(normalize(path)) != null) {
+            dirty.set(true);
+        }
+        normalizedPaths.remove(path);
+    }
+
+    public long getProbes() {
+        return probes.get();
+    }
+
+    public long getProbeNanos() {
+        return probeNanos.get();
+    }
+
+    public long getProbeBytes() {
+        return probeBytes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getStoredVideos() {
+        int count = 0;
+        for (var metadata : directories.values()) {
+            count += metadata.videos.size();
+        }
+
+        return count;
+    }
+
+    private void schedule(String dirPath, String name) {
+        var key = dirPath + File.separator + name;
+        if (!pending.add(key)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    probe(dirPath, name);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Se volverá a programar en el siguiente listado
+            pending.remove(key);
+            dropped.incrementAndGet();
+        }
+    }
+
+    private Stored probe(String dirPath, String name) {
+        var file = new File(dirPath, name);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        MediaInfo info = null;
+        try {
+            var result = MediaProbe.probe(file);
+            info = result.getInfo().orElse(null);
+            probeBytes.addAndGet(result.getBytesRead());
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unable to read the metadata of {}", file, e);
+            failures.incrementAndGet();
+        }
+        probes.incrementAndGet();
+        probeNanos.addAndGet(System.nanoTime() - start);
+
+        var stored = new Stored(size, lastModified, info);
+        var metadata = directories.computeIfAbsent(dirPath, k -> new DirectoryMetadata());
+        metadata.videos.put(name, stored);
+        metadata.version.incrementAndGet();
+        dirty.set(true);
+
+        return stored;
+    }
+
+    /**
+     * Ruta normalizada del directorio {@code path}, igual que las de los videos que resuelve
+     * {@link com.betanzos.cinemafamily.utils.Util#idToPath(String)}. Se guarda para no normalizarla con cada
+     * elemento de un listado.
+     */
+    private String normalize(String path) {
+        return normalizedPaths.computeIfAbsent(path, p -> Path.of(p).toAbsolutePath().normalize().toString());
+    }
+
+    private void load() {
+        var file = new File(storeFile);
+        if (!file.isFile()) {
+            return;
+        }
+
+        int videos = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != STORE_MAGIC || in.readInt() != STORE_VERSION) {
+                log.warn("Ignoring media metadata store {} with unknown format", file);
+                return;
+            }
+
+            int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                var metadata = new DirectoryMetadata();
+                directories.put(in.readUTF(), metadata);
+
+                int videoCount = in.readInt();
+                for (int j = 0; j < videoCount; j++) {
+                    var name = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    var info = in.readBoolean() ? readInfo(in) : null;
+
+                    metadata.videos.put(name, new Stored(size, lastModified, info));
+                    videos++;
+                }
+            }
+
+            log.info("Loaded media metadata of {} videos", videos);
+        } catch (IOException e) {
+            log.warn("Unable to read media metadata store {}", file, e);
+            directories.clear();
+        }
+    }
+
+    /**
+     * Guarda el almacén en disco si ha cambiado desde la última vez que se guardó.
+     */
+    public synchronized void save() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        var file = new File(storeFile);
+        var tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                var snapshot = List.copyOf(directories.entrySet());
+
+                out.writeInt(STORE_MAGIC);
+                out.writeInt(STORE_VERSION);
+                out.writeInt(snapshot.size());
+
+                for (var directory : snapshot) {
+                    var videos = List.copyOf(directory.getValue().videos.entrySet());
+                    out.writeUTF(directory.getKey());
+                    out.writeInt(videos.size());
+
+                    for (var video : videos) {
+                        var stored = video.getValue();
+                        out.writeUTF(video.getKey());
+                        out.writeLong(stored.size);
+                        out.writeLong(stored.lastModified);
+                        out.writeBoolean(stored.info != null);
+                        if (stored.info != null) {
+                            writeInfo(out, stored.info);
+                        }
+                    }
+                }
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to write media metadata store {}", file, e);
+            dirty.set(true);
+        }
+    }
+
+    private static MediaInfo readInfo(DataInputStream in) throws IOException {
+        var container = in.readUTF();
+        double duration = in.readDouble();
+        int width = in.readInt();
+        int height = in.readInt();
+        var videoCodec = readNullable(in);
+        var audio = readTracks(in);
+        var subtitles = readTracks(in);
+
+        return new MediaInfo(container, duration, width, height, videoCodec, audio, subtitles);
+    }
+
+    private static List<MediaInfo.Track> readTracks(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        var tracks = new ArrayList<MediaInfo.Track>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add(new MediaInfo.Track(readNullable(in), readNullable(in)));
+        }
+
+        return tracks;
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInfo(DataOutputStream out, MediaInfo info) throws IOException {
+        out.writeUTF(info.getContainer());
+        out.writeDouble(info.getDuration());
+        out.writeInt(info.getWidth());
+        out.writeInt(info.getHeight());
+        writeNullable(out, info.getVideoCodec());
+        writeTracks(out, info.getAudioTracks());
+        writeTracks(out, info.getSubtitleTracks());
+    }
+
+    private static void writeTracks(DataOutputStream out, List<MediaInfo.Track> tracks) throws IOException {
+        out.writeInt(tracks.size());
+        for (var track : tracks) {
+            writeNullable(out, track.getCodec());
+            writeNullable(out, track.getLanguage());
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Envío de archivos multimedia con soporte de peticiones parciales (cabecera {@code Range}).<br>
+ * <br>
+ * Soporta rangos simples y múltiples ({@code multipart/byteranges}), validación con {@code If-Range},
+ * {@code If-None-Match} e {@code If-Modified-Since}, y envía los archivos con {@code Content-Disposition: inline}
+ * para que el navegador pueda reproducirlos directamente.<br>
+ * <br>
+ * Cuando el contenedor lo soporta (Tomcat NIO) las respuestas de un único rango se delegan en su mecanismo
+ * {@code sendfile}, de forma que los datos pasan del archivo al socket sin copiarse en el heap. En caso contrario
+ * se utiliza {@link FileChannel#transferTo(long, long, WritableByteChannel)}.<br>
+ * <br>
+ * Al enviar un video se prepara la lectura anticipada del siguiente de su carpeta ({@link ReadAheadService}). Los
+ * rangos que empiezan en una parte del video que ya está en la caché de lectura anticipada se envían desde ella,
+ * continuando desde la biblioteca si el rango es mayor, sin utilizar {@code sendfile}.<br>
+ * <br>
+ * Los envíos se someten a los límites de velocidad de {@link StreamScheduler}, en cuyo caso (y en el de las
+ * descargas completas, que se limitan en número) nunca se delegan en {@code sendfile}.<br>
+ * <br>
+ * Las métricas {@code cinemafamily.stream.bytes} y {@code cinemafamily.stream.active} cuentan los bytes enviados y
+ * las respuestas en curso. Las respuestas delegadas en {@code sendfile} se cuentan al delegarlas, ya que el
+ * contenedor las completa después de que termine la petición.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MediaStreamService {
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Segundos que debe esperar el cliente para volver a intentar una descarga completa rechazada.
+     */
+    private static final String FULL_DOWNLOAD_RETRY_AFTER = "30";
+
+    private final MimeTypeService mimeTypeService;
+    private final ReadAheadService readAheadService;
+    private final StreamScheduler streamScheduler;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final Counter sendfileBytes;
+    private final Counter copiedBytes;
+
+    @Autowired
+    public MediaStreamService(MimeTypeService mimeTypeService,
+                              ReadAheadService readAheadService,
+                              StreamScheduler streamScheduler,
+                              MeterRegistry meterRegistry) {
+        this.mimeTypeService = mimeTypeService;
+        this.readAheadService = readAheadService;
+        this.streamScheduler = streamScheduler;
+
+        Gauge.builder("cinemafamily.stream.active", activeStreams, AtomicInteger::get)
+                .description("Media responses being written")
+                .register(meterRegistry);
+        sendfileBytes = Counter.builder("cinemafamily.stream.bytes")
+                .description("Media bytes served")
+                .baseUnit("bytes")
+                .tag("mode", "sendfile")
+                .register(meterRegistry);
+        copiedBytes = Counter.builder("cinemafamily.stream.bytes")
+                .description("Media bytes served")
+                .baseUnit("bytes")
+                .tag("mode", "copy")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Envía al cliente el archivo cuyo identificador es {@code fileId} atendiendo a las cabeceras de la petición.
+     *
+     * @param fileId   Identificador del archivo
+     * @param request  Petición HTTP
+     * @param response Respuesta HTTP
+     */
+    public void stream(String fileId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        activeStreams.incrementAndGet();
+        try {
+            streamFile(fileId, request, response);
+        } finally {
+            activeStreams.decrementAndGet();
+        }
+    }
+
+    private void streamFile(String fileId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        var file = Util.idToPath(fileId);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("File not found " + fileId);
+        }
+
+        long length = file.length();
+        long lastModified = file.lastModified();
+        var etag = ByteRanges.etag(length, lastModified);
+        var contentType = mimeTypeService.detectMimeType(file).orElse("application/octet-stream");
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, ByteRanges.CACHE_CONTROL);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ByteRanges.contentDisposition(file.getName()));
+
+        if (ByteRanges.isNotModified(request.getHeader(HttpHeaders.IF_NONE_MATCH),
+                dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE), etag, lastModified)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        var ranges = ByteRanges.requestedRanges(request.getHeader(HttpHeaders.RANGE),
+                request.getHeader(HttpHeaders.IF_RANGE), dateHeader(request, HttpHeaders.IF_RANGE),
+                etag, lastModified, length);
+        boolean head = "HEAD".equals(request.getMethod());
+        if (contentType.startsWith("video/") && !head) {
+            readAheadService.played(file);
+        }
+
+        boolean fullDownload = ranges == null && !head;
+        if (fullDownload && !streamScheduler.tryStartFullDownload()) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, FULL_DOWNLOAD_RETRY_AFTER);
+            return;
+        }
+
+        // Las descargas completas tampoco se delegan en sendfile, para que sigan contando hasta que terminan
+        var stream = (streamScheduler.isShaping() || fullDownload) && !head
+                ? streamScheduler.open(request.getRemoteAddr())
+                : null;
+        try {
+            respond(file, lastModified, length, contentType, ranges, request, response, stream);
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+            if (fullDownload) {
+                streamScheduler.endFullDownload();
+            }
+        }
+    }
+
+    private void respond(File file, long lastModified, long length, String contentType, List<long[]> ranges,
+                         HttpServletRequest request, HttpServletResponse response, StreamScheduler.Stream stream)
+            throws IOException {
+        if (ranges == null) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            send(file, lastModified, length, request, response, 0L, length, stream);
+        } else if (ranges.isEmpty()) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        } else if (ranges.size() == 1) {
+            var range = ranges.get(0);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setContentType(contentType);
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, ByteRanges.contentRange(range, length));
+            send(file, lastModified, length, request, response, range[0], range[1] + 1, stream);
+        } else {
+            sendMultipart(file, request, response, ranges, contentType, length, stream);
+        }
+    }
+
+    private void send(File file, long lastModified, long length, HttpServletRequest request,
+                      HttpServletResponse response, long start, long end, StreamScheduler.Stream stream)
+            throws IOException {
+        if ("HEAD".equals(request.getMethod()) || start >= end) {
+            return;
+        }
+
+        var segment = readAheadService.find(file, length, lastModified, start);
+        if (segment != null) {
+            try (segment) {
+                sendReadAhead(file, segment, response, start, end, stream);
+            }
+            return;
+        }
+
+        if (stream == null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end);
+            sendfileBytes.increment(end - start);
+            return;
+        }
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            copiedBytes.increment(transfer(channel, start, end, target(response.getOutputStream(), stream)));
+        }
+    }
+
+    private void sendReadAhead(File file, ReadAheadService.Segment segment, HttpServletResponse response,
+                               long start, long end, StreamScheduler.Stream stream) throws IOException {
+        var target = target(response.getOutputStream(), stream);
+        long cachedEnd = Math.min(end, segment.getEnd());
+
+        long sent = transfer(segment.getChannel(), start - segment.getStart(), cachedEnd - segment.getStart(), target);
+        readAheadService.used(sent);
+
+        if (sent == cachedEnd - start && cachedEnd < end) {
+            try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                sent += transfer(channel, cachedEnd, end, target);
+            }
+        }
+
+        copiedBytes.increment(sent);
+    }
+
+    private void sendMultipart(File file, HttpServletRequest request, HttpServletResponse response,
+                               List<long[]> ranges, String contentType, long length,
+                               StreamScheduler.Stream stream) throws IOException {
+        var boundary = MimeTypeUtils.generateMultipartBoundaryString();
+
+        var headers = new ArrayList<byte[]>(ranges.size());
+        long contentLength = 0L;
+        for (var range : ranges) {
+            var bytes = ByteRanges.partHeader(boundary, contentType, range, length);
+            headers.add(bytes);
+            contentLength += bytes.length + range[1] - range[0] + 1;
+        }
+        var closing = ByteRanges.closing(boundary);
+        contentLength += closing.length;
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        var out = response.getOutputStream();
+        var target = target(out, stream);
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                var range = ranges.get(i);
+                out.write(headers.get(i));
+                copiedBytes.increment(transfer(channel, range[0], range[1] + 1, target));
+            }
+        }
+
+        out.write(closing);
+    }
+
+    /**
+     * Canal de escritura de la respuesta, limitado por {@code stream} si no es {@code null}.
+     */
+    private static WritableByteChannel target(OutputStream out, StreamScheduler.Stream stream) {
+        var channel = Channels.newChannel(out);
+        return stream == null ? channel : new PacedChannel(channel, stream);
+    }
+
+    /**
+     * @return Número de bytes enviados
+     */
+    private static long transfer(FileChannel channel, long start, long end, WritableByteChannel target)
+            throws IOException {
+        long position = start;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                break;
+            }
+
+            position += sent;
+        }
+
+        return position - start;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Canal que espera el turno de cada escritura en {@link StreamScheduler} antes de hacerla.
+     */
+    private static final class PacedChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final StreamScheduler.Stream stream;
+
+        private PacedChannel(WritableByteChannel channel, StreamScheduler.Stream stream) {
+            this.channel = channel;
+            this.stream = stream;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int bytes = src.remaining();
+            stream.pace(bytes);
+
+            int written = channel.write(src);
+            stream.sent(written);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detección de MIME types con caché.<br>
+ * <br>
+ * Los archivos cuya extensión está en {@code mime.extensions} se resuelven sin abrirlos (si
+ * {@code mime.extension-fast-path} está activo). Para el resto se utiliza la detección por contenido de
+ * {@link Util#detectMimeType(File)} y el resultado se guarda en una caché LRU de como máximo
+ * {@code mime.cache.max-entries} elementos, indexada por la ruta absoluta normalizada (sin acceder al disco), el
+ * tamaño y la fecha de modificación del archivo, de forma que un archivo modificado vuelve a detectarse.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class MimeTypeService {
+
+    @Value("${mime.cache.max-entries}")
+    private int maxEntries;
+
+    @Value("${mime.extension-fast-path}")
+    private boolean extensionFastPath;
+
+    @Value("${mime.extensions}")
+    private List<String> extensionMappings;
+
+    private final Map<String, String> mimeByExtension = new HashMap<>();
+    private Map<CacheKey, String> cache;
+
+    private final AtomicLong fastPathHits = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Timer fileDetectionTimer;
+    private final Timer dataDetectionTimer;
+
+    @Autowired
+    public MimeTypeService(MeterRegistry meterRegistry) {
+        fileDetectionTimer = Timer.builder("cinemafamily.mime.detect")
+                .description("MIME type detection by content")
+                .tag("source", "file")
+                .register(meterRegistry);
+        dataDetectionTimer = Timer.builder("cinemafamily.mime.detect")
+                .description("MIME type detection by content")
+                .tag("source", "data")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        // Formato: extension:mime/type
+        for (var mapping : extensionMappings) {
+            int separator = mapping.indexOf(':');
+            if (separator > 0) {
+                mimeByExtension.put(
+                        mapping.substring(0, separator).strip().toLowerCase(Locale.ROOT),
+                        mapping.substring(separator + 1).strip().intern());
+            }
+        }
+
+        cache = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, String> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Detecta el MIME type del archivo {@code file}.
+     *
+     * @param file Archivo a analizar
+     *
+     * @return MIME type del archivo o {@link Optional#empty()} si no pudo determinarse
+     */
+    public Optional<String> detectMimeType(File file) {
+        return detectMimeType(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Detecta el MIME type del archivo {@code file} cuando ya se conocen su tamaño y fecha de modificación,
+     * evitando volver a consultarlos.
+     *
+     * @param file         Archivo a analizar
+     * @param size         Tamaño del archivo
+     * @param lastModified Fecha de modificación del archivo
+     *
+     * @return MIME type del archivo o {@link Optional#empty()} si no pudo determinarse
+     */
+    public Optional<String> detectMimeType(File file, long size, long lastModified) {
+        if (extensionFastPath) {
+            var mime = mimeByExtension.get(extensionOf(file.getName()));
+            if (mime != null) {
+                fastPathHits.incrementAndGet();
+                return Optional.of(mime);
+            }
+        }
+
+        var key = new CacheKey(file.toPath().toAbsolutePath().normalize().toString(), size, lastModified);
+
+        String mime;
+        synchronized (cache) {
+            mime = cache.get(key);
+        }
+
+        if (mime != null) {
+            cacheHits.incrementAndGet();
+            return Optional.of(mime);
+        }
+
+        cacheMisses.incrementAndGet();
+        var detected = fileDetectionTimer.record(() -> Util.detectMimeType(file)).map(String::intern);
+        detected.ifPresent(value -> {
+            synchronized (cache) {
+                cache.put(key, value);
+            }
+        });
+
+        return detected;
+    }
+
+    /**
+     * Obtiene el MIME type del archivo con nombre {@code name} solo a partir de su extensión ({@code mime.extensions}),
+     * sin abrirlo.
+     *
+     * @param name Nombre del archivo
+     *
+     * @return MIME type del archivo o {@link Optional#empty()} si su extensión no es conocida
+     */
+    public Optional<String> detectMimeTypeByExtension(String name) {
+        var mime = mimeByExtension.get(extensionOf(name));
+        if (mime != null) {
+            fastPathHits.incrementAndGet();
+        }
+
+        return Optional.ofNullable(mime);
+    }
+
+    /**
+     * Detecta el MIME type de un {@link Resource}. Los recursos en memoria se analizan directamente; los
+     * respaldados por un archivo pasan por {@link #detectMimeType(File)}.
+     */
+    public Optional<String> detectMimeType(Resource resource) {
+        if (resource instanceof ByteArrayResource) {
+            var data = ((ByteArrayResource) resource).getByteArray();
+            return dataDetectionTimer.record(() -> Util.detectMimeType(data));
+        }
+
+        try {
+            return detectMimeType(resource.getFile());
+        } catch (IOException e) {
+            return fileDetectionTimer.record(() -> Util.detectMimeType(resource));
+        }
+    }
+
+    public long getFastPathHits() {
+        return fastPathHits.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static final class CacheKey {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        private CacheKey(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+
+            var other = (CacheKey) o;
+            return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equivalente de {@link MediaStreamService} para el modo reactivo (WebFlux sobre Netty).<br>
+ * <br>
+ * Las respuestas completas y de un único rango se envían con {@link ZeroCopyHttpOutputMessage}, que Netty
+ * resuelve con {@code sendfile} sin copiar los datos en memoria. Los rangos múltiples se leen por bloques con un
+ * {@link AsynchronousFileChannel}. En ambos casos el envío avanza solo a medida que el cliente recibe los datos,
+ * sin ocupar ningún hilo mientras tanto, por lo que los clientes lentos no limitan el número de reproducciones
+ * simultáneas.<br>
+ * <br>
+ * Los rangos que empiezan en una parte del video que ya está en la caché de lectura anticipada
+ * ({@link ReadAheadService}) se leen de ella, continuando desde la biblioteca si el rango es mayor.<br>
+ * <br>
+ * Los límites de velocidad de {@link StreamScheduler} se aplican retrasando cada bloque sin bloquear ningún hilo;
+ * en ese caso, y en el de las descargas completas, no se utiliza {@code sendfile}.<br>
+ * <br>
+ * A diferencia del modo servlet, {@code cinemafamily.stream.active} incluye los envíos con {@code sendfile} hasta
+ * que terminan.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveMediaStreamService {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Segundos que debe esperar el cliente para volver a intentar una descarga completa rechazada.
+     */
+    private static final String FULL_DOWNLOAD_RETRY_AFTER = "30";
+
+    private final MimeTypeService mimeTypeService;
+    private final ReadAheadService readAheadService;
+    private final StreamScheduler streamScheduler;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final Counter sendfileBytes;
+    private final Counter copiedBytes;
+
+    @Autowired
+    public ReactiveMediaStreamService(MimeTypeService mimeTypeService,
+                                      ReadAheadService readAheadService,
+                                      StreamScheduler streamScheduler,
+                                      MeterRegistry meterRegistry) {
+        this.mimeTypeService = mimeTypeService;
+        this.readAheadService = readAheadService;
+        this.streamScheduler = streamScheduler;
+
+        Gauge.builder("cinemafamily.stream.active", activeStreams, AtomicInteger::get)
+                .description("Media responses being written")
+                .register(meterRegistry);
+        sendfileBytes = Counter.builder("cinemafamily.stream.bytes")
+                .description("Media bytes served")
+                .baseUnit("bytes")
+                .tag("mode", "sendfile")
+                .register(meterRegistry);
+        copiedBytes = Counter.builder("cinemafamily.stream.bytes")
+                .description("Media bytes served")
+                .baseUnit("bytes")
+                .tag("mode", "copy")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Envía al cliente el archivo cuyo identificador es {@code fileId} atendiendo a las cabeceras de la petición.
+     *
+     * @param fileId   Identificador del archivo
+     * @param exchange Petición y respuesta HTTP
+     */
+    public Mono<Void> stream(String fileId, ServerWebExchange exchange) {
+        // Consultar el archivo bloquea, por lo que no puede hacerse en el hilo de Netty
+        return Mono.fromCallable(() -> media(fileId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(media -> Mono.defer(() -> write(media, exchange))
+                        .doOnSubscribe(subscription -> activeStreams.incrementAndGet())
+                        .doFinally(signal -> activeStreams.decrementAndGet()));
+    }
+
+    private Media media(String fileId) {
+        var file = Util.idToPath(fileId);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("File not found " + fileId);
+        }
+
+        return new Media(file, file.length(), file.lastModified(),
+                mimeTypeService.detectMimeType(file).orElse("application/octet-stream"));
+    }
+
+    private Mono<Void> write(Media media, ServerWebExchange exchange) {
+        var request = exchange.getRequest().getHeaders();
+        var response = exchange.getResponse();
+        var headers = response.getHeaders();
+        var etag = ByteRanges.etag(media.length, media.lastModified);
+
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.set(HttpHeaders.ETAG, etag);
+        headers.set(HttpHeaders.CACHE_CONTROL, ByteRanges.CACHE_CONTROL);
+        headers.setLastModified(media.lastModified);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, ByteRanges.contentDisposition(media.file.getName()));
+
+        if (ByteRanges.isNotModified(request.getFirst(HttpHeaders.IF_NONE_MATCH), request.getIfModifiedSince(),
+                etag, media.lastModified)) {
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+
+        var ranges = ByteRanges.requestedRanges(request.getFirst(HttpHeaders.RANGE),
+                request.getFirst(HttpHeaders.IF_RANGE), dateHeader(request, HttpHeaders.IF_RANGE),
+                etag, media.lastModified, media.length);
+        boolean head = exchange.getRequest().getMethod() == HttpMethod.HEAD;
+        if (media.contentType.startsWith("video/") && !head) {
+            readAheadService.played(media.file);
+        }
+
+        boolean fullDownload = ranges == null && !head;
+        if (fullDownload && !streamScheduler.tryStartFullDownload()) {
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            headers.set(HttpHeaders.RETRY_AFTER, FULL_DOWNLOAD_RETRY_AFTER);
+            return response.setComplete();
+        }
+
+        // Las descargas completas tampoco se envían con sendfile, para que sigan contando hasta que terminan
+        var stream = (streamScheduler.isShaping() || fullDownload) && !head
+                ? streamScheduler.open(clientAddress(exchange))
+                : null;
+
+        return Mono.defer(() -> respond(media, response, ranges, head, stream))
+                .doFinally(signal -> {
+                    if (stream != null) {
+                        stream.close();
+                    }
+                    if (fullDownload) {
+                        streamScheduler.endFullDownload();
+                    }
+                });
+    }
+
+    private Mono<Void> respond(Media media, ServerHttpResponse response, List<long[]> ranges, boolean head,
+                               StreamScheduler.Stream stream) {
+        var headers = response.getHeaders();
+
+        if (ranges == null) {
+            response.setStatusCode(HttpStatus.OK);
+            headers.setContentType(MediaType.parseMediaType(media.contentType));
+            headers.setContentLength(media.length);
+            return head ? response.setComplete() : send(response, media, 0L, media.length, stream);
+        } else if (ranges.isEmpty()) {
+            response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + media.length);
+            return response.setComplete();
+        } else if (ranges.size() == 1) {
+            var range = ranges.get(0);
+            response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+            headers.setContentType(MediaType.parseMediaType(media.contentType));
+            headers.setContentLength(range[1] - range[0] + 1);
+            headers.set(HttpHeaders.CONTENT_RANGE, ByteRanges.contentRange(range, media.length));
+            return head ? response.setComplete() : send(response, media, range[0], range[1] - range[0] + 1, stream);
+        }
+
+        return sendMultipart(response, media, ranges, head, stream);
+    }
+
+    private Mono<Void> send(ServerHttpResponse response, Media media, long position, long count,
+                            StreamScheduler.Stream stream) {
+        var segment = readAheadService.find(media.file, media.length, media.lastModified, position);
+        if (segment != null) {
+            long cached = Math.min(position + count, segment.getEnd()) - position;
+            var fromCache = read(response, segment, position - segment.getStart(), cached, stream)
+                    .doOnNext(buffer -> readAheadService.used(buffer.readableByteCount()));
+
+            return response.writeWith(cached < count
+                    ? Flux.concat(fromCache, read(response, media.file.toPath(), position + cached, count - cached, stream))
+                    : fromCache);
+        }
+
+        if (stream == null && response instanceof ZeroCopyHttpOutputMessage) {
+            sendfileBytes.increment(count);
+            return ((ZeroCopyHttpOutputMessage) response).writeWith(media.file, position, count);
+        }
+
+        return response.writeWith(read(response, media.file.toPath(), position, count, stream));
+    }
+
+    private Mono<Void> sendMultipart(ServerHttpResponse response, Media media, List<long[]> ranges, boolean head,
+                                     StreamScheduler.Stream stream) {
+        var boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        var bufferFactory = response.bufferFactory();
+
+        var parts = new ArrayList<Flux<DataBuffer>>(ranges.size() + 1);
+        long contentLength = 0L;
+        for (var range : ranges) {
+            var header = ByteRanges.partHeader(boundary, media.contentType, range, media.length);
+            long count = range[1] - range[0] + 1;
+            contentLength += header.length + count;
+
+            parts.add(Flux.concat(Mono.fromCallable(() -> bufferFactory.wrap(header)),
+                    read(response, media.file.toPath(), range[0], count, stream)));
+        }
+        var closing = ByteRanges.closing(boundary);
+        contentLength += closing.length;
+        parts.add(Flux.defer(() -> Flux.just(bufferFactory.wrap(closing))));
+
+        response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+        response.getHeaders().setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        response.getHeaders().setContentLength(contentLength);
+
+        // Cada parte se lee solo cuando se ha enviado la anterior
+        return head ? response.setComplete() : response.writeWith(Flux.concat(parts));
+    }
+
+    /**
+     * Lee {@code count} bytes del archivo a partir de {@code position}. Los bloques se leen a medida que el cliente
+     * los solicita y, si {@code stream} no es {@code null}, se entregan cuando les llega el turno en
+     * {@link StreamScheduler}.
+     */
+    private Flux<DataBuffer> read(ServerHttpResponse response, Path path, long position, long count,
+                                  StreamScheduler.Stream stream) {
+        return paced(DataBufferUtils.takeUntilByteCount(DataBufferUtils.readAsynchronousFileChannel(
+                () -> AsynchronousFileChannel.open(path, StandardOpenOption.READ), position,
+                response.bufferFactory(), BUFFER_SIZE), count), stream);
+    }
+
+    /**
+     * Igual que {@link #read(ServerHttpResponse, Path, long, long, StreamScheduler.Stream)} pero desde el canal ya
+     * abierto de un segmento de la caché de lectura anticipada, que se cierra al terminar.
+     */
+    private Flux<DataBuffer> read(ServerHttpResponse response, ReadAheadService.Segment segment, long position,
+                                  long count, StreamScheduler.Stream stream) {
+        return paced(DataBufferUtils.takeUntilByteCount(DataBufferUtils.readByteChannel(
+                () -> segment.getChannel().position(position), response.bufferFactory(), BUFFER_SIZE), count), stream);
+    }
+
+    private Flux<DataBuffer> paced(Flux<DataBuffer> buffers, StreamScheduler.Stream stream) {
+        return (stream == null ? buffers : buffers.concatMap(buffer -> pace(stream, buffer)))
+                .doOnNext(buffer -> copiedBytes.increment(buffer.readableByteCount()));
+    }
+
+    /**
+     * Retrasa el bloque {@code buffer} hasta que puede enviarse, sin ocupar ningún hilo mientras tanto.
+     */
+    private static Mono<DataBuffer> pace(StreamScheduler.Stream stream, DataBuffer buffer) {
+        int bytes = buffer.readableByteCount();
+
+        return delay(stream.reserveClient(bytes))
+                .then(Mono.defer(() -> delay(stream.reserveGlobal(bytes))))
+                .then(Mono.fromCallable(() -> {
+                    stream.sent(bytes);
+                    return buffer;
+                }))
+                .doOnCancel(() -> DataBufferUtils.release(buffer));
+    }
+
+    private static Mono<Void> delay(long nanos) {
+        return nanos <= 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(nanos)).then();
+    }
+
+    private static String clientAddress(ServerWebExchange exchange) {
+        var address = exchange.getRequest().getRemoteAddress();
+        return address == null || address.getAddress() == null ? "unknown" : address.getAddress().getHostAddress();
+    }
+
+    private static long dateHeader(HttpHeaders headers, String name) {
+        try {
+            return headers.getFirstDate(name);
+        } catch (IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+
+    private static final class Media {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final String contentType;
+
+        private Media(File file, long length, long lastModified, String contentType) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.utils.MediaProbe;
+import com.betanzos.cinemafamily.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lectura anticipada del siguiente video de una carpeta.<br>
+ * <br>
+ * Cuando se reproduce un video se copian a una caché local los primeros {@code readahead.head-bytes} bytes del
+ * siguiente video de su carpeta (en el orden de los listados) y el índice de su contenedor ({@code moov} o
+ * {@code Cues}, ver {@link MediaProbe#indexRange(File)}), que a menudo está al final del archivo. También se
+ * convierten sus subtítulos. De esta forma el siguiente episodio empieza a reproducirse sin esperar a la biblioteca
+ * (p. ej. un NAS en reposo) mientras el resto se lee de ella.<br>
+ * <br>
+ * La caché se guarda en {@code readahead.cache.dir} y se limita a {@code readahead.cache.max-bytes}, eliminando los
+ * videos usados hace más tiempo ({@link SegmentCache}). Los nombres de los archivos incluyen el tamaño y la fecha
+ * de modificación del video, por lo que un video modificado nunca se sirve desde la caché.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class ReadAheadService {
+    private static final Logger log = LoggerFactory.getLogger(ReadAheadService.class);
+
+    private static final String HEAD_SUFFIX = ".head";
+    private static final String INDEX_SUFFIX = ".index";
+
+    @Value("${readahead.enabled}")
+    private boolean enabled;
+
+    @Value("${readahead.head-bytes}")
+    private long headBytes;
+
+    @Value("${readahead.index-max-bytes}")
+    private long indexMaxBytes;
+
+    @Value("${readahead.cache.dir}")
+    private String cacheDirectory;
+
+    @Value("${readahead.cache.max-bytes}")
+    private long cacheMaxBytes;
+
+    @Value("${readahead.queue-capacity}")
+    private int queueCapacity;
+
+    private final CatalogService catalogService;
+    private final SubtitleCacheService subtitleCacheService;
+
+    // Identificador, tamaño y fecha de modificación del video (ver key) -> partes del video que están en la caché
+    private final Map<String, Prefetched> prefetched = new ConcurrentHashMap<>();
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong subtitles = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private SegmentCache cache;
+    private ThreadPoolExecutor executor;
+    private volatile boolean available;
+
+    /**
+     * Parte de un video guardada en la caché: los bytes {@code [start, end)} del video, que en el archivo de la
+     * caché empiezan en la posición 0.<br>
+     * <br>
+     * El archivo de la caché se abre al obtener el segmento, por lo que puede leerse aunque se elimine de la caché
+     * mientras tanto. Se debe cerrar al terminar de usarlo.
+     */
+    public static final class Segment implements Closeable {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        private Segment(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Nombres en la caché del principio y del índice ({@code null} si no se guarda) de un video.
+     */
+    private static final class Prefetched {
+        private final String headName;
+        private final long headEnd;
+        private final String indexName;
+        private final long indexStart;
+        private final long indexEnd;
+
+        private Prefetched(String headName, long headEnd, String indexName, long indexStart, long indexEnd) {
+            this.headName = headName;
+            this.headEnd = headEnd;
+            this.indexName = indexName;
+            this.indexStart = indexStart;
+            this.indexEnd = indexEnd;
+        }
+    }
+
+    @Autowired
+    public ReadAheadService(CatalogService catalogService, SubtitleCacheService subtitleCacheService) {
+        this.catalogService = catalogService;
+        this.subtitleCacheService = subtitleCacheService;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        cache = new SegmentCache(Paths.get(cacheDirectory), cacheMaxBytes);
+        try {
+            cache.load();
+        } catch (IOException e) {
+            log.warn("Unable to use read-ahead cache directory {}, read-ahead is disabled", cacheDirectory, e);
+            return;
+        }
+        restore(cache.getSizes());
+
+        // Un único hilo de baja prioridad: la lectura anticipada no debe competir con las reproducciones en curso
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+            var thread = new Thread(r, "read-ahead");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        available = true;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Notifica que se está reproduciendo el video {@code video} para preparar el siguiente de su carpeta. Solo se
+     * tiene en cuenta si la carpeta ya está en el catálogo, por lo que nunca accede al disco: el tamaño y la fecha
+     * de modificación del siguiente video son los del catálogo.
+     *
+     * @param video Video que se está enviando
+     */
+    public void played(File video) {
+        if (!available) {
+            return;
+        }
+
+        var directory = catalogService.getIndexedDirectory(video.getParentFile());
+        if (directory == null) {
+            return;
+        }
+
+        var entries = directory.getEntries();
+        int index = Collections.binarySearch(entries, new CatalogEntry(video.getName(), false, 0L, 0L, null),
+                catalogService.getEntryOrder());
+        if (index < 0) {
+            return;
+        }
+
+        for (int i = index + 1; i < entries.size(); i++) {
+            var next = entries.get(i);
+            if (next.isVideo()) {
+                schedule(directory.resolve(next), next.getSize(), next.getLastModified());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Busca en la caché la parte del video {@code video} que contiene el byte {@code position}.
+     *
+     * @param video        Video solicitado
+     * @param size         Tamaño actual del video
+     * @param lastModified Fecha de modificación actual del video
+     * @param position     Primer byte solicitado
+     *
+     * @return Parte del video en la caché, que debe cerrarse, o {@code null} si no está
+     */
+    public Segment find(File video, long size, long lastModified, long position) {
+        var key = available ? key(video, size, lastModified) : null;
+        var entry = key != null ? prefetched.get(key) : null;
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        Segment segment = null;
+        if (position < entry.headEnd) {
+            var channel = cache.open(entry.headName);
+            segment = channel != null ? new Segment(channel, 0L, entry.headEnd) : null;
+        } else if (entry.indexName != null && position >= entry.indexStart && position < entry.indexEnd) {
+            var channel = cache.open(entry.indexName);
+            segment = channel != null ? new Segment(channel, entry.indexStart, entry.indexEnd) : null;
+        }
+
+        if (segment == null && (position < entry.headEnd || entry.indexName != null && position >= entry.indexStart
+                && position < entry.indexEnd)) {
+            // Eliminado de la caché para dejar sitio a otros videos
+            prefetched.remove(key, entry);
+        }
+
+        (segment != null ? hits : misses).incrementAndGet();
+        return segment;
+    }
+
+    /**
+     * Registra los bytes enviados desde la caché.
+     */
+    public void used(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    public long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSubtitleConversions() {
+        return subtitles.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCacheBytes() {
+        return available ? cache.getBytes() : 0L;
+    }
+
+    public long getEvictions() {
+        return available ? cache.getEvictions() : 0L;
+    }
+
+    /**
+     * Nombre en la caché de las partes de un video, y clave en {@code prefetched}. Cambia si se modifica el video,
+     * por lo que nunca se sirve un video modificado desde la caché.
+     */
+    private static String key(File video, long size, long lastModified) {
+        return Util.pathToId(video) + "/" + Long.toHexString(size) + "." + Long.toHexString(lastModified);
+    }
+
+    /**
+     * Reconstruye {@code prefetched} a partir de los archivos que ya están en la caché (p. ej. de antes de reiniciar
+     * la aplicación). Sus nombres incluyen todo lo necesario salvo los límites de cada parte, que se deducen de su
+     * tamaño.
+     *
+     * @param files Ruta relativa -> tamaño de los archivos de la caché
+     */
+    private void restore(Map<String, Long> files) {
+        prefetched.clear();
+
+        files.forEach((name, size) -> {
+            if (name.endsWith(HEAD_SUFFIX)) {
+                var key = name.substring(0, name.length() - HEAD_SUFFIX.length());
+                prefetched.merge(key, new Prefetched(name, size, null, 0L, 0L),
+                        (index, head) -> new Prefetched(head.headName, head.headEnd,
+                                index.indexName, index.indexStart, index.indexEnd));
+            } else if (name.endsWith(INDEX_SUFFIX)) {
+                var base = name.substring(0, name.length() - INDEX_SUFFIX.length());
+                int dot = base.lastIndexOf('.');
+                long indexStart;
+                try {
+                    indexStart = Long.parseLong(base.substring(dot + 1), 16);
+                } catch (NumberFormatException e) {
+                    return;
+                }
+
+                prefetched.merge(base.substring(0, dot), new Prefetched(null, 0L, name, indexStart, indexStart + size),
+                        (head, index) -> new Prefetched(head.headName, head.headEnd,
+                                index.indexName, index.indexStart, index.indexEnd));
+            }
+        });
+
+        // Un índice sin el principio del video no sirve para empezar a reproducirlo
+        prefetched.values().removeIf(entry -> entry.headName == null);
+    }
+
+    private void schedule(File video, long size, long lastModified) {
+        var key = video.getAbsolutePath();
+        if (prefetched.containsKey(key(video, size, lastModified)) || !pending.add(key)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    prefetch(video);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Se volverá a intentar en la siguiente petición del video en curso
+            pending.remove(key);
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void prefetch(File video) {
+        // Primero los subtítulos, que son pequeños
+        convertSubtitles(video);
+
+        try {
+            long size = video.length();
+            long lastModified = video.lastModified();
+            var prefix = key(video, size, lastModified);
+
+            long headEnd = Math.min(headBytes, size);
+            var headName = prefix + HEAD_SUFFIX;
+            copy(video, headName, 0L, headEnd);
+
+            String indexName = null;
+            long[] index = MediaProbe.indexRange(video);
+            if (index != null && index[1] > headEnd && index[1] - index[0] <= indexMaxBytes) {
+                // Solo la parte que no está ya en el principio del archivo
+                index[0] = Math.max(index[0], headEnd);
+                indexName = prefix + "." + Long.toHexString(index[0]) + INDEX_SUFFIX;
+                copy(video, indexName, index[0], index[1]);
+            }
+
+            prefetched.put(prefix, new Prefetched(headName, headEnd,
+                    indexName, index != null ? index[0] : 0L, indexName != null ? index[1] : 0L));
+            prefetches.incrementAndGet();
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Unable to read ahead {}", video, e);
+        }
+    }
+
+    /**
+     * Copia a la caché los bytes {@code [start, end)} del video salvo que ya estén en ella (p. ej. de antes de
+     * reiniciar la aplicación).
+     */
+    private void copy(File video, String name, long start, long end) throws IOException {
+        if (cache.contains(name)) {
+            return;
+        }
+
+        var tmp = cache.createTempFile(name);
+        try (var source = FileChannel.open(video.toPath(), StandardOpenOption.READ);
+             var target = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            long position = start;
+            while (position < end) {
+                long copied = source.transferTo(position, end - position, target);
+                if (copied <= 0) {
+                    break;
+                }
+
+                position += copied;
+            }
+
+            prefetchedBytes.addAndGet(position - start);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        cache.put(name, tmp);
+    }
+
+    private void convertSubtitles(File video) {
+        var directory = catalogService.getIndexedDirectory(video.getParentFile());
+        if (directory == null) {
+            return;
+        }
+
+        for (var sidecar : directory.findSubtitles(video.getName())) {
+            if (subtitleCacheService.getConverted(directory.resolve(sidecar.getEntry())).isPresent()) {
+                subtitles.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,679 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Índice invertido de los nombres de las carpetas y videos del catálogo.<br>
+ * <br>
+ * Los nombres se dividen en tokens sin acentos y en minúsculas; las secuencias de dígitos son tokens propios sin
+ * ceros a la izquierda y los patrones de temporada/capítulo ({@code S01E02}, {@code 1x02}, {@code Temporada 1})
+ * generan además los tokens {@code s1} y {@code e2}. Cada token se guarda una única vez en el diccionario junto
+ * con la lista de documentos (enteros ordenados) que lo contienen.<br>
+ * <br>
+ * Los documentos eliminados solo se marcan como borrados y las listas se compactan cuando los documentos borrados
+ * superan a los vigentes, de forma que actualizar un directorio no obliga a recorrer las listas de sus tokens.<br>
+ * <br>
+ * Esta clase no es thread-safe.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class SearchIndex {
+
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    private static final byte ALIVE = 1;
+    private static final byte FOLDER = 2;
+
+    // Aproximación del tamaño de los objetos en una JVM de 64 bits con compressed oops
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int TREE_ENTRY = 40;
+    private static final int HASH_ENTRY = 32;
+
+    private static final Set<String> SEASON_WORDS = Set.of("season", "temporada");
+    private static final Set<String> EPISODE_WORDS = Set.of("episode", "capitulo", "cap", "ep");
+
+    /**
+     * Diccionario de tokens. Es ordenado para poder buscar por prefijo.
+     */
+    private final TreeMap<String, IntList> terms = new TreeMap<>();
+
+    // Tabla de documentos: el identificador de cada documento es su posición
+    private String[] names = new String[1024];
+    private int[] directoryOf = new int[1024];
+    private String[] firstTokens = new String[1024];
+    private byte[] flags = new byte[1024];
+    private int documentCount;
+    private int liveCount;
+
+    // Tabla de directorios
+    private final Map<String, Integer> directorySlots = new HashMap<>();
+    private final List<String> directoryPaths = new ArrayList<>();
+    private final List<IntList> directoryDocuments = new ArrayList<>();
+    private final IntList freeSlots = new IntList();
+
+    /**
+     * Resultado de una búsqueda.
+     */
+    public static final class Hit {
+        private final String directory;
+        private final String name;
+        private final boolean folder;
+        private final int score;
+
+        private Hit(String directory, String name, boolean folder, int score) {
+            this.directory = directory;
+            this.name = name;
+            this.folder = folder;
+            this.score = score;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isFolder() {
+            return folder;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * Indica si el directorio con la ruta {@code path} forma parte del índice.
+     */
+    public boolean contains(String path) {
+        return directorySlots.containsKey(path);
+    }
+
+    /**
+     * Añade o actualiza las carpetas y videos de {@code directory}. Las entradas cuyo nombre no ha cambiado
+     * conservan su documento, por lo que volver a indexar un directorio sin cambios no modifica el índice.
+     */
+    public void update(CatalogDirectory directory) {
+        var slot = directorySlots.get(directory.getPath());
+        if (slot == null) {
+            slot = freeSlots.size > 0 ? freeSlots.removeLast() : directoryPaths.size();
+            if (slot == directoryPaths.size()) {
+                directoryPaths.add(null);
+                directoryDocuments.add(null);
+            }
+            directoryPaths.set(slot, directory.getPath());
+            directorySlots.put(directory.getPath(), slot);
+        }
+
+        var previous = directoryDocuments.get(slot);
+        var existing = new HashMap<String, Integer>();
+        if (previous != null) {
+            for (int i = 0; i < previous.size; i++) {
+                int doc = previous.values[i];
+                existing.put(names[doc], doc);
+            }
+        }
+
+        var documents = new IntList();
+        for (var entry : directory.getEntries()) {
+            if (!isSearchable(entry)) {
+                continue;
+            }
+
+            var doc = existing.remove(entry.getName());
+            if (doc != null && isFolder(doc) == entry.isDirectory()) {
+                documents.add(doc);
+            } else {
+                if (doc != null) {
+                    delete(doc);
+                }
+                documents.add(add(entry, slot));
+            }
+        }
+
+        existing.values().forEach(this::delete);
+        directoryDocuments.set(slot, documents);
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Elimina del índice el contenido del directorio con la ruta {@code path} (no el de sus subdirectorios).
+     */
+    public void remove(String path) {
+        var slot = directorySlots.remove(path);
+        if (slot == null) {
+            return;
+        }
+
+        var documents = directoryDocuments.get(slot);
+        for (int i = 0; i < documents.size; i++) {
+            delete(documents.values[i]);
+        }
+
+        directoryPaths.set(slot, null);
+        directoryDocuments.set(slot, null);
+        freeSlots.add(slot);
+
+        compactIfNeeded();
+    }
+
+    /**
+     * Busca los documentos que contienen todos los tokens de {@code query}. Si la consulta no termina en un
+     * separador, su última palabra se trata como prefijo para poder buscar mientras se escribe.<br>
+     * <br>
+     * Los resultados se ordenan por relevancia: coincidencias completas de la última palabra, nombres que empiezan
+     * igual que la consulta, carpetas antes que videos y nombres más cortos.
+     *
+     * @param query Texto a buscar
+     * @param limit Número máximo de resultados
+     *
+     * @return Resultados ordenados por relevancia
+     */
+    public List<Hit> search(String query, int limit) {
+        var tokens = new LinkedHashSet<>(tokenize(query));
+        if (tokens.isEmpty() || limit <= 0 || liveCount == 0) {
+            return List.of();
+        }
+
+        var prefix = trailingWord(query);
+        if (prefix != null) {
+            tokens.remove(prefix);
+        }
+
+        // Listas de los tokens exactos, de la más corta a la más larga
+        var lists = new ArrayList<IntList>(tokens.size());
+        for (var token : tokens) {
+            var list = terms.get(token);
+            if (list == null) {
+                return List.of();
+            }
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        long[] prefixMatches = null;
+        long[] exactPrefixMatches = null;
+        if (prefix != null) {
+            prefixMatches = new long[(documentCount + 63) >>> 6];
+            for (var list : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                list.setBits(prefixMatches);
+            }
+
+            var exact = terms.get(prefix);
+            if (exact != null) {
+                exactPrefixMatches = new long[prefixMatches.length];
+                exact.setBits(exactPrefixMatches);
+            }
+        }
+
+        var first = firstToken(query);
+        boolean firstIsPrefix = first.equals(prefix) && tokens.isEmpty();
+        first = firstIsPrefix ? first : canonical(first);
+        var ranking = new Ranking(limit);
+
+        if (lists.isEmpty()) {
+            for (int i = 0; i < prefixMatches.length; i++) {
+                for (long word = prefixMatches[i]; word != 0; word &= word - 1) {
+                    int doc = (i << 6) + Long.numberOfTrailingZeros(word);
+                    if (isAlive(doc)) {
+                        ranking.offer(doc, score(doc, first, firstIsPrefix, exactPrefixMatches));
+                    }
+                }
+            }
+        } else {
+            var smallest = lists.get(0);
+            candidates:
+            for (int i = 0; i < smallest.size; i++) {
+                int doc = smallest.values[i];
+                if (!isAlive(doc) || (prefixMatches != null && !isSet(prefixMatches, doc))) {
+                    continue;
+                }
+                for (int j = 1; j < lists.size(); j++) {
+                    if (!lists.get(j).contains(doc)) {
+                        continue candidates;
+                    }
+                }
+                ranking.offer(doc, score(doc, first, firstIsPrefix, exactPrefixMatches));
+            }
+        }
+
+        var hits = new ArrayList<Hit>(ranking.size);
+        for (int i = ranking.size - 1; i >= 0; i--) {
+            int doc = ranking.documents[i];
+            hits.add(new Hit(directoryPaths.get(directoryOf[doc]), names[doc], isFolder(doc), ranking.scores[i]));
+        }
+        hits.sort((a, b) -> a.score != b.score ? Integer.compare(b.score, a.score) : a.name.compareTo(b.name));
+
+        return hits;
+    }
+
+    /**
+     * Número de documentos (carpetas y videos) en el índice.
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * Número de tokens distintos en el índice.
+     */
+    public int termCount() {
+        return terms.size();
+    }
+
+    /**
+     * Estimación de la memoria ocupada por el índice. No incluye los nombres de los documentos ni las rutas de los
+     * directorios, que se comparten con el catálogo.
+     */
+    public long estimateMemoryBytes() {
+        long bytes = ARRAY_HEADER * 4L + (long) names.length * (REFERENCE + 4 + REFERENCE + 1);
+
+        for (var term : terms.entrySet()) {
+            bytes += TREE_ENTRY + stringSize(term.getKey()) + term.getValue().memoryBytes();
+        }
+
+        bytes += (long) directorySlots.size() * (HASH_ENTRY + 16) + (long) directoryPaths.size() * REFERENCE * 2;
+        for (var documents : directoryDocuments) {
+            if (documents != null) {
+                bytes += documents.memoryBytes();
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Divide {@code text} en tokens: palabras sin acentos y en minúsculas, números sin ceros a la izquierda y los
+     * tokens de temporada ({@code s<n>}) y capítulo ({@code e<n>}) que se reconozcan.
+     */
+    public static List<String> tokenize(String text) {
+        var folded = fold(text);
+        var tokens = new ArrayList<String>();
+        int length = folded.length();
+        int i = 0;
+
+        // Los dos últimos tokens y si el último estaba pegado al anterior (sin separador entre ellos)
+        String last = null;
+        String beforeLast = null;
+        boolean lastAdjacent = false;
+        int lastEnd = -1;
+
+        while (i < length) {
+            char c = folded.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            boolean digits = isDigit(c);
+            while (i < length && Character.isLetterOrDigit(folded.charAt(i)) && isDigit(folded.charAt(i)) == digits) {
+                i++;
+            }
+
+            var token = folded.substring(start, i);
+            boolean adjacent = start == lastEnd;
+
+            if (digits) {
+                token = stripZeros(token);
+
+                if (last != null && !isDigit(last.charAt(0))) {
+                    if ((adjacent && last.equals("s")) || SEASON_WORDS.contains(last)) {
+                        tokens.add("s" + token);
+                    } else if ((adjacent && last.equals("e")) || EPISODE_WORDS.contains(last)) {
+                        tokens.add("e" + token);
+                    } else if (adjacent && last.equals("x") && lastAdjacent && isDigit(beforeLast.charAt(0))) {
+                        // 1x02
+                        tokens.add("s" + beforeLast);
+                        tokens.add("e" + token);
+                    }
+                }
+            }
+
+            tokens.add(token);
+
+            beforeLast = last;
+            last = token;
+            lastAdjacent = adjacent;
+            lastEnd = i;
+        }
+
+        return tokens;
+    }
+
+    private int add(CatalogEntry entry, int slot) {
+        if (documentCount == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            directoryOf = Arrays.copyOf(directoryOf, capacity);
+            firstTokens = Arrays.copyOf(firstTokens, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+
+        int doc = documentCount++;
+        liveCount++;
+
+        var tokens = new LinkedHashSet<>(tokenize(searchableName(entry)));
+        names[doc] = entry.getName();
+        directoryOf[doc] = slot;
+        flags[doc] = (byte) (ALIVE | (entry.isDirectory() ? FOLDER : 0));
+
+        String first = null;
+        for (var token : tokens) {
+            // La clave del diccionario es la única instancia que se conserva de cada token
+            var list = terms.get(token);
+            if (list == null) {
+                list = new IntList();
+                terms.put(token, list);
+            } else {
+                token = canonical(token);
+            }
+            list.add(doc);
+
+            if (first == null) {
+                first = token;
+            }
+        }
+        firstTokens[doc] = first;
+
+        return doc;
+    }
+
+    private void delete(int doc) {
+        flags[doc] = 0;
+        names[doc] = null;
+        firstTokens[doc] = null;
+        liveCount--;
+    }
+
+    private void compactIfNeeded() {
+        int dead = documentCount - liveCount;
+        if (dead < MIN_DEAD_TO_COMPACT || dead < liveCount) {
+            return;
+        }
+
+        // Los documentos vigentes se renumeran conservando su orden, por lo que las listas siguen ordenadas
+        var renumbered = new int[documentCount];
+        int next = 0;
+        for (int doc = 0; doc < documentCount; doc++) {
+            if (isAlive(doc)) {
+                renumbered[doc] = next;
+                names[next] = names[doc];
+                directoryOf[next] = directoryOf[doc];
+                firstTokens[next] = firstTokens[doc];
+                flags[next] = flags[doc];
+                next++;
+            } else {
+                renumbered[doc] = -1;
+            }
+        }
+        Arrays.fill(names, next, documentCount, null);
+        Arrays.fill(firstTokens, next, documentCount, null);
+        Arrays.fill(flags, next, documentCount, (byte) 0);
+        documentCount = next;
+
+        var iterator = terms.values().iterator();
+        while (iterator.hasNext()) {
+            var list = iterator.next();
+            list.renumber(renumbered);
+            if (list.size == 0) {
+                iterator.remove();
+            }
+        }
+
+        for (var documents : directoryDocuments) {
+            if (documents != null) {
+                documents.renumber(renumbered);
+            }
+        }
+    }
+
+    private int score(int doc, String firstQueryToken, boolean firstIsPrefix, long[] exactPrefixMatches) {
+        int score = 0;
+        if (exactPrefixMatches != null && isSet(exactPrefixMatches, doc)) {
+            score += 8;
+        }
+        // Los tokens son instancias únicas, por lo que basta comparar las referencias
+        if (firstQueryToken != null && (firstIsPrefix
+                ? firstTokens[doc].startsWith(firstQueryToken)
+                : firstQueryToken == firstTokens[doc])) {
+            score += 4;
+        }
+        if (isFolder(doc)) {
+            score += 2;
+        }
+
+        return score * 256 - Math.min(names[doc].length(), 255);
+    }
+
+    /**
+     * Instancia de {@code token} guardada en el diccionario o {@code null} si no existe.
+     */
+    private String canonical(String token) {
+        var key = terms.ceilingKey(token);
+        return token.equals(key) ? key : null;
+    }
+
+    private boolean isAlive(int doc) {
+        return (flags[doc] & ALIVE) != 0;
+    }
+
+    private boolean isFolder(int doc) {
+        return (flags[doc] & FOLDER) != 0;
+    }
+
+    private static boolean isSearchable(CatalogEntry entry) {
+        return entry.isDirectory() || entry.isVideo();
+    }
+
+    private static String searchableName(CatalogEntry entry) {
+        // La extensión de los videos no aporta nada a la búsqueda
+        int dot = entry.getName().lastIndexOf('.');
+        return entry.isDirectory() || dot <= 0 ? entry.getName() : entry.getName().substring(0, dot);
+    }
+
+    private static String firstToken(String query) {
+        var tokens = tokenize(query);
+        return tokens.isEmpty() ? "" : tokens.get(0);
+    }
+
+    /**
+     * Última palabra de {@code query} si no va seguida de un separador y no es un número.
+     */
+    private static String trailingWord(String query) {
+        int end = query.length();
+        if (end == 0 || !Character.isLetter(query.charAt(end - 1))) {
+            return null;
+        }
+
+        int start = end;
+        while (start > 0 && Character.isLetter(query.charAt(start - 1))) {
+            start--;
+        }
+
+        var tokens = tokenize(query.substring(start, end));
+        return tokens.size() == 1 ? tokens.get(0) : null;
+    }
+
+    private static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+
+        if (!ascii) {
+            text = Normalizer.normalize(text, Normalizer.Form.NFD);
+            var stripped = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                    stripped.append(c);
+                }
+            }
+            text = stripped.toString();
+        }
+
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static String stripZeros(String digits) {
+        int i = 0;
+        while (i < digits.length() - 1 && digits.charAt(i) == '0') {
+            i++;
+        }
+        return i == 0 ? digits : digits.substring(i);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSet(long[] bits, int doc) {
+        int word = doc >>> 6;
+        return word < bits.length && (bits[word] & (1L << doc)) != 0;
+    }
+
+    private static long stringSize(String s) {
+        // Cabecera y campos de String más el array de bytes (Latin-1)
+        return 24 + ARRAY_HEADER + s.length();
+    }
+
+    /**
+     * Lista creciente de enteros sin objetos intermedios.
+     */
+    private static final class IntList {
+        private int[] values = new int[2];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            }
+            values[size++] = value;
+        }
+
+        int removeLast() {
+            return values[--size];
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        void setBits(long[] bits) {
+            for (int i = 0; i < size; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        void renumber(int[] renumbered) {
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                int value = renumbered[values[i]];
+                if (value >= 0) {
+                    values[next++] = value;
+                }
+            }
+            size = next;
+            values = Arrays.copyOf(values, Math.max(next, 1));
+        }
+
+        long memoryBytes() {
+            return OBJECT_HEADER + REFERENCE + 4 + ARRAY_HEADER + 4L * values.length;
+        }
+    }
+
+    /**
+     * Los {@code limit} documentos con mayor puntuación, en un montículo de mínimos sobre arrays.
+     */
+    private static final class Ranking {
+        private final int[] documents;
+        private final int[] scores;
+        private int size;
+
+        Ranking(int limit) {
+            documents = new int[limit];
+            scores = new int[limit];
+        }
+
+        void offer(int doc, int score) {
+            if (size < documents.length) {
+                documents[size] = doc;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                documents[0] = doc;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = i * 2 + 1;
+                if (left >= size) {
+                    return;
+                }
+                int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[i] <= scores[smallest]) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int doc = documents[i];
+            documents[i] = documents[j];
+            documents[j] = doc;
+            int score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.SearchResult;
+import com.betanzos.cinemafamily.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Búsqueda por nombre de las carpetas y videos de la biblioteca.<br>
+ * <br>
+ * El {@link SearchIndex} se construye al arrancar a partir del catálogo y después se actualiza con cada cambio
+ * que notifica {@link CatalogService}, tanto del indexado completo como de los cambios detectados en el sistema de
+ * archivos, por lo que nunca es necesario recorrer la biblioteca para responder una búsqueda.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class SearchService implements CatalogService.Listener {
+    private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+
+    @Value("${search.max-results}")
+    private int maxResults;
+
+    private final CatalogService catalogService;
+    private final LibraryRootService libraryRootService;
+
+    private final SearchIndex index = new SearchIndex();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+
+    @Autowired
+    public SearchService(CatalogService catalogService, LibraryRootService libraryRootService) {
+        this.catalogService = catalogService;
+        this.libraryRootService = libraryRootService;
+    }
+
+    @PostConstruct
+    public void start() {
+        // Primero se reciben los cambios para que ninguno se pierda mientras se indexa el contenido actual
+        catalogService.addListener(this);
+
+        for (var path : catalogService.getDirectoryPaths()) {
+            lock.writeLock().lock();
+            try {
+                // Se consulta dentro del bloqueo para no sobrescribir una actualización más reciente
+                var directory = catalogService.getIndexedDirectory(new File(path));
+                if (directory != null) {
+                    index.update(directory);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        log.info("Search index contains {} entries and {} terms ({} bytes per entry)",
+                getIndexedEntries(), getIndexedTerms(), getIndexBytesPerEntry());
+    }
+
+    @Override
+    public void directoryUpdated(CatalogDirectory directory) {
+        lock.writeLock().lock();
+        try {
+            index.update(directory);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void directoryRemoved(String path) {
+        lock.writeLock().lock();
+        try {
+            index.remove(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Busca en la biblioteca las carpetas y videos cuyo nombre contiene todas las palabras de {@code query}. La
+     * última palabra puede estar incompleta.
+     *
+     * @param query Texto a buscar
+     * @param limit Número máximo de resultados o {@code null} para utilizar {@code search.max-results}
+     *
+     * @return Resultados ordenados por relevancia
+     */
+    public List<SearchResult> search(String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+
+        long start = System.nanoTime();
+        int max = limit == null || limit <= 0 ? maxResults : Math.min(limit, maxResults);
+
+        List<SearchIndex.Hit> hits;
+        lock.readLock().lock();
+        try {
+            hits = index.search(query, max);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var results = new ArrayList<SearchResult>(hits.size());
+        for (var hit : hits) {
+            var file = new File(hit.getDirectory(), hit.getName());
+            results.add(new SearchResult(Util.pathToId(file), hit.getName(), hit.isFolder() ? "folder" : "video",
+                    location(hit.getDirectory())));
+        }
+
+        long elapsed = System.nanoTime() - start;
+        queries.incrementAndGet();
+        queryNanos.addAndGet(elapsed);
+        maxQueryNanos.accumulateAndGet(elapsed, Math::max);
+
+        return results;
+    }
+
+    public int getIndexedEntries() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getIndexedTerms() {
+        lock.readLock().lock();
+        try {
+            return index.termCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimación de la memoria ocupada por el índice, sin contar los nombres que se comparten con el catálogo.
+     */
+    public long getIndexMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            return index.estimateMemoryBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getIndexBytesPerEntry() {
+        lock.readLock().lock();
+        try {
+            return index.size() == 0 ? 0 : index.estimateMemoryBytes() / index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getQueryNanos() {
+        return queryNanos.get();
+    }
+
+    public long getMaxQueryNanos() {
+        return maxQueryNanos.get();
+    }
+
+    /**
+     * Ruta del directorio relativa a su biblioteca, precedida del nombre de la biblioteca si hay más de una.
+     */
+    private String location(String directory) {
+        var root = libraryRootService.findRoot(directory);
+        if (root == null) {
+            return directory;
+        }
+
+        var relative = root.getDir().toPath().relativize(Path.of(directory)).toString();
+        if (libraryRootService.isSingleRoot()) {
+            return relative;
+        }
+
+        return relative.isEmpty() ? root.getName() : root.getName() + File.separator + relative;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Caché en disco de archivos generados, limitada por el total de bytes que ocupan. Cuando se supera el límite se
+ * eliminan los archivos usados hace más tiempo.<br>
+ * <br>
+ * El orden de uso se mantiene en memoria y se refleja en la fecha de modificación de cada archivo, de forma que
+ * se conserva entre reinicios.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class SegmentCache {
+    private static final Logger log = LoggerFactory.getLogger(SegmentCache.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Ruta relativa -> tamaño, en orden de uso
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private long evictions;
+
+    SegmentCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Registra los archivos que ya existen en el directorio de la caché y elimina los que quedaron a medio generar.
+     */
+    synchronized void load() throws IOException {
+        Files.createDirectories(directory);
+
+        try (var paths = Files.walk(directory)) {
+            var existing = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+
+            for (var path : existing) {
+                if (path.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+
+            existing.stream()
+                    .filter(path -> !path.getFileName().toString().endsWith(TMP_SUFFIX))
+                    .sorted(Comparator.comparingLong(path -> path.toFile().lastModified()))
+                    .forEach(path -> add(relative(path), path.toFile().length()));
+        }
+
+        evict(null);
+    }
+
+    /**
+     * Abre para lectura un archivo de la caché.<br>
+     * <br>
+     * El archivo se abre mientras se tiene el bloqueo de la caché, por lo que no puede eliminarse antes. Si después
+     * se elimina para dejar sitio a otros, el canal ya abierto sigue leyendo su contenido hasta que se cierra.
+     *
+     * @param name Ruta relativa del archivo
+     *
+     * @return Canal que debe cerrar quien lo obtiene o {@code null} si el archivo no está en la caché
+     */
+    synchronized FileChannel open(String name) {
+        if (files.get(name) == null) {
+            return null;
+        }
+
+        var path = directory.resolve(name);
+        try {
+            var channel = FileChannel.open(path, StandardOpenOption.READ);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return channel;
+        } catch (IOException e) {
+            // Eliminado desde fuera de la aplicación
+            bytes -= files.remove(name);
+            return null;
+        }
+    }
+
+    synchronized boolean contains(String name) {
+        return files.containsKey(name);
+    }
+
+    /**
+     * Crea un archivo temporal en el que generar el contenido de {@code name} antes de añadirlo con
+     * {@link #put(String, Path)}.
+     */
+    Path createTempFile(String name) throws IOException {
+        var target = directory.resolve(name);
+        Files.createDirectories(target.getParent());
+
+        return Files.createTempFile(target.getParent(), target.getFileName().toString(), TMP_SUFFIX);
+    }
+
+    /**
+     * Añade a la caché el archivo {@code tmp}, ya generado, con la ruta relativa {@code name}.
+     */
+    synchronized void put(String name, Path tmp) throws IOException {
+        var target = directory.resolve(name);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        var previous = files.remove(name);
+        if (previous != null) {
+            bytes -= previous;
+        }
+        add(name, Files.size(target));
+        evict(name);
+    }
+
+    /**
+     * @return Ruta relativa -> tamaño de los archivos que hay en la caché
+     */
+    synchronized Map<String, Long> getSizes() {
+        return new HashMap<>(files);
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void add(String name, long size) {
+        files.put(name, size);
+        bytes += size;
+    }
+
+    /**
+     * Elimina los archivos menos usados hasta no superar {@code maxBytes}, salvo {@code keep}.
+     */
+    private void evict(String keep) {
+        var iterator = files.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+
+            iterator.remove();
+            bytes -= eldest.getValue();
+            evictions++;
+
+            var path = directory.resolve(eldest.getKey());
+            try {
+                Files.deleteIfExists(path);
+                if (!path.getParent().equals(directory)) {
+                    Files.deleteIfExists(path.getParent());
+                }
+            } catch (DirectoryNotEmptyException e) {
+                // Aún contiene otros archivos
+            } catch (IOException e) {
+                log.warn("Unable to delete cached file {}", path, e);
+            }
+        }
+    }
+
+    private String relative(Path path) {
+        return directory.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Arranque en modo perezoso y ejecuciones de entrenamiento.<br>
+ * <br>
+ * Con {@code spring.main.lazy-initialization=true} (perfil {@code lazy}) solo se crean al arrancar los beans que
+ * necesita el servidor web, el resto se crea al atender la primera petición que los utiliza. Para que los servicios
+ * que trabajan en segundo plano (vigilancia de la biblioteca, métricas, HLS, etc.) no dependan de que llegue esa
+ * petición, una vez que el servidor está listo se crean todos los beans pendientes en un hilo de baja prioridad.<br>
+ * <br>
+ * Con {@code startup.training=true} la aplicación crea todos los beans, se hace a sí misma una petición a la página
+ * principal y termina. Se utiliza para generar el archivo de Class Data Sharing (perfil de Maven {@code cds}) o la
+ * caché de clases compartidas de OpenJ9 (imagen Docker) con las clases que se cargan al arrancar.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+@Lazy(false)
+public class StartupService {
+    private static final Logger log = LoggerFactory.getLogger(StartupService.class);
+
+    @Value("${spring.main.lazy-initialization:false}")
+    private boolean lazyInitialization;
+
+    @Value("${startup.deferred-init-delay}")
+    private long deferredInitDelay;
+
+    @Value("${startup.training}")
+    private boolean training;
+
+    @EventListener
+    public void ready(ApplicationReadyEvent event) {
+        var context = event.getApplicationContext();
+
+        if (training) {
+            train(context);
+        } else if (lazyInitialization) {
+            var thread = new Thread(() -> initializeDeferred(context), "deferred-init");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private void initializeDeferred(ConfigurableApplicationContext context) {
+        try {
+            Thread.sleep(deferredInitDelay);
+
+            long start = System.nanoTime();
+            int created = initializeSingletons(context);
+            log.info("Initialized {} deferred beans in {} ms", created, (System.nanoTime() - start) / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (BeansException | IllegalStateException e) {
+            // El contexto se cerró antes de terminar
+            log.debug("Deferred initialization interrupted", e);
+        }
+    }
+
+    /**
+     * Crea los beans singleton que aún no se han creado. No se utiliza {@code preInstantiateSingletons()} porque en
+     * el modo perezoso todas las definiciones están marcadas como lazy y las omitiría.
+     *
+     * @return Número de beans creados
+     */
+    private static int initializeSingletons(ConfigurableApplicationContext context) {
+        var beanFactory = context.getBeanFactory();
+        int created = 0;
+
+        for (var name : beanFactory.getBeanDefinitionNames()) {
+            var definition = beanFactory.getBeanDefinition(name);
+            if (definition.isSingleton() && !definition.isAbstract() && !beanFactory.containsSingleton(name)) {
+                beanFactory.getBean(name);
+                created++;
+            }
+        }
+
+        return created;
+    }
+
+    private void train(ConfigurableApplicationContext context) {
+        initializeSingletons(context);
+
+        int exitCode = 0;
+        if (context instanceof WebServerApplicationContext) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/"))
+                    .timeout(Duration.ofMinutes(1))
+                    .build();
+            try {
+                var response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+                log.info("Training request answered with status {}", response.statusCode());
+            } catch (IOException e) {
+                log.error("Training request failed", e);
+                exitCode = 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exitCode = 1;
+            }
+        }
+
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
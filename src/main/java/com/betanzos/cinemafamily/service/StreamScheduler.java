@@ -0,0 +1,299 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reparto del ancho de banda entre los envíos de archivos multimedia.<br>
+ * <br>
+ * {@code streaming.max-bandwidth} limita el total de bytes por segundo enviados y {@code streaming.client-bandwidth}
+ * los de cada cliente (dirección IP), ambos con una ráfaga de {@code streaming.burst} bytes ({@link TokenBucket}).
+ * Cada envío reserva sus bloques de uno en uno, primero en la cubeta de su cliente y después en la global, que los
+ * atiende en orden de llegada: los envíos activos se alternan y se reparten el total por igual, y el que está
+ * limitado por su cliente deja su parte libre para los demás.<br>
+ * <br>
+ * Además se limitan a {@code streaming.max-full-downloads} las descargas completas simultáneas (sin cabecera
+ * {@code Range}), que no hacen los reproductores sino los gestores de descargas.<br>
+ * <br>
+ * Con algún límite de velocidad los envíos no pueden delegarse en {@code sendfile}, por lo que cada uno se registra
+ * como un {@link Stream} que mide su velocidad. La métrica {@code cinemafamily.stream.throughput} publica la suma
+ * de todos, sin una serie por envío o por cliente.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class StreamScheduler {
+
+    /**
+     * Ventana en la que se mide la velocidad de cada envío.
+     */
+    private static final long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Value("${streaming.max-bandwidth}")
+    private long maxBandwidth;
+
+    @Value("${streaming.client-bandwidth}")
+    private long clientBandwidth;
+
+    @Value("${streaming.burst}")
+    private long burst;
+
+    @Value("${streaming.max-full-downloads}")
+    private int maxFullDownloads;
+
+    private TokenBucket globalBucket;
+    private Semaphore fullDownloads;
+
+    // Dirección del cliente -> cubeta y número de envíos activos
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    private final Set<Stream> activeStreams = ConcurrentHashMap.newKeySet();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong rejectedDownloads = new AtomicLong();
+
+    private static final class Client {
+        private final TokenBucket bucket;
+        private int streams;
+
+        private Client(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        /**
+         * Un cliente sin envíos se conserva hasta que su cubeta se llena, ya que los reproductores hacen varias
+         * peticiones seguidas y cada una no debe empezar con una ráfaga nueva.
+         */
+        private boolean isUnused(long now) {
+            return streams == 0 && (bucket == null || bucket.isIdle(now));
+        }
+    }
+
+    /**
+     * Envío de un archivo sujeto a los límites de velocidad. Debe cerrarse con {@link #close()} al terminar.
+     */
+    public final class Stream implements AutoCloseable {
+        private final String client;
+        private final TokenBucket clientBucket;
+
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+        private volatile double throughput;
+        private volatile long lastSent = windowStart;
+
+        private Stream(String client, TokenBucket clientBucket) {
+            this.client = client;
+            this.clientBucket = clientBucket;
+        }
+
+        /**
+         * Reserva {@code bytes} bytes en la cubeta del cliente.
+         *
+         * @return Nanosegundos que hay que esperar antes de reservarlos con {@link #reserveGlobal(int)}
+         */
+        public long reserveClient(int bytes) {
+            return clientBucket == null ? 0L : throttled(clientBucket.reserve(bytes, System.nanoTime()));
+        }
+
+        /**
+         * Reserva {@code bytes} bytes en la cubeta global.
+         *
+         * @return Nanosegundos que hay que esperar antes de enviarlos
+         */
+        public long reserveGlobal(int bytes) {
+            return globalBucket == null ? 0L : throttled(globalBucket.reserve(bytes, System.nanoTime()));
+        }
+
+        /**
+         * Espera hasta que pueden enviarse {@code bytes} bytes. Bloquea el hilo actual.
+         */
+        public void pace(int bytes) throws InterruptedIOException {
+            park(reserveClient(bytes));
+            park(reserveGlobal(bytes));
+        }
+
+        /**
+         * Registra el envío de {@code bytes} bytes.
+         */
+        public synchronized void sent(int bytes) {
+            long now = System.nanoTime();
+            windowBytes += bytes;
+            lastSent = now;
+
+            long elapsed = now - windowStart;
+            if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+                throughput = windowBytes * 1e9 / elapsed;
+                windowStart = now;
+                windowBytes = 0;
+            }
+        }
+
+        /**
+         * Bytes por segundo enviados en la última ventana, o 0 si lleva más de una ventana sin enviar nada.
+         */
+        public double getThroughput() {
+            return System.nanoTime() - lastSent > 2 * THROUGHPUT_WINDOW_NANOS ? 0 : throughput;
+        }
+
+        @Override
+        public void close() {
+            activeStreams.remove(this);
+
+            clients.computeIfPresent(client, (key, value) -> {
+                value.streams--;
+                return value.isUnused(System.nanoTime()) ? null : value;
+            });
+        }
+
+        private void park(long nanos) throws InterruptedIOException {
+            long deadline = System.nanoTime() + nanos;
+            for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while throttling " + client);
+                }
+            }
+        }
+    }
+
+    @Autowired
+    public StreamScheduler(MeterRegistry meterRegistry) {
+        Gauge.builder("cinemafamily.stream.shaped", activeStreams, Set::size)
+                .description("Media responses subject to bandwidth limits")
+                .register(meterRegistry);
+        Gauge.builder("cinemafamily.stream.throughput", this, StreamScheduler::getThroughput)
+                .description("Current throughput of the media responses subject to bandwidth limits")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("cinemafamily.stream.throttled", throttledNanos, nanos -> nanos.get() / 1e9)
+                .description("Time media responses waited for bandwidth")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        FunctionCounter.builder("cinemafamily.stream.full-downloads.rejected", rejectedDownloads, AtomicLong::get)
+                .description("Full downloads rejected because of the concurrency limit")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (maxBandwidth > 0) {
+            globalBucket = new TokenBucket(maxBandwidth, burst, System.nanoTime());
+        }
+        if (maxFullDownloads > 0) {
+            fullDownloads = new Semaphore(maxFullDownloads);
+        }
+    }
+
+    /**
+     * Indica si hay algún límite de velocidad, en cuyo caso los envíos deben hacerse con un {@link Stream}.
+     */
+    public boolean isShaping() {
+        return maxBandwidth > 0 || clientBandwidth > 0;
+    }
+
+    /**
+     * Registra un nuevo envío del cliente {@code client}.
+     *
+     * @param client Dirección del cliente
+     *
+     * @return El envío, que debe cerrarse al terminar
+     */
+    public Stream open(String client) {
+        for (var key : clients.keySet()) {
+            clients.computeIfPresent(key, (k, value) -> value.isUnused(System.nanoTime()) ? null : value);
+        }
+
+        var bucket = clients.compute(client, (key, value) -> {
+            var updated = value != null ? value
+                    : new Client(clientBandwidth > 0 ? new TokenBucket(clientBandwidth, burst, System.nanoTime()) : null);
+            updated.streams++;
+            return updated;
+        }).bucket;
+
+        var stream = new Stream(client, bucket);
+        activeStreams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Intenta iniciar una descarga completa.
+     *
+     * @return {@code false} si ya hay {@code streaming.max-full-downloads} en curso. En caso contrario debe
+     *         llamarse a {@link #endFullDownload()} al terminar
+     */
+    public boolean tryStartFullDownload() {
+        if (fullDownloads == null || fullDownloads.tryAcquire()) {
+            return true;
+        }
+
+        rejectedDownloads.incrementAndGet();
+        return false;
+    }
+
+    public void endFullDownload() {
+        if (fullDownloads != null) {
+            fullDownloads.release();
+        }
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.size();
+    }
+
+    /**
+     * Bytes por segundo enviados entre todos los envíos activos.
+     */
+    public double getThroughput() {
+        double total = 0;
+        for (var stream : activeStreams) {
+            total += stream.getThroughput();
+        }
+
+        return total;
+    }
+
+    public long getThrottledNanos() {
+        return throttledNanos.get();
+    }
+
+    public long getRejectedDownloads() {
+        return rejectedDownloads.get();
+    }
+
+    private long throttled(long nanos) {
+        if (nanos > 0) {
+            throttledNanos.addAndGet(nanos);
+        }
+
+        return nanos;
+    }
+}
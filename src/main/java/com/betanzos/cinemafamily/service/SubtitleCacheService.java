@@ -0,0 +1,216 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de subtítulos convertidos a VTT desde SRT, ASS/SSA o MicroDVD.<br>
+ * <br>
+ * Los subtítulos convertidos se guardan en disco en {@code subtitles.cache.dir} y los más utilizados se mantienen
+ * además en memoria hasta un máximo de {@code subtitles.cache.memory-max-bytes}. La clave de la caché incluye el
+ * tamaño y la fecha de modificación del archivo original, por lo que al modificarlo se vuelve a convertir.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class SubtitleCacheService {
+    private static final Logger log = LoggerFactory.getLogger(SubtitleCacheService.class);
+
+    @Value("${subtitles.cache.dir}")
+    private String cacheDirectory;
+
+    @Value("${subtitles.cache.memory-max-bytes}")
+    private long memoryMaxBytes;
+
+    @Value("${subtitles.microdvd.fps}")
+    private double microDvdFps;
+
+    private final Map<String, byte[]> memoryCache = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong conversions = new AtomicLong();
+
+    // Formato de origen -> duración de sus conversiones
+    private final Map<String, Timer> conversionTimers = new HashMap<>();
+
+    @Autowired
+    public SubtitleCacheService(MeterRegistry meterRegistry) {
+        for (var format : List.of("srt", "ass", "ssa", "sub")) {
+            conversionTimers.put(format, Timer.builder("cinemafamily.subtitles.convert")
+                    .description("Conversion of a subtitle file to VTT")
+                    .tag("format", format)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Calcula el ETag del subtítulo convertido a partir únicamente de los metadatos del archivo original, de forma
+     * que pueda responderse {@code 304 Not Modified} sin leer ni convertir nada.
+     *
+     * @param subFile Archivo de subtítulos original
+     *
+     * @return ETag fuerte (entre comillas)
+     */
+    public String etag(File subFile) {
+        return "\"" + cacheKey(subFile) + "\"";
+    }
+
+    /**
+     * Obtiene el subtítulo {@code subFile} convertido a VTT, convirtiéndolo solo si no se encuentra ya en la caché.
+     *
+     * @param subFile Archivo de subtítulos original
+     *
+     * @return Contenido VTT o {@link Optional#empty()} si el archivo no pudo convertirse
+     */
+    public Optional<byte[]> getConverted(File subFile) {
+        if (subFile.getName().toLowerCase(Locale.ROOT).endsWith(".vtt")) {
+            // Ya está en el formato que necesita el navegador
+            return Optional.empty();
+        }
+
+        var key = cacheKey(subFile);
+
+        var data = fromMemory(key);
+        if (data != null) {
+            memoryHits.incrementAndGet();
+            return Optional.of(data);
+        }
+
+        var cached = Paths.get(cacheDirectory, key + ".vtt");
+        if (Files.isRegularFile(cached)) {
+            try {
+                data = Files.readAllBytes(cached);
+                diskHits.incrementAndGet();
+                toMemory(key, data);
+                return Optional.of(data);
+            } catch (IOException e) {
+                log.warn("Unable to read cached subtitle {}", cached, e);
+            }
+        }
+
+        var converted = convert(subFile);
+        converted.ifPresent(vtt -> {
+            conversions.incrementAndGet();
+            toMemory(key, vtt);
+            toDisk(key, cached, vtt);
+        });
+
+        return converted;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getConversions() {
+        return conversions.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private synchronized byte[] fromMemory(String key) {
+        return memoryCache.get(key);
+    }
+
+    private synchronized void toMemory(String key, byte[] data) {
+        if (data.length > memoryMaxBytes) {
+            return;
+        }
+
+        var previous = memoryCache.put(key, data);
+        memoryBytes += data.length - (previous == null ? 0 : previous.length);
+
+        var iterator = memoryCache.values().iterator();
+        while (memoryBytes > memoryMaxBytes && iterator.hasNext()) {
+            memoryBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    private void toDisk(String key, Path cached, byte[] data) {
+        try {
+            Files.createDirectories(cached.getParent());
+
+            // Eliminar versiones anteriores del mismo archivo
+            var pathPrefix = key.substring(0, key.indexOf('.') + 1);
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(cached.getParent(), pathPrefix + "*.vtt")) {
+                for (var path : stale) {
+                    Files.deleteIfExists(path);
+                }
+            }
+
+            var tmp = Files.createTempFile(cached.getParent(), key, ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to cache converted subtitle {}", cached, e);
+        }
+    }
+
+    private Optional<byte[]> convert(File subFile) {
+        var name = subFile.getName().toLowerCase(Locale.ROOT);
+        var format = name.substring(name.lastIndexOf('.') + 1);
+        var timer = conversionTimers.getOrDefault(format, conversionTimers.get("srt"));
+
+        return timer.record(() -> {
+            if (format.equals("ass") || format.equals("ssa")) {
+                return Util.subtitleAssToVtt(subFile);
+            } else if (format.equals("sub")) {
+                return Util.subtitleMicroDvdToVtt(subFile, microDvdFps);
+            }
+
+            return Util.subtitleSrtToVtt(subFile);
+        });
+    }
+
+    private static String cacheKey(File subFile) {
+        // Los identificadores pueden contener '-' y '_', pero nunca '.'
+        return Util.pathToId(subFile) + "." + Long.toHexString(subFile.length())
+                + "." + Long.toHexString(subFile.lastModified());
+    }
+}
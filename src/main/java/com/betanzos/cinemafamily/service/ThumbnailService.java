@@ -0,0 +1,449 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Generación de miniaturas (pósters) para las tarjetas del listado.<br>
+ * <br>
+ * Como póster de un video se utiliza la imagen con su mismo nombre ({@code <nombre>.jpg}) o, en su defecto,
+ * {@code poster.jpg} o {@code folder.jpg} del mismo directorio. El de una carpeta es el {@code folder.jpg} o
+ * {@code poster.jpg} que contiene. Las imágenes se reducen en segundo plano a como máximo
+ * {@code thumbnails.width}x{@code thumbnails.height} y se guardan en {@code thumbnails.cache.dir}.<br>
+ * <br>
+ * La clave de cada miniatura incluye el identificador, el tamaño y la fecha de modificación de la imagen
+ * original, por lo que su contenido nunca cambia y puede cachearse indefinidamente en el navegador. La cola de
+ * generación está limitada a {@code thumbnails.queue-capacity} trabajos y atiende primero las carpetas consultadas
+ * más recientemente.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class ThumbnailService {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("([A-Za-z0-9_-]+)\\.([0-9a-f]{1,16})\\.([0-9a-f]{1,16})");
+    private static final float JPEG_QUALITY = 0.85f;
+
+    @Value("${thumbnails.cache.dir}")
+    private String cacheDirectory;
+
+    @Value("${thumbnails.width}")
+    private int width;
+
+    @Value("${thumbnails.height}")
+    private int height;
+
+    @Value("${thumbnails.threads}")
+    private int threads;
+
+    @Value("${thumbnails.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${thumbnails.request-timeout}")
+    private long requestTimeout;
+
+    private final CatalogService catalogService;
+
+    private final Map<String, Job> pending = new HashMap<>();
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final Set<String> available = ConcurrentHashMap.newKeySet();
+    private final AtomicLong viewSequence = new AtomicLong();
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public ThumbnailService(CatalogService catalogService) {
+        this.catalogService = catalogService;
+    }
+
+    @PostConstruct
+    public void start() {
+        var counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+            var thread = new Thread(r, "thumbnail-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Prioridad para las miniaturas de un nuevo listado. Cada listado tiene más prioridad que los anteriores.
+     */
+    public long nextViewPriority() {
+        return viewSequence.incrementAndGet();
+    }
+
+    /**
+     * Busca el póster del elemento {@code entry} y, si aún no tiene miniatura, programa su generación. Nunca
+     * bloquea esperando a que se genere.
+     *
+     * @param directory Directorio que contiene el elemento
+     * @param entry     Carpeta o video
+     * @param priority  Prioridad de la generación (ver {@link #nextViewPriority()})
+     *
+     * @return Clave de la miniatura o {@code null} si el elemento no tiene póster
+     */
+    public String thumbnailFor(CatalogDirectory directory, CatalogEntry entry, long priority) {
+        CatalogDirectory sourceDirectory = directory;
+        CatalogEntry source = null;
+
+        if (entry.isDirectory()) {
+            // Solo si la carpeta ya está indexada, para no escanearla durante el listado
+            sourceDirectory = catalogService.getIndexedDirectory(directory.resolve(entry));
+            if (sourceDirectory != null) {
+                source = findFirstImage(sourceDirectory, "folder", "poster");
+            }
+        } else if (entry.isVideo()) {
+            int dot = entry.getName().lastIndexOf('.');
+            var baseName = dot > 0 ? entry.getName().substring(0, dot) : entry.getName();
+            source = findFirstImage(directory, baseName, "poster", "folder");
+        }
+
+        if (source == null) {
+            return null;
+        }
+
+        var sourceFile = sourceDirectory.resolve(source);
+        var key = cacheKey(sourceFile, source.getSize(), source.getLastModified());
+
+        if (!available.contains(key)) {
+            if (cachedFile(key).toFile().isFile()) {
+                available.add(key);
+            } else {
+                schedule(key, sourceFile, priority);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Obtiene la miniatura cuya clave es {@code key}. Si aún no se ha generado se adelanta al resto de la cola y
+     * se espera como máximo {@code thumbnails.request-timeout} milisegundos.
+     *
+     * @param key Clave de la miniatura
+     *
+     * @return Archivo JPEG con la miniatura o {@link Optional#empty()} si la clave no es válida, la imagen
+     *         original ha cambiado o no pudo generarse a tiempo
+     */
+    public Optional<File> getThumbnail(String key) {
+        var matcher = KEY_PATTERN.matcher(key);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+
+        var cached = cachedFile(key);
+        if (available.contains(key) || Files.isRegularFile(cached)) {
+            return Optional.of(cached.toFile());
+        }
+
+        var source = Util.idToPath(matcher.group(1));
+        if (source.length() != Long.parseUnsignedLong(matcher.group(2), 16)
+                || source.lastModified() != Long.parseUnsignedLong(matcher.group(3), 16)) {
+            return Optional.empty();
+        }
+
+        var job = schedule(key, source, Long.MAX_VALUE);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.ofNullable(job.result.get(requestTimeout, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException | ExecutionException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private static CatalogEntry findFirstImage(CatalogDirectory directory, String... baseNames) {
+        for (var baseName : baseNames) {
+            var image = directory.findImage(baseName);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        return null;
+    }
+
+    private Job schedule(String key, File source, long priority) {
+        synchronized (pending) {
+            var job = pending.get(key);
+            if (job != null) {
+                // Ya está en la cola: subir su prioridad si es necesario
+                if (priority > job.priority && queue.remove(job)) {
+                    job.priority = priority;
+                    queue.offer(job);
+                }
+                return job;
+            }
+
+            if (queue.size() >= queueCapacity && !dropLowest(priority)) {
+                dropped.incrementAndGet();
+                return null;
+            }
+
+            job = new Job(key, source, priority);
+            pending.put(key, job);
+            executor.execute(job);
+
+            return job;
+        }
+    }
+
+    /**
+     * Descarta de la cola el trabajo de menor prioridad si es menos prioritario que {@code priority}. Se volverá
+     * a programar cuando se consulte de nuevo su carpeta.
+     */
+    private boolean dropLowest(long priority) {
+        Job lowest = null;
+        for (var runnable : queue) {
+            var job = (Job) runnable;
+            if (lowest == null || job.priority < lowest.priority) {
+                lowest = job;
+            }
+        }
+
+        if (lowest == null || lowest.priority >= priority || !queue.remove(lowest)) {
+            return false;
+        }
+
+        pending.remove(lowest.key);
+        lowest.result.complete(null);
+        dropped.incrementAndGet();
+
+        return true;
+    }
+
+    private File generate(String key, File source) throws IOException {
+        var target = cachedFile(key);
+        if (Files.isRegularFile(target)) {
+            return target.toFile();
+        }
+
+        var thumbnail = resize(read(source));
+
+        Files.createDirectories(target.getParent());
+
+        // Eliminar miniaturas de versiones anteriores de la misma imagen
+        var pathPrefix = key.substring(0, key.indexOf('.') + 1);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(target.getParent(), pathPrefix + "*.jpg")) {
+            for (var path : stale) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        var tmp = Files.createTempFile(target.getParent(), key, ".tmp");
+        try {
+            writeJpeg(thumbnail, tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        return target.toFile();
+    }
+
+    /**
+     * Lee la imagen {@code source}, decodificándola directamente a una resolución cercana al doble de la de la
+     * miniatura para no cargar en memoria imágenes enormes.
+     */
+    private BufferedImage read(File source) throws IOException {
+        try (var in = ImageIO.createImageInputStream(source)) {
+            var readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image " + source);
+            }
+
+            var reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+
+                double scale = Math.min((double) width / reader.getWidth(0), (double) height / reader.getHeight(0));
+                int subsampling = Math.max(1, (int) (1 / (scale * 2)));
+
+                var param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reduce la imagen para que quepa en {@code width}x{@code height}, a la mitad en cada paso para conservar la
+     * calidad. Las transparencias se sustituyen por fondo blanco, como el de las tarjetas.
+     */
+    private BufferedImage resize(BufferedImage image) {
+        double scale = Math.min(1.0, Math.min((double) width / image.getWidth(), (double) height / image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        var current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+
+        return draw(current, targetWidth, targetHeight);
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height) {
+        var result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return result;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        var writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (var out = ImageIO.createImageOutputStream(target.toFile())) {
+            var param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private Path cachedFile(String key) {
+        return Paths.get(cacheDirectory, key + ".jpg");
+    }
+
+    private static String cacheKey(File source, long size, long lastModified) {
+        // Los identificadores pueden contener '-' y '_', pero nunca '.'
+        return Util.pathToId(source) + "." + Long.toHexString(size) + "." + Long.toHexString(lastModified);
+    }
+
+    /**
+     * Trabajo de generación de una miniatura. Los trabajos más prioritarios salen antes de la cola.
+     */
+    private final class Job implements Runnable, Comparable<Job> {
+        private final String key;
+        private final File source;
+        private final CompletableFuture<File> result = new CompletableFuture<>();
+        private volatile long priority;
+
+        private Job(String key, File source, long priority) {
+            this.key = key;
+            this.source = source;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            try {
+                var file = generate(key, source);
+                available.add(key);
+                generated.incrementAndGet();
+                result.complete(file);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                log.debug("Unable to generate thumbnail for {}", source, e);
+                result.complete(null);
+            } finally {
+                synchronized (pending) {
+                    pending.remove(key);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            return Long.compare(other.priority, priority);
+        }
+    }
+}
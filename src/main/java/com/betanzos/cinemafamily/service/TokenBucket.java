@@ -0,0 +1,68 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+/**
+ * Limitador de velocidad por cubeta de tokens, implementado como reservas sobre un tiempo teórico de llegada
+ * (GCRA): cada reserva desplaza ese tiempo lo que tardarían en enviarse sus bytes a la velocidad permitida, y debe
+ * esperar lo que exceda de la ráfaga tolerada.<br>
+ * <br>
+ * Las reservas se atienden en el orden en que se piden, por lo que si varios envíos reservan bloques del mismo
+ * tamaño de uno en uno se reparten la velocidad por igual.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class TokenBucket {
+    private final double nanosPerByte;
+    private final long toleranceNanos;
+
+    // Momento (System.nanoTime()) en que se habrían terminado de enviar los bytes reservados
+    private long theoreticalArrival;
+
+    /**
+     * @param bytesPerSecond Velocidad máxima sostenida
+     * @param burstBytes     Bytes que pueden enviarse sin esperar después de un periodo sin envíos
+     * @param now            Momento actual según {@link System#nanoTime()}
+     */
+    TokenBucket(long bytesPerSecond, long burstBytes, long now) {
+        this.nanosPerByte = 1_000_000_000d / bytesPerSecond;
+        this.toleranceNanos = (long) (burstBytes * nanosPerByte);
+        this.theoreticalArrival = now;
+    }
+
+    /**
+     * Reserva el envío de {@code bytes} bytes.
+     *
+     * @param bytes Bytes a enviar
+     * @param now   Momento actual según {@link System#nanoTime()}
+     *
+     * @return Nanosegundos que hay que esperar antes de enviarlos
+     */
+    synchronized long reserve(long bytes, long now) {
+        long start = theoreticalArrival - now > 0 ? theoreticalArrival : now;
+        theoreticalArrival = start + (long) (bytes * nanosPerByte);
+
+        return Math.max(0L, theoreticalArrival - toleranceNanos - now);
+    }
+
+    /**
+     * Indica si la cubeta está llena (no hay ninguna reserva pendiente de descontar) en el momento {@code now}.
+     */
+    synchronized boolean isIdle(long now) {
+        return theoreticalArrival - now <= 0;
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.WatchProgress;
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
+import com.betanzos.cinemafamily.exception.InvalidProgressException;
+import com.betanzos.cinemafamily.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progreso de reproducción de los videos, utilizado para reanudar la reproducción donde se quedó y para marcar en
+ * los listados los videos vistos.<br>
+ * <br>
+ * El progreso se mantiene en memoria y las actualizaciones que envía el reproductor solo modifican el mapa y marcan
+ * el video como pendiente de guardar. Cada {@code progress.flush-interval} milisegundos las pendientes se añaden en
+ * un solo bloque al final del registro ({@code progress.file}) y se sincroniza una única vez con el disco, por lo
+ * que varias actualizaciones del mismo video entre dos escrituras ocupan un solo registro. Cuando el registro
+ * contiene más de {@code progress.compaction-ratio} registros por video se reescribe solo con el último de cada
+ * uno.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+@Service
+public class WatchProgressService {
+    private static final Logger log = LoggerFactory.getLogger(WatchProgressService.class);
+
+    private static final int LOG_MAGIC = 0x43465031; // "CFP1"
+    private static final int LOG_VERSION = 1;
+
+    /**
+     * Número mínimo de registros del archivo para plantearse compactarlo.
+     */
+    private static final int COMPACTION_MIN_RECORDS = 1024;
+
+    @Value("${progress.file}")
+    private String progressFile;
+
+    @Value("${progress.flush-interval}")
+    private long flushInterval;
+
+    @Value("${progress.compaction-ratio}")
+    private int compactionRatio;
+
+    @Value("${progress.watched-ratio}")
+    private double watchedRatio;
+
+    @Value("${progress.watched-remaining}")
+    private double watchedRemaining;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> directoryVersions = new ConcurrentHashMap<>();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private ScheduledExecutorService writer;
+    private FileChannel channel;
+    private long logRecords;
+    private boolean repairLog;
+
+    /**
+     * Progreso de un video junto con su ruta, que es lo que se guarda en disco ya que el identificador solo puede
+     * resolverse si el video ya se ha listado.
+     */
+    private static final class Entry {
+        private final String path;
+        private final WatchProgress progress;
+
+        private Entry(String path, WatchProgress progress) {
+            this.path = path;
+            this.progress = progress;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        load();
+
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "progress-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduledFlush() {
+        // Una excepción cancelaría las escrituras posteriores sin dejar rastro
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unable to write watch progress to {}", progressFile, e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        writer.shutdownNow();
+        flush();
+
+        synchronized (this) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Progreso del video cuyo identificador es {@code videoId}.
+     *
+     * @return Progreso o {@code null} si el video nunca se ha reproducido
+     */
+    public WatchProgress get(String videoId) {
+        var entry = entries.get(videoId);
+        return entry != null ? entry.progress : null;
+    }
+
+    /**
+     * Posición (en segundos) desde la que debe empezar la reproducción del video: la guardada, salvo que el video
+     * ya se haya visto completo.
+     */
+    public double getResumePosition(String videoId) {
+        var progress = get(videoId);
+        return progress == null || progress.isWatched() ? 0 : progress.getPosition();
+    }
+
+    /**
+     * Guarda la posición de reproducción del video cuyo identificador es {@code videoId}. El cambio se escribe en
+     * disco en la siguiente escritura del registro.
+     *
+     * @param videoId  Identificador del video
+     * @param position Posición en segundos
+     * @param duration Duración del video en segundos ({@code 0} si se desconoce)
+     *
+     * @return Progreso guardado
+     *
+     * @throws FileNotFoundException    si el identificador no corresponde a ningún video conocido
+     * @throws InvalidProgressException si la posición o la duración no son válidas
+     */
+    public WatchProgress update(String videoId, double position, double duration) {
+        if (!Double.isFinite(position) || position < 0 || !Double.isFinite(duration) || duration < 0) {
+            throw new InvalidProgressException("Invalid position " + position + " of " + duration);
+        }
+
+        // No se accede al disco para que la actualización nunca se bloquee, aunque la biblioteca no responda
+        var video = Util.idToPath(videoId);
+
+        var progress = progress(position, duration, System.currentTimeMillis());
+        var previous = entries.put(videoId, new Entry(video.getPath(), progress));
+        pending.put(videoId, video.getPath());
+        updates.incrementAndGet();
+
+        if (previous == null || previous.progress.getPercent() != progress.getPercent()
+                || previous.progress.isWatched() != progress.isWatched()) {
+            directoryVersion(video.getParent()).incrementAndGet();
+        }
+
+        return progress;
+    }
+
+    /**
+     * Elimina el progreso del video cuyo identificador es {@code videoId}, que vuelve a mostrarse como no visto.
+     */
+    public void remove(String videoId) {
+        var entry = entries.remove(videoId);
+        if (entry != null) {
+            pending.put(videoId, entry.path);
+            updates.incrementAndGet();
+            directoryVersion(new File(entry.path).getParent()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Versión del progreso de los videos del directorio {@code dir}, que cambia cuando cambia lo que muestra su
+     * listado (el porcentaje visto o si un video está visto), no con cada actualización.
+     */
+    public long getDirectoryVersion(File dir) {
+        // Las rutas de los videos siempre están normalizadas (ver Util.pathToId)
+        var version = directoryVersions.get(dir.toPath().toAbsolutePath().normalize().toString());
+        return version != null ? version.get() : 0;
+    }
+
+    /**
+     * Escribe en el registro las actualizaciones pendientes con una sola sincronización con el disco y, si es
+     * necesario, lo compacta. Si la escritura falla las actualizaciones siguen pendientes y se vuelven a intentar
+     * en la siguiente escritura, y lo que haya llegado a escribirse se descarta para no dejar un registro a medias
+     * entre dos completos.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        if (repairLog) {
+            // El registro puede terminar en una escritura a medias: se reescribe en lugar de añadir detrás de ella
+            compact();
+            if (repairLog) {
+                return;
+            }
+        }
+
+        var buffer = new ByteArrayOutputStream();
+        var written = new HashMap<String, String>();
+
+        try (var out = new DataOutputStream(buffer)) {
+            for (var videoId : List.copyOf(pending.keySet())) {
+                var path = pending.remove(videoId);
+                var entry = entries.get(videoId);
+
+                try {
+                    out.writeUTF(path);
+                } catch (UTFDataFormatException e) {
+                    // Ruta demasiado larga para el formato del registro (nunca se escribe nada de ella)
+                    log.warn("Ignoring watch progress of {}...: path too long", path.substring(0, 100));
+                    continue;
+                }
+                if (entry != null) {
+                    out.writeDouble(entry.progress.getPosition());
+                    out.writeDouble(entry.progress.getDuration());
+                    out.writeLong(entry.progress.getUpdatedAt());
+                } else {
+                    // Registro de borrado
+                    out.writeDouble(-1);
+                    out.writeDouble(0);
+                    out.writeLong(System.currentTimeMillis());
+                }
+                written.put(videoId, path);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (written.isEmpty()) {
+            return;
+        }
+
+        long size = -1;
+        try {
+            var channel = openChannel();
+            size = channel.size();
+            var bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+
+            logRecords += written.size();
+            recordsWritten.addAndGet(written.size());
+            flushes.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Unable to write watch progress to {}, will retry", progressFile, e);
+            discardPartialWrite(size);
+            // Las actualizaciones posteriores ya están pendientes y se escriben con su último valor
+            written.forEach(pending::putIfAbsent);
+            return;
+        }
+
+        if (logRecords > Math.max(COMPACTION_MIN_RECORDS, (long) entries.size() * compactionRatio)) {
+            compact();
+        }
+    }
+
+    public int getEntries() {
+        return entries.size();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    public long getLogRecords() {
+        return logRecords;
+    }
+
+    private WatchProgress progress(double position, double duration, long updatedAt) {
+        boolean watched = duration > 0
+                && (position >= duration * watchedRatio || duration - position <= watchedRemaining);
+
+        return new WatchProgress(position, duration, updatedAt, watched);
+    }
+
+    private AtomicLong directoryVersion(String dir) {
+        return directoryVersions.computeIfAbsent(dir, k -> new AtomicLong());
+    }
+
+    private void load() {
+        var file = new File(progressFile);
+        if (!file.isFile()) {
+            return;
+        }
+
+        int records = 0;
+        boolean truncated = false;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != LOG_VERSION) {
+                // Se reemplaza por un registro vacío en lugar de añadir registros a un archivo que no se puede leer
+                log.warn("Ignoring watch progress log {} with unknown format", file);
+                truncated = true;
+            }
+
+            while (!truncated) {
+                String path;
+                try {
+                    path = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                double position;
+                double duration;
+                long updatedAt;
+                try {
+                    position = in.readDouble();
+                    duration = in.readDouble();
+                    updatedAt = in.readLong();
+                } catch (EOFException e) {
+                    // La aplicación se detuvo a mitad de una escritura
+                    truncated = true;
+                    break;
+                }
+
+                var videoId = Util.pathToId(new File(path));
+                if (position < 0) {
+                    entries.remove(videoId);
+                } else {
+                    entries.put(videoId, new Entry(path, progress(position, duration, updatedAt)));
+                }
+                records++;
+            }
+
+            log.info("Loaded watch progress of {} videos from {} records", entries.size(), records);
+        } catch (IOException e) {
+            log.warn("Unable to read watch progress log {}", file, e);
+            truncated = true;
+        }
+
+        logRecords = records;
+        if (truncated) {
+            compact();
+        }
+    }
+
+    /**
+     * Reescribe el registro con el último progreso de cada video. Se escribe en un archivo temporal que después
+     * reemplaza al registro, por lo que una interrupción nunca deja el registro a medias.
+     */
+    private synchronized void compact() {
+        var file = new File(progressFile);
+        var tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+
+            var snapshot = new ArrayList<>(entries.values());
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(LOG_MAGIC);
+                out.writeInt(LOG_VERSION);
+
+                for (var entry : snapshot) {
+                    try {
+                        out.writeUTF(entry.path);
+                    } catch (UTFDataFormatException e) {
+                        continue;
+                    }
+                    out.writeDouble(entry.progress.getPosition());
+                    out.writeDouble(entry.progress.getDuration());
+                    out.writeLong(entry.progress.getUpdatedAt());
+                }
+            }
+
+            try (var tmpChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+
+            closeChannel();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logRecords = snapshot.size();
+            repairLog = false;
+            compactions.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Unable to compact watch progress log {}", file, e);
+        }
+    }
+
+    /**
+     * Devuelve el registro al tamaño {@code size} que tenía antes de una escritura fallida. Si no es posible (o se
+     * desconoce el tamaño porque falló al abrirlo) se compacta antes de la siguiente escritura.
+     */
+    private void discardPartialWrite(long size) {
+        if (channel != null && size >= 0) {
+            try {
+                channel.truncate(size);
+                closeChannel();
+                return;
+            } catch (IOException e) {
+                log.warn("Unable to discard incomplete watch progress records from {}", progressFile, e);
+            }
+        }
+
+        closeChannel();
+        repairLog = true;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            var file = new File(progressFile);
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                var header = ByteBuffer.allocate(8).putInt(LOG_MAGIC).putInt(LOG_VERSION).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+        }
+
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Unable to close watch progress log", e);
+            }
+            channel = null;
+        }
+    }
+}
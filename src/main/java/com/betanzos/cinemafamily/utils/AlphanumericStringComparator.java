@@ -15,62 +15,387 @@
  */
 package com.betanzos.cinemafamily.utils;
 
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
 
 /**
+ * Comparador en orden "natural": las secuencias de dígitos se comparan por su valor numérico, de forma que
+ * {@code "Capítulo 2"} va antes que {@code "Capítulo 10"}.<br>
+ * <br>
+ * Las cadenas se recorren sin copiarlas y las secuencias de dígitos se comparan dígito a dígito, por lo que no hay
+ * límite en su longitud. Los ceros a la izquierda no afectan al valor ({@code "07"} y {@code "7"} son el mismo
+ * número) y solo se tienen en cuenta para desempatar. Opcionalmente puede ignorar mayúsculas/minúsculas o utilizar
+ * un {@link Collator} para comparar los fragmentos de texto según las reglas de un idioma.<br>
+ * <br>
+ * Para ordenar listas grandes {@link #sort(List, Function)} calcula una única vez una {@link SortKey} por elemento,
+ * cuya comparación es mucho más económica.
+ *
  * @author Eduardo Betanzos
  * @since 1.0
  */
-public class AlphanumericStringComparator implements Comparator {
+public class AlphanumericStringComparator implements Comparator<String> {
+
+    /**
+     * Por debajo de este tamaño no compensa calcular las claves de ordenación.
+     */
+    private static final int SORT_KEY_THRESHOLD = 32;
+
+    private final boolean ignoreCase;
+    private final Collator collator;
+
+    /**
+     * Comparador que distingue mayúsculas de minúsculas.
+     */
+    public AlphanumericStringComparator() {
+        this(false);
+    }
+
+    /**
+     * @param ignoreCase Si deben ignorarse las diferencias entre mayúsculas y minúsculas
+     */
+    public AlphanumericStringComparator(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.collator = null;
+    }
+
+    /**
+     * Comparador que ordena los fragmentos de texto según las reglas del idioma {@code locale}, sin distinguir
+     * mayúsculas de minúsculas. A diferencia del resto de modos, la comparación reserva memoria para cada fragmento
+     * de texto comparado.
+     *
+     * @param locale Idioma
+     */
+    public AlphanumericStringComparator(Locale locale) {
+        this.ignoreCase = true;
+        this.collator = Collator.getInstance(locale);
+        this.collator.setStrength(Collator.SECONDARY);
+    }
+
     @Override
-    public int compare(Object o1, Object o2) {
-        char[] chars1 = o1.toString().toCharArray();
-        char[] chars2 = o2.toString().toCharArray();
+    public int compare(String s1, String s2) {
+        int result = collator == null ? compareChars(s1, s2) : compareSegments(s1, s2);
+
+        // Las cadenas que solo difieren en mayúsculas/minúsculas (o en algo que ignore el Collator) se ordenan
+        // igualmente, de forma que el orden sea total y estable
+        return result != 0 || !ignoreCase ? result : s1.compareTo(s2);
+    }
+
+    /**
+     * Ordena {@code list} según el nombre que devuelve {@code nameExtractor} para cada elemento. Si la lista es
+     * grande se calcula una única vez la {@link SortKey} de cada nombre.
+     */
+    public <T> void sort(List<T> list, Function<? super T, String> nameExtractor) {
+        if (list.size() < SORT_KEY_THRESHOLD) {
+            list.sort((a, b) -> compare(nameExtractor.apply(a), nameExtractor.apply(b)));
+            return;
+        }
+
+        var keyed = new ArrayList<Keyed<T>>(list.size());
+        for (var element : list) {
+            keyed.add(new Keyed<>(sortKey(nameExtractor.apply(element)), element));
+        }
+
+        keyed.sort(null);
+
+        for (int i = 0; i < keyed.size(); i++) {
+            list.set(i, keyed.get(i).element);
+        }
+    }
+
+    /**
+     * Calcula la clave de ordenación de {@code s}. Comparar dos claves equivale a comparar las cadenas originales
+     * con este comparador.
+     */
+    public SortKey sortKey(String s) {
+        var key = collator == null ? charSortKey(s) : segmentSortKey(s);
+        key.original = ignoreCase ? s : null;
+        return key;
+    }
+
+    private int compareChars(String s1, String s2) {
+        int length1 = s1.length();
+        int length2 = s2.length();
+        int zerosResult = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < length1 && j < length2) {
+            char a = s1.charAt(i);
+            char b = s2.charAt(j);
+
+            if (isDigit(a) && isDigit(b)) {
+                int start1 = skipZeros(s1, i);
+                int start2 = skipZeros(s2, j);
+                int end1 = digitsEnd(s1, start1);
+                int end2 = digitsEnd(s2, start2);
+
+                int result = compareDigits(s1, start1, end1, s2, start2, end2);
+                if (result != 0) {
+                    return result;
+                }
+
+                if (zerosResult == 0) {
+                    zerosResult = (start1 - i) - (start2 - j);
+                }
+
+                i = end1;
+                j = end2;
+            } else {
+                if (a != b) {
+                    if (ignoreCase) {
+                        a = fold(a);
+                        b = fold(b);
+                    }
+
+                    if (a != b) {
+                        return a - b;
+                    }
+                }
+
+                i++;
+                j++;
+            }
+        }
+
+        int remaining = (length1 - i) - (length2 - j);
+        return remaining != 0 ? remaining : zerosResult;
+    }
+
+    private int compareSegments(String s1, String s2) {
+        int length1 = s1.length();
+        int length2 = s2.length();
+        int zerosResult = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < length1 && j < length2) {
+            boolean digits1 = isDigit(s1.charAt(i));
+            boolean digits2 = isDigit(s2.charAt(j));
+
+            if (digits1 != digits2) {
+                // Los números van antes que el texto
+                return digits1 ? -1 : 1;
+            }
+
+            if (digits1) {
+                int start1 = skipZeros(s1, i);
+                int start2 = skipZeros(s2, j);
+                int end1 = digitsEnd(s1, start1);
+                int end2 = digitsEnd(s2, start2);
+
+                int result = compareDigits(s1, start1, end1, s2, start2, end2);
+                if (result != 0) {
+                    return result;
+                }
+
+                if (zerosResult == 0) {
+                    zerosResult = (start1 - i) - (start2 - j);
+                }
+
+                i = end1;
+                j = end2;
+            } else {
+                int end1 = textEnd(s1, i);
+                int end2 = textEnd(s2, j);
+
+                int result = collator.compare(s1.substring(i, end1), s2.substring(j, end2));
+                if (result != 0) {
+                    return result;
+                }
 
-        char a;
-        char b;
-        int result = 0;
+                i = end1;
+                j = end2;
+            }
+        }
+
+        int remaining = (length1 - i) - (length2 - j);
+        return remaining != 0 ? Integer.signum(remaining) : zerosResult;
+    }
 
-        for (int i = 0, j = 0; i < chars1.length && j < chars2.length; i++, j++) {
-            a = chars1[i];
-            b = chars2[j];
+    /**
+     * En la clave, cada secuencia de dígitos se sustituye por su longitud (sin ceros a la izquierda) seguida de sus
+     * dígitos significativos. La longitud se codifica con caracteres del rango {@code '0'..'9'}, por lo que la
+     * secuencia sigue ordenándose igual respecto a los caracteres de texto que la rodean.
+     */
+    private SortKey charSortKey(String s) {
+        int length = s.length();
+        var chars = new StringBuilder(length + 4);
+        var zeros = new StringBuilder();
+        int i = 0;
 
-            if (Character.isDigit(a) && Character.isDigit(b)) {
-                int[] compResult = compareNumSequence(i, chars1, j, chars2);
+        while (i < length) {
+            char c = s.charAt(i);
 
-                if (compResult[0] != 0) {
-                    result = compResult[0];
-                    break;
+            if (isDigit(c)) {
+                int start = skipZeros(s, i);
+                int end = digitsEnd(s, start);
+                int significant = end - start;
+
+                if (significant < 9) {
+                    chars.append((char) ('0' + significant));
+                } else {
+                    chars.append('9').append((char) Math.min(significant, Character.MAX_VALUE));
                 }
+                chars.append(s, start, end);
+                zeros.append((char) Math.min(start - i, Character.MAX_VALUE));
 
-                i = compResult[1];
-                j = compResult[2];
-            } else if (a != b) {
-                result = a - b;
-                break;
+                i = end;
+            } else {
+                chars.append(ignoreCase ? fold(c) : c);
+                i++;
             }
         }
 
-        return result;
+        return new SortKey(chars.toString().toCharArray(), zeros.toString().toCharArray(), null);
     }
 
-    private int[] compareNumSequence(int index1, char[] arr1, int index2, char[] arr2) {
-        var sb1 = new StringBuilder();
-        var sb2 = new StringBuilder();
+    private SortKey segmentSortKey(String s) {
+        int length = s.length();
+        var segments = new ArrayList<Object>();
+        var zeros = new StringBuilder();
+        int i = 0;
+
+        while (i < length) {
+            if (isDigit(s.charAt(i))) {
+                int start = skipZeros(s, i);
+                int end = digitsEnd(s, start);
+
+                segments.add(s.substring(start, end));
+                zeros.append((char) Math.min(start - i, Character.MAX_VALUE));
 
-        while (index1 < arr1.length && Character.isDigit(arr1[index1])) {
-            sb1.append(arr1[index1]);
-            index1++;
+                i = end;
+            } else {
+                int end = textEnd(s, i);
+                segments.add(collator.getCollationKey(s.substring(i, end)));
+                i = end;
+            }
+        }
+
+        return new SortKey(null, zeros.toString().toCharArray(), segments.toArray());
+    }
+
+    private static int compareDigits(String s1, int start1, int end1, String s2, int start2, int end2) {
+        // Sin ceros a la izquierda, el número con más dígitos es el mayor
+        int lengthDiff = (end1 - start1) - (end2 - start2);
+        if (lengthDiff != 0) {
+            return lengthDiff;
         }
 
-        while (index2 < arr2.length && Character.isDigit(arr2[index2])) {
-            sb2.append(arr2[index2]);
-            index2++;
+        for (int i = start1, j = start2; i < end1; i++, j++) {
+            int diff = s1.charAt(i) - s2.charAt(j);
+            if (diff != 0) {
+                return diff;
+            }
         }
 
-        int num1 = Integer.parseInt(sb1.toString());
-        int num2 = Integer.parseInt(sb2.toString());
+        return 0;
+    }
+
+    private static int skipZeros(String s, int index) {
+        while (index < s.length() && s.charAt(index) == '0') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int digitsEnd(String s, int index) {
+        while (index < s.length() && isDigit(s.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int textEnd(String s, int index) {
+        while (index < s.length() && !isDigit(s.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        return new int[] {num1 - num2, --index1, --index2};
+    private static char fold(char c) {
+        // Igual que String.CASE_INSENSITIVE_ORDER
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Clave de ordenación precalculada de una cadena. Ver {@link #sortKey(String)}.
+     */
+    public static final class SortKey implements Comparable<SortKey> {
+        private final char[] chars;
+        private final char[] zeros;
+        private final Object[] segments;
+        private String original;
+
+        private SortKey(char[] chars, char[] zeros, Object[] segments) {
+            this.chars = chars;
+            this.zeros = zeros;
+            this.segments = segments;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int result = chars != null
+                    ? Arrays.compare(chars, other.chars)
+                    : compareSegments(segments, other.segments);
+
+            if (result == 0) {
+                result = Arrays.compare(zeros, other.zeros);
+            }
+
+            return result != 0 || original == null ? result : original.compareTo(other.original);
+        }
+
+        private static int compareSegments(Object[] segments1, Object[] segments2) {
+            int count = Math.min(segments1.length, segments2.length);
+
+            for (int i = 0; i < count; i++) {
+                var a = segments1[i];
+                var b = segments2[i];
+                int result;
+
+                if (a instanceof String && b instanceof String) {
+                    var digits1 = (String) a;
+                    var digits2 = (String) b;
+                    result = digits1.length() != digits2.length()
+                            ? digits1.length() - digits2.length()
+                            : digits1.compareTo(digits2);
+                } else if (a instanceof CollationKey && b instanceof CollationKey) {
+                    result = ((CollationKey) a).compareTo((CollationKey) b);
+                } else {
+                    result = a instanceof String ? -1 : 1;
+                }
+
+                if (result != 0) {
+                    return result;
+                }
+            }
+
+            return segments1.length - segments2.length;
+        }
+    }
+
+    private static final class Keyed<T> implements Comparable<Keyed<T>> {
+        private final SortKey key;
+        private final T element;
+
+        private Keyed(SortKey key, T element) {
+            this.key = key;
+            this.element = element;
+        }
+
+        @Override
+        public int compareTo(Keyed<T> other) {
+            return key.compareTo(other.key);
+        }
     }
 }
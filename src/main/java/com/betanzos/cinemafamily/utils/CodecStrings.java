@@ -0,0 +1,121 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cadenas de códec (RFC 6381) a partir de los registros de configuración que MP4 y Matroska almacenan con cada
+ * pista. Todos los métodos devuelven {@code null} si el registro está incompleto.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class CodecStrings {
+    private CodecStrings() {}
+
+    /**
+     * H.264 a partir de un {@code AVCDecoderConfigurationRecord} ({@code avcC}): {@code avc1.PPCCLL}.
+     */
+    static String avc(String format, ByteBuffer config) {
+        if (config.remaining() < 4) {
+            return null;
+        }
+
+        return String.format("%s.%02X%02X%02X", format, config.get(1) & 0xFF, config.get(2) & 0xFF, config.get(3) & 0xFF);
+    }
+
+    /**
+     * H.265 a partir de un {@code HEVCDecoderConfigurationRecord} ({@code hvcC}), según el anexo E de
+     * ISO/IEC 14496-15: {@code hvc1.[A-C]perfil.compatibilidad.[LH]nivel.restricciones}.
+     */
+    static String hevc(String format, ByteBuffer config) {
+        if (config.remaining() < 13) {
+            return null;
+        }
+
+        int profile = config.get(1) & 0xFF;
+        int space = profile >> 6;
+        boolean highTier = (profile & 0x20) != 0;
+        int compatibility = Integer.reverse(config.getInt(2));
+
+        var codec = new StringBuilder(format).append('.');
+        if (space > 0) {
+            codec.append((char) ('A' + space - 1));
+        }
+        codec.append(profile & 0x1F)
+                .append('.').append(Integer.toHexString(compatibility).toUpperCase())
+                .append('.').append(highTier ? 'H' : 'L').append(config.get(12) & 0xFF);
+
+        // Los bytes de restricciones a cero del final se omiten
+        int last = 11;
+        while (last >= 6 && config.get(last) == 0) {
+            last--;
+        }
+        for (int i = 6; i <= last; i++) {
+            codec.append('.').append(String.format("%02X", config.get(i) & 0xFF));
+        }
+
+        return codec.toString();
+    }
+
+    /**
+     * AV1 a partir de un {@code AV1CodecConfigurationRecord} ({@code av1C}): {@code av01.P.NNT.BB}.
+     */
+    static String av1(ByteBuffer config) {
+        if (config.remaining() < 3) {
+            return null;
+        }
+
+        int profile = (config.get(1) & 0xFF) >> 5;
+        int level = config.get(1) & 0x1F;
+        int flags = config.get(2) & 0xFF;
+        int bitDepth = (flags & 0x40) == 0 ? 8 : (flags & 0x20) == 0 ? 10 : 12;
+
+        return String.format("av01.%d.%02d%c.%02d", profile, level, (flags & 0x80) == 0 ? 'M' : 'H', bitDepth);
+    }
+
+    /**
+     * VP9 a partir de un {@code VPCodecConfigurationBox} ({@code vpcC}, sin la versión y los flags):
+     * {@code vp09.PP.LL.BB}.
+     */
+    static String vp9(ByteBuffer config) {
+        if (config.remaining() < 3) {
+            return null;
+        }
+
+        return String.format("vp09.%02d.%02d.%02d", config.get(0) & 0xFF, config.get(1) & 0xFF, (config.get(2) & 0xFF) >> 4);
+    }
+
+    /**
+     * AAC a partir de un {@code AudioSpecificConfig}: {@code mp4a.40.T}, donde T es el tipo de objeto de audio.
+     */
+    static String aac(ByteBuffer config) {
+        if (config.remaining() < 1) {
+            return null;
+        }
+
+        int type = (config.get(0) & 0xFF) >> 3;
+        if (type == 31) {
+            if (config.remaining() < 2) {
+                return null;
+            }
+            type = 32 + (((config.get(0) & 0x07) << 3) | ((config.get(1) & 0xFF) >> 5));
+        }
+
+        return "mp4a.40." + type;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.IllformedLocaleException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+
+/**
+ * Reconocimiento de los códigos de idioma que suelen incluirse en los nombres de los archivos de subtítulos
+ * ({@code Pelicula.es.srt}, {@code Movie.spa.srt}, {@code Movie.pt-BR.srt}, {@code Movie.English.srt}).<br>
+ * <br>
+ * Se aceptan los códigos ISO 639-1 y ISO 639-2 (tanto terminológicos como bibliográficos), las etiquetas BCP 47
+ * con región o escritura y el nombre del idioma en inglés o en el propio idioma.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class LanguageTags {
+    private LanguageTags() {}
+
+    /**
+     * Código ISO 639-1 (o ISO 639-2 si el idioma no tiene uno de dos letras) de cada código o nombre reconocido.
+     */
+    private static final Map<String, String> LANGUAGES = new HashMap<>();
+
+    static {
+        for (var code : Locale.getISOLanguages()) {
+            var locale = new Locale(code);
+            LANGUAGES.put(code, code);
+
+            try {
+                LANGUAGES.putIfAbsent(locale.getISO3Language(), code);
+            } catch (MissingResourceException e) {
+                // Sin código de tres letras
+            }
+
+            LANGUAGES.putIfAbsent(fold(locale.getDisplayLanguage(Locale.ENGLISH)), code);
+            LANGUAGES.putIfAbsent(fold(locale.getDisplayLanguage(locale)), code);
+        }
+
+        // Códigos bibliográficos de ISO 639-2 que difieren de los terminológicos
+        var bibliographic = new String[][] {
+                {"alb", "sq"}, {"arm", "hy"}, {"baq", "eu"}, {"bur", "my"}, {"chi", "zh"}, {"cze", "cs"},
+                {"dut", "nl"}, {"fre", "fr"}, {"geo", "ka"}, {"ger", "de"}, {"gre", "el"}, {"ice", "is"},
+                {"mac", "mk"}, {"mao", "mi"}, {"may", "ms"}, {"per", "fa"}, {"rum", "ro"}, {"slo", "sk"},
+                {"tib", "bo"}, {"wel", "cy"}};
+        for (var codes : bibliographic) {
+            LANGUAGES.put(codes[0], codes[1]);
+        }
+
+        // Ambiguos en nombres de archivo (p. ej. Movie.The.srt)
+        LANGUAGES.remove("the");
+    }
+
+    /**
+     * Obtiene la etiqueta BCP 47 del idioma al que se refiere {@code tag}.
+     *
+     * @param tag Código o nombre del idioma, sin distinguir mayúsculas de minúsculas
+     *
+     * @return Etiqueta normalizada (p. ej. {@code es}, {@code pt-BR}) o {@code null} si no es un idioma conocido
+     */
+    public static String resolve(String tag) {
+        if (tag == null || tag.length() < 2) {
+            return null;
+        }
+
+        var language = LANGUAGES.get(fold(tag));
+        if (language != null) {
+            return language;
+        }
+
+        int separator = Math.max(tag.indexOf('-'), tag.indexOf('_'));
+        if (separator < 0) {
+            return null;
+        }
+
+        language = LANGUAGES.get(fold(tag.substring(0, separator)));
+        if (language == null) {
+            return null;
+        }
+
+        try {
+            var locale = new Locale.Builder().setLanguageTag(tag.replace('_', '-')).build();
+            return new Locale.Builder().setLocale(locale).setLanguage(language).build().toLanguageTag();
+        } catch (IllformedLocaleException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Nombre del idioma {@code languageTag} en ese mismo idioma, con la primera letra en mayúscula.
+     */
+    public static String displayName(String languageTag) {
+        var locale = Locale.forLanguageTag(languageTag);
+        var name = locale.getDisplayName(locale);
+
+        return name.isEmpty() ? languageTag : name.substring(0, 1).toUpperCase(locale) + name.substring(1);
+    }
+
+    private static String fold(String text) {
+        var normalized = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return normalized.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import com.betanzos.cinemafamily.domain.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Lectura de los metadatos de un archivo Matroska o WebM a partir de los elementos EBML {@code Info} y
+ * {@code Tracks} del segmento.<br>
+ * <br>
+ * Ambos elementos suelen preceder al primer {@code Cluster}; si no es así se localizan con el índice
+ * ({@code SeekHead}) del principio del segmento. Los clusters nunca se leen.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class MatroskaProbe {
+    private MatroskaProbe() {}
+
+    private static final long EBML = 0x1A45DFA3L;
+    private static final long DOC_TYPE = 0x4282;
+    private static final long SEGMENT = 0x18538067L;
+    private static final long SEEK_HEAD = 0x114D9B74L;
+    private static final long SEEK = 0x4DBB;
+    private static final long SEEK_ID = 0x53AB;
+    private static final long SEEK_POSITION = 0x53AC;
+    private static final long INFO = 0x1549A966L;
+    private static final long TIMESTAMP_SCALE = 0x2AD7B1;
+    private static final long DURATION = 0x4489;
+    private static final long TRACKS = 0x1654AE6BL;
+    private static final long TRACK_ENTRY = 0xAE;
+    private static final long TRACK_TYPE = 0x83;
+    private static final long CODEC_ID = 0x86;
+    private static final long CODEC_PRIVATE = 0x63A2;
+    private static final long LANGUAGE = 0x22B59C;
+    private static final long LANGUAGE_BCP47 = 0x22B59D;
+    private static final long VIDEO = 0xE0;
+    private static final long PIXEL_WIDTH = 0xB0;
+    private static final long PIXEL_HEIGHT = 0xBA;
+    private static final long CLUSTER = 0x1F43B675L;
+    private static final long CUES = 0x1C53BB6BL;
+
+    private static final int TRACK_VIDEO = 1;
+    private static final int TRACK_AUDIO = 2;
+    private static final int TRACK_SUBTITLE = 0x11;
+
+    /**
+     * Tamaño máximo que se lee de un elemento (cadenas y configuraciones de códec).
+     */
+    private static final int MAX_ELEMENT_READ = 256;
+
+    private static final class Element {
+        private final long id;
+        private final long offset;
+        private final long start;
+        private final long end;
+
+        private Element(long id, long offset, long start, long end) {
+            this.id = id;
+            this.offset = offset;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    static boolean matches(ByteBuffer head) {
+        return head.remaining() >= 4 && Integer.toUnsignedLong(head.getInt(0)) == EBML;
+    }
+
+    static MediaInfo probe(RangeReader reader) throws IOException {
+        var header = element(reader, 0, reader.size());
+        if (header == null || header.id != EBML) {
+            return null;
+        }
+
+        String docType = "matroska";
+        for (var element = element(reader, header.start, header.end); element != null;
+             element = element(reader, element.end, header.end)) {
+            if (element.id == DOC_TYPE) {
+                docType = string(reader, element);
+            }
+        }
+
+        var segment = element(reader, header.end, reader.size());
+        if (segment == null || segment.id != SEGMENT) {
+            return null;
+        }
+
+        Element info = null;
+        Element tracks = null;
+        Element seekHead = null;
+
+        for (var element = element(reader, segment.start, segment.end); element != null;
+             element = element(reader, element.end, segment.end)) {
+            if (element.id == INFO) {
+                info = element;
+            } else if (element.id == TRACKS) {
+                tracks = element;
+            } else if (element.id == SEEK_HEAD) {
+                seekHead = element;
+            } else if (element.id == CLUSTER) {
+                break;
+            }
+
+            if (info != null && tracks != null) {
+                break;
+            }
+        }
+
+        if ((info == null || tracks == null) && seekHead != null) {
+            for (var seek = element(reader, seekHead.start, seekHead.end); seek != null;
+                 seek = element(reader, seek.end, seekHead.end)) {
+                var target = seek.id == SEEK ? seekTarget(reader, seek, segment, INFO, TRACKS) : null;
+                if (target != null && target.id == INFO && info == null) {
+                    info = target;
+                } else if (target != null && target.id == TRACKS && tracks == null) {
+                    tracks = target;
+                }
+            }
+        }
+
+        if (tracks == null) {
+            return null;
+        }
+
+        var container = "webm".equals(docType) ? "video/webm" : "video/x-matroska";
+        return tracks(reader, tracks, container, info != null ? duration(reader, info) : 0);
+    }
+
+    /**
+     * @return Rango {@code [inicio, fin)} del elemento {@code Cues} (índice de los clusters) o {@code null} si no se
+     *         encuentra
+     */
+    static long[] indexRange(RangeReader reader) throws IOException {
+        var header = element(reader, 0, reader.size());
+        var segment = header != null && header.id == EBML ? element(reader, header.end, reader.size()) : null;
+        if (segment == null || segment.id != SEGMENT) {
+            return null;
+        }
+
+        Element seekHead = null;
+        for (var element = element(reader, segment.start, segment.end); element != null;
+             element = element(reader, element.end, segment.end)) {
+            if (element.id == CUES) {
+                return new long[] {element.offset, element.end};
+            } else if (element.id == SEEK_HEAD) {
+                seekHead = element;
+            } else if (element.id == CLUSTER) {
+                break;
+            }
+        }
+
+        // Lo habitual es que Cues vaya al final del segmento, detrás de los clusters
+        if (seekHead != null) {
+            for (var seek = element(reader, seekHead.start, seekHead.end); seek != null;
+                 seek = element(reader, seek.end, seekHead.end)) {
+                var target = seek.id == SEEK ? seekTarget(reader, seek, segment, CUES) : null;
+                if (target != null) {
+                    return new long[] {target.offset, target.end};
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return Elemento al que apunta {@code seek} si es de uno de los tipos {@code ids}
+     */
+    private static Element seekTarget(RangeReader reader, Element seek, Element segment, long... ids)
+            throws IOException {
+        long id = -1;
+        long position = -1;
+
+        for (var element = element(reader, seek.start, seek.end); element != null;
+             element = element(reader, element.end, seek.end)) {
+            if (element.id == SEEK_ID) {
+                id = unsigned(reader, element);
+            } else if (element.id == SEEK_POSITION) {
+                position = unsigned(reader, element);
+            }
+        }
+
+        boolean wanted = false;
+        for (var candidate : ids) {
+            wanted |= id == candidate;
+        }
+
+        if (!wanted || position < 0 || segment.start + position >= segment.end) {
+            return null;
+        }
+
+        var target = element(reader, segment.start + position, segment.end);
+        return target != null && target.id == id ? target : null;
+    }
+
+    private static double duration(RangeReader reader, Element info) throws IOException {
+        long scale = 1_000_000;
+        double duration = 0;
+
+        for (var element = element(reader, info.start, info.end); element != null;
+             element = element(reader, element.end, info.end)) {
+            if (element.id == TIMESTAMP_SCALE) {
+                scale = unsigned(reader, element);
+            } else if (element.id == DURATION) {
+                var data = reader.read(element.start, element.end, 8);
+                duration = data.remaining() == 8 ? data.getDouble(0) : data.remaining() == 4 ? data.getFloat(0) : 0;
+            }
+        }
+
+        return duration > 0 && Double.isFinite(duration) ? duration * scale / 1e9 : 0;
+    }
+
+    private static MediaInfo tracks(RangeReader reader, Element tracks, String container, double duration) throws IOException {
+        int width = 0;
+        int height = 0;
+        String videoCodec = null;
+        boolean video = false;
+        var audio = new ArrayList<MediaInfo.Track>();
+        var subtitles = new ArrayList<MediaInfo.Track>();
+
+        for (var entry = element(reader, tracks.start, tracks.end); entry != null;
+             entry = element(reader, entry.end, tracks.end)) {
+            if (entry.id != TRACK_ENTRY) {
+                continue;
+            }
+
+            long type = 0;
+            String codecId = null;
+            String codec = null;
+            // Valor por defecto de Language según la especificación
+            String language = "eng";
+            String languageBcp47 = null;
+            int trackWidth = 0;
+            int trackHeight = 0;
+
+            for (var element = element(reader, entry.start, entry.end); element != null;
+                 element = element(reader, element.end, entry.end)) {
+                if (element.id == TRACK_TYPE) {
+                    type = unsigned(reader, element);
+                } else if (element.id == CODEC_ID) {
+                    codecId = string(reader, element);
+                } else if (element.id == LANGUAGE) {
+                    language = string(reader, element);
+                } else if (element.id == LANGUAGE_BCP47) {
+                    languageBcp47 = string(reader, element);
+                } else if (element.id == VIDEO) {
+                    for (var child = element(reader, element.start, element.end); child != null;
+                         child = element(reader, child.end, element.end)) {
+                        if (child.id == PIXEL_WIDTH) {
+                            trackWidth = (int) unsigned(reader, child);
+                        } else if (child.id == PIXEL_HEIGHT) {
+                            trackHeight = (int) unsigned(reader, child);
+                        }
+                    }
+                }
+            }
+
+            // CodecPrivate se interpreta después para conocer ya el CodecID, que puede aparecer detrás
+            for (var element = element(reader, entry.start, entry.end); element != null && codecId != null;
+                 element = element(reader, element.end, entry.end)) {
+                if (element.id == CODEC_PRIVATE) {
+                    codec = codec(codecId, reader.read(element.start, element.end, MAX_ELEMENT_READ));
+                    break;
+                }
+            }
+            if (codec == null && codecId != null) {
+                codec = codec(codecId, ByteBuffer.allocate(0));
+            }
+
+            var trackLanguage = languageBcp47 != null ? languageBcp47 : "und".equals(language) ? null : language;
+            if (type == TRACK_VIDEO && !video) {
+                video = true;
+                videoCodec = codec;
+                width = trackWidth;
+                height = trackHeight;
+            } else if (type == TRACK_AUDIO) {
+                audio.add(new MediaInfo.Track(codec, trackLanguage));
+            } else if (type == TRACK_SUBTITLE) {
+                subtitles.add(new MediaInfo.Track(codecId, trackLanguage));
+            }
+        }
+
+        return new MediaInfo(container, duration, width, height, videoCodec, audio, subtitles);
+    }
+
+    /**
+     * Cadena de códec (RFC 6381) de un {@code CodecID} de Matroska o {@code null} si no tiene una conocida.
+     */
+    private static String codec(String codecId, ByteBuffer codecPrivate) {
+        switch (codecId) {
+            case "V_MPEG4/ISO/AVC":
+                return CodecStrings.avc("avc1", codecPrivate);
+            case "V_MPEGH/ISO/HEVC":
+                return CodecStrings.hevc("hvc1", codecPrivate);
+            case "V_AV1":
+                return CodecStrings.av1(codecPrivate);
+            case "V_VP8":
+                return "vp8";
+            case "V_VP9":
+                return "vp9";
+            case "V_THEORA":
+                return "theora";
+            case "A_OPUS":
+                return "opus";
+            case "A_VORBIS":
+                return "vorbis";
+            case "A_FLAC":
+                return "flac";
+            case "A_AC3":
+                return "ac-3";
+            case "A_EAC3":
+                return "ec-3";
+            default:
+                if (codecId.startsWith("A_AAC")) {
+                    var aac = CodecStrings.aac(codecPrivate);
+                    return aac != null ? aac : codecId.endsWith("/SBR") ? "mp4a.40.5" : "mp4a.40.2";
+                }
+                return null;
+        }
+    }
+
+    /**
+     * Lee la cabecera (identificador y tamaño) del elemento que empieza en {@code position}.
+     *
+     * @return Elemento o {@code null} si no hay ninguno completo antes de {@code end}. El de tamaño desconocido
+     *         se extiende hasta {@code end}
+     */
+    private static Element element(RangeReader reader, long position, long end) throws IOException {
+        if (position >= end) {
+            return null;
+        }
+
+        var header = reader.read(position, end, 12);
+        int idLength = vintLength(header, 0);
+        if (idLength == 0 || idLength > 4 || idLength >= header.remaining()) {
+            return null;
+        }
+        int sizeLength = vintLength(header, idLength);
+        if (sizeLength == 0 || idLength + sizeLength > header.remaining()) {
+            return null;
+        }
+
+        long id = 0;
+        for (int i = 0; i < idLength; i++) {
+            id = (id << 8) | (header.get(i) & 0xFF);
+        }
+
+        // El tamaño no incluye el bit de longitud; todos los bits a 1 indican tamaño desconocido
+        long size = (header.get(idLength) & 0xFF) & (0xFF >> sizeLength);
+        boolean unknown = size == (0xFF >> sizeLength);
+        for (int i = 1; i < sizeLength; i++) {
+            int b = header.get(idLength + i) & 0xFF;
+            size = (size << 8) | b;
+            unknown &= b == 0xFF;
+        }
+
+        long start = position + idLength + sizeLength;
+        long elementEnd = unknown ? end : start + size;
+        if (elementEnd > end || elementEnd < start) {
+            return null;
+        }
+
+        return new Element(id, position, start, elementEnd);
+    }
+
+    private static int vintLength(ByteBuffer buffer, int offset) {
+        int first = buffer.get(offset) & 0xFF;
+        return first == 0 ? 0 : Integer.numberOfLeadingZeros(first) - 23;
+    }
+
+    private static long unsigned(RangeReader reader, Element element) throws IOException {
+        var data = reader.read(element.start, element.end, 8);
+        long value = 0;
+        for (int i = 0; i < data.remaining(); i++) {
+            value = (value << 8) | (data.get(i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static String string(RangeReader reader, Element element) throws IOException {
+        var data = reader.read(element.start, element.end, MAX_ELEMENT_READ);
+        var bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        // Las cadenas pueden terminar con bytes a cero
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0) {
+            length--;
+        }
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import com.betanzos.cinemafamily.domain.MediaInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Obtención de los metadatos de un video (duración, resolución, códecs y pistas) leyendo únicamente las cabeceras
+ * de su contenedor. Se reconocen MP4/QuickTime ({@link Mp4Probe}) y Matroska/WebM ({@link MatroskaProbe}).
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class MediaProbe {
+    private MediaProbe() {}
+
+    /**
+     * Resultado de {@link #probe(File)}: los metadatos (si el contenedor se reconoce) y los bytes leídos.
+     */
+    public static final class Result {
+        private final MediaInfo info;
+        private final long bytesRead;
+
+        private Result(MediaInfo info, long bytesRead) {
+            this.info = info;
+            this.bytesRead = bytesRead;
+        }
+
+        public Optional<MediaInfo> getInfo() {
+            return Optional.ofNullable(info);
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+    }
+
+    /**
+     * Lee los metadatos del video {@code file}.
+     *
+     * @param file Video a analizar
+     *
+     * @return Resultado del análisis. Sus metadatos están vacíos si el contenedor no se reconoce o sus cabeceras
+     *         están incompletas
+     *
+     * @throws IOException si el archivo no puede leerse
+     */
+    public static Result probe(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var reader = new RangeReader(channel);
+            var head = reader.read(0, reader.size(), 12);
+
+            MediaInfo info = null;
+            if (MatroskaProbe.matches(head)) {
+                info = MatroskaProbe.probe(reader);
+            } else if (Mp4Probe.matches(head)) {
+                info = Mp4Probe.probe(reader);
+            }
+
+            return new Result(info, reader.bytesRead());
+        }
+    }
+
+    /**
+     * Localiza el índice del contenedor del video {@code file}: la caja {@code moov} de un MP4 o el elemento
+     * {@code Cues} de un Matroska. El reproductor lo necesita para empezar a reproducir o para saltar a otra
+     * posición, y a menudo está al final del archivo.
+     *
+     * @param file Video a analizar
+     *
+     * @return Rango {@code [inicio, fin)} del índice o {@code null} si el contenedor no se reconoce o no lo tiene
+     *
+     * @throws IOException si el archivo no puede leerse
+     */
+    public static long[] indexRange(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var reader = new RangeReader(channel);
+            var head = reader.read(0, reader.size(), 12);
+
+            if (MatroskaProbe.matches(head)) {
+                return MatroskaProbe.indexRange(reader);
+            } else if (Mp4Probe.matches(head)) {
+                return Mp4Probe.indexRange(reader);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import com.betanzos.cinemafamily.domain.MediaInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lectura de los metadatos de un archivo MP4 (ISO/IEC 14496-12) a partir de la caja {@code moov}.<br>
+ * <br>
+ * Solo se leen las cabeceras de las cajas y el contenido de las pocas que se necesitan ({@code mvhd},
+ * {@code tkhd}, {@code mdhd}, {@code hdlr} y {@code stsd}). Las tablas de muestras y los datos ({@code mdat}) se
+ * saltan, por lo que el coste no depende del tamaño del video aunque {@code moov} esté al final del archivo.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class Mp4Probe {
+    private Mp4Probe() {}
+
+    /**
+     * Tamaño máximo que se lee del contenido de una caja (suficiente para todas las que se interpretan).
+     */
+    private static final int MAX_BOX_READ = 256;
+
+    private static final class Box {
+        private final String type;
+        private final long offset;
+        private final long start;
+        private final long end;
+
+        private Box(String type, long offset, long start, long end) {
+            this.type = type;
+            this.offset = offset;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Trak {
+        private String handler;
+        private String codec;
+        private String language;
+        private int width;
+        private int height;
+    }
+
+    /**
+     * Indica si el archivo parece un MP4: la primera caja es una de las que pueden abrir el archivo.
+     */
+    static boolean matches(ByteBuffer head) {
+        if (head.remaining() < 8) {
+            return false;
+        }
+
+        var type = fourcc(head, 4);
+        return type.equals("ftyp") || type.equals("moov") || type.equals("mdat") || type.equals("free")
+                || type.equals("wide") || type.equals("skip");
+    }
+
+    static MediaInfo probe(RangeReader reader) throws IOException {
+        String container = "video/mp4";
+
+        for (var box : children(reader, 0, reader.size())) {
+            if (box.type.equals("ftyp")) {
+                var brand = reader.read(box.start, box.end, 4);
+                if (brand.remaining() == 4 && fourcc(brand, 0).equals("qt  ")) {
+                    container = "video/quicktime";
+                }
+            } else if (box.type.equals("moov")) {
+                return moov(reader, box, container);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return Rango {@code [inicio, fin)} de la caja {@code moov} o {@code null} si no se encuentra
+     */
+    static long[] indexRange(RangeReader reader) throws IOException {
+        for (var box : children(reader, 0, reader.size())) {
+            if (box.type.equals("moov")) {
+                return new long[] {box.offset, box.end};
+            }
+        }
+
+        return null;
+    }
+
+    private static MediaInfo moov(RangeReader reader, Box moov, String container) throws IOException {
+        long timescale = 0;
+        long duration = 0;
+        long fragmentDuration = 0;
+        var traks = new ArrayList<Trak>();
+
+        for (var box : children(reader, moov.start, moov.end)) {
+            switch (box.type) {
+                case "mvhd":
+                    var mvhd = reader.read(box.start, box.end, MAX_BOX_READ);
+                    boolean v1 = mvhd.remaining() > 0 && mvhd.get(0) == 1;
+                    if (mvhd.remaining() >= (v1 ? 32 : 20)) {
+                        timescale = Integer.toUnsignedLong(mvhd.getInt(v1 ? 20 : 12));
+                        duration = v1 ? mvhd.getLong(24) : Integer.toUnsignedLong(mvhd.getInt(16));
+                    }
+                    break;
+                case "mvex":
+                    // Los MP4 fragmentados indican la duración total en mvex/mehd
+                    var mehd = child(reader, box, 0, "mehd");
+                    if (mehd != null) {
+                        var data = reader.read(mehd.start, mehd.end, 12);
+                        boolean mehdV1 = data.remaining() > 0 && data.get(0) == 1;
+                        if (data.remaining() >= (mehdV1 ? 12 : 8)) {
+                            fragmentDuration = mehdV1 ? data.getLong(4) : Integer.toUnsignedLong(data.getInt(4));
+                        }
+                    }
+                    break;
+                case "trak":
+                    traks.add(trak(reader, box));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (duration == 0 || duration == 0xFFFFFFFFL) {
+            duration = fragmentDuration;
+        }
+
+        int width = 0;
+        int height = 0;
+        String videoCodec = null;
+        boolean video = false;
+        var audio = new ArrayList<MediaInfo.Track>();
+        var subtitles = new ArrayList<MediaInfo.Track>();
+
+        for (var trak : traks) {
+            if ("vide".equals(trak.handler) && !video) {
+                video = true;
+                videoCodec = trak.codec;
+                width = trak.width;
+                height = trak.height;
+            } else if ("soun".equals(trak.handler)) {
+                audio.add(new MediaInfo.Track(trak.codec, trak.language));
+            } else if ("sbtl".equals(trak.handler) || "text".equals(trak.handler) || "subt".equals(trak.handler)) {
+                subtitles.add(new MediaInfo.Track(trak.codec, trak.language));
+            }
+        }
+
+        return new MediaInfo(container, timescale > 0 && duration > 0 ? (double) duration / timescale : 0,
+                width, height, videoCodec, audio, subtitles);
+    }
+
+    private static Trak trak(RangeReader reader, Box trak) throws IOException {
+        var result = new Trak();
+
+        for (var box : children(reader, trak.start, trak.end)) {
+            if (box.type.equals("tkhd")) {
+                var tkhd = reader.read(box.start, box.end, MAX_BOX_READ);
+                int offset = tkhd.remaining() > 0 && tkhd.get(0) == 1 ? 88 : 76;
+                if (tkhd.remaining() >= offset + 8) {
+                    // Valores en punto fijo 16.16
+                    result.width = tkhd.getInt(offset) >>> 16;
+                    result.height = tkhd.getInt(offset + 4) >>> 16;
+                }
+            } else if (box.type.equals("mdia")) {
+                mdia(reader, box, result);
+            }
+        }
+
+        return result;
+    }
+
+    private static void mdia(RangeReader reader, Box mdia, Trak trak) throws IOException {
+        Box minf = null;
+
+        for (var box : children(reader, mdia.start, mdia.end)) {
+            switch (box.type) {
+                case "mdhd":
+                    var mdhd = reader.read(box.start, box.end, MAX_BOX_READ);
+                    int offset = mdhd.remaining() > 0 && mdhd.get(0) == 1 ? 32 : 20;
+                    if (mdhd.remaining() >= offset + 2) {
+                        trak.language = language(mdhd.getShort(offset) & 0x7FFF);
+                    }
+                    break;
+                case "hdlr":
+                    var hdlr = reader.read(box.start, box.end, 12);
+                    if (hdlr.remaining() == 12) {
+                        trak.handler = fourcc(hdlr, 8);
+                    }
+                    break;
+                case "minf":
+                    minf = box;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        var stsd = minf != null ? find(reader, minf, "stbl", "stsd") : null;
+        if (stsd != null && stsd.end - stsd.start > 8) {
+            // Solo interesa la primera descripción de muestras
+            var entries = children(reader, stsd.start + 8, stsd.end);
+            if (!entries.isEmpty()) {
+                sampleEntry(reader, entries.get(0), trak);
+            }
+        }
+    }
+
+    private static void sampleEntry(RangeReader reader, Box entry, Trak trak) throws IOException {
+        var format = entry.type;
+        trak.codec = null;
+
+        switch (format) {
+            case "avc1":
+            case "avc3":
+            case "hvc1":
+            case "hev1":
+            case "av01":
+            case "vp09":
+                visualSampleEntry(reader, entry, format, trak);
+                break;
+            case "mp4a":
+                var esds = child(reader, entry, audioEntrySize(reader, entry), "esds");
+                trak.codec = esds != null ? esdsCodec(reader.read(esds.start, esds.end, MAX_BOX_READ)) : null;
+                break;
+            case "ac-3":
+            case "ec-3":
+                trak.codec = format;
+                break;
+            case "Opus":
+                trak.codec = "opus";
+                break;
+            case "fLaC":
+                trak.codec = "flac";
+                break;
+            default:
+                // Subtítulos (tx3g, wvtt, stpp) y códecs sin cadena conocida
+                trak.codec = "vide".equals(trak.handler) || "soun".equals(trak.handler) ? null : format;
+                break;
+        }
+    }
+
+    private static void visualSampleEntry(RangeReader reader, Box entry, String format, Trak trak) throws IOException {
+        // Campos de VisualSampleEntry: 78 bytes, con el ancho y el alto en los bytes 24 a 27
+        var fields = reader.read(entry.start, entry.end, 78);
+        if (fields.remaining() < 78) {
+            return;
+        }
+        if (trak.width == 0 || trak.height == 0) {
+            trak.width = fields.getShort(24) & 0xFFFF;
+            trak.height = fields.getShort(26) & 0xFFFF;
+        }
+
+        var configType = format.startsWith("avc") ? "avcC" : format.startsWith("h") ? "hvcC" : format.equals("av01") ? "av1C" : "vpcC";
+        var config = child(reader, entry, 78, configType);
+        if (config == null) {
+            return;
+        }
+
+        var data = reader.read(config.start, config.end, MAX_BOX_READ);
+        switch (configType) {
+            case "avcC":
+                trak.codec = CodecStrings.avc(format, data);
+                break;
+            case "hvcC":
+                trak.codec = CodecStrings.hevc(format, data);
+                break;
+            case "av1C":
+                trak.codec = CodecStrings.av1(data);
+                break;
+            default:
+                // vpcC es una FullBox: versión y flags antes de la configuración
+                trak.codec = data.remaining() > 4 ? CodecStrings.vp9(data.position(4).slice()) : null;
+                break;
+        }
+    }
+
+    /**
+     * Tamaño de los campos de AudioSampleEntry, que en las versiones 1 y 2 de QuickTime incluyen campos extra.
+     */
+    private static int audioEntrySize(RangeReader reader, Box entry) throws IOException {
+        var fields = reader.read(entry.start, entry.end, 10);
+        if (fields.remaining() < 10) {
+            return 28;
+        }
+
+        int version = fields.getShort(8);
+        return version == 1 ? 44 : version == 2 ? 64 : 28;
+    }
+
+    /**
+     * Códec de un {@code ES_Descriptor} (ISO/IEC 14496-1): {@code mp4a.40.T} para AAC o {@code mp4a.OO} para
+     * otros tipos de objeto (p. ej. {@code mp4a.6B} para MP3).
+     */
+    private static String esdsCodec(ByteBuffer esds) {
+        int position = 4;
+        int objectType = -1;
+
+        while (position + 2 <= esds.remaining()) {
+            int tag = esds.get(position++) & 0xFF;
+            int length = 0;
+            for (int i = 0; i < 4 && position < esds.remaining(); i++) {
+                int b = esds.get(position++) & 0xFF;
+                length = (length << 7) | (b & 0x7F);
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+
+            if (tag == 0x03) {
+                // ES_Descriptor: identificador, flags y campos opcionales antes de los descriptores que contiene
+                if (position + 3 > esds.remaining()) {
+                    return null;
+                }
+                int flags = esds.get(position + 2) & 0xFF;
+                position += 3;
+                if ((flags & 0x80) != 0) {
+                    position += 2;
+                }
+                if ((flags & 0x40) != 0 && position < esds.remaining()) {
+                    position += 1 + (esds.get(position) & 0xFF);
+                }
+                if ((flags & 0x20) != 0) {
+                    position += 2;
+                }
+            } else if (tag == 0x04) {
+                // DecoderConfigDescriptor: tipo de objeto y 12 bytes antes de DecoderSpecificInfo
+                if (position >= esds.remaining()) {
+                    return null;
+                }
+                objectType = esds.get(position) & 0xFF;
+                position += 13;
+            } else if (tag == 0x05) {
+                if (objectType != 0x40 || position >= esds.remaining()) {
+                    break;
+                }
+                return CodecStrings.aac(esds.duplicate().position(position).slice());
+            } else {
+                position += length;
+            }
+        }
+
+        return objectType < 0 ? null : objectType == 0x40 ? "mp4a.40.2" : String.format("mp4a.%02X", objectType);
+    }
+
+    /**
+     * Idioma ISO 639-2 empaquetado en 15 bits de {@code mdhd} o {@code null} si no se indica.
+     */
+    private static String language(int packed) {
+        if (packed == 0 || packed < 0x400) {
+            // Sin idioma o códigos de idioma de Macintosh (QuickTime)
+            return null;
+        }
+
+        var language = new String(new char[] {
+                (char) (((packed >> 10) & 0x1F) + 0x60),
+                (char) (((packed >> 5) & 0x1F) + 0x60),
+                (char) ((packed & 0x1F) + 0x60)});
+
+        return language.equals("und") ? null : language;
+    }
+
+    private static Box find(RangeReader reader, Box parent, String... path) throws IOException {
+        var box = parent;
+        for (var type : path) {
+            box = child(reader, box, 0, type);
+            if (box == null) {
+                return null;
+            }
+        }
+
+        return box;
+    }
+
+    private static Box child(RangeReader reader, Box parent, int offset, String type) throws IOException {
+        for (var box : children(reader, parent.start + offset, parent.end)) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Cajas contenidas entre {@code start} y {@code end}. Solo se leen sus cabeceras.
+     */
+    private static List<Box> children(RangeReader reader, long start, long end) throws IOException {
+        var boxes = new ArrayList<Box>();
+        long position = start;
+
+        while (position + 8 <= end) {
+            var header = reader.read(position, end, 16);
+            long size = Integer.toUnsignedLong(header.getInt(0));
+            var type = fourcc(header, 4);
+            int headerSize = 8;
+
+            if (size == 1) {
+                if (header.remaining() < 16) {
+                    break;
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                // La caja se extiende hasta el final
+                size = end - position;
+            }
+
+            if (size < headerSize || position + size > end) {
+                break;
+            }
+
+            boxes.add(new Box(type, position, position + headerSize, position + size));
+            position += size;
+        }
+
+        return boxes;
+    }
+
+    private static String fourcc(ByteBuffer buffer, int offset) {
+        var bytes = new byte[4];
+        buffer.duplicate().position(offset).get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
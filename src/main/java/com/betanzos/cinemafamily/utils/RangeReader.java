@@ -0,0 +1,101 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lectura de rangos de bytes de un archivo a través de una ventana de {@value #WINDOW_SIZE} bytes, de forma que
+ * las cabeceras contiguas de un contenedor se obtienen con una sola lectura y el resto del archivo nunca se lee.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+final class RangeReader {
+    static final int WINDOW_SIZE = 16 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+    private long windowStart = -1;
+    private long bytesRead;
+
+    RangeReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Bytes leídos del archivo hasta el momento.
+     */
+    long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Lee {@code length} bytes a partir de {@code position}.
+     *
+     * @return Buffer con exactamente {@code length} bytes, en orden big-endian
+     *
+     * @throws EOFException si el archivo termina antes
+     */
+    ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new EOFException("Range " + position + "+" + length + " beyond " + size);
+        }
+
+        if (length > WINDOW_SIZE) {
+            var buffer = ByteBuffer.allocate(length);
+            readFully(buffer, position);
+            return buffer.flip();
+        }
+
+        if (windowStart < 0 || position < windowStart || position + length > windowStart + window.limit()) {
+            window.clear();
+            window.limit((int) Math.min(WINDOW_SIZE, size - position));
+            readFully(window, position);
+            window.flip();
+            windowStart = position;
+        }
+
+        int offset = (int) (position - windowStart);
+        return window.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    /**
+     * Lee como máximo {@code maxLength} bytes a partir de {@code position}, sin sobrepasar {@code end}.
+     */
+    ByteBuffer read(long position, long end, int maxLength) throws IOException {
+        return read(position, (int) Math.max(0, Math.min(maxLength, Math.min(end, size) - position)));
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+            bytesRead += read;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import fr.noop.subtitle.model.SubtitleParsingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Conversor de subtítulos SRT a WebVTT en una única pasada.<br>
+ * <br>
+ * La codificación del archivo original se detecta a partir de sus primeros {@value #SAMPLE_SIZE} bytes (BOM o, en
+ * su defecto, validando la muestra como UTF-8) y los cues se transforman línea a línea directamente hacia el
+ * {@link OutputStream} de destino, sin construir el documento completo en memoria. La salida es idéntica a la que
+ * genera {@link CustomStrParser} junto con {@code VttWriter}.<br>
+ * <br>
+ * Las instancias reutilizan sus buffers entre conversiones y no son thread-safe.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class SrtToVttConverter {
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final Charset FALLBACK_CHARSET = Charset.forName("windows-1252");
+
+    private static final int NONE = 0;
+    private static final int CUE_ID = 1;
+    private static final int CUE_TIMECODE = 2;
+    private static final int CUE_TEXT = 3;
+
+    private final byte[] sample = new byte[SAMPLE_SIZE];
+    private final CharBuffer sampleChars = CharBuffer.allocate(SAMPLE_SIZE);
+    private final CharsetDecoder utf8Validator = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private final char[] readBuffer = new char[8192];
+    private final char[] writeBuffer = new char[8192];
+    private int writeLength;
+    private char[] line = new char[256];
+    private int lineLength;
+
+    private int status;
+
+    /**
+     * Convierte el SRT leído de {@code in} a WebVTT codificado en UTF-8 y lo escribe en {@code out}. Ninguno de
+     * los dos flujos se cierra.
+     *
+     * @throws SubtitleParsingException si el contenido no es un SRT válido. En ese caso es posible que parte de la
+     *                                  salida ya se haya escrito en {@code out}
+     */
+    public void convert(InputStream in, OutputStream out) throws IOException, SubtitleParsingException {
+        int sampleLength = in.readNBytes(sample, 0, SAMPLE_SIZE);
+        int offset = 0;
+        Charset charset;
+
+        if (sampleLength >= 3 && (sample[0] & 0xff) == 0xEF && (sample[1] & 0xff) == 0xBB && (sample[2] & 0xff) == 0xBF) {
+            charset = StandardCharsets.UTF_8;
+            offset = 3;
+        } else if (sampleLength >= 2 && (sample[0] & 0xff) == 0xFE && (sample[1] & 0xff) == 0xFF) {
+            charset = StandardCharsets.UTF_16BE;
+            offset = 2;
+        } else if (sampleLength >= 2 && (sample[0] & 0xff) == 0xFF && (sample[1] & 0xff) == 0xFE) {
+            charset = StandardCharsets.UTF_16LE;
+            offset = 2;
+        } else {
+            charset = isUtf8(sampleLength, sampleLength < SAMPLE_SIZE) ? StandardCharsets.UTF_8 : FALLBACK_CHARSET;
+        }
+
+        var reader = new InputStreamReader(
+                new SequenceInputStream(new ByteArrayInputStream(sample, offset, sampleLength - offset), in), charset);
+        var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+        writeLength = 0;
+        write(writer, "WEBVTT\n\n");
+        transform(reader, writer);
+        flush(writer);
+        writer.flush();
+    }
+
+    private boolean isUtf8(int length, boolean endOfInput) {
+        utf8Validator.reset();
+        sampleChars.clear();
+
+        var result = utf8Validator.decode(ByteBuffer.wrap(sample, 0, length), sampleChars, endOfInput);
+        return !result.isError();
+    }
+
+    private void transform(Reader reader, Writer writer) throws IOException, SubtitleParsingException {
+        status = NONE;
+        lineLength = 0;
+        boolean cueHasText = false;
+        boolean pendingCr = false;
+
+        int read;
+        while ((read = reader.read(readBuffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = readBuffer[i];
+
+                if (c == '\n' || c == '\r') {
+                    if (c == '\n' && pendingCr) {
+                        // Segunda mitad de un salto de línea \r\n
+                        pendingCr = false;
+                        continue;
+                    }
+
+                    pendingCr = c == '\r';
+                    cueHasText = processLine(writer, cueHasText);
+                    lineLength = 0;
+                } else {
+                    pendingCr = false;
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = c;
+                }
+            }
+        }
+
+        if (lineLength > 0) {
+            cueHasText = processLine(writer, cueHasText);
+        }
+
+        if (status == CUE_ID) {
+            throw new SubtitleParsingException("Missing timecode line for last cue");
+        }
+
+        if (status != NONE) {
+            endCue(writer, cueHasText);
+        }
+    }
+
+    /**
+     * Procesa la línea acumulada en {@link #line}.
+     *
+     * @return Si el cue actual tiene alguna línea de texto
+     */
+    private boolean processLine(Writer writer, boolean cueHasText) throws IOException, SubtitleParsingException {
+        int start = 0;
+        int end = lineLength;
+        while (start < end && Character.isWhitespace(line[start])) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line[end - 1])) {
+            end--;
+        }
+
+        switch (status) {
+            case NONE:
+                if (start < end) {
+                    writeCueId(writer, start, end);
+                    status = CUE_ID;
+                }
+                return false;
+            case CUE_ID:
+                writeTimecode(writer, start, end);
+                status = CUE_TIMECODE;
+                return false;
+            default:
+                if (start < end) {
+                    write(writer, line, start, end - start);
+                    write(writer, '\n');
+                    status = CUE_TEXT;
+                    return true;
+                }
+
+                endCue(writer, cueHasText);
+                status = NONE;
+                return false;
+        }
+    }
+
+    private void writeCueId(Writer writer, int start, int end) throws IOException, SubtitleParsingException {
+        // El identificador debe ser numérico una vez eliminados los caracteres no imprimibles
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = line[i];
+            if (isOther(c)) {
+                continue;
+            }
+            if (c < '0' || c > '9' || ++digits > 10) {
+                throw new SubtitleParsingException("Unable to parse cue number: " + new String(line, start, end - start));
+            }
+        }
+
+        if (digits == 0) {
+            throw new SubtitleParsingException("Unable to parse cue number: " + new String(line, start, end - start));
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!isOther(line[i])) {
+                write(writer, line[i]);
+            }
+        }
+        write(writer, '\n');
+    }
+
+    private void writeTimecode(Writer writer, int start, int end) throws IOException, SubtitleParsingException {
+        // 00:01:21,456 --> 00:01:23,417
+        if (end - start != 29 || line[start + 13] != '-' || line[start + 14] != '-' || line[start + 15] != '>') {
+            throw new SubtitleParsingException("Timecode line is badly formated: " + new String(line, start, end - start));
+        }
+
+        writeTimecodeValue(writer, start);
+        write(writer, " --> ");
+        writeTimecodeValue(writer, start + 17);
+        write(writer, " \n");
+    }
+
+    private void writeTimecodeValue(Writer writer, int start) throws IOException, SubtitleParsingException {
+        for (int i = 0; i < 12; i++) {
+            char c = line[start + i];
+            if (i == 2 || i == 5) {
+                if (c != ':') {
+                    throw new SubtitleParsingException("Unable to parse time code: " + new String(line, start, 12));
+                }
+                write(writer, ':');
+            } else if (i == 8) {
+                if (c != ',') {
+                    throw new SubtitleParsingException("Unable to parse time code: " + new String(line, start, 12));
+                }
+                write(writer, '.');
+            } else if (c >= '0' && c <= '9') {
+                write(writer, c);
+            } else {
+                throw new SubtitleParsingException("Unable to parse time code: " + new String(line, start, 12));
+            }
+        }
+    }
+
+    private void endCue(Writer writer, boolean cueHasText) throws IOException {
+        if (!cueHasText) {
+            write(writer, '\n');
+        }
+        write(writer, '\n');
+    }
+
+    /*
+     * Los métodos write de Writer que reciben un carácter o un String reservan un array temporal en cada llamada,
+     * por lo que la salida se acumula en writeBuffer y se envía en bloques.
+     */
+
+    private void write(Writer writer, char c) throws IOException {
+        if (writeLength == writeBuffer.length) {
+            flush(writer);
+        }
+        writeBuffer[writeLength++] = c;
+    }
+
+    private void write(Writer writer, char[] chars, int offset, int length) throws IOException {
+        if (length > writeBuffer.length - writeLength) {
+            flush(writer);
+            if (length > writeBuffer.length) {
+                writer.write(chars, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, offset, writeBuffer, writeLength, length);
+        writeLength += length;
+    }
+
+    private void write(Writer writer, String s) throws IOException {
+        if (s.length() > writeBuffer.length - writeLength) {
+            flush(writer);
+        }
+        s.getChars(0, s.length(), writeBuffer, writeLength);
+        writeLength += s.length();
+    }
+
+    private void flush(Writer writer) throws IOException {
+        writer.write(writeBuffer, 0, writeLength);
+        writeLength = 0;
+    }
+
+    /**
+     * Equivalente a la categoría {@code \p{C}} de las expresiones regulares.
+     */
+    private static boolean isOther(char c) {
+        switch (Character.getType(c)) {
+            case Character.CONTROL:
+            case Character.FORMAT:
+            case Character.PRIVATE_USE:
+            case Character.SURROGATE:
+            case Character.UNASSIGNED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
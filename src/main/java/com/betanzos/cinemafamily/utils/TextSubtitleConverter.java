@@ -0,0 +1,292 @@
+/**
+ * Copyright 2019 Eduardo E. Betanzos Morales
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.betanzos.cinemafamily.utils;
+
+import fr.noop.subtitle.model.SubtitleParsingException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conversión a WebVTT de los formatos de subtítulos de texto ASS/SSA (Advanced SubStation Alpha) y MicroDVD
+ * ({@code .sub}).<br>
+ * <br>
+ * Se conserva únicamente el texto y los tiempos de cada cue, además de la cursiva y la negrita; el resto de
+ * estilos, posiciones y efectos se descartan porque WebVTT no tiene equivalente. A diferencia de
+ * {@link SrtToVttConverter}, el archivo se decodifica completo en memoria, ya que estos formatos son poco
+ * frecuentes y los cues de ASS pueden no estar ordenados.
+ *
+ * @author Eduardo Betanzos
+ * @since 1.0
+ */
+public final class TextSubtitleConverter {
+    private TextSubtitleConverter() {}
+
+    private static final Charset FALLBACK_CHARSET = Charset.forName("windows-1252");
+
+    private static final Pattern ASS_TIME = Pattern.compile("(\\d+):(\\d{1,2}):(\\d{1,2})(?:[.,](\\d{1,3}))?");
+    private static final Pattern ASS_OVERRIDE = Pattern.compile("\\{([^}]*)}");
+    private static final Pattern MICRODVD_LINE = Pattern.compile("^\\{(\\d+)}\\{(\\d*)}(.*)$");
+    private static final Pattern MICRODVD_CODE = Pattern.compile("\\{[a-zA-Z]:([^}]*)}");
+
+    /**
+     * Convierte subtítulos ASS/SSA a WebVTT.
+     *
+     * @param data Contenido del archivo ASS/SSA
+     *
+     * @return Contenido WebVTT codificado en UTF-8
+     *
+     * @throws SubtitleParsingException si el archivo no contiene una sección {@code [Events]} válida
+     */
+    public static byte[] assToVtt(byte[] data) throws SubtitleParsingException {
+        var cues = new ArrayList<Cue>();
+        boolean events = false;
+        int startField = -1;
+        int endField = -1;
+        int textField = -1;
+        int fieldCount = 0;
+
+        for (var line : decode(data).split("\r\n|\r|\n")) {
+            var trimmed = line.trim();
+
+            if (trimmed.startsWith("[")) {
+                events = trimmed.equalsIgnoreCase("[Events]");
+            } else if (events && startsWithIgnoreCase(trimmed, "Format:")) {
+                var fields = trimmed.substring("Format:".length()).split(",");
+                fieldCount = fields.length;
+                for (int i = 0; i < fields.length; i++) {
+                    switch (fields[i].trim().toLowerCase(Locale.ROOT)) {
+                        case "start":
+                            startField = i;
+                            break;
+                        case "end":
+                            endField = i;
+                            break;
+                        case "text":
+                            textField = i;
+                            break;
+                        default:
+                    }
+                }
+            } else if (events && startsWithIgnoreCase(trimmed, "Dialogue:")) {
+                if (startField < 0 || endField < 0 || textField < 0) {
+                    throw new SubtitleParsingException("Dialogue line before a valid Format line");
+                }
+
+                // El texto es el último campo y puede contener comas
+                var fields = trimmed.substring("Dialogue:".length()).split(",", fieldCount);
+                if (fields.length < fieldCount) {
+                    continue;
+                }
+
+                long start = parseAssTime(fields[startField].trim());
+                long end = parseAssTime(fields[endField].trim());
+                var text = assText(fields[textField]);
+                if (start >= 0 && end > start && !text.isBlank()) {
+                    cues.add(new Cue(start, end, text));
+                }
+            }
+        }
+
+        if (textField < 0) {
+            throw new SubtitleParsingException("Missing [Events] section");
+        }
+
+        cues.sort((a, b) -> Long.compare(a.start, b.start));
+        return toVtt(cues);
+    }
+
+    /**
+     * Convierte subtítulos MicroDVD ({@code {inicio}{fin}texto}, con tiempos en fotogramas) a WebVTT. Si la primera
+     * línea indica la tasa de fotogramas ({@code {1}{1}25.000}) se utiliza esa en lugar de {@code fps}.
+     *
+     * @param data Contenido del archivo MicroDVD
+     * @param fps  Fotogramas por segundo del video
+     *
+     * @return Contenido WebVTT codificado en UTF-8
+     *
+     * @throws SubtitleParsingException si el archivo no tiene ninguna línea con formato MicroDVD
+     */
+    public static byte[] microDvdToVtt(byte[] data, double fps) throws SubtitleParsingException {
+        var cues = new ArrayList<Cue>();
+        boolean first = true;
+
+        for (var line : decode(data).split("\r\n|\r|\n")) {
+            Matcher matcher = MICRODVD_LINE.matcher(line.trim());
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            long startFrame = Long.parseLong(matcher.group(1));
+            long endFrame = matcher.group(2).isEmpty() ? startFrame : Long.parseLong(matcher.group(2));
+            var text = matcher.group(3);
+
+            if (first) {
+                first = false;
+                if (startFrame <= 1 && endFrame <= 1) {
+                    try {
+                        fps = Double.parseDouble(text.trim());
+                        continue;
+                    } catch (NumberFormatException e) {
+                        // Primer cue normal
+                    }
+                }
+            }
+
+            long start = Math.round(startFrame * 1000 / fps);
+            long end = Math.round(endFrame * 1000 / fps);
+            if (end <= start) {
+                end = start + 2000;
+            }
+
+            var vttText = microDvdText(text);
+            if (!vttText.isBlank()) {
+                cues.add(new Cue(start, end, vttText));
+            }
+        }
+
+        if (first) {
+            throw new SubtitleParsingException("No MicroDVD lines found");
+        }
+
+        return toVtt(cues);
+    }
+
+    private static String assText(String text) {
+        var result = new StringBuilder(text.length());
+        var matcher = ASS_OVERRIDE.matcher(text);
+        int last = 0;
+
+        while (matcher.find()) {
+            result.append(escape(text.substring(last, matcher.start())));
+            for (var code : matcher.group(1).split("\\\\")) {
+                if (code.equals("i1")) {
+                    result.append("<i>");
+                } else if (code.equals("i0")) {
+                    result.append("</i>");
+                } else if (code.equals("b1")) {
+                    result.append("<b>");
+                } else if (code.equals("b0")) {
+                    result.append("</b>");
+                }
+            }
+            last = matcher.end();
+        }
+        result.append(escape(text.substring(last)));
+
+        return result.toString().replace("\\N", "\n").replace("\\n", "\n").replace("\\h", " ").trim();
+    }
+
+    private static String microDvdText(String text) {
+        boolean italic = text.toLowerCase(Locale.ROOT).contains("{y:i}");
+        var plain = escape(MICRODVD_CODE.matcher(text).replaceAll("")).replace('|', '\n').trim();
+
+        // En MicroDVD un '/' al inicio de una línea indica cursiva solo en esa línea
+        var lines = plain.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].startsWith("/")) {
+                lines[i] = "<i>" + lines[i].substring(1) + "</i>";
+            }
+        }
+        plain = String.join("\n", lines);
+
+        return italic ? "<i>" + plain + "</i>" : plain;
+    }
+
+    private static long parseAssTime(String time) {
+        var matcher = ASS_TIME.matcher(time);
+        if (!matcher.matches()) {
+            return -1;
+        }
+
+        long millis = (Long.parseLong(matcher.group(1)) * 3600 + Long.parseLong(matcher.group(2)) * 60
+                + Long.parseLong(matcher.group(3))) * 1000;
+        var fraction = matcher.group(4);
+        if (fraction != null) {
+            // Centésimas en ASS, pero se admiten también décimas y milésimas
+            millis += Long.parseLong((fraction + "00").substring(0, 3));
+        }
+
+        return millis;
+    }
+
+    private static byte[] toVtt(List<Cue> cues) {
+        var vtt = new StringBuilder(64 + cues.size() * 64).append("WEBVTT\n\n");
+        for (var cue : cues) {
+            vtt.append(timecode(cue.start)).append(" --> ").append(timecode(cue.end)).append('\n')
+                    .append(cue.text).append("\n\n");
+        }
+
+        return vtt.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String timecode(long millis) {
+        return String.format("%02d:%02d:%02d.%03d",
+                millis / 3_600_000, (millis / 60_000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static boolean startsWithIgnoreCase(String text, String prefix) {
+        return text.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * Decodifica el contenido según su BOM o, si no lo tiene, como UTF-8 si es válido y como Windows-1252 en caso
+     * contrario.
+     */
+    private static String decode(byte[] data) {
+        if (data.length >= 3 && (data[0] & 0xff) == 0xEF && (data[1] & 0xff) == 0xBB && (data[2] & 0xff) == 0xBF) {
+            return new String(data, 3, data.length - 3, StandardCharsets.UTF_8);
+        } else if (data.length >= 2 && (data[0] & 0xff) == 0xFE && (data[1] & 0xff) == 0xFF) {
+            return new String(data, 2, data.length - 2, StandardCharsets.UTF_16BE);
+        } else if (data.length >= 2 && (data[0] & 0xff) == 0xFF && (data[1] & 0xff) == 0xFE) {
+            return new String(data, 2, data.length - 2, StandardCharsets.UTF_16LE);
+        }
+
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return new String(data, FALLBACK_CHARSET);
+        }
+    }
+
+    private static final class Cue {
+        private final long start;
+        private final long end;
+        private final String text;
+
+        private Cue(long start, long end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+}
@@ -15,25 +15,25 @@
  */
 package com.betanzos.cinemafamily.utils;
 
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
 import fr.noop.subtitle.model.SubtitleParsingException;
-import fr.noop.subtitle.vtt.VttWriter;
 import org.apache.tika.Tika;
-import org.apache.tomcat.util.http.fileupload.ByteArrayOutputStream;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Base64;
-import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 
 /**
  * @author Eduardo Betanzos
@@ -42,48 +42,110 @@ import java.util.Random;
 public final class Util {
     private Util() {}
 
-    private static final char[] chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
-    private static final Random r = new Random();
+    private static final ThreadLocal<SrtToVttConverter> SRT_CONVERTER =
+            ThreadLocal.withInitial(SrtToVttConverter::new);
 
-    private static final Tika TIKA = new Tika();
+    private static final Map<String, File> ID_TABLE = new ConcurrentHashMap<>();
+    private static final Map<File, String> PATH_IDS = new ConcurrentHashMap<>();
 
+    /**
+     * Obtiene el identificador del archivo o directorio {@code path}. El identificador es un hash de 64 bits de
+     * la ruta absoluta normalizada, por lo que es siempre el mismo para la misma ruta. Además queda registrado
+     * para que {@link #idToPath(String)} pueda resolverlo.<br>
+     * <br>
+     * Si el hash ya está asignado a otra ruta se vuelve a calcular añadiendo una sal (1, 2, ...) hasta obtener uno
+     * libre, por lo que dos rutas nunca comparten identificador. La ruta conserva el identificador asignado mientras
+     * esté registrada.
+     *
+     * @param path Ruta del archivo o directorio
+     *
+     * @return Identificador de 11 caracteres (Base64 URL-safe)
+     */
     public static String pathToId(File path) {
-        var base64 = toBase64(path.getAbsolutePath());
-        int halfIndex = base64.length() / 2;
-
-        var preId = new StringBuilder()
-                .append(chars[r.nextInt(62)])
-                .append(base64.substring(0, halfIndex))
-                .append(chars[r.nextInt(62)])
-                .append(base64.substring(halfIndex))
-                .toString();
+        var normalized = normalize(path);
+        var id = PATH_IDS.get(normalized);
+        if (id != null) {
+            return id;
+        }
 
-        return toBase64(preId);
+        var name = normalized.toString();
+        return register(normalized, salt -> hashId(name, salt));
     }
 
-    public static File idToPath(String id) {
-        var preId = fromBase64(id);
+    /**
+     * Registra {@code path} con el primer identificador libre de {@code ids} (sal 0, 1, 2, ...).
+     */
+    static synchronized String register(File path, IntFunction<String> ids) {
+        var id = PATH_IDS.get(path);
+        if (id != null) {
+            return id;
+        }
 
-        int halfIndex = (preId.length() - 2) / 2;
+        // La ruta no está registrada, por lo que cualquier otra asignación del identificador es una colisión
+        for (int salt = 0; ; salt++) {
+            id = ids.apply(salt);
+            if (ID_TABLE.putIfAbsent(id, path) == null) {
+                PATH_IDS.put(path, id);
+                return id;
+            }
+        }
+    }
 
-        var step1 = preId.substring(1);
-        var base64 = step1.substring(0, halfIndex) + step1.substring(halfIndex + 1);
+    /**
+     * Elimina el registro de {@code path}, de forma que su identificador deja de resolverse. Se utiliza cuando el
+     * archivo o directorio se elimina o cambia de nombre.
+     *
+     * @param path Ruta del archivo o directorio
+     */
+    public static synchronized void unregister(File path) {
+        var normalized = normalize(path);
+        var id = PATH_IDS.remove(normalized);
+        if (id != null) {
+            ID_TABLE.remove(id, normalized);
+        }
+    }
 
-        return new File(fromBase64(base64));
+    /**
+     * Resuelve un identificador obtenido con {@link #pathToId(File)}.
+     *
+     * @param id Identificador del archivo o directorio
+     *
+     * @return Ruta del archivo o directorio
+     *
+     * @throws FileNotFoundException si el identificador no corresponde a ningún elemento conocido
+     */
+    public static File idToPath(String id) {
+        var file = ID_TABLE.get(id);
+        if (file == null) {
+            throw new FileNotFoundException("Unknown file id " + id);
+        }
+
+        return file;
     }
 
-    public static String toBase64(String s) {
-        return Base64.getEncoder().encodeToString(s.getBytes());
+    private static File normalize(File path) {
+        return path.toPath().toAbsolutePath().normalize().toFile();
     }
 
-    public static String fromBase64(String s) {
-        byte[] decode = Base64.getDecoder().decode(s.getBytes());
-        return new String(decode);
+    private static String hashId(String path, int salt) {
+        // FNV-1a de 64 bits sobre los bytes UTF-8 de la ruta, seguidos de los de la sal si la hay
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        for (int i = 0; salt != 0 && i < Integer.BYTES; i++) {
+            hash ^= (salt >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        var bytes = ByteBuffer.allocate(Long.BYTES).putLong(hash).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
     }
 
     public static Optional<String> detectMimeType(File file) {
         try (var is = new FileInputStream(file)) {
-            return Optional.ofNullable(TIKA.detect(is));
+            return Optional.ofNullable(TikaHolder.TIKA.detect(is));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -93,7 +155,7 @@ public final class Util {
 
     public static Optional<String> detectMimeType(byte[] data) {
         try (var is = new ByteArrayInputStream(data)) {
-            return Optional.ofNullable(TIKA.detect(is));
+            return Optional.ofNullable(TikaHolder.TIKA.detect(is));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -116,30 +178,67 @@ public final class Util {
         return Optional.empty();
     }
 
+    /**
+     * Compara dos nombres de archivo sin tener en cuenta su extensión. Los nombres sin extensión (o cuyo único
+     * punto es el inicial, como {@code .hidden}) se comparan completos.
+     */
     public static boolean areEqualsWithoutExtension(String name1, String name2) {
-        int dotElement = name1.lastIndexOf('.');
-        int dotFile = name2.lastIndexOf('.');
+        return withoutExtension(name1).equals(withoutExtension(name2));
+    }
 
-        return name1.substring(0, dotElement).equals(name2.substring(0, dotFile));
+    private static String withoutExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
     }
 
+    /**
+     * Convierte el archivo de subtítulos SRT {@code subFile} a WebVTT.
+     *
+     * @param subFile Archivo SRT
+     *
+     * @return Contenido WebVTT codificado en UTF-8 o {@link Optional#empty()} si el archivo no pudo convertirse
+     */
     public static Optional<byte[]> subtitleSrtToVtt(File subFile) {
-        try (
-                var srtInputStream = new FileInputStream(subFile);
-                var forEncodingInputStream = new FileInputStream(subFile)
-        ) {
-            // Detect original encoding
-            String encoding = detectEncoding(forEncodingInputStream.readAllBytes())
-                    .orElseGet(() -> "utf-8");
-
-            var srtParser = new CustomStrParser(encoding);
-            var srtSubObject = srtParser.parse(srtInputStream);
-
-            var vttWriter = new VttWriter("utf-8");
-            var baos = new ByteArrayOutputStream();
-            vttWriter.write(srtSubObject, baos);
-
-            return Optional.ofNullable(baos.toByteArray());
+        try (var srtInputStream = new FileInputStream(subFile)) {
+            var baos = new ByteArrayOutputStream((int) Math.min(subFile.length() + 16, Integer.MAX_VALUE - 8));
+            SRT_CONVERTER.get().convert(srtInputStream, baos);
+
+            return Optional.of(baos.toByteArray());
+        } catch (IOException | SubtitleParsingException e) {
+            e.printStackTrace();
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Convierte el archivo de subtítulos ASS/SSA {@code subFile} a WebVTT.
+     *
+     * @param subFile Archivo ASS/SSA
+     *
+     * @return Contenido WebVTT codificado en UTF-8 o {@link Optional#empty()} si el archivo no pudo convertirse
+     */
+    public static Optional<byte[]> subtitleAssToVtt(File subFile) {
+        try {
+            return Optional.of(TextSubtitleConverter.assToVtt(Files.readAllBytes(subFile.toPath())));
+        } catch (IOException | SubtitleParsingException e) {
+            e.printStackTrace();
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Convierte el archivo de subtítulos MicroDVD {@code subFile} a WebVTT.
+     *
+     * @param subFile Archivo MicroDVD
+     * @param fps     Fotogramas por segundo a utilizar si el archivo no los indica
+     *
+     * @return Contenido WebVTT codificado en UTF-8 o {@link Optional#empty()} si el archivo no pudo convertirse
+     */
+    public static Optional<byte[]> subtitleMicroDvdToVtt(File subFile, double fps) {
+        try {
+            return Optional.of(TextSubtitleConverter.microDvdToVtt(Files.readAllBytes(subFile.toPath()), fps));
         } catch (IOException | SubtitleParsingException e) {
             e.printStackTrace();
         }
@@ -147,21 +246,11 @@ public final class Util {
         return Optional.empty();
     }
 
-    private static Optional<String> detectEncoding(byte[] data) {
-        return List.of("UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "windows-1252")
-                .stream()
-                .filter(cs -> {
-                    var decoder = Charset.forName(cs).newDecoder();
-                    decoder.onMalformedInput(CodingErrorAction.REPORT);
-                    try {
-                        decoder.decode(ByteBuffer.wrap(data));
-                        return true;
-                    } catch (CharacterCodingException e) {
-                        // Do nothing, just wrong encoding. Try again
-                    }
-
-                    return false;
-                })
-                .findFirst();
+    /**
+     * Tika carga su configuración y todos los tipos que conoce al crearse, por lo que no se crea hasta la primera
+     * detección por contenido en lugar de al cargar esta clase durante el arranque.
+     */
+    private static final class TikaHolder {
+        static final Tika TIKA = new Tika();
     }
 }
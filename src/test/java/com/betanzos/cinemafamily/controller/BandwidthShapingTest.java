@@ -0,0 +1,110 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.StreamScheduler;
+import com.betanzos.cinemafamily.utils.Util;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/shaping-test/library", "data.dir=target/shaping-test/data",
+                "streaming.client-bandwidth=1048576", "streaming.burst=262144", "streaming.max-full-downloads=1"})
+class BandwidthShapingTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024;
+
+    private static File video;
+    private static byte[] content;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private StreamScheduler streamScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createVideo() throws IOException {
+        var dir = new File("target/shaping-test/library");
+        Files.createDirectories(dir.toPath());
+
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+
+        video = new File(dir, "movie.mp4");
+        Files.write(video.toPath(), content);
+    }
+
+    @Test
+    void clientBandwidthIsLimited() throws Exception {
+        long start = System.nanoTime();
+        var response = client.send(request().header("Range", "bytes=0-2097151").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(206, response.statusCode());
+        assertArrayEquals(Arrays.copyOf(content, 2 * 1024 * 1024), response.body());
+        // 2 MB a 1 MB/s, de los que 256 KB se envían como ráfaga
+        assertTrue(elapsedMillis >= 1500, "Elapsed " + elapsedMillis + " ms");
+        assertTrue(streamScheduler.getThrottledNanos() > 0);
+    }
+
+    @Test
+    void concurrentFullDownloadsAreLimited() throws Exception {
+        // La primera descarga tarda unos 3 segundos
+        var first = client.send(request().build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, first.statusCode());
+        // Una sola serie para todos los envíos
+        assertEquals(1, meterRegistry.find("cinemafamily.stream.throughput").gauges().size());
+        assertTrue(meterRegistry.find("cinemafamily.stream.throughput").gauge().getId().getTags().isEmpty());
+
+        var second = client.send(request().build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(503, second.statusCode());
+        assertTrue(second.headers().firstValue("Retry-After").isPresent());
+
+        // Los rangos que pide el reproductor no se limitan
+        var range = client.send(request().header("Range", "bytes=0-9").build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, range.statusCode());
+
+        try (var body = first.body()) {
+            assertArrayEquals(content, body.readAllBytes());
+        }
+
+        assertEquals(1, streamScheduler.getRejectedDownloads());
+
+        boolean released = false;
+        // El permiso se libera al terminar el envío en el servidor
+        for (int i = 0; i < 50 && !released; i++) {
+            Thread.sleep(20);
+            released = streamScheduler.tryStartFullDownload();
+        }
+        assertTrue(released);
+        streamScheduler.endFullDownload();
+    }
+
+    private HttpRequest.Builder request() {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/file/" + Util.pathToId(video.getAbsoluteFile())));
+    }
+}
@@ -0,0 +1,90 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/compression-test/library", "data.dir=target/compression-test/data"})
+class CompressionTest {
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/compression-test/library");
+        Files.createDirectories(library.toPath());
+
+        for (int i = 1; i <= 200; i++) {
+            Files.write(new File(library, "Episode " + i + ".mp4").toPath(), new byte[4096]);
+        }
+    }
+
+    @Test
+    void precompressedStylesheetIsServedToGzipClients() throws Exception {
+        var response = get("/css/chewing-grid-atomic.min.css", "gzip, deflate");
+
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", header(response, "Content-Encoding"));
+        // Las respuestas comprimidas al vuelo no tienen longitud conocida
+        assertEquals(String.valueOf(response.body().length), header(response, "Content-Length"));
+        assertTrue(header(response, "Vary").contains("Accept-Encoding"));
+
+        var original = new ClassPathResource("static/css/chewing-grid-atomic.min.css").getInputStream().readAllBytes();
+        assertArrayEquals(original, new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes());
+    }
+
+    @Test
+    void listingsAreCompressed() throws Exception {
+        var html = get("/folder/" + Util.pathToId(library.getAbsoluteFile()), "gzip");
+        var json = get("/api/folder/" + Util.pathToId(library.getAbsoluteFile()) + "?limit=200", "gzip");
+
+        assertEquals("gzip", header(html, "Content-Encoding"));
+        assertEquals("gzip", header(json, "Content-Encoding"));
+    }
+
+    @Test
+    void videosAreNeverCompressed() throws Exception {
+        var response = get("/file/" + Util.pathToId(new File(library, "Episode 1.mp4").getAbsoluteFile()), "gzip");
+
+        assertEquals(200, response.statusCode());
+        assertEquals("", header(response, "Content-Encoding"));
+        assertEquals(4096, response.body().length);
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Accept", path.startsWith("/api/") ? "application/json" : "*/*")
+                .header("Accept-Encoding", acceptEncoding)
+                .build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String header(HttpResponse<?> response, String name) {
+        return response.headers().firstValue(name).orElse("");
+    }
+}
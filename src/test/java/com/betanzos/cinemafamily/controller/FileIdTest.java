@@ -0,0 +1,88 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.CatalogService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/file-id-test/library", "data.dir=target/file-id-test/data",
+                "library.watch.enabled=false"})
+class FileIdTest {
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/file-id-test/library");
+        // Los archivos se renombran y eliminan, por lo que se parte siempre de la biblioteca original
+        FileSystemUtils.deleteRecursively(new File("target/file-id-test"));
+        Files.createDirectories(new File(library, "Season 1").toPath());
+        Files.write(new File(library, "Movie.mp4").toPath(), new byte[16]);
+        Files.write(new File(library, "Season 1/Episode 1.mp4").toPath(), new byte[16]);
+    }
+
+    @Test
+    void unknownIdIsNotFound() throws Exception {
+        assertEquals(404, status("/file/AAAAAAAAAAA"));
+        assertEquals(404, status("/folder/AAAAAAAAAAA"));
+    }
+
+    @Test
+    void removedFilesAreNotFound() throws Exception {
+        var movie = new File(library, "Movie.mp4").getAbsoluteFile();
+        catalogService.refresh(library.getAbsoluteFile());
+        var id = Util.pathToId(movie);
+        assertEquals(200, status("/file/" + id));
+
+        var renamed = new File(library, "Movie (2019).mp4");
+        Files.move(movie.toPath(), renamed.toPath());
+        catalogService.refresh(library.getAbsoluteFile());
+
+        assertEquals(404, status("/file/" + id));
+        assertEquals(200, status("/file/" + Util.pathToId(renamed)));
+    }
+
+    @Test
+    void removedDirectoriesAreNotFound() throws Exception {
+        var season = new File(library, "Season 1").getAbsoluteFile();
+        var episode = new File(season, "Episode 1.mp4");
+        catalogService.refresh(season);
+        var episodeId = Util.pathToId(episode);
+        assertEquals(200, status("/file/" + episodeId));
+
+        Files.delete(episode.toPath());
+        Files.delete(season.toPath());
+        catalogService.remove(season);
+
+        assertEquals(404, status("/file/" + episodeId));
+    }
+
+    private int status(String path) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,133 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/folder-api-test/library", "data.dir=target/folder-api-test/data"})
+class FolderApiTest {
+
+    private static final int FOLDERS = 12;
+    private static final int VIDEOS = 250;
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/folder-api-test/library");
+        Files.createDirectories(library.toPath());
+
+        for (int i = 1; i <= FOLDERS; i++) {
+            Files.createDirectories(new File(library, "Season " + i).toPath());
+        }
+        for (int i = 1; i <= VIDEOS; i++) {
+            Files.write(new File(library, "Episode " + i + ".mp4").toPath(), new byte[16]);
+            if (i % 10 == 0) {
+                Files.write(new File(library, "Episode " + i + ".srt").toPath(), new byte[16]);
+            }
+        }
+    }
+
+    @Test
+    void pagesCoverTheWholeFolderInOrder() throws Exception {
+        var names = new ArrayList<String>();
+        String cursor = null;
+        int pages = 0;
+
+        do {
+            var page = getJson("?limit=100" + (cursor == null ? "" : "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8)));
+            page.get("items").forEach(item -> names.add(item.get("name").asText()));
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(FOLDERS + VIDEOS, names.size());
+        assertEquals("Season 1", names.get(0));
+        assertEquals("Season 12", names.get(FOLDERS - 1));
+        assertEquals("Episode 1.mp4", names.get(FOLDERS));
+        assertEquals("Episode 2.mp4", names.get(FOLDERS + 1));
+        assertEquals("Episode " + VIDEOS + ".mp4", names.get(names.size() - 1));
+    }
+
+    @Test
+    void itemsIncludeTheirType() throws Exception {
+        var page = getJson("?limit=" + (FOLDERS + 1));
+        var items = page.get("items");
+
+        assertEquals("folder", items.get(0).get("type").asText());
+        assertEquals("video", items.get(FOLDERS).get("type").asText());
+    }
+
+    @Test
+    void ndjsonStreamsTheWholeFolder() throws Exception {
+        var request = HttpRequest.newBuilder(uri(""))
+                .header("Accept", FolderApiController.APPLICATION_NDJSON_VALUE)
+                .build();
+        var response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith(FolderApiController.APPLICATION_NDJSON_VALUE));
+
+        List<String> lines = response.body().collect(Collectors.toList());
+        assertEquals(FOLDERS + VIDEOS, lines.size());
+        assertEquals("Season 1", objectMapper.readTree(lines.get(0)).get("name").asText());
+    }
+
+    @Test
+    void lastPageHasNoCursor() throws Exception {
+        var page = getJson("?limit=1000");
+
+        assertEquals(FOLDERS + VIDEOS, page.get("items").size());
+        assertNull(page.get("nextCursor").textValue());
+    }
+
+    @Test
+    void invalidCursorIsRejected() throws Exception {
+        var response = client.send(HttpRequest.newBuilder(uri("?cursor=%25%25")).header("Accept", "application/json").build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(400, response.statusCode());
+    }
+
+    private JsonNode getJson(String query) throws Exception {
+        var response = client.send(HttpRequest.newBuilder(uri(query)).header("Accept", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private URI uri(String query) {
+        return URI.create("http://localhost:" + port + "/api/folder/" + Util.pathToId(library.getAbsoluteFile()) + query);
+    }
+}
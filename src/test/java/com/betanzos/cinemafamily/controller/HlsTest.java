@@ -0,0 +1,143 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Uses shell scripts in place of ffmpeg and ffprobe: the video lasts 20.5 seconds and each "segment" contains the
+ * arguments used to transcode it.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/hls-test/library", "data.dir=target/hls-test/data",
+                "hls.ffmpeg=target/hls-test/bin/ffmpeg", "hls.ffprobe=target/hls-test/bin/ffprobe",
+                "hls.segment-seconds=6", "hls.prefetch-segments=2"})
+class HlsTest {
+
+    private static File movie;
+    private static File clip;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        assumeTrue(File.separatorChar == '/', "Fake ffmpeg requires a POSIX shell");
+
+        var library = new File("target/hls-test/library");
+        Files.createDirectories(library.toPath());
+        FileSystemUtils.deleteRecursively(new File("target/hls-test/data"));
+
+        movie = new File(library, "Movie.mkv");
+        clip = new File(library, "Clip.mp4");
+        Files.write(movie.toPath(), new byte[64]);
+        Files.write(clip.toPath(), new byte[64]);
+
+        var bin = new File("target/hls-test/bin");
+        Files.createDirectories(bin.toPath());
+        script(new File(bin, "ffmpeg"), "for arg; do out=$arg; done; echo \"$@\" > \"$out\"");
+        script(new File(bin, "ffprobe"), "echo 20.500000");
+    }
+
+    @Test
+    void playlistCoversTheWholeVideo() throws Exception {
+        var response = get("/hls/" + id(movie) + "/index.m3u8");
+        var lines = response.body().lines().collect(Collectors.toList());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("application/vnd.apple.mpegurl", response.headers().firstValue("Content-Type").orElse(null));
+        assertEquals("#EXTM3U", lines.get(0));
+        assertEquals(4, lines.stream().filter(line -> line.endsWith(".ts")).count());
+        assertTrue(lines.contains("#EXTINF:2.500,"));
+        assertEquals("#EXT-X-ENDLIST", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void segmentsAreTranscodedOnDemandAndPrefetched() throws Exception {
+        var response = get("/hls/" + id(movie) + "/1.ts");
+
+        assertEquals(200, response.statusCode());
+        assertEquals("video/mp2t", response.headers().firstValue("Content-Type").orElse(null));
+        assertTrue(response.body().contains("-ss 6.000"), response.body());
+        assertTrue(response.body().contains("-t 6.000"), response.body());
+
+        var segments = Path.of("target/hls-test/data/hls");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countSegments(segments) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(countSegments(segments) >= 3);
+
+        var last = get("/hls/" + id(movie) + "/3.ts");
+        assertTrue(last.body().contains("-t 2.500"), last.body());
+    }
+
+    @Test
+    void segmentsOutsideTheVideoAreNotFound() throws Exception {
+        assertEquals(404, get("/hls/" + id(movie) + "/4.ts").statusCode());
+    }
+
+    @Test
+    void playerUsesHlsOnlyForUnsupportedFormats() throws Exception {
+        var page = get("/video/" + id(movie)).body();
+        assertTrue(page.contains("data-hls=\"/hls/" + id(movie) + "/index.m3u8\""));
+        // El reproductor nunca se descarga de otro servidor salvo que se configure
+        assertFalse(page.contains("data-hls-player=\"http"));
+        assertFalse(get("/video/" + id(clip)).body().contains("data-hls"));
+    }
+
+    @Test
+    void bundledPlayerIsServed() throws Exception {
+        // Sin el reproductor incluido en la aplicación los videos convertidos no se pueden ver en Chrome o Firefox
+        assertTrue(get("/video/" + id(movie)).body().contains("data-hls-player=\"/js/hls.light.min.js\""));
+
+        var player = get("/js/hls.light.min.js");
+        assertEquals(200, player.statusCode());
+        assertTrue(player.body().contains("Hls"));
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String id(File file) {
+        return Util.pathToId(file.getAbsoluteFile());
+    }
+
+    private static long countSegments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+
+        try (var files = Files.walk(dir)) {
+            return files.filter(path -> path.toString().endsWith(".ts")).count();
+        }
+    }
+
+    private static void script(File file, String body) throws IOException {
+        Files.writeString(file.toPath(), "#!/bin/sh\n[ \"$1\" = \"-version\" ] && exit 0\n" + body + "\n");
+        assertTrue(file.setExecutable(true));
+    }
+}
@@ -0,0 +1,160 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.SubtitleCacheService;
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/http-caching-test/library", "data.dir=target/http-caching-test/data",
+                "library.watch.quiet-period=50"})
+class HttpCachingTest {
+
+    private static final Pattern STYLESHEET = Pattern.compile("/css/style-[0-9a-f]{32}\\.css");
+
+    private static File library;
+    private static File season;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SubtitleCacheService subtitleCacheService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/http-caching-test/library");
+        season = new File(library, "Season 1");
+        Files.createDirectories(season.toPath());
+
+        Files.write(new File(library, "Movie.mp4").toPath(), new byte[16]);
+        Files.write(new File(library, "Movie.srt").toPath(), "1\n00:00:01,000 --> 00:00:02,000\nHola\n".getBytes());
+
+        var extras = new File(library, "Extras");
+        Files.createDirectories(extras.toPath());
+        Files.write(new File(extras, "Trailer.srt").toPath(), "1\n00:00:01,000 --> 00:00:02,000\nHola\n".getBytes());
+    }
+
+    @Test
+    void unchangedListingsAreNotModified() throws Exception {
+        var folder = "/folder/" + id(library);
+        var api = "/api/folder/" + id(library);
+
+        var html = send(folder, "text/html", null);
+        var json = send(api, "application/json", null);
+        var ndjson = send(api, FolderApiController.APPLICATION_NDJSON_VALUE, null);
+
+        var etag = header(json, "ETag");
+        assertTrue(etag.startsWith("W/\""), etag);
+        assertNotEquals(etag, header(ndjson, "ETag"));
+        assertTrue(header(json, "Cache-Control").contains("no-cache"));
+
+        assertEquals(304, send(folder, "text/html", header(html, "ETag")).statusCode());
+        assertEquals(304, send(api, "application/json", etag).statusCode());
+        assertEquals(200, send(api, FolderApiController.APPLICATION_NDJSON_VALUE, etag).statusCode());
+    }
+
+    @Test
+    void changesInASubfolderChangeTheListing() throws Exception {
+        var api = "/api/folder/" + id(library);
+        // La subcarpeta queda indexada al listarla
+        send("/api/folder/" + id(season), "application/json", null);
+        var before = header(send(api, "application/json", null), "ETag");
+
+        Files.write(new File(season, "folder.png").toPath(), new byte[16]);
+
+        // El catálogo se actualiza en segundo plano al detectar el cambio
+        var refreshed = send(api, "application/json", before);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (refreshed.statusCode() == 304 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            refreshed = send(api, "application/json", before);
+        }
+
+        assertEquals(200, refreshed.statusCode());
+        assertNotEquals(before, header(refreshed, "ETag"));
+    }
+
+    @Test
+    void subtitlesAreNotConvertedAgain() throws Exception {
+        var path = "/subtitle/" + id(new File(library, "Movie.srt"));
+        var response = send(path, "*/*", null);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(header(response, "Cache-Control").contains("no-cache"));
+        assertEquals(304, send(path, "*/*", header(response, "ETag")).statusCode());
+    }
+
+    @Test
+    void modifiedSubtitlesGetANewETag() throws Exception {
+        var subtitle = new File(library, "Extras/Trailer.srt");
+        var path = "/subtitle/" + id(subtitle);
+        var etag = header(send(path, "*/*", null), "ETag");
+
+        // 304 sin volver a convertir
+        long conversions = subtitleCacheService.getConversions();
+        assertEquals(304, send(path, "*/*", etag).statusCode());
+        assertEquals(conversions, subtitleCacheService.getConversions());
+
+        Files.write(subtitle.toPath(), "1\n00:00:01,000 --> 00:00:02,000\nAdios\n".getBytes());
+        Files.setLastModifiedTime(subtitle.toPath(), FileTime.fromMillis(subtitle.lastModified() + 10_000));
+
+        var modified = send(path, "*/*", etag);
+        assertEquals(200, modified.statusCode());
+        assertTrue(modified.body().contains("Adios"));
+        assertNotEquals(etag, header(modified, "ETag"));
+        assertEquals(conversions + 1, subtitleCacheService.getConversions());
+    }
+
+    @Test
+    void contentHashedStaticResourcesAreImmutable() throws Exception {
+        var matcher = STYLESHEET.matcher(send("/", "text/html", null).body());
+        assertTrue(matcher.find());
+
+        var versioned = send(matcher.group(), "text/css", null);
+        assertEquals(200, versioned.statusCode());
+        assertTrue(header(versioned, "Cache-Control").contains("immutable"));
+
+        var plain = send("/css/style.css", "text/css", null);
+        assertEquals(200, plain.statusCode());
+        assertFalse(header(plain, "Cache-Control").contains("immutable"));
+    }
+
+    private HttpResponse<String> send(String path, String accept, String ifNoneMatch) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).header("Accept", accept);
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String header(HttpResponse<?> response, String name) {
+        return response.headers().firstValue(name).orElse("");
+    }
+
+    private static String id(File file) {
+        return Util.pathToId(file.getAbsoluteFile());
+    }
+}
@@ -0,0 +1,66 @@
+package com.betanzos.cinemafamily.controller;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/lazy-startup-test/library", "data.dir=target/lazy-startup-test/data",
+                "startup.deferred-init-delay=0"})
+@ActiveProfiles("lazy")
+class LazyStartupTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        var library = new File("target/lazy-startup-test/library");
+        Files.createDirectories(library.toPath());
+        Files.write(new File(library, "Movie.mp4").toPath(), new byte[16]);
+    }
+
+    @Test
+    void libraryIsServed() throws Exception {
+        var response = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("Movie.mp4"));
+    }
+
+    @Test
+    void backgroundServicesAreStartedAfterStartup() throws Exception {
+        var beanFactory = context.getBeanFactory();
+
+        // Nadie los utiliza en las peticiones, por lo que solo los crea la inicialización diferida
+        for (int i = 0; i < 300 && !(beanFactory.containsSingleton("libraryWatcherService")
+                && beanFactory.containsSingleton("libraryMetrics")); i++) {
+            Thread.sleep(100);
+        }
+
+        assertTrue(beanFactory.containsSingleton("libraryWatcherService"));
+        assertTrue(beanFactory.containsSingleton("libraryMetrics"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.autoconfigure.web.server.LocalManagementPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Dos bibliotecas, una de ellas bloqueada: detectar el MIME type de una tubería con nombre se bloquea hasta que
+ * alguien escribe en ella, igual que una unidad de red que deja de responder.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"library.roots=local:target/roots-test/local,nas:target/roots-test/nas",
+                "library.root.nas.listing-timeout=300", "data.dir=target/roots-test/data"})
+class LibraryRootsTest {
+
+    private static File local;
+    private static File nas;
+    private static File pipe;
+
+    @LocalServerPort
+    private int port;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibraries() throws Exception {
+        local = new File("target/roots-test/local").getAbsoluteFile();
+        nas = new File("target/roots-test/nas").getAbsoluteFile();
+        Files.createDirectories(new File(local, "Season 1").toPath());
+        Files.createDirectories(nas.toPath());
+        Files.write(new File(local, "Movie.mp4").toPath(), new byte[16]);
+
+        // Sin la instantánea de una ejecución anterior la biblioteca bloqueada no está indexada
+        Files.deleteIfExists(new File("target/roots-test/data/catalog.idx").toPath());
+
+        pipe = new File(nas, "stalled.bin");
+        Files.deleteIfExists(pipe.toPath());
+        var mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+        assumeTrue(mkfifo.waitFor() == 0, "mkfifo is not available");
+    }
+
+    @AfterAll
+    static void releasePipe() {
+        // Las lecturas bloqueadas terminan en cuanto se abre la tubería para escribir
+        var writer = new Thread(() -> {
+            try (var out = new FileOutputStream(pipe)) {
+                out.flush();
+            } catch (IOException e) {
+                // Nada que liberar
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Test
+    void indexListsEveryRoot() throws Exception {
+        var body = get(port, "/");
+
+        assertTrue(body.contains("/folder/" + Util.pathToId(local)), body);
+        assertTrue(body.contains("/folder/" + Util.pathToId(nas)), body);
+        assertTrue(body.contains(">local<") && body.contains(">nas<"), body);
+    }
+
+    @Test
+    void stalledRootReturnsPartialListing() throws Exception {
+        long start = System.nanoTime();
+        var page = listing(nas);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(page.get("partial").asBoolean());
+        assertEquals(0, page.get("items").size());
+        assertTrue(elapsedMillis < 5000, "Listing took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void otherRootsAreNotAffected() throws Exception {
+        listing(nas);
+
+        var page = listing(local);
+
+        assertFalse(page.get("partial").asBoolean());
+        assertEquals("Season 1", page.get("items").get(0).get("name").asText());
+        assertEquals("Movie.mp4", page.get("items").get(1).get("name").asText());
+    }
+
+    @Test
+    void rootsAreReportedInHealthAndMetrics() throws Exception {
+        listing(nas);
+
+        var health = objectMapper.readTree(get(managementPort, "/actuator/health"));
+        var library = health.get("components").get("library");
+        assertEquals("UP", library.get("status").asText());
+        assertTrue(library.get("details").get("nas").get("listingTimeouts").asLong() >= 1);
+
+        var metrics = get(managementPort, "/actuator/prometheus");
+        assertTrue(metrics.contains("cinemafamily_root_scan_seconds_count{root=\"local\""), metrics);
+        assertTrue(metrics.contains("cinemafamily_root_listing_timeouts_total{root=\"nas\""), metrics);
+    }
+
+    private JsonNode listing(File dir) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/folder/" + Util.pathToId(dir)))
+                .header("Accept", "application/json")
+                .build();
+
+        return objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private String get(int port, String path) throws Exception {
+        var response = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode(), response.body());
+        return response.body();
+    }
+}
@@ -0,0 +1,98 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import com.betanzos.cinemafamily.service.CatalogService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest(properties = {"root.dir=target/watcher-test/library", "data.dir=target/watcher-test/data",
+        "library.watch.quiet-period=100", "library.watch.max-delay=1000"})
+class LibraryWatcherTest {
+
+    private static File season;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        var library = new File("target/watcher-test");
+        if (library.exists()) {
+            try (var paths = Files.walk(library.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        season = new File(library, "library/Season 1").getAbsoluteFile();
+        Files.createDirectories(season.toPath());
+        Files.write(new File(season, "Episode 1.mp4").toPath(), new byte[16]);
+    }
+
+    @Test
+    void createdRenamedAndDeletedFilesReachTheCatalog() throws Exception {
+        // Indexado al arrancar
+        await(season, names -> names.equals(List.of("Episode 1.mp4")));
+
+        var created = new File(season, "Episode 2.mp4").toPath();
+        Files.write(created, new byte[16]);
+        await(season, names -> names.equals(List.of("Episode 1.mp4", "Episode 2.mp4")));
+
+        var renamed = new File(season, "Episode 3.mp4").toPath();
+        Files.move(created, renamed);
+        await(season, names -> names.equals(List.of("Episode 1.mp4", "Episode 3.mp4")));
+
+        Files.delete(renamed);
+        await(season, names -> names.equals(List.of("Episode 1.mp4")));
+
+        // Los directorios nuevos también se vigilan
+        var extras = new File(season, "Extras");
+        Files.createDirectories(extras.toPath());
+        Files.write(new File(extras, "Trailer.mp4").toPath(), new byte[16]);
+        await(extras, names -> names.equals(List.of("Trailer.mp4")));
+
+        Files.delete(new File(extras, "Trailer.mp4").toPath());
+        Files.delete(extras.toPath());
+        for (int i = 0; i < 50 && catalogService.getIndexedDirectory(extras) != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull(catalogService.getIndexedDirectory(extras));
+        assertEquals(List.of("Episode 1.mp4"), names(catalogService.getIndexedDirectory(season)));
+    }
+
+    private void await(File dir, Predicate<List<String>> condition) throws InterruptedException {
+        CatalogDirectory directory = null;
+        for (int i = 0; i < 50; i++) {
+            directory = catalogService.getIndexedDirectory(dir);
+            if (directory != null && condition.test(names(directory))) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+
+        assertNotNull(directory, dir + " is not in the catalog");
+        throw new AssertionError("Unexpected content of " + dir + ": " + names(directory));
+    }
+
+    private static List<String> names(CatalogDirectory directory) {
+        return directory.getEntries().stream()
+                .filter(entry -> !entry.isDirectory())
+                .map(CatalogEntry::getName)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,95 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.SyntheticMedia;
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/metadata-test/library", "data.dir=target/metadata-test/data"})
+class MediaMetadataTest {
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/metadata-test/library");
+        Files.createDirectories(library.toPath());
+
+        Files.write(new File(library, "Movie.mp4").toPath(), SyntheticMedia.mp4(1024 * 1024));
+        Files.write(new File(library, "Broken.mp4").toPath(), new byte[16]);
+    }
+
+    @Test
+    void listingShowsDurationAndResolutionOnceProbed() throws Exception {
+        JsonNode movie = null;
+        for (int i = 0; i < 50; i++) {
+            // La primera consulta programa el análisis en segundo plano
+            movie = find(listing().get("items"), "Movie.mp4");
+            if (!movie.get("details").isNull()) {
+                break;
+            }
+
+            Thread.sleep(100);
+        }
+
+        assertEquals("1:30:00 · 1080p", movie.get("details").asText());
+        assertEquals(5400, movie.get("duration").asLong());
+        assertTrue(find(listing().get("items"), "Broken.mp4").get("details").isNull());
+    }
+
+    @Test
+    void playerAdvertisesTheCodecs() throws Exception {
+        var id = Util.pathToId(new File(library, "Movie.mp4").getAbsoluteFile());
+        var response = client.send(HttpRequest.newBuilder(uri("/video/" + id)).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("type=\"video/mp4; codecs=&quot;avc1.64001F, mp4a.40.2&quot;\""),
+                response.body());
+    }
+
+    private JsonNode listing() throws Exception {
+        var request = HttpRequest.newBuilder(uri("/api/folder/" + Util.pathToId(library.getAbsoluteFile())))
+                .header("Accept", "application/json")
+                .build();
+
+        return objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private static JsonNode find(JsonNode items, String name) {
+        for (var item : items) {
+            if (name.equals(item.get("name").asText())) {
+                return item;
+            }
+        }
+
+        throw new AssertionError(name + " not found");
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
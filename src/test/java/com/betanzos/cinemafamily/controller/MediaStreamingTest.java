@@ -0,0 +1,182 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/streaming-test/library", "data.dir=target/streaming-test/data"})
+class MediaStreamingTest {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int SEEKS = 200;
+    private static final int SEEK_READ_SIZE = 256 * 1024;
+
+    private static File video;
+    private static byte[] content;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createVideo() throws IOException {
+        var dir = new File("target/streaming-test/library");
+        Files.createDirectories(dir.toPath());
+
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+
+        video = new File(dir, "movie.mp4");
+        Files.write(video.toPath(), content);
+    }
+
+    @Test
+    void fullFileIsServedInline() throws Exception {
+        var response = client.send(request().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("bytes", response.headers().firstValue("Accept-Ranges").orElse(null));
+        assertTrue(response.headers().firstValue("Content-Disposition").orElse("").startsWith("inline"));
+        assertArrayEquals(content, response.body());
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws Exception {
+        var response = client.send(request().header("Range", "bytes=1000-1999").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 1000-1999/" + FILE_SIZE, response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), response.body());
+    }
+
+    @Test
+    void suffixRangeReturnsTail() throws Exception {
+        var response = client.send(request().header("Range", "bytes=-500").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(206, response.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 500, FILE_SIZE), response.body());
+    }
+
+    @Test
+    void multipleRangesReturnMultipartByteranges() throws Exception {
+        var response = client.send(request().header("Range", "bytes=0-9,100-109").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(206, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("multipart/byteranges"));
+
+        var body = response.body();
+        assertTrue(indexOf(body, Arrays.copyOfRange(content, 0, 10)) > 0);
+        assertTrue(indexOf(body, Arrays.copyOfRange(content, 100, 110)) > 0);
+        assertEquals(body.length, Long.parseLong(response.headers().firstValue("Content-Length").orElse("-1")));
+    }
+
+    @Test
+    void unsatisfiableRangeReturns416() throws Exception {
+        var response = client.send(request().header("Range", "bytes=" + FILE_SIZE + "-").build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */" + FILE_SIZE, response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void staleIfRangeReturnsWholeFile() throws Exception {
+        var response = client.send(request()
+                        .header("Range", "bytes=0-9")
+                        .header("If-Range", "\"stale\"")
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(200, response.statusCode());
+    }
+
+    @Test
+    void matchingEtagReturnsNotModified() throws Exception {
+        var etag = client.send(request().method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding()).headers().firstValue("ETag").orElseThrow();
+
+        var response = client.send(request().header("If-None-Match", etag).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(304, response.statusCode());
+    }
+
+    @Test
+    void randomSeekThroughput() throws Exception {
+        var random = new Random(7);
+        long bytes = 0L;
+        long firstByteNanos = 0L;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < SEEKS; i++) {
+            int offset = random.nextInt(FILE_SIZE - SEEK_READ_SIZE);
+            long requestStart = System.nanoTime();
+
+            var response = client.send(request()
+                            .header("Range", "bytes=" + offset + "-" + (offset + SEEK_READ_SIZE - 1))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+
+            try (InputStream in = response.body()) {
+                var buffer = new byte[SEEK_READ_SIZE];
+                int read = in.read(buffer);
+                firstByteNanos += System.nanoTime() - requestStart;
+
+                int total = 0;
+                while (read > 0) {
+                    total += read;
+                    read = in.read(buffer, total, buffer.length - total);
+                }
+
+                assertEquals(206, response.statusCode());
+                assertEquals(SEEK_READ_SIZE, total);
+                assertArrayEquals(Arrays.copyOfRange(content, offset, offset + SEEK_READ_SIZE), buffer);
+                bytes += total;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Random seek streaming: %d seeks, %.1f MB/s, avg time-to-first-byte %.2f ms%n",
+                SEEKS, bytes / seconds / (1024 * 1024), firstByteNanos / 1e6 / SEEKS);
+    }
+
+    private HttpRequest.Builder request() {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/file/" + Util.pathToId(video)));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,80 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.autoconfigure.web.server.LocalManagementPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/metrics-test/library", "data.dir=target/metrics-test/data"})
+class MetricsTest {
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/metrics-test/library");
+        Files.createDirectories(library.toPath());
+
+        Files.write(new File(library, "Movie.mp4").toPath(), new byte[4096]);
+        Files.write(new File(library, "Movie.srt").toPath(), "1\n00:00:01,000 --> 00:00:02,000\nHola\n".getBytes());
+    }
+
+    @Test
+    void hotPathsAreExportedInPrometheusFormat() throws Exception {
+        get(port, "/api/folder/" + Util.pathToId(library.getAbsoluteFile()) + "?limit=10");
+        get(port, "/file/" + Util.pathToId(new File(library, "Movie.mp4").getAbsoluteFile()));
+
+        var metrics = get(managementPort, "/actuator/prometheus");
+
+        assertTrue(metrics.contains("cinemafamily_folder_listing_seconds_bucket{operation=\"page\",size=\"0-99\""), metrics);
+        assertTrue(metrics.contains("cinemafamily_stream_bytes_total{mode="));
+        assertTrue(metrics.contains("cinemafamily_stream_active "));
+        assertTrue(metrics.contains("cinemafamily_resource_load_seconds_count{type=\"file\""));
+        assertTrue(metrics.contains("http_server_requests_seconds_bucket"));
+    }
+
+    @Test
+    void metricsAreNotServedOnTheApplicationPort() throws Exception {
+        assertNotEquals(port, managementPort);
+
+        var response = client.send(HttpRequest.newBuilder(uri(port, "/actuator/prometheus")).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(404, response.statusCode());
+    }
+
+    private String get(int port, String path) throws Exception {
+        var response = client.send(HttpRequest.newBuilder(uri(port, path)).build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode(), path);
+        return response.body();
+    }
+
+    private static URI uri(int port, String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
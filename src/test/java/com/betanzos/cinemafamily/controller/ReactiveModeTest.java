@@ -0,0 +1,199 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.ReadAheadService;
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive",
+                "root.dir=target/reactive-test/library", "data.dir=target/reactive-test/data"})
+@ActiveProfiles("reactive")
+class ReactiveModeTest {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private static File library;
+    private static File video;
+    private static byte[] content;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ApplicationContext context;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/reactive-test/library");
+        Files.createDirectories(new File(library, "Season 1").toPath());
+
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+
+        video = new File(library, "Movie.mp4");
+        Files.write(video.toPath(), content);
+        Files.writeString(new File(library, "Movie.srt").toPath(), "1\n00:00:01,000 --> 00:00:02,000\nHola\n");
+
+        var season = new File(library, "Season 1");
+        Files.write(new File(season, "Episode 1.mp4").toPath(), new byte[1024]);
+        Files.write(new File(season, "Episode 2.mp4").toPath(), content);
+    }
+
+    @Test
+    void runsOnWebFlux() {
+        assertTrue(context.containsBean("reactiveMainController"));
+        assertFalse(context.containsBean("mainController"));
+    }
+
+    @Test
+    void folderPageIsRenderedAndRevalidated() throws Exception {
+        var response = client.send(request("/folder/" + Util.pathToId(library.getAbsoluteFile())).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("Movie.mp4"));
+
+        var etag = response.headers().firstValue("ETag").orElseThrow();
+        var revalidated = client.send(request("/folder/" + Util.pathToId(library.getAbsoluteFile()))
+                        .header("If-None-Match", etag)
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(304, revalidated.statusCode());
+        assertEquals("", revalidated.body());
+    }
+
+    @Test
+    void folderApiServesJsonAndNdjson() throws Exception {
+        var path = "/api/folder/" + Util.pathToId(library.getAbsoluteFile());
+
+        var json = client.send(request(path).header("Accept", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, json.statusCode());
+        assertEquals("Season 1", objectMapper.readTree(json.body()).get("items").get(0).get("name").asText());
+
+        var ndjson = client.send(request(path).header("Accept", FolderApiController.APPLICATION_NDJSON_VALUE).build(),
+                HttpResponse.BodyHandlers.ofLines());
+        var lines = ndjson.body().collect(Collectors.toList());
+        assertEquals(200, ndjson.statusCode());
+        assertEquals(2, lines.size());
+        assertEquals("Movie.mp4", objectMapper.readTree(lines.get(1)).get("name").asText());
+    }
+
+    @Test
+    void mediaIsStreamedWithRanges() throws Exception {
+        var full = client.send(request("/file/" + Util.pathToId(video)).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, full.statusCode());
+        assertEquals("bytes", full.headers().firstValue("Accept-Ranges").orElse(null));
+        assertArrayEquals(content, full.body());
+
+        var range = client.send(request("/file/" + Util.pathToId(video)).header("Range", "bytes=1000-1999").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, range.statusCode());
+        assertEquals("bytes 1000-1999/" + FILE_SIZE, range.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), range.body());
+
+        var multipart = client.send(request("/file/" + Util.pathToId(video)).header("Range", "bytes=0-9,-10").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, multipart.statusCode());
+        assertTrue(multipart.headers().firstValue("Content-Type").orElse("").startsWith("multipart/byteranges"));
+        assertEquals(multipart.body().length, Long.parseLong(multipart.headers().firstValue("Content-Length").orElse("-1")));
+
+        var etag = full.headers().firstValue("ETag").orElseThrow();
+        var notModified = client.send(request("/file/" + Util.pathToId(video)).header("If-None-Match", etag).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(304, notModified.statusCode());
+    }
+
+    @Test
+    void nextEpisodeIsReadAhead() throws Exception {
+        var season = new File(library, "Season 1").getAbsoluteFile();
+        client.send(request("/folder/" + Util.pathToId(season)).build(), HttpResponse.BodyHandlers.discarding());
+        client.send(request("/file/" + Util.pathToId(new File(season, "Episode 1.mp4"))).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        var readAhead = context.getBean(ReadAheadService.class);
+        for (int i = 0; i < 50 && readAhead.getPrefetches() == 0; i++) {
+            Thread.sleep(100);
+        }
+
+        long hits = readAhead.getHits();
+        var range = client.send(request("/file/" + Util.pathToId(new File(season, "Episode 2.mp4")))
+                        .header("Range", "bytes=1000-").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(206, range.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, FILE_SIZE), range.body());
+        assertEquals(hits + 1, readAhead.getHits());
+    }
+
+    @Test
+    void subtitlesAreConverted() throws Exception {
+        var response = client.send(request("/subtitle/" + Util.pathToId(new File(library, "Movie.srt"))).build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("WEBVTT"));
+    }
+
+    @Test
+    void progressIsSavedAndResumed() throws Exception {
+        var id = Util.pathToId(video.getAbsoluteFile());
+        var saved = client.send(request("/api/progress/" + id)
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"position\": 42, \"duration\": 3600}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, saved.statusCode());
+
+        var page = client.send(request("/video/" + id).build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(page.body().contains("data-start=\"42.0\""), page.body());
+
+        var invalid = client.send(request("/api/progress/" + id)
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"position\": -1, \"duration\": 3600}"))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(400, invalid.statusCode());
+    }
+
+    @Test
+    void unknownFilesAreNotFound() throws Exception {
+        var response = client.send(request("/file/" + Util.pathToId(new File(library, "Missing.mp4"))).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(404, response.statusCode());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+}
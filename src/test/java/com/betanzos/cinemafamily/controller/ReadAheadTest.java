@@ -0,0 +1,178 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.ReadAheadService;
+import com.betanzos.cinemafamily.utils.SyntheticMedia;
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/readahead-test/library", "data.dir=target/readahead-test/data",
+                "readahead.head-bytes=65536"})
+class ReadAheadTest {
+
+    private static File season;
+    private static File season2;
+    private static byte[] episode2;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ReadAheadService readAheadService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        var library = new File("target/readahead-test");
+        if (library.exists()) {
+            // La caché de una ejecución anterior haría innecesaria la lectura anticipada
+            try (var paths = Files.walk(library.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        season = new File(library, "library/Season 1");
+        Files.createDirectories(season.toPath());
+
+        var episode1 = new byte[1024 * 1024];
+        new Random(42).nextBytes(episode1);
+        episode2 = SyntheticMedia.mp4(1024 * 1024);
+
+        Files.write(new File(season, "Episode 1.mp4").toPath(), episode1);
+        Files.write(new File(season, "Episode 2.mp4").toPath(), episode2);
+        Files.writeString(new File(season, "Episode 2.srt").toPath(), "1\n00:00:01,000 --> 00:00:02,000\nHola\n");
+        Files.write(new File(season, "Episode 10.mp4").toPath(), new byte[16]);
+
+        season2 = new File(library, "library/Season 2");
+        Files.createDirectories(season2.toPath());
+        Files.write(new File(season2, "Episode 1.mp4").toPath(), new byte[16]);
+        Files.write(new File(season2, "Episode 2.mp4").toPath(), SyntheticMedia.mp4(256 * 1024));
+    }
+
+    @Test
+    void nextEpisodeIsServedFromTheReadAheadCache() throws Exception {
+        // La carpeta debe estar en el catálogo
+        client.send(request("/folder/" + Util.pathToId(season.getAbsoluteFile())).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        long prefetches = readAheadService.getPrefetches();
+        long prefetched = readAheadService.getPrefetchedBytes();
+        long subtitles = readAheadService.getSubtitleConversions();
+
+        var first = client.send(request("/file/" + id("Episode 1.mp4")).header("Range", "bytes=0-1023").build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(206, first.statusCode());
+
+        for (int i = 0; i < 50 && readAheadService.getPrefetches() == prefetches; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(prefetches + 1, readAheadService.getPrefetches());
+        assertEquals(subtitles + 1, readAheadService.getSubtitleConversions());
+
+        // Principio y caja moov (al final del archivo)
+        long moovSize = episode2.length - (24 + 8 + 1024 * 1024);
+        assertEquals(prefetched + 65536 + moovSize, readAheadService.getPrefetchedBytes());
+
+        long hits = readAheadService.getHits();
+        long used = readAheadService.getUsedBytes();
+
+        var full = client.send(request("/file/" + id("Episode 2.mp4")).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, full.statusCode());
+        assertArrayEquals(episode2, full.body());
+
+        var tail = client.send(request("/file/" + id("Episode 2.mp4")).header("Range", "bytes=-100").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, tail.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(episode2, episode2.length - 100, episode2.length), tail.body());
+
+        assertEquals(hits + 2, readAheadService.getHits());
+        assertEquals(used + 65536 + 100, readAheadService.getUsedBytes());
+    }
+
+    @Test
+    void modifiedVideosAreNotServedFromTheCache() throws Exception {
+        client.send(request("/folder/" + Util.pathToId(season.getAbsoluteFile())).build(),
+                HttpResponse.BodyHandlers.discarding());
+        client.send(request("/file/" + id("Episode 2.mp4")).header("Range", "bytes=0-1023").build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        // Episode 10 va después de Episode 2
+        var cached = new File("target/readahead-test/data/readahead", id("Episode 10.mp4"));
+        for (int i = 0; i < 50 && !cached.isDirectory(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(cached.isDirectory());
+
+        var changed = new byte[16];
+        Arrays.fill(changed, (byte) 7);
+        var file = new File(season, "Episode 10.mp4").toPath();
+        Files.write(file, changed);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        var response = client.send(request("/file/" + id("Episode 10.mp4")).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertArrayEquals(changed, response.body());
+    }
+
+    @Test
+    void cachedPartsAreFoundAfterARestart() throws Exception {
+        client.send(request("/folder/" + Util.pathToId(season2.getAbsoluteFile())).build(),
+                HttpResponse.BodyHandlers.discarding());
+        client.send(request("/file/" + Util.pathToId(new File(season2, "Episode 1.mp4").getAbsoluteFile())).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        var video = new File(season2, "Episode 2.mp4").getAbsoluteFile();
+        for (int i = 0; i < 50 && !isCached(video); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(isCached(video));
+
+        // Al reiniciar solo queda lo que hay en el directorio de la caché
+        readAheadService.stop();
+        readAheadService.start();
+
+        assertTrue(isCached(video));
+        // La caja moov está al final del archivo
+        try (var segment = readAheadService.find(video, video.length(), video.lastModified(), video.length() - 1)) {
+            assertNotNull(segment);
+            assertEquals(video.length(), segment.getEnd());
+        }
+    }
+
+    private boolean isCached(File video) throws IOException {
+        try (var segment = readAheadService.find(video, video.length(), video.lastModified(), 0L)) {
+            return segment != null;
+        }
+    }
+
+    private static String id(String name) {
+        return Util.pathToId(new File(season, name).getAbsoluteFile());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+}
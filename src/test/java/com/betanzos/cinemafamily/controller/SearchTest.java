@@ -0,0 +1,98 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.service.CatalogService;
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/search-test/library", "data.dir=target/search-test/data"})
+class SearchTest {
+
+    private static File library;
+    private static File season;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/search-test/library");
+        season = new File(library, "Los Ninos/Temporada 1");
+        Files.createDirectories(season.toPath());
+
+        Files.write(new File(season, "Los Ninos S01E01.mp4").toPath(), new byte[16]);
+        Files.write(new File(season, "Los Ninos S01E02.mp4").toPath(), new byte[16]);
+        Files.write(new File(season, "Los Ninos S01E02.srt").toPath(), new byte[16]);
+    }
+
+    @Test
+    void findsVideosAnywhereInTheLibrary() throws Exception {
+        catalogService.indexLibrary();
+
+        var results = search("ninos e2");
+        assertEquals(1, results.size());
+        assertEquals("Los Ninos S01E02.mp4", results.get(0).get("name").asText());
+        assertEquals("video", results.get(0).get("type").asText());
+        assertEquals("Los Ninos" + File.separator + "Temporada 1", results.get(0).get("location").asText());
+        assertEquals(Util.pathToId(new File(season, "Los Ninos S01E02.mp4").getAbsoluteFile()),
+                results.get(0).get("id").asText());
+
+        assertEquals("folder", search("tempo").get(0).get("type").asText());
+    }
+
+    @Test
+    void newFilesAreSearchableAfterRefresh() throws Exception {
+        Files.write(new File(season, "Los Ninos S01E03.mp4").toPath(), new byte[16]);
+        catalogService.refresh(season.getAbsoluteFile());
+
+        assertEquals(1, search("s01e03").size());
+    }
+
+    @Test
+    void htmlView() throws Exception {
+        catalogService.indexLibrary();
+
+        var response = client.send(HttpRequest.newBuilder(uri("niños")).build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("Los Ninos S01E01.mp4"));
+    }
+
+    private JsonNode search(String query) throws Exception {
+        var response = client.send(HttpRequest.newBuilder(uri(query)).header("Accept", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private URI uri(String query) {
+        return URI.create("http://localhost:" + port + "/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+    }
+}
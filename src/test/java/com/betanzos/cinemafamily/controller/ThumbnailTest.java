@@ -0,0 +1,131 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/thumbnail-test/library", "data.dir=target/thumbnail-test/data"})
+class ThumbnailTest {
+
+    private static File library;
+    private static File season;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/thumbnail-test/library");
+        season = new File(library, "Season 1");
+        Files.createDirectories(season.toPath());
+
+        Files.write(new File(library, "Movie.mp4").toPath(), new byte[16]);
+        Files.write(new File(library, "Other.mp4").toPath(), new byte[16]);
+        ImageIO.write(image(2000, 3000, BufferedImage.TYPE_INT_RGB), "jpg", new File(library, "Movie.jpg"));
+        ImageIO.write(image(1600, 900, BufferedImage.TYPE_INT_ARGB), "png", new File(season, "folder.png"));
+    }
+
+    @Test
+    void videoPosterIsDownscaled() throws Exception {
+        var items = listing(library).get("items");
+        var movie = find(items, "Movie.mp4");
+
+        assertNotNull(movie.get("thumbnail").textValue());
+        assertTrue(find(items, "Other.mp4").get("thumbnail").isNull());
+
+        var response = client.send(HttpRequest.newBuilder(uri("/thumb/" + movie.get("thumbnail").textValue())).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("image/jpeg", response.headers().firstValue("Content-Type").orElse(null));
+        assertTrue(response.headers().firstValue("Cache-Control").orElse("").contains("immutable"));
+
+        var thumbnail = ImageIO.read(new ByteArrayInputStream(response.body()));
+        assertEquals(200, thumbnail.getHeight());
+        assertEquals(133, thumbnail.getWidth());
+    }
+
+    @Test
+    void folderPosterComesFromInside() throws Exception {
+        // La carpeta debe estar indexada para que se busque su póster
+        listing(season);
+
+        var folder = find(listing(library).get("items"), "Season 1");
+        var key = folder.get("thumbnail").textValue();
+        assertNotNull(key);
+
+        var response = client.send(HttpRequest.newBuilder(uri("/thumb/" + key)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        var thumbnail = ImageIO.read(new ByteArrayInputStream(response.body()));
+
+        assertEquals(200, response.statusCode());
+        assertTrue(thumbnail.getWidth() <= 440 && thumbnail.getHeight() <= 200);
+    }
+
+    @Test
+    void unknownKeysAreNotFound() throws Exception {
+        for (var key : new String[] {"nope", "..secret", "AAAAAAAAAAA.10.10"}) {
+            var response = client.send(HttpRequest.newBuilder(uri("/thumb/" + key)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+
+            assertEquals(404, response.statusCode(), key);
+        }
+    }
+
+    private JsonNode listing(File dir) throws Exception {
+        var request = HttpRequest.newBuilder(uri("/api/folder/" + Util.pathToId(dir.getAbsoluteFile())))
+                .header("Accept", "application/json")
+                .build();
+
+        return objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private static JsonNode find(JsonNode items, String name) {
+        for (var item : items) {
+            if (name.equals(item.get("name").asText())) {
+                return item;
+            }
+        }
+
+        throw new AssertionError(name + " not found");
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        var image = new BufferedImage(width, height, type);
+        var graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, width / 2, height / 2);
+        graphics.dispose();
+
+        return image;
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
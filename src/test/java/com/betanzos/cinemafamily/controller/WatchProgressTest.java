@@ -0,0 +1,137 @@
+package com.betanzos.cinemafamily.controller;
+
+import com.betanzos.cinemafamily.utils.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"root.dir=target/progress-test/library", "data.dir=target/progress-test/data"})
+class WatchProgressTest {
+
+    private static File library;
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        library = new File("target/progress-test/library");
+        Files.createDirectories(library.toPath());
+
+        for (var name : new String[] {"Episode 1.mp4", "Episode 2.mp4", "Episode 3.mp4"}) {
+            Files.write(new File(library, name).toPath(), new byte[16]);
+        }
+
+        // El progreso de una ejecución anterior haría que el listado no cambiara
+        Files.deleteIfExists(Path.of("target/progress-test/data/progress.log"));
+    }
+
+    @Test
+    void videoResumesFromTheSavedPosition() throws Exception {
+        var id = videoId("Episode 1.mp4");
+
+        var saved = objectMapper.readTree(put(id, "{\"position\": 600.5, \"duration\": 2400}").body());
+        assertEquals(600.5, saved.get("position").asDouble());
+        assertFalse(saved.get("watched").asBoolean());
+
+        var progress = client.send(HttpRequest.newBuilder(uri("/api/progress/" + id)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, progress.statusCode());
+        assertEquals(600.5, objectMapper.readTree(progress.body()).get("position").asDouble());
+
+        var page = client.send(HttpRequest.newBuilder(uri("/video/" + id)).build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(page.body().contains("/file/" + id + "#t=600.5"), page.body());
+        assertTrue(page.body().contains("data-start=\"600.5\""));
+    }
+
+    @Test
+    void folderCardsShowProgress() throws Exception {
+        var started = videoId("Episode 2.mp4");
+        var watched = videoId("Episode 3.mp4");
+        var html = uri("/folder/" + Util.pathToId(library.getAbsoluteFile()));
+        var etag = client.send(HttpRequest.newBuilder(html).build(), HttpResponse.BodyHandlers.discarding())
+                .headers().firstValue("ETag").orElseThrow();
+
+        put(started, "{\"position\": 1300, \"duration\": 2400}");
+        put(watched, "{\"position\": 2350, \"duration\": 2400}");
+
+        var items = listing().get("items");
+        assertEquals(50, find(items, "Episode 2.mp4").get("progress").asInt());
+        assertFalse(find(items, "Episode 2.mp4").get("watched").asBoolean());
+        assertTrue(find(items, "Episode 3.mp4").get("watched").asBoolean());
+
+        // El listado ha cambiado, por lo que no puede responderse 304
+        var page = client.send(HttpRequest.newBuilder(html).header("If-None-Match", etag).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, page.statusCode());
+        assertNotEquals(etag, page.headers().firstValue("ETag").orElseThrow());
+        assertTrue(page.body().contains("Watched"));
+
+        // Un video visto empieza desde el principio
+        var video = client.send(HttpRequest.newBuilder(uri("/video/" + watched)).build(), HttpResponse.BodyHandlers.ofString());
+        assertFalse(video.body().contains("#t="));
+    }
+
+    @Test
+    void invalidReportsAreRejected() throws Exception {
+        assertEquals(400, put(videoId("Episode 1.mp4"), "{\"position\": -5, \"duration\": 100}").statusCode());
+        assertEquals(404, put("AAAAAAAAAAA", "{\"position\": 5, \"duration\": 100}").statusCode());
+    }
+
+    private String videoId(String name) {
+        return Util.pathToId(new File(library, name).getAbsoluteFile());
+    }
+
+    private HttpResponse<String> put(String videoId, String json) throws Exception {
+        var request = HttpRequest.newBuilder(uri("/api/progress/" + videoId))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private JsonNode listing() throws Exception {
+        var request = HttpRequest.newBuilder(uri("/api/folder/" + Util.pathToId(library.getAbsoluteFile())))
+                .header("Accept", "application/json")
+                .build();
+
+        return objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private static JsonNode find(JsonNode items, String name) {
+        for (var item : items) {
+            if (name.equals(item.get("name").asText())) {
+                return item;
+            }
+        }
+
+        throw new AssertionError(name + " not found");
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,68 @@
+package com.betanzos.cinemafamily.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogDirectoryTest {
+
+    private final CatalogDirectory directory = new CatalogDirectory("/lib", 0L, List.of(
+            file("Movie.mp4"),
+            file("Movie.srt"),
+            file("Movie.en.srt"),
+            file("movie.SPA.forced.ass"),
+            file("Movie.pt-BR.sdh.vtt"),
+            file("Movie.hi.srt"),
+            file("Movie.en.hi.srt"),
+            file("Movie.Extended.srt"),
+            file("Movie 2.mp4"),
+            file("Movie 2.sub"),
+            file("Other.sub"),
+            file("Other.idx"),
+            file("README")));
+
+    @Test
+    void findsSidecarsWithLanguageTags() {
+        var subtitles = directory.findSubtitles("Movie.mp4");
+
+        assertEquals(List.of("Movie.srt", "Movie.en.srt", "movie.SPA.forced.ass", "Movie.pt-BR.sdh.vtt",
+                "Movie.hi.srt", "Movie.en.hi.srt"), names(subtitles));
+
+        assertNull(subtitles.get(0).getLanguage());
+        assertEquals("en", subtitles.get(1).getLanguage());
+
+        assertEquals("es", subtitles.get(2).getLanguage());
+        assertTrue(subtitles.get(2).isForced());
+
+        assertEquals("pt-BR", subtitles.get(3).getLanguage());
+        assertTrue(subtitles.get(3).isHearingImpaired());
+
+        assertEquals("hi", subtitles.get(4).getLanguage());
+        assertFalse(subtitles.get(4).isHearingImpaired());
+
+        assertEquals("en", subtitles.get(5).getLanguage());
+        assertTrue(subtitles.get(5).isHearingImpaired());
+    }
+
+    @Test
+    void namesOnlyMatchWholeTags() {
+        assertEquals(List.of("Movie 2.sub"), names(directory.findSubtitles("Movie 2.mp4")));
+        assertEquals(List.of("Movie.Extended.srt"), names(directory.findSubtitles("Movie.Extended.mkv")));
+        assertEquals(List.of(), names(directory.findSubtitles("Other.mp4")));
+        assertEquals(List.of(), names(directory.findSubtitles("README")));
+    }
+
+    private static List<String> names(List<SubtitleSidecar> subtitles) {
+        return subtitles.stream().map(sidecar -> sidecar.getEntry().getName()).collect(Collectors.toList());
+    }
+
+    private static CatalogEntry file(String name) {
+        return new CatalogEntry(name, false, 1L, 0L, null);
+    }
+}
@@ -0,0 +1,181 @@
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotIsReloadedWithTheSameContent() {
+        var path = dir.resolve("Movies").toString();
+        var saved = service();
+        put(saved, new CatalogDirectory(path, 1234L, List.of(
+                new CatalogEntry("Extras", true, 0L, 10L, null),
+                new CatalogEntry("Movie.mkv", false, 5000L, 20L, "video/x-matroska"),
+                new CatalogEntry("Movie.en.srt", false, 300L, 30L, null))));
+        saved.saveSnapshot();
+
+        var loaded = service();
+        loaded.loadSnapshot();
+
+        var directory = loaded.getIndexedDirectory(new File(path));
+        assertNotNull(directory);
+        assertEquals(1234L, directory.getLastModified());
+        assertEquals(3, directory.getEntries().size());
+
+        var movie = directory.getEntries().get(1);
+        assertEquals("Movie.mkv", movie.getName());
+        assertEquals(5000L, movie.getSize());
+        assertEquals(20L, movie.getLastModified());
+        assertEquals("video/x-matroska", movie.getMimeType());
+
+        assertTrue(directory.getEntries().get(0).isDirectory());
+        assertEquals("Movie.en.srt", directory.getEntries().get(2).getName());
+        assertNull(directory.getEntries().get(2).getMimeType());
+    }
+
+    @Test
+    void snapshotWithAnotherVersionIsIgnored() throws IOException {
+        try (var out = new DataOutputStream(Files.newOutputStream(snapshot()))) {
+            out.writeInt(0x43464331);
+            out.writeInt(2);
+            out.writeInt(1);
+            out.writeUTF(dir.resolve("Movies").toString());
+        }
+
+        var service = service();
+        service.loadSnapshot();
+
+        assertTrue(service.getDirectoryPaths().isEmpty());
+    }
+
+    @Test
+    void corruptSnapshotIsDiscarded() throws IOException {
+        // Dos directorios anunciados, pero el archivo termina a mitad del primero
+        try (var out = new DataOutputStream(Files.newOutputStream(snapshot()))) {
+            out.writeInt(0x43464331);
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeUTF(dir.resolve("Movies").toString());
+            out.writeLong(1234L);
+            out.writeInt(5);
+        }
+
+        var service = service();
+        service.loadSnapshot();
+
+        assertTrue(service.getDirectoryPaths().isEmpty());
+    }
+
+    @Test
+    void concurrentRefreshesAndSavesLeaveAReadableSnapshot() throws Exception {
+        // Cada escaneo devuelve un número de entradas distinto, de forma que el catálogo cambia continuamente
+        var scans = new AtomicInteger();
+        var scanner = new DirectoryScanService(null, null) {
+            @Override
+            public CatalogDirectory scan(File dir, CatalogDirectory previous) {
+                var entries = new ArrayList<CatalogEntry>();
+                for (int i = scans.incrementAndGet() % 500; i >= 0; i--) {
+                    entries.add(new CatalogEntry("Episode " + i + ".mp4", false, i, i, "video/mp4"));
+                }
+                return new CatalogDirectory(dir.getAbsolutePath(), scans.get(), entries);
+            }
+        };
+        var service = service(scanner);
+        service.refresh(dir.resolve("Season 0-0").toFile());
+        service.saveSnapshot();
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var tasks = new ArrayList<Future<?>>();
+            for (int t = 0; t < 2; t++) {
+                int thread = t;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        service.refresh(dir.resolve("Season " + thread + "-" + i % 10).toFile());
+                    }
+                }));
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        service.saveSnapshot();
+
+                        // Cualquier instantánea que llegue a su sitio debe poder leerse
+                        var loaded = service(null);
+                        loaded.loadSnapshot();
+                        assertFalse(loaded.getDirectoryPaths().isEmpty());
+                    }
+                }));
+            }
+            for (var task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        service.saveSnapshot();
+
+        var loaded = service(null);
+        loaded.loadSnapshot();
+
+        assertEquals(20, loaded.getDirectoryPaths().size());
+        for (var path : service.getDirectoryPaths()) {
+            var expected = service.getIndexedDirectory(new File(path));
+            var actual = loaded.getIndexedDirectory(new File(path));
+            assertEquals(expected.getLastModified(), actual.getLastModified());
+            assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        }
+
+        // No quedan archivos temporales
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of("catalog.idx"), files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("catalog")).collect(Collectors.toList()));
+        }
+    }
+
+    private CatalogService service() {
+        return service(null);
+    }
+
+    private CatalogService service(DirectoryScanService scanner) {
+        var service = new CatalogService(scanner, null);
+        ReflectionTestUtils.setField(service, "snapshotFile", snapshot().toString());
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(CatalogService service, CatalogDirectory directory) {
+        var directories = (Map<String, CatalogDirectory>) ReflectionTestUtils.getField(service, "directories");
+        directories.put(directory.getPath(), directory);
+        ((AtomicBoolean) ReflectionTestUtils.getField(service, "dirty")).set(true);
+    }
+
+    private Path snapshot() {
+        return dir.resolve("catalog.idx");
+    }
+}
@@ -0,0 +1,75 @@
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {"root.dir=target/scan-test/library", "data.dir=target/scan-test/data",
+        "library.watch.enabled=false", "scan.parallel-threshold=8"})
+class DirectoryScanServiceTest {
+
+    private static final int FOLDERS = 12;
+    private static final int VIDEOS = 300;
+
+    private static File season;
+    private static List<String> expected;
+
+    @Autowired
+    private DirectoryScanService directoryScanService;
+
+    @BeforeAll
+    static void createLibrary() throws IOException {
+        season = new File("target/scan-test/library/Season 1").getAbsoluteFile();
+        Files.createDirectories(season.toPath());
+
+        expected = new ArrayList<>();
+        for (int i = 1; i <= FOLDERS; i++) {
+            Files.createDirectories(new File(season, "Disc " + i).toPath());
+            expected.add("Disc " + i);
+        }
+        // Nombres que se ordenarían mal como texto (Episode 10 antes de Episode 2)
+        for (int i = 1; i <= VIDEOS; i++) {
+            Files.write(new File(season, "Episode " + i + ".mp4").toPath(), new byte[16]);
+            expected.add("Episode " + i + ".mp4");
+        }
+    }
+
+    @Test
+    void parallelScanListsFoldersFirstInNaturalOrder() {
+        var directory = directoryScanService.scan(season, null);
+
+        assertEquals(expected, names(directory.getEntries()));
+        assertTrue(directory.getEntries().subList(0, FOLDERS).stream().allMatch(CatalogEntry::isDirectory));
+        assertEquals("video/mp4", directory.getEntries().get(FOLDERS).getMimeType());
+    }
+
+    @Test
+    void interruptedScanStillReturnsTheWholeDirectory() {
+        Thread.currentThread().interrupt();
+        try {
+            var directory = directoryScanService.scan(season, null);
+
+            assertEquals(expected, names(directory.getEntries()));
+            // La interrupción se conserva para quien invocó el escaneo
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static List<String> names(List<CatalogEntry> entries) {
+        return entries.stream().map(CatalogEntry::getName).collect(Collectors.toList());
+    }
+}
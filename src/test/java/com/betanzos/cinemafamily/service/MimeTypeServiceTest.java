@@ -0,0 +1,99 @@
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MimeTypeServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void knownExtensionsAreResolvedWithoutOpeningTheFile() {
+        var service = service(10);
+
+        // El archivo no existe: solo se consulta la extensión
+        var file = dir.resolve("Movie.MKV").toFile();
+        assertEquals(Optional.of("video/x-matroska"), service.detectMimeType(file));
+
+        assertEquals(1, service.getFastPathHits());
+        assertEquals(0, service.getCacheMisses());
+        assertEquals(0, service.getCacheSize());
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        var service = service(2);
+        var a = file("a.bin");
+        var b = file("b.bin");
+        var c = file("c.bin");
+
+        assertTrue(service.detectMimeType(a).isPresent());
+        service.detectMimeType(b);
+        service.detectMimeType(a);
+        assertEquals(1, service.getCacheHits());
+
+        // b es el usado hace más tiempo
+        service.detectMimeType(c);
+        assertEquals(1, service.getEvictions());
+        assertEquals(2, service.getCacheSize());
+
+        service.detectMimeType(a);
+        assertEquals(2, service.getCacheHits());
+        service.detectMimeType(b);
+        assertEquals(2, service.getCacheHits());
+        assertEquals(4, service.getCacheMisses());
+    }
+
+    @Test
+    void modifiedFilesAreDetectedAgain() throws IOException {
+        var service = service(10);
+        var file = file("a.bin");
+
+        service.detectMimeType(file, 16, 1000L);
+        service.detectMimeType(file, 16, 1000L);
+        assertEquals(1, service.getCacheHits());
+
+        service.detectMimeType(file, 32, 1000L);
+        service.detectMimeType(file, 32, 2000L);
+        assertEquals(1, service.getCacheHits());
+        assertEquals(3, service.getCacheMisses());
+    }
+
+    @Test
+    void equivalentPathsShareTheCacheEntry() throws IOException {
+        var service = service(10);
+        var file = file("a.bin");
+
+        service.detectMimeType(file, 16, 1000L);
+        service.detectMimeType(new File(dir.toFile(), "./sub/../a.bin"), 16, 1000L);
+
+        assertEquals(1, service.getCacheHits());
+        assertEquals(1, service.getCacheSize());
+    }
+
+    private File file(String name) throws IOException {
+        return Files.write(dir.resolve(name), new byte[16]).toFile();
+    }
+
+    private static MimeTypeService service(int maxEntries) {
+        var service = new MimeTypeService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(service, "extensionFastPath", true);
+        ReflectionTestUtils.setField(service, "extensionMappings", List.of("mkv:video/x-matroska", "mp4:video/mp4"));
+        service.init();
+        return service;
+    }
+}
@@ -0,0 +1,103 @@
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.domain.CatalogDirectory;
+import com.betanzos.cinemafamily.domain.CatalogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    private final SearchIndex index = new SearchIndex();
+
+    @Test
+    void tokensAreFoldedAndNumbersNormalized() {
+        assertEquals(List.of("el", "nino", "y", "la", "cancion", "7"), SearchIndex.tokenize("El Niño y la CANCIÓN 007"));
+    }
+
+    @Test
+    void seasonAndEpisodeTokens() {
+        assertTrue(SearchIndex.tokenize("Show S01E02").containsAll(List.of("s1", "e2", "1", "2")));
+        assertTrue(SearchIndex.tokenize("Show 3x07").containsAll(List.of("s3", "e7")));
+        assertTrue(SearchIndex.tokenize("Temporada 2").contains("s2"));
+        assertTrue(SearchIndex.tokenize("Capítulo 10").contains("e10"));
+        assertTrue(!SearchIndex.tokenize("Movies 2").contains("s2"));
+    }
+
+    @Test
+    void allWordsMustMatchAndLastOneMayBeIncomplete() {
+        index.update(directory("/lib/Show", folder("Season 1"), video("Show S01E02.mp4"), video("Show S02E02.mp4"),
+                video("Another S01E02.mkv"), file("Show S01E02.srt")));
+
+        assertEquals(List.of("Show S01E02.mp4"), names(index.search("show s01e02", 10)));
+        assertEquals(List.of("Show S01E02.mp4", "Show S02E02.mp4"), names(index.search("sho", 10)));
+        assertEquals(List.of("Show S01E02.mp4", "Another S01E02.mkv"), names(index.search("e2 s1", 10)));
+        assertEquals(List.of(), names(index.search("show mkv", 10)));
+        assertEquals(List.of(), names(index.search("nothing", 10)));
+    }
+
+    @Test
+    void rankingPrefersCompleteWordsFoldersAndShortNames() {
+        index.update(directory("/lib", video("Cars.mp4"), video("Cars 2 Extended Edition.mp4"),
+                video("Oscars Night.mp4"), video("Carsten.mp4"), folder("Cars")));
+
+        assertEquals(List.of("Cars", "Cars.mp4", "Cars 2 Extended Edition.mp4", "Carsten.mp4"),
+                names(index.search("cars", 10)));
+        assertEquals(List.of("Cars", "Cars.mp4"), names(index.search("cars", 2)));
+    }
+
+    @Test
+    void updatesAreIncremental() {
+        index.update(directory("/lib/a", video("Alpha.mp4"), video("Beta.mp4")));
+        index.update(directory("/lib/b", video("Alpha 2.mp4")));
+        assertEquals(3, index.size());
+
+        index.update(directory("/lib/a", video("Beta.mp4"), video("Gamma.mp4")));
+        assertEquals(List.of("Alpha 2.mp4"), names(index.search("alpha", 10)));
+        assertEquals(List.of("Gamma.mp4"), names(index.search("gamma", 10)));
+
+        index.remove("/lib/b");
+        assertEquals(List.of(), names(index.search("alpha", 10)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void deletedDocumentsAreCompacted() {
+        for (int round = 0; round < 5; round++) {
+            var entries = new ArrayList<CatalogEntry>();
+            for (int i = 0; i < 1000; i++) {
+                entries.add(video("Episode " + i + " round " + round + ".mp4"));
+            }
+            index.update(directory("/lib", entries.toArray(new CatalogEntry[0])));
+        }
+
+        assertEquals(1000, index.size());
+        assertEquals(List.of("Episode 999 round 4.mp4"), names(index.search("episode 999", 10)));
+        assertTrue(index.termCount() < 2010, "dead terms were not removed: " + index.termCount());
+    }
+
+    private static List<String> names(List<SearchIndex.Hit> hits) {
+        return hits.stream().map(SearchIndex.Hit::getName).collect(Collectors.toList());
+    }
+
+    private static CatalogDirectory directory(String path, CatalogEntry... entries) {
+        return new CatalogDirectory(path, 0L, List.of(entries));
+    }
+
+    private static CatalogEntry folder(String name) {
+        return new CatalogEntry(name, true, 0L, 0L, null);
+    }
+
+    private static CatalogEntry video(String name) {
+        return new CatalogEntry(name, false, 1L, 0L, "video/mp4");
+    }
+
+    private static CatalogEntry file(String name) {
+        return new CatalogEntry(name, false, 1L, 0L, "text/plain");
+    }
+}
@@ -0,0 +1,89 @@
+package com.betanzos.cinemafamily.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void leastRecentlyUsedFilesAreEvictedByTotalSize() throws IOException {
+        var cache = new SegmentCache(dir, 300);
+        cache.load();
+
+        put(cache, "a/0.ts", 100);
+        put(cache, "a/1.ts", 100);
+        put(cache, "b/0.ts", 100);
+        assertTrue(isCached(cache, "a/0.ts"));
+
+        put(cache, "b/1.ts", 100);
+
+        assertFalse(isCached(cache, "a/1.ts"));
+        assertFalse(Files.exists(dir.resolve("a/1.ts")));
+        assertTrue(isCached(cache, "a/0.ts"));
+        assertEquals(300, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void existingFilesAreLoadedAndTemporaryFilesRemoved() throws IOException {
+        Files.createDirectories(dir.resolve("a"));
+        Files.write(dir.resolve("a/0.ts"), new byte[50]);
+        Files.write(dir.resolve("a/1.ts12345.tmp"), new byte[50]);
+
+        var cache = new SegmentCache(dir, 1000);
+        cache.load();
+
+        assertTrue(cache.contains("a/0.ts"));
+        assertEquals(1, cache.size());
+        assertEquals(50, cache.getBytes());
+        assertFalse(Files.exists(dir.resolve("a/1.ts12345.tmp")));
+    }
+
+    @Test
+    void openFilesCanBeReadAfterEviction() throws IOException {
+        var cache = new SegmentCache(dir, 100);
+        cache.load();
+        put(cache, "a/0.ts", 100);
+
+        try (var channel = cache.open("a/0.ts")) {
+            assertNotNull(channel);
+
+            // Un segmento nuevo expulsa al que se está enviando
+            put(cache, "a/1.ts", 100);
+            assertFalse(Files.exists(dir.resolve("a/0.ts")));
+            assertNull(cache.open("a/0.ts"));
+
+            var buffer = ByteBuffer.allocate(200);
+            while (channel.read(buffer) > 0) {
+                // Hasta el final del archivo
+            }
+            assertEquals(100, buffer.position());
+        }
+    }
+
+    private static boolean isCached(SegmentCache cache, String name) throws IOException {
+        try (var channel = cache.open(name)) {
+            return channel != null;
+        }
+    }
+
+    private static void put(SegmentCache cache, String name, int size) throws IOException {
+        var tmp = cache.createTempFile(name);
+        Files.write(tmp, new byte[size]);
+        cache.put(name, tmp);
+    }
+}
@@ -0,0 +1,103 @@
+package com.betanzos.cinemafamily.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubtitleCacheServiceTest {
+
+    private static final String SRT = "1\n00:00:01,000 --> 00:00:02,000\nHola\n";
+
+    @TempDir
+    Path dir;
+
+    private File srt;
+
+    @BeforeEach
+    void createSubtitle() throws IOException {
+        srt = Files.writeString(dir.resolve("Movie.srt"), SRT).toFile();
+    }
+
+    @Test
+    void convertedSubtitlesAreServedFromMemory() {
+        var registry = new SimpleMeterRegistry();
+        var service = service(registry);
+
+        var vtt = service.getConverted(srt).orElseThrow();
+        assertArrayEquals(vtt, service.getConverted(srt).orElseThrow());
+
+        assertEquals(1, service.getConversions());
+        assertEquals(1, service.getMemoryHits());
+        assertEquals(vtt.length, service.getMemoryBytes());
+
+        // Un único temporizador por formato, registrado al crear el servicio
+        var timer = registry.get("cinemafamily.subtitles.convert").tag("format", "srt").timer();
+        assertEquals(1, timer.count());
+        assertEquals(4, registry.find("cinemafamily.subtitles.convert").timers().size());
+    }
+
+    @Test
+    void convertedSubtitlesAreReadFromDiskAfterARestart() {
+        var vtt = service(new SimpleMeterRegistry()).getConverted(srt).orElseThrow();
+
+        var restarted = service(new SimpleMeterRegistry());
+        assertArrayEquals(vtt, restarted.getConverted(srt).orElseThrow());
+        assertEquals(0, restarted.getConversions());
+        assertEquals(1, restarted.getDiskHits());
+
+        restarted.getConverted(srt);
+        assertEquals(1, restarted.getMemoryHits());
+    }
+
+    @Test
+    void modifiedSubtitlesReplaceThePreviousVersion() throws IOException {
+        var service = service(new SimpleMeterRegistry());
+        service.getConverted(srt);
+        var etag = service.etag(srt);
+
+        Files.writeString(srt.toPath(), SRT.replace("Hola", "Adiós"));
+        Files.setLastModifiedTime(srt.toPath(), FileTime.fromMillis(srt.lastModified() + 10_000));
+
+        assertNotEquals(etag, service.etag(srt));
+        var vtt = new String(service.getConverted(srt).orElseThrow(), StandardCharsets.UTF_8);
+        assertTrue(vtt.contains("Adiós"));
+        assertEquals(2, service.getConversions());
+
+        // Solo queda la versión actual en disco
+        try (var files = Files.list(dir.resolve("cache"))) {
+            var names = files.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+            assertEquals(1, names.size());
+            assertEquals(service.etag(srt), "\"" + names.get(0).replace(".vtt", "") + "\"");
+        }
+    }
+
+    @Test
+    void vttFilesAreNotConverted() throws IOException {
+        var vtt = Files.writeString(dir.resolve("Movie.vtt"), "WEBVTT\n\n").toFile();
+
+        assertTrue(service(new SimpleMeterRegistry()).getConverted(vtt).isEmpty());
+    }
+
+    private SubtitleCacheService service(SimpleMeterRegistry registry) {
+        var service = new SubtitleCacheService(registry);
+        ReflectionTestUtils.setField(service, "cacheDirectory", dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(service, "memoryMaxBytes", 1024L * 1024);
+        ReflectionTestUtils.setField(service, "microDvdFps", 23.976);
+        return service;
+    }
+}
@@ -0,0 +1,62 @@
+package com.betanzos.cinemafamily.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void burstIsSentWithoutWaiting() {
+        var bucket = new TokenBucket(1000, 500, 0);
+
+        assertEquals(0, bucket.reserve(250, 0));
+        assertEquals(0, bucket.reserve(250, 0));
+        // Agotada la ráfaga, 250 bytes a 1000 bytes/s
+        assertEquals(SECOND / 4, bucket.reserve(250, 0));
+    }
+
+    @Test
+    void sustainedRateIsLimited() {
+        var bucket = new TokenBucket(1000, 0, 0);
+
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            now += bucket.reserve(100, now);
+        }
+
+        // Sin ráfaga cada bloque espera lo que tarda en enviarse
+        assertEquals(SECOND, now);
+    }
+
+    @Test
+    void idleTimeRefillsUpToTheBurst() {
+        var bucket = new TokenBucket(1000, 500, 0);
+        bucket.reserve(1500, 0);
+
+        // Un minuto después la cubeta vuelve a estar llena, pero nunca por encima de la ráfaga
+        long later = 60 * SECOND;
+        assertTrue(bucket.isIdle(later));
+        assertEquals(0, bucket.reserve(500, later));
+        assertEquals(SECOND / 10, bucket.reserve(100, later));
+    }
+
+    @Test
+    void reservationsAlternateBetweenStreams() {
+        var bucket = new TokenBucket(1000, 0, 0);
+
+        // Dos envíos que reservan de uno en uno obtienen la mitad de la velocidad cada uno
+        long a = bucket.reserve(100, 0);
+        long b = bucket.reserve(100, 0);
+        long a2 = bucket.reserve(100, a);
+        long b2 = bucket.reserve(100, b);
+
+        assertEquals(SECOND / 10, a);
+        assertEquals(2 * SECOND / 10, b);
+        assertEquals(3 * SECOND / 10, a + a2);
+        assertEquals(4 * SECOND / 10, b + b2);
+    }
+}
@@ -0,0 +1,364 @@
+package com.betanzos.cinemafamily.service;
+
+import com.betanzos.cinemafamily.utils.Util;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchProgressServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private Path log;
+    private String[] videos;
+
+    @BeforeEach
+    void createVideos() throws IOException {
+        log = dir.resolve("progress.log");
+        videos = new String[3];
+        for (int i = 0; i < videos.length; i++) {
+            var video = Files.write(dir.resolve("Episode " + i + ".mp4"), new byte[16]);
+            videos[i] = Util.pathToId(video.toFile());
+        }
+    }
+
+    @Test
+    void updatesAreWrittenInASingleBatch() {
+        var service = service();
+        for (int i = 0; i < 1000; i++) {
+            service.update(videos[i % videos.length], i, 3600);
+        }
+        service.flush();
+
+        assertEquals(1000, service.getUpdates());
+        assertEquals(1, service.getFlushes());
+        // Solo se escribe la última posición de cada video
+        assertEquals(videos.length, service.getRecordsWritten());
+        service.stop();
+
+        var reloaded = service();
+        assertEquals(999, reloaded.get(videos[0]).getPosition());
+        assertEquals(997, reloaded.get(videos[1]).getPosition());
+        assertEquals(998, reloaded.get(videos[2]).getPosition());
+        reloaded.stop();
+    }
+
+    @Test
+    void removedProgressIsNotReloaded() {
+        var service = service();
+        service.update(videos[0], 10, 3600);
+        service.update(videos[1], 20, 3600);
+        service.flush();
+        service.remove(videos[0]);
+        service.stop();
+
+        var reloaded = service();
+        assertNull(reloaded.get(videos[0]));
+        assertEquals(20, reloaded.get(videos[1]).getPosition());
+        reloaded.stop();
+    }
+
+    @Test
+    void logIsCompacted() {
+        var service = service();
+        for (int i = 0; i < 400; i++) {
+            for (var video : videos) {
+                service.update(video, i, 3600);
+            }
+            service.flush();
+        }
+
+        assertEquals(1, service.getCompactions());
+        assertTrue(service.getLogRecords() < 400);
+        service.stop();
+
+        var reloaded = service();
+        for (var video : videos) {
+            assertEquals(399, reloaded.get(video).getPosition());
+        }
+        reloaded.stop();
+    }
+
+    @Test
+    void incompleteLastRecordIsDiscarded() throws IOException {
+        var service = service();
+        service.update(videos[0], 10, 3600);
+        service.stop();
+
+        // Escritura interrumpida a mitad de un registro
+        Files.write(log, new byte[] {0, 3, 'a', 'b', 'c', 1, 2}, StandardOpenOption.APPEND);
+
+        var reloaded = service();
+        assertEquals(10, reloaded.get(videos[0]).getPosition());
+        assertEquals(1, reloaded.getCompactions());
+        reloaded.update(videos[1], 20, 3600);
+        reloaded.stop();
+
+        var again = service();
+        assertEquals(10, again.get(videos[0]).getPosition());
+        assertEquals(20, again.get(videos[1]).getPosition());
+        again.stop();
+    }
+
+    @Test
+    void failedWritesAreRetried() throws IOException {
+        var service = service();
+        service.update(videos[0], 10, 3600);
+        service.update(videos[1], 20, 3600);
+
+        // El directorio del registro no puede crearse (NAS no disponible)
+        var unavailable = Files.write(dir.resolve("unavailable"), new byte[0]);
+        ReflectionTestUtils.setField(service, "progressFile", unavailable.resolve("progress.log").toString());
+        service.flush();
+        assertEquals(0, service.getRecordsWritten());
+
+        service.update(videos[1], 30, 3600);
+        ReflectionTestUtils.setField(service, "progressFile", log.toString());
+        service.flush();
+        assertEquals(2, service.getRecordsWritten());
+        service.stop();
+
+        var reloaded = service();
+        assertEquals(10, reloaded.get(videos[0]).getPosition());
+        assertEquals(30, reloaded.get(videos[1]).getPosition());
+        reloaded.stop();
+    }
+
+    @Test
+    void incompleteWritesAreDiscardedBeforeTheRetry() throws IOException {
+        var service = service();
+        service.update(videos[0], 10, 3600);
+        service.flush();
+        long size = Files.size(log);
+
+        // El disco se llena a mitad de la escritura
+        service.update(videos[1], 20, 3600);
+        ReflectionTestUtils.setField(service, "channel", new FailingChannel(log, false));
+        service.flush();
+        assertEquals(size, Files.size(log));
+
+        service.flush();
+        assertEquals(2, service.getRecordsWritten());
+        service.stop();
+
+        var reloaded = service();
+        assertEquals(10, reloaded.get(videos[0]).getPosition());
+        assertEquals(20, reloaded.get(videos[1]).getPosition());
+        assertEquals(0, reloaded.getCompactions());
+        reloaded.stop();
+    }
+
+    @Test
+    void logIsRewrittenWhenAnIncompleteWriteCannotBeDiscarded() throws IOException {
+        var service = service();
+        service.update(videos[0], 10, 3600);
+        service.flush();
+
+        service.update(videos[1], 20, 3600);
+        ReflectionTestUtils.setField(service, "channel", new FailingChannel(log, true));
+        service.flush();
+
+        service.update(videos[2], 30, 3600);
+        service.flush();
+        assertEquals(1, service.getCompactions());
+        service.stop();
+
+        var reloaded = service();
+        assertEquals(10, reloaded.get(videos[0]).getPosition());
+        assertEquals(20, reloaded.get(videos[1]).getPosition());
+        assertEquals(30, reloaded.get(videos[2]).getPosition());
+        assertEquals(0, reloaded.getCompactions());
+        reloaded.stop();
+    }
+
+    @Test
+    void unwritablePathsDoNotStopTheLog() {
+        var service = service();
+        var longPath = dir.resolve("a".repeat(70_000) + ".mp4").toFile();
+        service.update(Util.pathToId(longPath), 10, 3600);
+        service.update(videos[0], 20, 3600);
+        service.flush();
+
+        assertEquals(1, service.getRecordsWritten());
+        service.stop();
+
+        var reloaded = service();
+        assertEquals(20, reloaded.get(videos[0]).getPosition());
+        reloaded.stop();
+    }
+
+    @Test
+    void creditsCountAsWatched() {
+        var service = service();
+
+        assertFalse(service.update(videos[0], 1000, 3600).isWatched());
+        assertEquals(1000, service.getResumePosition(videos[0]));
+        assertEquals(25, service.get(videos[0]).getPercent());
+
+        assertTrue(service.update(videos[0], 3500, 3600).isWatched());
+        assertEquals(0, service.getResumePosition(videos[0]));
+        assertEquals(100, service.get(videos[0]).getPercent());
+        service.stop();
+    }
+
+    @Test
+    void directoryVersionChangesWithWhatTheListingShows() {
+        var service = service();
+        long initial = service.getDirectoryVersion(dir.toFile());
+
+        service.update(videos[0], 0, 3600);
+        long started = service.getDirectoryVersion(dir.toFile());
+        assertTrue(started > initial);
+
+        // Dentro del mismo 5 % el listado no cambia
+        service.update(videos[0], 60, 3600);
+        assertEquals(started, service.getDirectoryVersion(dir.toFile()));
+
+        service.update(videos[0], 180, 3600);
+        assertTrue(service.getDirectoryVersion(dir.toFile()) > started);
+        service.stop();
+    }
+
+    private WatchProgressService service() {
+        var service = new WatchProgressService();
+        ReflectionTestUtils.setField(service, "progressFile", log.toString());
+        ReflectionTestUtils.setField(service, "flushInterval", 60_000L);
+        ReflectionTestUtils.setField(service, "compactionRatio", 4);
+        ReflectionTestUtils.setField(service, "watchedRatio", 0.95);
+        ReflectionTestUtils.setField(service, "watchedRemaining", 120.0);
+        service.start();
+
+        return service;
+    }
+
+    /**
+     * Registro en el que la primera escritura solo escribe la mitad de los datos antes de fallar.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        private final boolean failTruncate;
+        private boolean failed;
+
+        private FailingChannel(Path file, boolean failTruncate) throws IOException {
+            this.delegate = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.failTruncate = failTruncate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failed) {
+                return delegate.write(src);
+            }
+
+            failed = true;
+            var half = src.duplicate();
+            half.limit(src.position() + src.remaining() / 2);
+            delegate.write(half);
+            src.position(half.position());
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("Input/output error");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
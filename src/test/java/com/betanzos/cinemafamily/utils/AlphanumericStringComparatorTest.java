@@ -0,0 +1,104 @@
+package com.betanzos.cinemafamily.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlphanumericStringComparatorTest {
+
+    private final AlphanumericStringComparator comparator = new AlphanumericStringComparator();
+
+    @Test
+    void numbersAreComparedByValue() {
+        assertSorted(comparator, "Episode 2", "Episode 10", "Episode 100");
+        assertSorted(comparator, "S1E9", "S1E10", "S2E1");
+    }
+
+    @Test
+    void longDigitRunsDoNotOverflow() {
+        assertSorted(comparator,
+                "IMG_20190101123000999.jpg",
+                "IMG_20190101123001000.jpg",
+                "IMG_99999999999999999999999.jpg");
+    }
+
+    @Test
+    void leadingZerosOnlyBreakTies() {
+        assertSorted(comparator, "7", "07", "007", "8");
+        assertSorted(comparator, "1-01", "01-1", "2");
+    }
+
+    @Test
+    void prefixGoesFirst() {
+        assertSorted(comparator, "Movie", "Movie 1", "Movie 1 (extended)");
+    }
+
+    @Test
+    void ignoreCase() {
+        var ignoreCase = new AlphanumericStringComparator(true);
+
+        assertSorted(ignoreCase, "MOVIE 2", "movie 2", "Movie 3");
+        assertSorted(ignoreCase, "apple 2", "Apple 10", "banana");
+        assertTrue(comparator.compare("banana", "Apple") > 0);
+        assertTrue(comparator.compare("apple", "Banana") > 0);
+    }
+
+    @Test
+    void locale() {
+        var spanish = new AlphanumericStringComparator(Locale.forLanguageTag("es"));
+
+        assertSorted(spanish, "árbol 2", "Árbol 10", "barco", "nube", "ñu");
+    }
+
+    @Test
+    void sortKeysMatchComparator() {
+        var random = new Random(42);
+        var alphabet = "aAbB0123456789 -.ñÑ";
+        var strings = new ArrayList<String>();
+
+        for (int i = 0; i < 500; i++) {
+            var s = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                s.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            strings.add(s.toString());
+        }
+
+        for (var mode : List.of(comparator, new AlphanumericStringComparator(true),
+                new AlphanumericStringComparator(Locale.forLanguageTag("es")))) {
+            for (int i = 0; i < strings.size(); i++) {
+                var a = strings.get(i);
+                var b = strings.get((i * 31 + 7) % strings.size());
+
+                assertEquals(Integer.signum(mode.compare(a, b)),
+                        Integer.signum(mode.sortKey(a).compareTo(mode.sortKey(b))), a + " <> " + b);
+            }
+
+            var byComparator = new ArrayList<>(strings);
+            byComparator.sort(mode);
+            var byKeys = new ArrayList<>(strings);
+            mode.sort(byKeys, Function.identity());
+
+            for (int i = 0; i < strings.size(); i++) {
+                assertEquals(0, mode.compare(byComparator.get(i), byKeys.get(i)));
+            }
+        }
+    }
+
+    private static void assertSorted(AlphanumericStringComparator comparator, String... expected) {
+        for (int i = 0; i < expected.length - 1; i++) {
+            assertTrue(comparator.compare(expected[i], expected[i + 1]) < 0, expected[i] + " < " + expected[i + 1]);
+            assertTrue(comparator.compare(expected[i + 1], expected[i]) > 0, expected[i + 1] + " > " + expected[i]);
+            assertTrue(comparator.sortKey(expected[i]).compareTo(comparator.sortKey(expected[i + 1])) < 0,
+                    "key " + expected[i] + " < " + expected[i + 1]);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.betanzos.cinemafamily.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaProbeTest {
+
+    private static final int PAYLOAD = 8 * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mp4HeadersAreReadWithoutTheMediaData() throws IOException {
+        var file = Files.write(dir.resolve("Movie.mp4"), SyntheticMedia.mp4(PAYLOAD)).toFile();
+
+        var result = MediaProbe.probe(file);
+        var info = result.getInfo().orElseThrow();
+
+        assertEquals("video/mp4; codecs=\"avc1.64001F, mp4a.40.2\"", info.getMimeType());
+        assertEquals(5400, info.getDuration(), 0.001);
+        assertEquals(1920, info.getWidth());
+        assertEquals(1080, info.getHeight());
+        assertEquals("1080p", info.getResolution());
+        assertEquals(1, info.getAudioTracks().size());
+        assertEquals("spa", info.getAudioTracks().get(0).getLanguage());
+        assertEquals("tx3g", info.getSubtitleTracks().get(0).getCodec());
+        assertEquals("eng", info.getSubtitleTracks().get(0).getLanguage());
+
+        // Solo la cabecera de mdat y la caja moov
+        assertTrue(result.getBytesRead() < 64 * 1024, "Read " + result.getBytesRead() + " bytes");
+    }
+
+    @Test
+    void matroskaTracksAreFoundThroughTheSeekHead() throws IOException {
+        var file = Files.write(dir.resolve("Movie.webm"), SyntheticMedia.webm(PAYLOAD, "A_OPUS")).toFile();
+
+        var result = MediaProbe.probe(file);
+        var info = result.getInfo().orElseThrow();
+
+        assertEquals("video/webm; codecs=\"vp9, opus\"", info.getMimeType());
+        assertEquals(90, info.getDuration(), 0.001);
+        assertEquals("720p", info.getResolution());
+        assertEquals("eng", info.getAudioTracks().get(0).getLanguage());
+        assertEquals("S_TEXT/WEBVTT", info.getSubtitleTracks().get(0).getCodec());
+        assertEquals("spa", info.getSubtitleTracks().get(0).getLanguage());
+        assertTrue(result.getBytesRead() < 64 * 1024, "Read " + result.getBytesRead() + " bytes");
+    }
+
+    @Test
+    void containerIndexIsLocated() throws IOException {
+        var mp4 = SyntheticMedia.mp4(PAYLOAD);
+        var webm = SyntheticMedia.webm(PAYLOAD, "A_OPUS");
+
+        var moov = MediaProbe.indexRange(Files.write(dir.resolve("Movie.mp4"), mp4).toFile());
+        var cues = MediaProbe.indexRange(Files.write(dir.resolve("Movie.webm"), webm).toFile());
+
+        // Ambos índices van al final del archivo
+        assertEquals("moov", new String(mp4, (int) moov[0] + 4, 4, StandardCharsets.US_ASCII));
+        assertEquals(mp4.length, moov[1]);
+        assertEquals(0x1C, webm[(int) cues[0]]);
+        assertEquals(webm.length, cues[1]);
+        assertNull(MediaProbe.indexRange(Files.write(dir.resolve("Movie.avi"), new byte[64]).toFile()));
+    }
+
+    @Test
+    void unknownCodecsAreLeftOutOfTheMimeType() throws IOException {
+        var file = Files.write(dir.resolve("Movie.webm"), SyntheticMedia.webm(16, "A_DTS")).toFile();
+
+        var info = MediaProbe.probe(file).getInfo().orElseThrow();
+
+        assertNull(info.getAudioTracks().get(0).getCodec());
+        assertEquals("video/webm", info.getMimeType());
+    }
+
+    @Test
+    void otherFilesHaveNoMetadata() throws IOException {
+        var avi = Files.write(dir.resolve("Movie.avi"), "RIFF\0\0\0\0AVI LIST".getBytes()).toFile();
+        var empty = Files.write(dir.resolve("Empty.mp4"), new byte[0]).toFile();
+        var truncated = Files.write(dir.resolve("Truncated.mp4"),
+                java.util.Arrays.copyOf(SyntheticMedia.mp4(16), 200)).toFile();
+
+        assertFalse(MediaProbe.probe(avi).getInfo().isPresent());
+        assertFalse(MediaProbe.probe(empty).getInfo().isPresent());
+        assertFalse(MediaProbe.probe(truncated).getInfo().isPresent());
+    }
+}
@@ -0,0 +1,90 @@
+package com.betanzos.cinemafamily.utils;
+
+import fr.noop.subtitle.model.SubtitleParsingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SrtToVttConverterTest {
+
+    private static final String SRT = "1\n00:00:01,000 --> 00:00:02,500\nHola\nmundo\n\n2\n00:01:00,000 --> 00:01:01,000\nAdiós\n\n";
+    private static final String VTT = "WEBVTT\n\n"
+            + "1\n00:00:01.000 --> 00:00:02.500 \nHola\nmundo\n\n"
+            + "2\n00:01:00.000 --> 00:01:01.000 \nAdiós\n\n";
+
+    private final SrtToVttConverter converter = new SrtToVttConverter();
+
+    @Test
+    void utf8WithAndWithoutBom() throws Exception {
+        assertEquals(VTT, convert(SRT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(VTT, convert(concat(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+                SRT.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void utf16IsDetectedFromTheBom() throws Exception {
+        // getBytes(UTF_16) antepone el BOM big endian
+        assertEquals(VTT, convert(SRT.getBytes(StandardCharsets.UTF_16)));
+        assertEquals(VTT, convert(concat(new byte[] {(byte) 0xFF, (byte) 0xFE},
+                SRT.getBytes(StandardCharsets.UTF_16LE))));
+    }
+
+    @Test
+    void invalidUtf8FallsBackToWindows1252() throws Exception {
+        assertEquals(VTT, convert(SRT.getBytes(Charset.forName("windows-1252"))));
+    }
+
+    @Test
+    void allLineEndingsAreAccepted() throws Exception {
+        assertEquals(VTT, convert(SRT.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8)));
+        assertEquals(VTT, convert(SRT.replace("\n", "\r").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void lastCueWithoutTrailingBlankLine() throws Exception {
+        assertEquals(VTT, convert(SRT.strip().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(VTT, convert((SRT.strip() + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void malformedCueNumbersAreRejected() {
+        assertInvalid("one\n00:00:01,000 --> 00:00:02,000\nHola\n");
+        assertInvalid("12345678901\n00:00:01,000 --> 00:00:02,000\nHola\n");
+        // Falta la línea de tiempos del último cue
+        assertInvalid("1\n");
+    }
+
+    @Test
+    void malformedTimecodesAreRejected() {
+        assertInvalid("1\n00:00:01,000 -> 00:00:02,000\nHola\n");
+        assertInvalid("1\n00:00:01,000 --> 00:00:02\nHola\n");
+        assertInvalid("1\n00:00:01.000 --> 00:00:02,000\nHola\n");
+        assertInvalid("1\n00-00:01,000 --> 00:00:02,000\nHola\n");
+        assertInvalid("1\n00:00:01,000 --> 00:00;02,000\nHola\n");
+        assertInvalid("1\n00:00:01,000 --> 00:00:02,0a0\nHola\n");
+        assertInvalid("1\n00:00:01,000 --> 00:00:02,000 X1:10 X2:20\nHola\n");
+    }
+
+    private String convert(byte[] srt) throws Exception {
+        var out = new ByteArrayOutputStream();
+        converter.convert(new ByteArrayInputStream(srt), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private void assertInvalid(String srt) {
+        assertThrows(SubtitleParsingException.class, () -> convert(srt.getBytes(StandardCharsets.UTF_8)), srt);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        var result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
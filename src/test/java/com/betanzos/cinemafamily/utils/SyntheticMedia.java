@@ -0,0 +1,158 @@
+package com.betanzos.cinemafamily.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Construcción de archivos MP4 y Matroska mínimos, solo con las cabeceras que interpretan las sondas.
+ */
+public final class SyntheticMedia {
+    private SyntheticMedia() {}
+
+    /**
+     * MP4 de 90 minutos con video H.264 1920x1080, audio AAC-LC en español y subtítulos tx3g en inglés. La caja
+     * {@code moov} va detrás de {@code mdatBytes} bytes de datos.
+     */
+    public static byte[] mp4(int mdatBytes) {
+        var mvhd = fullBox("mvhd", ByteBuffer.allocate(96).putInt(0).putInt(0).putInt(1000).putInt(5_400_000).array());
+
+        var avcC = box("avcC", new byte[] {1, 0x64, 0x00, 0x1F, (byte) 0xFF});
+        var videoFields = ByteBuffer.allocate(78);
+        videoFields.putShort(24, (short) 1920).putShort(26, (short) 1080);
+        var avc1 = box("avc1", videoFields.array(), avcC);
+        var video = trak(1920, 1080, 0, "vide", avc1);
+
+        var esds = fullBox("esds", new byte[] {
+                0x03, 0x19, 0x00, 0x01, 0x00,
+                0x04, 0x11, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                0x05, 0x02, 0x12, 0x10});
+        var mp4a = box("mp4a", new byte[28], esds);
+        var audio = trak(0, 0, language("spa"), "soun", mp4a);
+
+        var tx3g = box("tx3g", new byte[38]);
+        var subtitles = trak(0, 0, language("eng"), "sbtl", tx3g);
+
+        return concat(
+                box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4], "isomavc1".getBytes(StandardCharsets.US_ASCII)),
+                box("mdat", new byte[mdatBytes]),
+                box("moov", mvhd, video, audio, subtitles));
+    }
+
+    /**
+     * WebM de 90 segundos con video VP9 1280x720, audio Opus (sin idioma, por lo que es inglés) y subtítulos
+     * WebVTT en español. {@code Tracks} y {@code Cues} van detrás de un cluster de {@code clusterBytes} bytes y se
+     * localizan con el {@code SeekHead}.
+     */
+    public static byte[] webm(int clusterBytes, String audioCodec) {
+        var header = ebml(0x1A45DFA3L, ebml(0x4282, "webm".getBytes(StandardCharsets.US_ASCII)));
+
+        var info = ebml(0x1549A966L,
+                ebml(0x2AD7B1, uint(1_000_000, 3)),
+                ebml(0x4489, ByteBuffer.allocate(8).putDouble(90_000.0).array()));
+        var cluster = ebml(0x1F43B675L, new byte[clusterBytes]);
+        var tracks = ebml(0x1654AE6BL,
+                ebml(0xAE,
+                        ebml(0x83, uint(1, 1)),
+                        ebml(0x86, "V_VP9".getBytes(StandardCharsets.US_ASCII)),
+                        ebml(0xE0, ebml(0xB0, uint(1280, 2)), ebml(0xBA, uint(720, 2)))),
+                ebml(0xAE,
+                        ebml(0x83, uint(2, 1)),
+                        ebml(0x86, audioCodec.getBytes(StandardCharsets.US_ASCII))),
+                ebml(0xAE,
+                        ebml(0x83, uint(0x11, 1)),
+                        ebml(0x86, "S_TEXT/WEBVTT".getBytes(StandardCharsets.US_ASCII)),
+                        ebml(0x22B59C, "spa".getBytes(StandardCharsets.US_ASCII))));
+
+        var cues = ebml(0x1C53BB6BL, new byte[64]);
+
+        // El SeekHead tiene siempre el mismo tamaño, por lo que las posiciones se conocen de antemano
+        int seekHeadSize = seekHead(0, 0).length;
+        long tracksPosition = seekHeadSize + info.length + cluster.length;
+        var seekHead = seekHead(tracksPosition, tracksPosition + tracks.length);
+
+        // Segmento de tamaño desconocido, como al grabar en directo
+        var segmentHeader = new byte[] {0x18, 0x53, (byte) 0x80, 0x67, 0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+        return concat(header, segmentHeader, seekHead, info, cluster, tracks, cues);
+    }
+
+    private static byte[] seekHead(long tracksPosition, long cuesPosition) {
+        return ebml(0x114D9B74L,
+                ebml(0x4DBB,
+                        ebml(0x53AB, uint(0x1654AE6BL, 4)),
+                        ebml(0x53AC, uint(tracksPosition, 8))),
+                ebml(0x4DBB,
+                        ebml(0x53AB, uint(0x1C53BB6BL, 4)),
+                        ebml(0x53AC, uint(cuesPosition, 8))));
+    }
+
+    private static byte[] trak(int width, int height, int language, String handler, byte[] sampleEntry) {
+        var tkhd = ByteBuffer.allocate(84);
+        tkhd.putInt(76, width << 16).putInt(80, height << 16);
+
+        var mdhd = ByteBuffer.allocate(24);
+        mdhd.putShort(20, (short) language);
+
+        var hdlr = ByteBuffer.allocate(25);
+        hdlr.position(8);
+        hdlr.put(handler.getBytes(StandardCharsets.US_ASCII));
+
+        var stsd = fullBox("stsd", ByteBuffer.allocate(4).putInt(1).array(), sampleEntry);
+
+        return box("trak",
+                box("tkhd", tkhd.array()),
+                box("mdia",
+                        box("mdhd", mdhd.array()),
+                        box("hdlr", hdlr.array()),
+                        box("minf", box("stbl", stsd, box("stsz", new byte[4096])))));
+    }
+
+    private static int language(String code) {
+        return ((code.charAt(0) - 0x60) << 10) | ((code.charAt(1) - 0x60) << 5) | (code.charAt(2) - 0x60);
+    }
+
+    private static byte[] box(String type, byte[]... content) {
+        var payload = concat(content);
+        return concat(ByteBuffer.allocate(8).putInt(8 + payload.length).put(type.getBytes(StandardCharsets.US_ASCII)).array(),
+                payload);
+    }
+
+    private static byte[] fullBox(String type, byte[]... content) {
+        var withVersion = new byte[content.length + 1][];
+        withVersion[0] = new byte[4];
+        System.arraycopy(content, 0, withVersion, 1, content.length);
+        return box(type, withVersion);
+    }
+
+    private static byte[] ebml(long id, byte[]... content) {
+        var payload = concat(content);
+        var idBytes = uint(id, id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1);
+
+        // Tamaño siempre en 8 bytes
+        var size = ByteBuffer.allocate(8).putLong(payload.length).array();
+        size[0] = 0x01;
+
+        return concat(idBytes, size, payload);
+    }
+
+    private static byte[] uint(long value, int length) {
+        var bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>= 8;
+        }
+
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        var out = new ByteArrayOutputStream();
+        for (var part : parts) {
+            out.writeBytes(part);
+        }
+
+        return out.toByteArray();
+    }
+}
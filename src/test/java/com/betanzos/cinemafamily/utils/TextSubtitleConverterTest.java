@@ -0,0 +1,35 @@
+package com.betanzos.cinemafamily.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TextSubtitleConverterTest {
+
+    @Test
+    void assDialoguesAreSortedAndStripped() throws Exception {
+        var ass = "[Script Info]\r\nTitle: Test\r\n\r\n"
+                + "[Events]\r\n"
+                + "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\r\n"
+                + "Dialogue: 0,0:00:05.50,0:00:07.00,Default,,0,0,0,,{\\pos(10,10)}Second, with comma\r\n"
+                + "Dialogue: 0,0:00:01.00,0:00:03.25,Default,,0,0,0,,{\\i1}Hola{\\i0}\\Nmundo <3\r\n";
+
+        assertEquals("WEBVTT\n\n"
+                        + "00:00:01.000 --> 00:00:03.250\n<i>Hola</i>\nmundo &lt;3\n\n"
+                        + "00:00:05.500 --> 00:00:07.000\nSecond, with comma\n\n",
+                new String(TextSubtitleConverter.assToVtt(ass.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void microDvdFramesUseDeclaredFrameRate() throws Exception {
+        var sub = "{1}{1}25.000\n{25}{75}{y:i}First|line\n{100}{150}/Second\n";
+
+        assertEquals("WEBVTT\n\n"
+                        + "00:00:01.000 --> 00:00:03.000\n<i>First\nline</i>\n\n"
+                        + "00:00:04.000 --> 00:00:06.000\n<i>Second</i>\n\n",
+                new String(TextSubtitleConverter.microDvdToVtt(sub.getBytes(StandardCharsets.UTF_8), 23.976),
+                        StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,59 @@
+package com.betanzos.cinemafamily.utils;
+
+import com.betanzos.cinemafamily.exception.FileNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UtilTest {
+
+    @Test
+    void idIsStableForTheSamePath() {
+        var file = new File("target/util-test/Movie.mp4");
+        var id = Util.pathToId(file);
+
+        assertEquals(11, id.length());
+        assertEquals(id, Util.pathToId(file));
+        assertEquals(id, Util.pathToId(new File("target/util-test/./other/../Movie.mp4")));
+        assertEquals(id, Util.pathToId(file.getAbsoluteFile()));
+        assertEquals(file.getAbsoluteFile(), Util.idToPath(id));
+        assertNotEquals(id, Util.pathToId(new File("target/util-test/Movie.mkv")));
+    }
+
+    @Test
+    void collidingPathsGetDifferentIds() {
+        var first = new File("target/util-test/first").getAbsoluteFile();
+        var second = new File("target/util-test/second").getAbsoluteFile();
+
+        // Ambas rutas tienen el mismo hash sin sal
+        var firstId = Util.register(first, salt -> "collision-" + salt);
+        var secondId = Util.register(second, salt -> "collision-" + salt);
+
+        assertEquals("collision-0", firstId);
+        assertEquals("collision-1", secondId);
+        assertEquals(first, Util.idToPath(firstId));
+        assertEquals(second, Util.idToPath(secondId));
+
+        // La segunda ruta conserva su identificador aunque la primera deje de estar registrada
+        Util.unregister(first);
+        assertEquals(secondId, Util.register(second, salt -> "collision-" + salt));
+        assertThrows(FileNotFoundException.class, () -> Util.idToPath(firstId));
+    }
+
+    @Test
+    void unregisteredIdsAreNotResolved() {
+        var file = new File("target/util-test/Removed.mp4");
+        var id = Util.pathToId(file);
+
+        Util.unregister(file);
+
+        assertThrows(FileNotFoundException.class, () -> Util.idToPath(id));
+        assertThrows(FileNotFoundException.class, () -> Util.idToPath("AAAAAAAAAAA"));
+        // Si vuelve a aparecer recupera el mismo identificador
+        assertEquals(id, Util.pathToId(file));
+    }
+}